@@ -1,7 +1,9 @@
 package com.transferwise.tasks;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Future;
 import lombok.Data;
@@ -12,7 +14,8 @@ public interface ITasksService {
   /**
    * Adds a task for execution.
    *
-   * <p>You can provide either data, which will be Json serialized into payload, or directly payload itself via dataString.
+   * <p>You can provide either data, which will be Json serialized into payload, or directly payload itself via dataString or dataBytes.
+   * Binary payloads given with dataBytes require {@link TasksProperties#isTaskDataInSeparateTable()}.
    *
    * <p>If you want a uniqueness guarantee, you can provide a unique task id (UUID) or unique key (not recommended for performance reasons).
    *
@@ -28,16 +31,40 @@ public interface ITasksService {
    */
   AddTaskResponse addTask(AddTaskRequest request);
 
+  /**
+   * Adds multiple tasks for execution, with the same semantics as {@link #addTask(AddTaskRequest)}.
+   *
+   * <p>Tasks and unique keys are written with batched statements and only one after commit hook is registered for triggering them, which
+   * makes it considerably cheaper than calling {@link #addTask(AddTaskRequest)} in a loop, when thousands of tasks are created in one
+   * transaction.
+   *
+   * <p>Responses are in the same order as requests and each of them tells, if that specific task was added or it already existed.
+   */
+  List<AddTaskResponse> addTasks(List<AddTaskRequest> requests);
+
   @Data
   @Accessors(chain = true)
+  @SuppressFBWarnings({"EI_EXPOSE_REP", "EI_EXPOSE_REP2"})
   class AddTaskRequest {
 
     private String type;
     private String subType;
     private Object data;
     private String dataString;
+    private byte[] dataBytes;
     private UUID taskId;
     private String key;
+    /**
+     * Tasks with the same ordering key are processed one at a time, in the order of creation, for example all tasks of one payout. Needs
+     * {@link com.transferwise.tasks.TasksProperties#isOrderingKeysEnabled()} and a concurrency policy supporting it, like
+     * {@link com.transferwise.tasks.handler.OrderingKeyTaskConcurrencyPolicy}.
+     *
+     * <p>The order holds for the first processing attempt only. A task waiting for a retry frees the key, so the next task with the same key
+     * can run before the retry.
+     *
+     * <p>Unlike {@link #key}, any number of tasks can have the same ordering key. At most 150 characters.
+     */
+    private String orderingKey;
     private ZonedDateTime runAfterTime;
     private Integer priority;
     private boolean warnWhenTaskExists;
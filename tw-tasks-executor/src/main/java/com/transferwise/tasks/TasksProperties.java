@@ -2,7 +2,9 @@ package com.transferwise.tasks;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.Errors;
@@ -32,6 +34,21 @@ public class TasksProperties {
    * How often do we check if any scheduled task should be executed now.
    */
   private Duration waitingTasksPollingInterval = Duration.ofSeconds(5);
+  /**
+   * Postgres only. Scheduling a task sends a notification with its due time, so the tasks resumer can resume scheduled tasks exactly when they
+   * are due, instead of polling after every {@link #waitingTasksPollingInterval}.
+   *
+   * <p>Every node keeps one database connection open for listening the notifications.
+   */
+  private boolean waitingTasksNotificationsEnabled = false;
+  /**
+   * Postgres channel to send the notifications about scheduled tasks to.
+   */
+  private String waitingTasksNotificationsChannel = "tw_task_waiting";
+  /**
+   * With notifications, the longest time the tasks resumer waits before checking scheduled tasks again. Protects against lost notifications.
+   */
+  private Duration waitingTasksMaxPollingInterval = Duration.ofMinutes(1);
   /**
    * Generic maximum time to wait for any lock, event or polling. It helps to make the system more robust and better debuggable. Usually you will
    * never want to change this.
@@ -47,6 +64,13 @@ public class TasksProperties {
    * How much do we load triggers from triggering topic into memory, aka look-ahead amount.
    */
   private int maxTriggersInMemory = 100000;
+  /**
+   * Triggers waiting in memory for longer than this are dispatched before any other triggers, regardless of their priority.
+   *
+   * <p>Prevents sustained load of higher priority tasks from starving lower priority tasks until those get stuck and resumed. Should be well below
+   * {@link #taskStuckTimeout}. Aging is turned off when not set.
+   */
+  private Duration triggerAgingThreshold = null;
   /**
    * How many triggers maximum do we retrieve from Kafka with one polling loop.
    */
@@ -119,6 +143,25 @@ public class TasksProperties {
    * In how many threads to we try to trigger tasks when using crappy Spring own transaction manager.
    */
   private int asyncTaskTriggeringsConcurrency = 10;
+  /**
+   * Write state changes of finished tasks (done, retry, error) asynchronously, coalescing changes from many tasks into one transaction with batched
+   * statements. Frees task executor threads faster and considerably reduces commits count for short tasks.
+   *
+   * <p>Only applies to non-transactional synchronous task processors, as transactional ones have to change the state in their own transaction.
+   */
+  private boolean asyncTaskCompletion = false;
+  /**
+   * Tied to the previous option. How many state changes can wait for writing, before they are written synchronously by the task executor threads.
+   */
+  private int maxAsyncTaskCompletions = 10000;
+  /**
+   * Tied to asyncTaskCompletion. Maximum number of state changes written in one transaction.
+   */
+  private int asyncTaskCompletionsBatchSize = 100;
+  /**
+   * Tied to asyncTaskCompletion. Maximum time a state change waits for other ones to be written together with it.
+   */
+  private Duration asyncTaskCompletionsMaxDelay = Duration.ofMillis(5);
   /**
    * Minimum task priority allowed.
    */
@@ -148,6 +191,21 @@ public class TasksProperties {
    * situation. Can use TCP/IP flow control algorithms.
    */
   private int tasksHistoryDeletingBatchSize = 150;
+  /**
+   * Expects {@link #taskTableName} to be range partitioned by `time_created`, see the db.tw-tasks-*-partitioned.xml changelogs.
+   *
+   * <p>Tasks cleaner then creates partitions ahead of time and drops expired partitions as a whole. Rows are deleted only from expired
+   * partitions, which still have unfinished tasks in them.
+   */
+  private boolean taskTablePartitioned = false;
+  /**
+   * Range of `time_created` covered by one partition.
+   */
+  private Duration taskTablePartitionInterval = Duration.ofDays(1);
+  /**
+   * How many partitions to keep created for future tasks. New tasks end up in the catch-all partition when it runs out.
+   */
+  private int taskTablePartitionsAhead = 3;
 
   //TODO: This does not make sense as generic parameter.
   //      taskhandler should provide this info programmatically.
@@ -191,6 +249,35 @@ public class TasksProperties {
 
   private String taskTableName = "tw_task";
   private String uniqueTaskKeyTableName = "unique_tw_task_key";
+  private String taskDataTableName = "tw_task_data";
+
+  /**
+   * Keeps task payloads in a separate table ({@link #taskDataTableName}), so state changes of a task only touch a narrow row. Helps a lot with
+   * MySQL default binlog settings, where every update of a task would otherwise log the whole payload.
+   *
+   * <p>The payload is loaded only when a task processor asks for it.
+   *
+   * <p>Tasks created before enabling it keep working, but tasks created while it is enabled will lose their payloads when it is disabled again.
+   */
+  private boolean taskDataInSeparateTable = false;
+
+  /**
+   * Codecs to store payloads with, by task type. For example `SendToKafka: lz4`.
+   *
+   * <p>Built in codecs are `raw`, `deflate`, `lz4` and `zstd`. Additional ones can be registered as
+   * {@link com.transferwise.tasks.dao.codecs.ITaskDataCodec} beans.
+   *
+   * <p>Requires {@link #taskDataInSeparateTable}. Changing the codec of a type affects only new tasks.
+   */
+  private Map<String, String> taskDataCodecs = new HashMap<>();
+
+  /**
+   * Stores `AddTaskRequest.orderingKey` in the `ordering_key` column of the task table, added by the Liquibase changelogs.
+   *
+   * <p>Keyed triggers are sent to Kafka with the ordering key as the message key, so all tasks with the same key are processed by the same
+   * node, where the concurrency policy can serialize them.
+   */
+  private boolean orderingKeysEnabled = false;
 
   /**
    * For extremely latency sensitive scenarios or for tests, we allow to trigger directly in the same process, instead of going through the kafka
@@ -198,6 +285,34 @@ public class TasksProperties {
    * implementation instead of hacking it into Kafka one.
    */
   private boolean triggerInSameProcess;
+  /**
+   * Triggers a task in the same process, instead of going through Kafka, when its bucket has less than this many triggers in memory and the
+   * task's concurrency policy has free space for it. Cuts the triggering latency of lightly loaded services from a Kafka round trip to almost
+   * nothing, while still spreading the load over the cluster when busy.
+   *
+   * <p>Turned off with 0. Needs a concurrency policy implementing `ITaskConcurrencyPolicy.hasSpaceForTask`.
+   */
+  private int triggerInSameProcessWhenIdleThreshold = 0;
+  /**
+   * Format of trigger messages sent to Kafka.
+   *
+   * <p>BINARY is several times smaller and cheaper to encode and decode than JSON. Consumers read both formats, so for a rolling upgrade, deploy the
+   * new version everywhere first and only then switch the format.
+   */
+  private TriggerMessageFormat triggerMessageFormat = TriggerMessageFormat.JSON;
+
+  /**
+   * KAFKA sends a trigger message per task through Kafka topics.
+   *
+   * <p>DATABASE makes every node claim submitted tasks directly from the tasks table, using `select ... for update skip locked`. It removes Kafka
+   * from the triggering path, which suits small deployments. Requires MySQL 8, MariaDB 10.6 or Postgres 9.5.
+   */
+  private TriggeringType triggeringType = TriggeringType.KAFKA;
+  /**
+   * With DATABASE triggering, how long to wait before claiming again, when the previous claim did not fill the batch. Tasks added in the same node
+   * wake the poller up immediately.
+   */
+  private Duration databaseTriggeringPollingInterval = Duration.ofMillis(500);
 
   /**
    * Just to allow `ignoreUnknownFields` work.
@@ -224,10 +339,32 @@ public class TasksProperties {
    */
   private Duration interruptTasksAfterShutdownTime = null;
 
+  /**
+   * Threads task processors and task grabbings are run on.
+   *
+   * <p>VIRTUAL_THREADS runs them on virtual threads, when the JDK supports those (21+), avoiding an OS thread per concurrently processed task.
+   * Suits mostly blocking, I/O-bound processors. Falls back to PLATFORM_THREADS on older JDKs.
+   *
+   * <p>Can be overridden per bucket in {@link com.transferwise.tasks.buckets.BucketProperties}.
+   */
+  private ExecutorMode taskExecutorMode = ExecutorMode.PLATFORM_THREADS;
+
   public enum DbType {
     MYSQL, POSTGRES
   }
 
+  public enum TriggeringType {
+    KAFKA, DATABASE
+  }
+
+  public enum ExecutorMode {
+    PLATFORM_THREADS, VIRTUAL_THREADS
+  }
+
+  public enum TriggerMessageFormat {
+    JSON, BINARY
+  }
+
   public static class Validator implements org.springframework.validation.Validator {
 
     @Override
@@ -21,6 +21,8 @@ import com.transferwise.tasks.triggering.ITasksExecutionTriggerer;
 import com.transferwise.tasks.utils.JsonUtils;
 import com.transferwise.tasks.utils.LogUtils;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -36,6 +38,11 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
 @Slf4j
 public class TasksService implements ITasksService, GracefulShutdownStrategy {
 
+  /**
+   * Size of the `ordering_key` column in MySQL.
+   */
+  private static final int MAX_ORDERING_KEY_LENGTH = 150;
+
   @Autowired
   private ITaskDao taskDao;
   @Autowired
@@ -76,57 +83,113 @@ public class TasksService implements ITasksService, GracefulShutdownStrategy {
     return MdcContext.with(() -> {
       MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), new TaskVersionId(request.getTaskId(), 0));
       ZonedDateTime now = ZonedDateTime.now(ClockHolder.getClock());
-      TaskStatus status = request.getRunAfterTime() == null || !request.getRunAfterTime().isAfter(now) ? TaskStatus.SUBMITTED : TaskStatus.WAITING;
+      ITaskDao.InsertTaskRequest insertTaskRequest = toInsertTaskRequest(request, now);
+      ITaskDao.InsertTaskResponse insertTaskResponse = taskDao.insertTask(insertTaskRequest);
+
+      AddTaskResponse response = handleInsertTaskResponse(request, insertTaskRequest, insertTaskResponse);
+      if (response.getResult() == AddTaskResponse.Result.OK && insertTaskRequest.getStatus() == TaskStatus.SUBMITTED) {
+        triggerTask(toBaseTask(insertTaskRequest, response));
+      }
+      return response;
+    });
+  }
 
-      int priority = priorityManager.normalize(request.getPriority());
+  @Override
+  @Trace
+  @Transactional(rollbackFor = Exception.class)
+  public List<AddTaskResponse> addTasks(List<AddTaskRequest> requests) {
+    return MdcContext.with(() -> {
+      ZonedDateTime now = ZonedDateTime.now(ClockHolder.getClock());
+      List<ITaskDao.InsertTaskRequest> insertTaskRequests = new ArrayList<>(requests.size());
+      for (AddTaskRequest request : requests) {
+        insertTaskRequests.add(toInsertTaskRequest(request, now));
+      }
 
-      String data;
-      if (request.getDataString() == null) {
-        Object dataObj = request.getData();
-        if (requestIdHolder != null && dataObj instanceof IWithXRequestId) {
-          IWithXRequestId withXRequestId = (IWithXRequestId) dataObj;
+      List<ITaskDao.InsertTaskResponse> insertTaskResponses = taskDao.insertTasks(insertTaskRequests);
 
-          if (withXRequestId.getXRequestId() == null) {
-            withXRequestId.setXRequestId(requestIdHolder.current());
-          }
+      List<AddTaskResponse> responses = new ArrayList<>(requests.size());
+      List<BaseTask> tasksToTrigger = new ArrayList<>();
+      for (int i = 0; i < requests.size(); i++) {
+        ITaskDao.InsertTaskRequest insertTaskRequest = insertTaskRequests.get(i);
+        AddTaskResponse response = handleInsertTaskResponse(requests.get(i), insertTaskRequest, insertTaskResponses.get(i));
+        if (response.getResult() == AddTaskResponse.Result.OK && insertTaskRequest.getStatus() == TaskStatus.SUBMITTED) {
+          tasksToTrigger.add(toBaseTask(insertTaskRequest, response));
         }
-        data = JsonUtils.toJson(objectMapper, dataObj);
-      } else {
-        data = request.getDataString();
+        responses.add(response);
       }
 
-      if (StringUtils.isEmpty(StringUtils.trim(request.getType()))) {
-        throw new IllegalStateException("Task type is mandatory, but '" + request.getType() + "' was provided.");
+      if (!tasksToTrigger.isEmpty()) {
+        triggerTasks(tasksToTrigger);
       }
+      return responses;
+    });
+  }
+
+  protected ITaskDao.InsertTaskRequest toInsertTaskRequest(AddTaskRequest request, ZonedDateTime now) {
+    if (request.getOrderingKey() != null && !tasksProperties.isOrderingKeysEnabled()) {
+      throw new IllegalStateException("Task ordering key was provided, but ordering keys are not enabled.");
+    }
+    if (request.getOrderingKey() != null && request.getOrderingKey().length() > MAX_ORDERING_KEY_LENGTH) {
+      throw new IllegalStateException("Task ordering key can not be longer than " + MAX_ORDERING_KEY_LENGTH + " characters.");
+    }
+
+    TaskStatus status = request.getRunAfterTime() == null || !request.getRunAfterTime().isAfter(now) ? TaskStatus.SUBMITTED : TaskStatus.WAITING;
+
+    int priority = priorityManager.normalize(request.getPriority());
 
-      ZonedDateTime maxStuckTime =
-          request.getExpectedQueueTime() == null ? now.plus(tasksProperties.getTaskStuckTimeout()) : now.plus(request.getExpectedQueueTime());
-      ITaskDao.InsertTaskResponse insertTaskResponse = taskDao.insertTask(
-          new ITaskDao.InsertTaskRequest().setData(data).setKey(request.getKey())
-              .setRunAfterTime(request.getRunAfterTime())
-              .setSubType(request.getSubType())
-              .setType(request.getType()).setTaskId(request.getTaskId())
-              .setMaxStuckTime(maxStuckTime).setStatus(status).setPriority(priority));
-
-      if (!insertTaskResponse.isInserted()) {
-        meterHelper.registerDuplicateTask(request.getType(), !request.isWarnWhenTaskExists());
-        if (request.isWarnWhenTaskExists()) {
-          log.warn("Task with uuid '" + request.getTaskId() + "'"
-              + (request.getKey() == null ? "" : " and key '" + request.getKey() + "'")
-              + " already exists (type " + request.getType() + ", subType " + request.getSubType() + ").");
+    String data;
+    if (request.getDataBytes() != null) {
+      data = null;
+    } else if (request.getDataString() == null) {
+      Object dataObj = request.getData();
+      if (requestIdHolder != null && dataObj instanceof IWithXRequestId) {
+        IWithXRequestId withXRequestId = (IWithXRequestId) dataObj;
+
+        if (withXRequestId.getXRequestId() == null) {
+          withXRequestId.setXRequestId(requestIdHolder.current());
         }
-        return new AddTaskResponse().setResult(AddTaskResponse.Result.ALREADY_EXISTS);
       }
+      data = JsonUtils.toJson(objectMapper, dataObj);
+    } else {
+      data = request.getDataString();
+    }
+
+    if (StringUtils.isEmpty(StringUtils.trim(request.getType()))) {
+      throw new IllegalStateException("Task type is mandatory, but '" + request.getType() + "' was provided.");
+    }
 
-      final UUID taskId = insertTaskResponse.getTaskId();
-      MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), new TaskVersionId(taskId, 0));
-      log.debug("Task '{}' created with status {}.", taskId, status);
-      if (status == TaskStatus.SUBMITTED) {
-        triggerTask(new BaseTask().setId(taskId).setType(request.getType()).setPriority(priority));
+    ZonedDateTime maxStuckTime =
+        request.getExpectedQueueTime() == null ? now.plus(tasksProperties.getTaskStuckTimeout()) : now.plus(request.getExpectedQueueTime());
+    return new ITaskDao.InsertTaskRequest().setData(data).setDataBytes(request.getDataBytes()).setKey(request.getKey())
+        .setOrderingKey(request.getOrderingKey())
+        .setRunAfterTime(request.getRunAfterTime())
+        .setSubType(request.getSubType())
+        .setType(request.getType()).setTaskId(request.getTaskId())
+        .setMaxStuckTime(maxStuckTime).setStatus(status).setPriority(priority);
+  }
+
+  protected AddTaskResponse handleInsertTaskResponse(AddTaskRequest request, ITaskDao.InsertTaskRequest insertTaskRequest,
+      ITaskDao.InsertTaskResponse insertTaskResponse) {
+    if (!insertTaskResponse.isInserted()) {
+      meterHelper.registerDuplicateTask(request.getType(), !request.isWarnWhenTaskExists());
+      if (request.isWarnWhenTaskExists()) {
+        log.warn("Task with uuid '" + request.getTaskId() + "'"
+            + (request.getKey() == null ? "" : " and key '" + request.getKey() + "'")
+            + " already exists (type " + request.getType() + ", subType " + request.getSubType() + ").");
       }
+      return new AddTaskResponse().setResult(AddTaskResponse.Result.ALREADY_EXISTS);
+    }
 
-      return new AddTaskResponse().setResult(AddTaskResponse.Result.OK).setTaskId(taskId);
-    });
+    final UUID taskId = insertTaskResponse.getTaskId();
+    MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), new TaskVersionId(taskId, 0));
+    log.debug("Task '{}' created with status {}.", taskId, insertTaskRequest.getStatus());
+
+    return new AddTaskResponse().setResult(AddTaskResponse.Result.OK).setTaskId(taskId);
+  }
+
+  protected BaseTask toBaseTask(ITaskDao.InsertTaskRequest insertTaskRequest, AddTaskResponse response) {
+    return new BaseTask().setId(response.getTaskId()).setType(insertTaskRequest.getType()).setPriority(insertTaskRequest.getPriority())
+        .setOrderingKey(insertTaskRequest.getOrderingKey());
   }
 
   @Override
@@ -216,53 +279,70 @@ public class TasksService implements ITasksService, GracefulShutdownStrategy {
     TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
       @Override
       public void afterCommit() {
-        Runnable triggeringLogic = () -> {
-          activeAfterCommitTasks.incrementAndGet();
+        triggerTaskAfterCommit(task);
+      }
+    });
+  }
+
+  /**
+   * Same as {@link #triggerTask(BaseTask)}, but only one after commit hook is registered for all the tasks.
+   */
+  protected void triggerTasks(List<BaseTask> tasks) {
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+      @Override
+      public void afterCommit() {
+        for (BaseTask task : tasks) {
+          triggerTaskAfterCommit(task);
+        }
+      }
+    });
+  }
+
+  protected void triggerTaskAfterCommit(BaseTask task) {
+    Runnable triggeringLogic = () -> {
+      activeAfterCommitTasks.incrementAndGet();
+      try {
+        MdcContext.with(() -> {
+          MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), task.getVersionId());
           try {
-            MdcContext.with(() -> {
-              MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), task.getVersionId());
-              try {
-                // TODO: If trigger would not need a database connection or at least no new transaction, deadlock situation could be prevented.
-                // TODO: Do we want to mark NEW tasks immediately as SUBMITTED and then even remove the separate SUBMITTED state?
-                // TODO: We probably still need SUBMITTED to separate NEW and WAITING.
-                tasksExecutionTriggerer.trigger(task);
-                if (log.isDebugEnabled()) {
-                  log.debug("Task {} triggered. AfterCommit queue size is {}.", LogUtils.asParameter(task.getVersionId()),
-                      inProgressAfterCommitTasks.get());
-                }
-              } catch (Throwable t) {
-                log.error("Triggering task '" + task.getVersionId() + "' failed.", t);
-              }
-            });
+            // TODO: If trigger would not need a database connection or at least no new transaction, deadlock situation could be prevented.
+            // TODO: Do we want to mark NEW tasks immediately as SUBMITTED and then even remove the separate SUBMITTED state?
+            // TODO: We probably still need SUBMITTED to separate NEW and WAITING.
+            tasksExecutionTriggerer.trigger(task);
+            if (log.isDebugEnabled()) {
+              log.debug("Task {} triggered. AfterCommit queue size is {}.", LogUtils.asParameter(task.getVersionId()),
+                  inProgressAfterCommitTasks.get());
+            }
           } catch (Throwable t) {
-            log.error(t.getMessage(), t);
-          } finally {
-            inProgressAfterCommitTasks.decrementAndGet();
-            activeAfterCommitTasks.decrementAndGet();
+            log.error("Triggering task '" + task.getVersionId() + "' failed.", t);
           }
-        };
-        if (afterCommitExecutorService == null) {
-          inProgressAfterCommitTasks.incrementAndGet();
+        });
+      } catch (Throwable t) {
+        log.error(t.getMessage(), t);
+      } finally {
+        inProgressAfterCommitTasks.decrementAndGet();
+        activeAfterCommitTasks.decrementAndGet();
+      }
+    };
+    if (afterCommitExecutorService == null) {
+      inProgressAfterCommitTasks.incrementAndGet();
+      triggeringLogic.run();
+    } else {
+      if (inProgressAfterCommitTasks.incrementAndGet() >= tasksProperties.getMaxAsyncTaskTriggerings()) {
+        // Need to ignore, if we wait for empty space, we can create deadlock with database resources.
+        log.warn("Task {} was not triggered, because resources have been exhausted.", LogUtils.asParameter(task.getVersionId()));
+        inProgressAfterCommitTasks.decrementAndGet();
+        return;
+      }
+      afterCommitExecutorService.submit(new Runnable() {
+        @Override
+        @Trace(dispatcher = true)
+        public void run() {
+          NewRelic.setTransactionName("TwTasksEngine", "Triggering");
           triggeringLogic.run();
-        } else {
-          if (inProgressAfterCommitTasks.incrementAndGet() >= tasksProperties.getMaxAsyncTaskTriggerings()) {
-            // Need to ignore, if we wait for empty space, we can create deadlock with database resources.
-            log.warn("Task {} was not triggered, because resources have been exhausted.", LogUtils.asParameter(task.getVersionId()));
-            inProgressAfterCommitTasks.decrementAndGet();
-            return;
-          }
-          afterCommitExecutorService.submit(new Runnable() {
-            @Override
-            @Trace(dispatcher = true)
-            public void run() {
-              NewRelic.setTransactionName("TwTasksEngine", "Triggering");
-              triggeringLogic.run();
-            }
-          });
         }
-      }
-    });
-
+      });
+    }
   }
 
   @Override
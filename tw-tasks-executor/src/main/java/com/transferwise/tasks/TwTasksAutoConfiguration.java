@@ -7,11 +7,19 @@ import com.transferwise.common.baseutils.tracing.IXRequestIdHolder;
 import com.transferwise.common.baseutils.transactionsmanagement.TransactionsConfiguration;
 import com.transferwise.common.gracefulshutdown.GracefulShutdowner;
 import com.transferwise.tasks.buckets.BucketsManager;
+import com.transferwise.tasks.cleaning.PartitionDroppingTasksCleaner;
 import com.transferwise.tasks.cleaning.TasksCleaner;
 import com.transferwise.tasks.config.TwTasksKafkaConfiguration;
 import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.dao.ITaskNotificationsListener;
+import com.transferwise.tasks.dao.ITaskPartitionsDao;
 import com.transferwise.tasks.dao.MySqlTaskDao;
+import com.transferwise.tasks.dao.MySqlTaskPartitionsDao;
 import com.transferwise.tasks.dao.PostgresTaskDao;
+import com.transferwise.tasks.dao.PostgresTaskNotificationsListener;
+import com.transferwise.tasks.dao.PostgresTaskPartitionsDao;
+import com.transferwise.tasks.dao.codecs.ITaskDataCodecRegistry;
+import com.transferwise.tasks.dao.codecs.TaskDataCodecRegistry;
 import com.transferwise.tasks.handler.TaskHandlerRegistry;
 import com.transferwise.tasks.handler.interfaces.ITaskHandlerRegistry;
 import com.transferwise.tasks.health.ClusterWideTasksStateMonitor;
@@ -34,9 +42,11 @@ import com.transferwise.tasks.management.TasksManagementPortController;
 import com.transferwise.tasks.management.TasksManagementService;
 import com.transferwise.tasks.processing.GlobalProcessingState;
 import com.transferwise.tasks.processing.ITasksProcessingService;
+import com.transferwise.tasks.processing.TaskCompletionWriter;
 import com.transferwise.tasks.processing.TasksProcessingService;
 import com.transferwise.tasks.stucktasks.ITasksResumer;
 import com.transferwise.tasks.stucktasks.TasksResumer;
+import com.transferwise.tasks.triggering.DatabaseTasksExecutionTriggerer;
 import com.transferwise.tasks.triggering.ITasksExecutionTriggerer;
 import com.transferwise.tasks.triggering.KafkaTasksExecutionTriggerer;
 import io.micrometer.core.instrument.MeterRegistry;
@@ -108,6 +118,20 @@ public class TwTasksAutoConfiguration {
     return new PostgresTaskDao(twTasksDataSourceProvider.getDataSource());
   }
 
+  @Bean
+  @ConditionalOnMissingBean(ITaskPartitionsDao.class)
+  @ConditionalOnProperty(value = "tw-tasks.core.db-type", havingValue = "POSTGRES")
+  public ITaskPartitionsDao twTasksPostgresTaskPartitionsDao(TwTasksDataSourceProvider twTasksDataSourceProvider) {
+    return new PostgresTaskPartitionsDao(twTasksDataSourceProvider.getDataSource());
+  }
+
+  @Bean
+  @ConditionalOnMissingBean(ITaskNotificationsListener.class)
+  @ConditionalOnProperty(value = "tw-tasks.core.db-type", havingValue = "POSTGRES")
+  public PostgresTaskNotificationsListener twTasksPostgresTaskNotificationsListener(TwTasksDataSourceProvider twTasksDataSourceProvider) {
+    return new PostgresTaskNotificationsListener(twTasksDataSourceProvider.getDataSource());
+  }
+
   @Bean
   @ConditionalOnMissingBean(ITaskDao.class)
   @ConditionalOnProperty(value = "tw-tasks.core.db-type", havingValue = "MYSQL")
@@ -115,6 +139,13 @@ public class TwTasksAutoConfiguration {
     return new MySqlTaskDao(twTasksDataSourceProvider.getDataSource());
   }
 
+  @Bean
+  @ConditionalOnMissingBean(ITaskPartitionsDao.class)
+  @ConditionalOnProperty(value = "tw-tasks.core.db-type", havingValue = "MYSQL")
+  public ITaskPartitionsDao twTasksMysqlTaskPartitionsDao(TwTasksDataSourceProvider twTasksDataSourceProvider) {
+    return new MySqlTaskPartitionsDao(twTasksDataSourceProvider.getDataSource());
+  }
+
   @Bean
   public ToKafkaSenderService twTasksToKafkaSenderService(
       ObjectMapper objectMapper, ITasksService taskService, ToKafkaProperties properties,
@@ -128,12 +159,31 @@ public class TwTasksAutoConfiguration {
     return new TasksProcessingService();
   }
 
+  @Bean
+  @ConditionalOnMissingBean(ITaskDataCodecRegistry.class)
+  public TaskDataCodecRegistry twTasksTaskDataCodecRegistry() {
+    return new TaskDataCodecRegistry();
+  }
+
+  @Bean
+  public TaskCompletionWriter twTasksTaskCompletionWriter() {
+    return new TaskCompletionWriter();
+  }
+
   @Bean
   @ConditionalOnMissingBean(ITasksExecutionTriggerer.class)
+  @ConditionalOnProperty(value = "tw-tasks.core.triggering-type", havingValue = "KAFKA", matchIfMissing = true)
   public KafkaTasksExecutionTriggerer twTasksTasksExecutionTriggerer() {
     return new KafkaTasksExecutionTriggerer();
   }
 
+  @Bean
+  @ConditionalOnMissingBean(ITasksExecutionTriggerer.class)
+  @ConditionalOnProperty(value = "tw-tasks.core.triggering-type", havingValue = "DATABASE")
+  public DatabaseTasksExecutionTriggerer twTasksDatabaseTasksExecutionTriggerer() {
+    return new DatabaseTasksExecutionTriggerer();
+  }
+
   @Bean
   @ConditionalOnMissingBean(ITasksResumer.class)
   public TasksResumer twTasksTasksResumer(
@@ -207,10 +257,17 @@ public class TwTasksAutoConfiguration {
   }
 
   @Bean
+  @ConditionalOnProperty(value = "tw-tasks.core.task-table-partitioned", havingValue = "false", matchIfMissing = true)
   public TasksCleaner twTasksCleaner() {
     return new TasksCleaner();
   }
 
+  @Bean
+  @ConditionalOnProperty(value = "tw-tasks.core.task-table-partitioned", havingValue = "true")
+  public PartitionDroppingTasksCleaner twTasksPartitionDroppingTasksCleaner() {
+    return new PartitionDroppingTasksCleaner();
+  }
+
   @Bean
   @SuppressWarnings("rawtypes")
   public CoreKafkaListener twTasksCoreKafkaListener() {
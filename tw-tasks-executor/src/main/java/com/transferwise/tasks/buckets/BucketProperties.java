@@ -1,6 +1,7 @@
 package com.transferwise.tasks.buckets;
 
 import com.transferwise.common.baseutils.ExceptionUtils;
+import com.transferwise.tasks.TasksProperties;
 import java.time.Duration;
 import lombok.Data;
 import lombok.experimental.Accessors;
@@ -23,6 +24,7 @@ public class BucketProperties {
   private String autoResetOffsetTo;
   private Integer triggersFetchSize;
   private Boolean triggerInSameProcess;
+  private Integer triggerInSameProcessWhenIdleThreshold;
   /**
    * The more buckets or cluster nodes you have, the lower you probably want to have this.
    *
@@ -30,9 +32,44 @@ public class BucketProperties {
    * But if you have more nodes or lower load, this starts mattering less and less.
    */
   private int taskGrabbingConcurrency = 10;
+  /**
+   * Maximum number of tasks grabbed with one database round trip.
+   *
+   * <p>With values above 1, tasks which have got a processing slot are collected for up to {@link #taskGrabbingMaxBatchWait} and then
+   * grabbed together. One batch takes one slot of {@link #taskGrabbingConcurrency}.
+   *
+   * <p>Helps under heavy load, when grabbing tasks one by one is the bottleneck. Under light load it just adds latency, so it is disabled
+   * by default.
+   */
+  private int taskGrabbingMaxBatchSize = 1;
+  /**
+   * How long tasks are collected into a grabbing batch, before it is grabbed even when not full.
+   */
+  private Duration taskGrabbingMaxBatchWait = Duration.ofMillis(5);
 
   private Boolean autoStartProcessing;
 
+  private TasksProperties.ExecutorMode taskExecutorMode;
+  /**
+   * Gives the bucket its own task processing and grabbing executors, so a slow bucket can not starve others sharing the node. Tasks are
+   * processed on at most this many threads. When not set, the bucket shares executors with other buckets, creating threads as needed.
+   *
+   * <p>Applies only with {@link TasksProperties.ExecutorMode#PLATFORM_THREADS}.
+   */
+  private Integer taskExecutorMaxThreads;
+  /**
+   * Threads kept around even when idle, defaults to {@link #taskExecutorMaxThreads}. Threads above it are only started when the queue is full.
+   */
+  private Integer taskExecutorCoreThreads;
+  /**
+   * How many grabbed tasks can wait for a processing thread.
+   */
+  private int taskExecutorQueueSize = 100;
+  /**
+   * How long to wait for space in a full queue. After that the task is rejected and put back to be retried immediately.
+   */
+  private Duration taskExecutorMaxQueueWait = Duration.ofSeconds(5);
+
   private Duration autoResetOffsetToDuration;
 
   public BucketProperties setAutoResetOffsetTo(String autoResetOffsetTo) {
@@ -40,7 +40,9 @@ public class BucketsManager implements IBucketsManager {
           .setTriggersFetchSize(tasksProperties.getTriggerFetchSize())
           .setAutoResetOffsetTo(tasksProperties.getAutoResetOffsetTo())
           .setTriggerInSameProcess(tasksProperties.isTriggerInSameProcess())
-          .setAutoStartProcessing(tasksProperties.isAutoStartProcessing()));
+          .setTriggerInSameProcessWhenIdleThreshold(tasksProperties.getTriggerInSameProcessWhenIdleThreshold())
+          .setAutoStartProcessing(tasksProperties.isAutoStartProcessing())
+          .setTaskExecutorMode(tasksProperties.getTaskExecutorMode()));
 
       registerUniqueBucketIds();
     });
@@ -107,9 +109,15 @@ public class BucketsManager implements IBucketsManager {
       if (bucketProperties.getTriggerInSameProcess() == null) {
         bucketProperties.setTriggerInSameProcess(defaultProperties.getTriggerInSameProcess());
       }
+      if (bucketProperties.getTriggerInSameProcessWhenIdleThreshold() == null) {
+        bucketProperties.setTriggerInSameProcessWhenIdleThreshold(defaultProperties.getTriggerInSameProcessWhenIdleThreshold());
+      }
       if (bucketProperties.getAutoStartProcessing() == null) {
         bucketProperties.setAutoStartProcessing(defaultProperties.getAutoStartProcessing());
       }
+      if (bucketProperties.getTaskExecutorMode() == null) {
+        bucketProperties.setTaskExecutorMode(defaultProperties.getTaskExecutorMode());
+      }
       bucketsProperties.put(bucketId, bucketProperties);
     });
   }
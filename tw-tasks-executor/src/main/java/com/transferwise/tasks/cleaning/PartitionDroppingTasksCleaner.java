@@ -0,0 +1,91 @@
+package com.transferwise.tasks.cleaning;
+
+import static com.transferwise.tasks.helpers.IMeterHelper.METRIC_PREFIX;
+
+import com.transferwise.common.baseutils.clock.ClockHolder;
+import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.dao.ITaskPartitionsDao;
+import com.transferwise.tasks.dao.ITaskPartitionsDao.TaskPartition;
+import com.transferwise.tasks.domain.TaskStatus;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Tasks cleaner for a task table partitioned by creation time.
+ *
+ * <p>On every round, partitions are created ahead for new tasks and expired partitions are dropped as a whole, when all tasks in them could have
+ * been deleted anyway. Expired partitions still having unfinished tasks fall back to deleting finished tasks row by row. Rows in partitions not
+ * expired yet are left alone, as those will be dropped soon enough.
+ */
+@Slf4j
+public class PartitionDroppingTasksCleaner extends TasksCleaner {
+
+  @Autowired
+  private ITaskPartitionsDao taskPartitionsDao;
+
+  private volatile ZonedDateTime rowsDeletingCreatedBefore;
+
+  @Override
+  protected void deleteFinishedOldTasks() {
+    try {
+      maintainPartitions();
+    } catch (Throwable t) {
+      log.error(t.getMessage(), t);
+    }
+    super.deleteFinishedOldTasks();
+  }
+
+  protected void maintainPartitions() {
+    ZonedDateTime now = ZonedDateTime.now(ClockHolder.getClock());
+    Duration interval = tasksProperties.getTaskTablePartitionInterval();
+    List<TaskPartition> partitions = taskPartitionsDao.getTaskPartitions();
+
+    ZonedDateTime lastCreatedBefore = partitions.isEmpty() ? null : partitions.get(partitions.size() - 1).getCreatedBefore();
+    ZonedDateTime createdBefore = lastCreatedBefore == null ? alignToInterval(now, interval) : lastCreatedBefore;
+    ZonedDateTime createAheadUntil = now.plus(interval.multipliedBy(tasksProperties.getTaskTablePartitionsAhead()));
+    while (lastCreatedBefore == null || !createdBefore.isAfter(createAheadUntil)) {
+      createdBefore = createdBefore.plus(interval);
+      taskPartitionsDao.addTaskPartition(lastCreatedBefore, createdBefore);
+      meterHelper.incrementCounter(METRIC_PREFIX + "tasksCleaner.createdPartitionsCount", 1);
+      log.info("Created task table partition for tasks created before '" + createdBefore + "'.");
+      lastCreatedBefore = createdBefore;
+    }
+
+    ZonedDateTime deletedBeforeTime = now.minus(tasksProperties.getFinishedTasksHistoryToKeep());
+    ZonedDateTime expiredCreatedBefore = null;
+    for (TaskPartition partition : partitions) {
+      if (partition.getCreatedBefore().isAfter(deletedBeforeTime)) {
+        break;
+      }
+      expiredCreatedBefore = partition.getCreatedBefore();
+      if (taskPartitionsDao.hasUndeletableTasks(partition, deletedBeforeTime)) {
+        log.debug("Task table partition '" + partition.getName() + "' has unfinished tasks, deleting its tasks one by one.");
+        continue;
+      }
+      taskPartitionsDao.dropTaskPartition(partition, tasksProperties.getTasksHistoryDeletingBatchSize());
+      meterHelper.incrementCounter(METRIC_PREFIX + "tasksCleaner.droppedPartitionsCount", 1);
+      log.info("Dropped task table partition '" + partition.getName() + "'.");
+    }
+    rowsDeletingCreatedBefore = expiredCreatedBefore;
+  }
+
+  @Override
+  protected ITaskDao.DeleteFinishedOldTasksResult deleteOldTasks(TaskStatus status) {
+    ZonedDateTime createdBefore = rowsDeletingCreatedBefore;
+    if (createdBefore == null) {
+      return new ITaskDao.DeleteFinishedOldTasksResult();
+    }
+    return taskDao.deleteOldTasks(status, tasksProperties.getFinishedTasksHistoryToKeep(), tasksProperties.getTasksHistoryDeletingBatchSize(),
+        createdBefore);
+  }
+
+  private ZonedDateTime alignToInterval(ZonedDateTime time, Duration interval) {
+    long intervalMs = interval.toMillis();
+    return Instant.ofEpochMilli(time.toInstant().toEpochMilli() / intervalMs * intervalMs).atZone(ZoneOffset.UTC);
+  }
+}
@@ -30,15 +30,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class TasksCleaner implements ITasksCleaner, GracefulShutdownStrategy {
 
   @Autowired
-  private TasksProperties tasksProperties;
+  protected TasksProperties tasksProperties;
   @Autowired
-  private ITaskDao taskDao;
+  protected ITaskDao taskDao;
   @Autowired
   private IExecutorServicesProvider executorServicesProvider;
   @Autowired
   private CuratorFramework curatorFramework;
   @Autowired
-  private IMeterHelper meterHelper;
+  protected IMeterHelper meterHelper;
 
   private LeaderSelector leaderSelector;
 
@@ -94,8 +94,7 @@ public class TasksCleaner implements ITasksCleaner, GracefulShutdownStrategy {
     for (DeletableStatus deletableStatus : deletableStatuses) {
       try {
         TaskStatus status = deletableStatus.status;
-        ITaskDao.DeleteFinishedOldTasksResult result = taskDao
-            .deleteOldTasks(status, tasksProperties.getFinishedTasksHistoryToKeep(), tasksProperties.getTasksHistoryDeletingBatchSize());
+        ITaskDao.DeleteFinishedOldTasksResult result = deleteOldTasks(status);
 
         Map<String, String> tags = ImmutableMap.of("taskStatus", status.name());
         meterHelper.incrementCounter(METRIC_PREFIX + "tasksCleaner.deletableTasksCount", tags, result.getFoundTasksCount());
@@ -130,6 +129,10 @@ public class TasksCleaner implements ITasksCleaner, GracefulShutdownStrategy {
     }
   }
 
+  protected ITaskDao.DeleteFinishedOldTasksResult deleteOldTasks(TaskStatus status) {
+    return taskDao.deleteOldTasks(status, tasksProperties.getFinishedTasksHistoryToKeep(), tasksProperties.getTasksHistoryDeletingBatchSize());
+  }
+
   @Override
   public void applicationStarted() {
     leaderSelector.start();
@@ -6,9 +6,11 @@ import com.transferwise.tasks.domain.IBaseTask;
 import com.transferwise.tasks.domain.Task;
 import com.transferwise.tasks.domain.TaskStatus;
 import com.transferwise.tasks.domain.TaskVersionId;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 import lombok.Data;
@@ -27,6 +29,7 @@ public interface ITaskDao {
     private int priority;
     private String type;
     private String status;
+    private String orderingKey;
   }
 
   List<StuckTask> prepareStuckOnProcessingTasksForResuming(String clientId, ZonedDateTime maxStuckTime);
@@ -35,6 +38,14 @@ public interface ITaskDao {
 
   GetStuckTasksResponse getStuckTasks(int batchSize, TaskStatus... statuses);
 
+  /**
+   * Returns tasks in the order of {@code (next_event_time, id)}, starting right after {@link GetStuckTasksRequest#getAfter()}.
+   *
+   * <p>Passing the {@link GetStuckTasksResponse#getCursor()} of the previous batch into the next request avoids re-reading tasks, which
+   * the caller was not able to update, and scanning the index from the start for every batch.
+   */
+  GetStuckTasksResponse getStuckTasks(GetStuckTasksRequest request);
+
   List<DaoTask2> getStuckTasks(int maxCount, Duration delta);
 
   @Data
@@ -43,10 +54,49 @@ public interface ITaskDao {
 
     private List<StuckTask> stuckTasks;
     private boolean hasMore;
+    /**
+     * Position of the last returned task, null when nothing was returned.
+     */
+    private TasksCursor cursor;
+  }
+
+  @Data
+  @Accessors(chain = true)
+  class GetStuckTasksRequest {
+
+    private int batchSize;
+    private TaskStatus[] statuses;
+    /**
+     * Only tasks of this type are returned, all types when null.
+     */
+    private String type;
+    /**
+     * Only tasks with next event time before it are returned, all tasks when null.
+     */
+    private ZonedDateTime maxNextEventTime;
+    /**
+     * Start from the beginning when null.
+     */
+    private TasksCursor after;
+  }
+
+  @Data
+  @Accessors(chain = true)
+  class TasksCursor {
+
+    private ZonedDateTime nextEventTime;
+    private UUID taskId;
   }
 
   InsertTaskResponse insertTask(InsertTaskRequest request);
 
+  /**
+   * Inserts all tasks using batched statements.
+   *
+   * <p>Responses are in the same order as requests.
+   */
+  List<InsertTaskResponse> insertTasks(List<InsertTaskRequest> requests);
+
   int getTasksCountInStatus(int maxCount, TaskStatus... statuses);
 
   List<Pair<String, Integer>> getTasksCountInErrorGrouped(int maxCount);
@@ -59,6 +109,11 @@ public interface ITaskDao {
 
   DeleteFinishedOldTasksResult deleteOldTasks(TaskStatus taskStatus, Duration age, int batchSize);
 
+  /**
+   * Same as {@link #deleteOldTasks(TaskStatus, Duration, int)}, but only deletes tasks created before the given time.
+   */
+  DeleteFinishedOldTasksResult deleteOldTasks(TaskStatus taskStatus, Duration age, int batchSize, ZonedDateTime createdBefore);
+
   @Data
   @Accessors(chain = true)
   class DeleteFinishedOldTasksResult {
@@ -113,13 +168,19 @@ public interface ITaskDao {
 
   @Data
   @Accessors(chain = true)
+  @SuppressFBWarnings({"EI_EXPOSE_REP", "EI_EXPOSE_REP2"})
   class InsertTaskRequest {
 
     private String type;
     private String subType;
     private String data;
+    /**
+     * Binary payload, used instead of {@link #data} when set.
+     */
+    private byte[] dataBytes;
     private UUID taskId;
     private String key;
+    private String orderingKey;
     private ZonedDateTime runAfterTime;
     private TaskStatus status;
     private ZonedDateTime maxStuckTime;
@@ -136,12 +197,82 @@ public interface ITaskDao {
 
   boolean setToBeRetried(UUID id, ZonedDateTime retryTime, long version, boolean resetTriesCount);
 
+  /**
+   * Like {@link #setToBeRetried(UUID, ZonedDateTime, long, boolean)}, but sets the processing tries count to the given value.
+   *
+   * <p>Used to give back the try counted by grabbing, when the grabbed task was never processed.
+   */
+  boolean setToBeRetriedWithTriesCount(UUID id, ZonedDateTime retryTime, long version, long processingTriesCount);
+
   Task grabForProcessing(BaseTask task, String nodeId, Instant maxProcessingEndTime);
 
+  /**
+   * Grabs multiple tasks with one multi-row update and one select.
+   *
+   * <p>Results are in the same order as requests, with null for every task which could not be grabbed.
+   */
+  List<Task> grabForProcessing(List<GrabForProcessingRequest> requests, String nodeId);
+
+  @Data
+  @Accessors(chain = true)
+  class GrabForProcessingRequest {
+
+    private BaseTask task;
+    private Instant maxProcessingEndTime;
+  }
+
   boolean setStatus(UUID taskId, TaskStatus status, long version);
 
+  /**
+   * Applies version checked state changes of many tasks in one transaction, using one batched statement per kind of change.
+   *
+   * <p>Results are in the same order as changes, telling if the specific change was applied.
+   */
+  List<Boolean> changeStates(List<TaskStateChange> changes);
+
+  @Data
+  @Accessors(chain = true)
+  class TaskStateChange {
+
+    private UUID taskId;
+    private long version;
+    private Type type;
+    /**
+     * Used with {@link Type#SET_STATUS}.
+     */
+    private TaskStatus status;
+    /**
+     * Used with {@link Type#SET_TO_BE_RETRIED}.
+     */
+    private ZonedDateTime retryTime;
+    /**
+     * Used with {@link Type#SET_TO_BE_RETRIED}.
+     */
+    private boolean resetTriesCount;
+
+    public enum Type {
+      SET_STATUS, CLEAR_PAYLOAD_AND_MARK_DONE, DELETE, SET_TO_BE_RETRIED
+    }
+  }
+
   boolean markAsSubmitted(UUID taskId, long version, ZonedDateTime maxStuckTime);
 
+  /**
+   * Claims up to maxCount submitted tasks, not claimed by anyone else, for the given node. Tasks come in the order of priority and next event time.
+   *
+   * <p>Rows locked by concurrently claiming nodes are skipped, so nodes never wait for each other.
+   *
+   * <p>Tasks of excludedTypes are left for other nodes, e.g. because the buckets processing them are full in this node.
+   *
+   * <p>Returned tasks have the version set by the claim, so they can be grabbed for processing as they are.
+   */
+  List<BaseTask> claimSubmittedTasks(int maxCount, String nodeId, Collection<String> excludedTypes);
+
+  /**
+   * Releases claims of submitted tasks, which the given node has not grabbed for processing.
+   */
+  int releaseClaimedTasks(String nodeId);
+
   List<Task> findTasksByTypeSubTypeAndStatus(String type, String subType, TaskStatus... statuses);
 
   void deleteAllTasks();
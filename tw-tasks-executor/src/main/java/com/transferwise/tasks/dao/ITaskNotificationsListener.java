@@ -0,0 +1,16 @@
+package com.transferwise.tasks.dao;
+
+import java.time.Instant;
+import java.util.function.Consumer;
+
+public interface ITaskNotificationsListener {
+
+  boolean isEnabled();
+
+  /**
+   * The consumer gets the earliest due time of tasks scheduled by any node, soon after the scheduling transaction has committed.
+   *
+   * <p>It is called from the listening thread, so it should be fast.
+   */
+  void addWaitingTasksScheduledListener(Consumer<Instant> listener);
+}
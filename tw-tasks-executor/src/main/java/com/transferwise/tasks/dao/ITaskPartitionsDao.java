@@ -0,0 +1,51 @@
+package com.transferwise.tasks.dao;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * Maintains range partitions of the task table, partitioned by {@code time_created}.
+ *
+ * <p>Only partitions created by the DAO itself, and so following its naming, are returned and can be dropped.
+ */
+public interface ITaskPartitionsDao {
+
+  @Data
+  @Accessors(chain = true)
+  class TaskPartition {
+
+    private String name;
+    /**
+     * Exclusive upper bound of {@code time_created}.
+     */
+    private ZonedDateTime createdBefore;
+  }
+
+  /**
+   * Partitions ordered by {@link TaskPartition#getCreatedBefore()}.
+   */
+  List<TaskPartition> getTaskPartitions();
+
+  /**
+   * Adds a partition for tasks created before the given time, but not before {@code createdAfter}. The catch-all partition is split, so tasks
+   * already in there are moved.
+   *
+   * @param createdAfter upper bound of the previous partition, null when there is none.
+   */
+  void addTaskPartition(ZonedDateTime createdAfter, ZonedDateTime createdBefore);
+
+  /**
+   * Tells if the partition has any tasks, which would not be deleted by {@link ITaskDao#deleteOldTasks(com.transferwise.tasks.domain.TaskStatus,
+   * java.time.Duration, int)} with the given time barrier.
+   */
+  boolean hasUndeletableTasks(TaskPartition partition, ZonedDateTime deletedBeforeTime);
+
+  /**
+   * Drops the partition, together with unique keys and payloads of its tasks.
+   *
+   * <p>Unique keys and payloads are deleted in separate statements of up to batchSize tasks each, so no statement holds locks for long.
+   */
+  void dropTaskPartition(TaskPartition partition, int batchSize);
+}
@@ -5,6 +5,9 @@ import static com.transferwise.tasks.utils.UuidUtils.toUuid;
 
 import com.transferwise.common.baseutils.clock.ClockHolder;
 import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.dao.codecs.ITaskDataCodec;
+import com.transferwise.tasks.dao.codecs.ITaskDataCodecRegistry;
+import com.transferwise.tasks.dao.codecs.RawTaskDataCodec;
 import com.transferwise.tasks.domain.BaseTask;
 import com.transferwise.tasks.domain.BaseTask1;
 import com.transferwise.tasks.domain.FullTaskRecord;
@@ -14,8 +17,11 @@ import com.transferwise.tasks.domain.TaskVersionId;
 import com.transferwise.tasks.utils.TimeUtils;
 import com.transferwise.tasks.utils.UuidUtils;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.nio.charset.StandardCharsets;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
@@ -23,11 +29,19 @@ import java.time.ZonedDateTime;
 import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import javax.sql.DataSource;
 import lombok.extern.slf4j.Slf4j;
@@ -40,6 +54,7 @@ import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SqlParameterValue;
 import org.springframework.jdbc.core.SqlTypeValue;
 import org.springframework.jdbc.core.StatementCreatorUtils;
@@ -60,24 +75,34 @@ public class MySqlTaskDao implements ITaskDao {
 
   @Autowired
   protected TasksProperties tasksProperties;
+  @Autowired
+  protected ITaskDataCodecRegistry taskDataCodecRegistry;
 
-  private JdbcTemplate jdbcTemplate;
+  protected JdbcTemplate jdbcTemplate;
 
   public MySqlTaskDao(DataSource dataSource) {
     jdbcTemplate = new JdbcTemplate(dataSource);
   }
 
   private ConcurrentHashMap<Pair<String, Integer>, String> sqlCache = new ConcurrentHashMap<>();
+  private final AtomicLong lastBatchGrabTimeMs = new AtomicLong();
 
   protected String insertTaskSql;
   protected String insertUniqueTaskKeySql;
+  protected String getUniqueTaskKeysSql;
+  protected String getTaskIdsSql;
   protected String setToBeRetriedSql;
   protected String setToBeRetriedSql1;
   protected String grabForProcessingSql;
+  protected String grabForProcessingSql1;
+  protected String grabForProcessingSql2;
+  protected String grabForProcessingWhenSql;
+  protected String grabForProcessingInSql;
   protected String setStatusSql;
   protected String setStatusSql1;
   protected String scheduleTaskForImmediateExecutionSql;
   protected String getStuckTasksSql;
+  protected String[] getStuckTasksSqls;
   protected String prepareStuckOnProcessingTaskForResumingSql;
   protected String prepareStuckOnProcessingTaskForResumingSql1;
   protected String[] findTasksByTypeSubTypeAndStatusSqls;
@@ -94,6 +119,7 @@ public class MySqlTaskDao implements ITaskDao {
   protected String deleteUniqueTaskKeySql;
   protected String deleteFinishedOldTasksSql;
   protected String deleteFinishedOldTasksSql1;
+  protected String deleteFinishedOldTasksSql2;
   protected String getTasksInErrorStatusSql;
   protected String getTasksInProcessingOrWaitingStatusSql;
   protected String getStuckTasksSql1;
@@ -101,43 +127,97 @@ public class MySqlTaskDao implements ITaskDao {
   protected String getTasksSql;
   protected String getEarliesTaskNextEventTimeSql;
   protected String getTaskVersionSql;
+  protected String insertTaskDataSql;
+  protected String insertTaskDataSql1;
+  protected String getTaskDataSql;
+  protected String deleteTaskDataSql;
+  protected String deleteAllTaskDataSql;
+  protected String claimSubmittedTasksSql;
+  protected String claimSubmittedTasksSql1;
+  protected String claimSubmittedTasksSql2;
+  protected String releaseClaimedTasksSql;
 
   protected int[] questionBuckets = {1, 5, 25, 125, 625};
+  /**
+   * Appended to selects and inserts, when ordering keys are enabled, so the column is not required otherwise.
+   */
+  protected String orderingKeyColumn = "";
+  /**
+   * Appended to updates putting a task back to submitted state, when tasks are triggered from the database, so the claim of the previous
+   * node is released. With Kafka triggering, the column keeps telling which node processed the task last.
+   */
+  protected String releaseClaimColumn = "";
 
   @PostConstruct
   public void init() {
+    if (tasksProperties.isOrderingKeysEnabled()) {
+      orderingKeyColumn = ",ordering_key";
+    }
+    if (tasksProperties.getTriggeringType() == TasksProperties.TriggeringType.DATABASE) {
+      releaseClaimColumn = ",processing_client_id=null";
+    }
+
     String taskTable = tasksProperties.getTaskTableName();
     String uniqueTaskKeyTable = tasksProperties.getUniqueTaskKeyTableName();
+    String taskDataTable = tasksProperties.getTaskDataTableName();
+
+    // Selects returning full task records have to look into both tables, as tasks created before enabling the separate table have their
+    // payloads still in the task table.
+    String taskWithDataTable = taskTable;
+    String dataColumn = "data";
+    String dataCodecColumns = "";
+    if (tasksProperties.isTaskDataInSeparateTable()) {
+      taskWithDataTable = taskTable + " t left join " + taskDataTable + " d on d.task_id=t.id";
+      dataColumn = "coalesce(d.data,t.data)";
+      dataCodecColumns = ",d.data_codec,d.data_bin";
+    }
 
     insertTaskSql = "insert ignore into " + taskTable + "(id,type,sub_type,status,data,next_event_time"
-        + ",state_time,time_created,time_updated,processing_tries_count,version,priority) values (?,?,?,?,?,?,?,?,?,?,?,?)";
+        + ",state_time,time_created,time_updated,processing_tries_count,version,priority" + orderingKeyColumn + ") values (?,?,?,?,?,?,?,?,?,?,?,?"
+        + (orderingKeyColumn.isEmpty() ? "" : ",?") + ")";
     insertUniqueTaskKeySql = "insert ignore into " + uniqueTaskKeyTable + "(task_id,key_hash,`key`) values (?, ?, ?)";
+    getUniqueTaskKeysSql = "select task_id,`key` from " + uniqueTaskKeyTable + " where task_id in (??)";
+    getTaskIdsSql = "select id from " + taskTable + " where id in (??)";
     setToBeRetriedSql = "update " + taskTable + " set status=?,next_event_time=?,state_time=?,time_updated=?,version=? where id=? and version=?";
     setToBeRetriedSql1 = "update " + taskTable + " set status=?,next_event_time=?"
         + ",processing_tries_count=?,state_time=?,time_updated=?,version=? where id=? and version=?";
     grabForProcessingSql = "update " + taskTable + " set processing_client_id=?,status=?"
         + ",processing_start_time=?,next_event_time=?,processing_tries_count=processing_tries_count+1"
         + ",state_time=?,time_updated=?,version=? where id=? and version=? and status=?";
+    grabForProcessingSql1 = "update " + taskTable + " set processing_client_id=?,status=?"
+        + ",processing_start_time=?,next_event_time=case id{when} end,processing_tries_count=processing_tries_count+1"
+        + ",state_time=?,time_updated=?,version=version+1 where status=? and (id,version) in ({in})";
+    grabForProcessingSql2 = "select id,version,type,status,priority,sub_type,data,processing_tries_count,processing_client_id"
+        + ",processing_start_time from " + taskTable + " where id in (??)";
+    grabForProcessingWhenSql = " when ? then ?";
+    grabForProcessingInSql = "(?,?)";
     setStatusSql = "update " + taskTable + " set status=?,state_time=?,time_updated=?,version=? where id=? and version=?";
-    setStatusSql1 = "update " + taskTable + " set status=?,next_event_time=?,state_time=?,time_updated=?,version=? where id=? and version=?";
+    setStatusSql1 = "update " + taskTable + " set status=?,next_event_time=?" + releaseClaimColumn
+        + ",state_time=?,time_updated=?,version=? where id=? and version=?";
     scheduleTaskForImmediateExecutionSql = "update " + taskTable + " set status=?"
         + ",next_event_time=?,state_time=?,time_updated=?,version=? where id=? and version=?";
-    getStuckTasksSql = "select id,version,type,priority,status from " + taskTable + " where status in (??)"
+    getStuckTasksSql = "select id,version,type,priority,status" + orderingKeyColumn + " from " + taskTable + " where status in (??)"
         + " and next_event_time<? order by next_event_time limit ?";
-    prepareStuckOnProcessingTaskForResumingSql = "select id,version,type,priority from " + taskTable + " where status=? and processing_client_id=?";
-    prepareStuckOnProcessingTaskForResumingSql1 = "update " + taskTable + " set status=?,next_event_time=?"
+    getStuckTasksSqls = new String[]{"select id,version,type,priority,status,next_event_time" + orderingKeyColumn + " from " + taskTable
+        + " where status in (??)", " and type=?",
+        " and next_event_time<?", " and next_event_time>=? and (next_event_time>? or id>?)", " order by next_event_time,id limit ?"};
+    prepareStuckOnProcessingTaskForResumingSql = "select id,version,type,priority" + orderingKeyColumn + " from " + taskTable
+        + " where status=? and processing_client_id=?";
+    prepareStuckOnProcessingTaskForResumingSql1 = "update " + taskTable + " set status=?,next_event_time=?" + releaseClaimColumn
         + ",state_time=?,time_updated=?,version=? where id=? and version=?";
-    findTasksByTypeSubTypeAndStatusSqls = new String[]{"select id,type,sub_type,data,status,version"
-        + ",processing_tries_count,priority from " + taskTable + " where type=?", " and status in (??)", " and sub_type=?"};
+    findTasksByTypeSubTypeAndStatusSqls = new String[]{"select id,type,sub_type," + dataColumn + ",status,version"
+        + ",processing_tries_count,priority" + dataCodecColumns + " from " + taskWithDataTable + " where type=?", " and status in (??)",
+        " and sub_type=?"};
     getTasksCountInStatusSql = "select count(*) from (select 1 from " + taskTable + " where status in (??) order by next_event_time limit ?) q";
     getTasksCountInErrorGroupedSql = "select type, count(*) from (select type from " + taskTable + " where status='"
         + TaskStatus.ERROR.name() + "' order by next_event_time limit ?) q group by type";
     getStuckTasksCountSql = "select count(*) from (select 1 from " + taskTable + " where status in (?,?,?,?)"
         + " and next_event_time<? order by next_event_time limit ?) q";
-    getTaskSql = "select id,version,type,status,priority from " + taskTable + " where id=?";
+    getTaskSql = "select id,version,type,status,priority" + orderingKeyColumn + " from " + taskTable + " where id=?";
     getTaskSql1 = "select id,version,type,status,priority,sub_type,data,processing_tries_count from " + taskTable + " where id=?";
-    getTaskSql2 = "select id,version,type,status,priority,sub_type,data"
-        + ",processing_tries_count,state_time,next_event_time,processing_client_id from " + taskTable + " where id=?";
+    getTaskSql2 = "select id,version,type,status,priority,sub_type," + dataColumn
+        + ",processing_tries_count,state_time,next_event_time,processing_client_id" + dataCodecColumns + " from " + taskWithDataTable
+        + " where id=?";
     deleteAllTasksSql = "delete from " + taskTable;
     deleteAllTasksSql1 = "delete from " + uniqueTaskKeyTable;
     deleteTasksSqls = new String[]{"select id,version from " + taskTable + " where type=?", " and sub_type=?", " and status in (??)"};
@@ -145,6 +225,8 @@ public class MySqlTaskDao implements ITaskDao {
     deleteUniqueTaskKeySql = "delete from " + uniqueTaskKeyTable + " where task_id=?";
     deleteFinishedOldTasksSql = "select id,version from " + taskTable + " where status=? and next_event_time<? order by next_event_time limit ?";
     deleteFinishedOldTasksSql1 = "select next_event_time from " + taskTable + " where id=?";
+    deleteFinishedOldTasksSql2 = "select id,version from " + taskTable + " where status=? and next_event_time<? and time_created<?"
+        + " order by next_event_time limit ?";
     getTasksInErrorStatusSql = "select id,version,state_time,type,sub_type from " + taskTable
         + " where status='" + TaskStatus.ERROR.name() + "' order by next_event_time desc limit ?";
     getTasksInProcessingOrWaitingStatusSql = "select id,version,state_time,type,sub_type,status from " + taskTable
@@ -153,10 +235,22 @@ public class MySqlTaskDao implements ITaskDao {
         + TaskStatus.NEW.name() + "','" + TaskStatus.SUBMITTED.name() + "','" + TaskStatus.WAITING.name()
         + "','" + TaskStatus.PROCESSING.name() + "') and next_event_time<? order by next_event_time desc limit ?";
     clearPayloadAndMarkDoneSql = "update " + taskTable + " set data='',status=?,state_time=?,time_updated=?,version=? where id=? and version=?";
-    getTasksSql = "select id,type,sub_type,data,status,version,processing_tries_count,priority,state_time"
-        + ",next_event_time,processing_client_id from " + taskTable + " where id in (??)";
+    getTasksSql = "select id,type,sub_type," + dataColumn + ",status,version,processing_tries_count,priority,state_time"
+        + ",next_event_time,processing_client_id" + dataCodecColumns + " from " + taskWithDataTable + " where id in (??)";
     getEarliesTaskNextEventTimeSql = "select min(next_event_time) from " + taskTable + " where status=?";
     getTaskVersionSql = "select version from " + taskTable + " where id=?";
+    insertTaskDataSql = "insert into " + taskDataTable + "(task_id,data) values (?,?)";
+    insertTaskDataSql1 = "insert into " + taskDataTable + "(task_id,data,data_codec,data_bin) values (?,'',?,?)";
+    getTaskDataSql = "select data,data_codec,data_bin from " + taskDataTable + " where task_id=?";
+    deleteTaskDataSql = "delete from " + taskDataTable + " where task_id=?";
+    deleteAllTaskDataSql = "delete from " + taskDataTable;
+    claimSubmittedTasksSql = "select id,version,type,priority" + orderingKeyColumn + " from " + taskTable
+        + " where status=? and processing_client_id is null order by priority,next_event_time limit ? for update skip locked";
+    claimSubmittedTasksSql1 = "update " + taskTable + " set processing_client_id=?,time_updated=?,version=? where id=? and version=?";
+    claimSubmittedTasksSql2 = "select id,version,type,priority" + orderingKeyColumn + " from " + taskTable
+        + " where status=? and processing_client_id is null and type not in (??) order by priority,next_event_time limit ? for update skip locked";
+    releaseClaimedTasksSql = "update " + taskTable + " set processing_client_id=null,time_updated=?,version=version+1"
+        + " where status=? and processing_client_id=?";
   }
 
   @Override
@@ -180,28 +274,203 @@ public class MySqlTaskDao implements ITaskDao {
       }
     }
 
-    int insertedCount = jdbcTemplate.update(insertTaskSql, args(taskId, request.getType(), request.getSubType(),
-        request.getStatus(), request.getData(), nextEventTime, now, now, now, 0, 0, request.getPriority()));
+    int insertedCount = jdbcTemplate.update(insertTaskSql, insertTaskArgs(taskId, request, nextEventTime, now));
 
     if (insertedCount == 0) {
       return new InsertTaskResponse().setInserted(false);
     }
 
+    insertTaskData(Collections.singletonList(taskId), Collections.singletonList(request));
+
+    if (request.getStatus() == TaskStatus.WAITING) {
+      waitingTasksScheduled(nextEventTime.toInstant());
+    }
+
     return new InsertTaskResponse().setTaskId(taskId).setInserted(true);
   }
 
+  /**
+   * Batched version of {@link #insertTask(InsertTaskRequest)}.
+   *
+   * <p>Unique keys are inserted first with one batch, then the tasks with unique key conflicts are left out and the rest is inserted with
+   * another batch. Task ids given by the caller are looked up before, as those can collide with existing tasks or with each other.
+   *
+   * <p>Drivers rewriting batches into multi-row statements (e.g. rewriteBatchedStatements=true on MySQL and MariaDB, or
+   * reWriteBatchedInserts=true on Postgres) report {@link Statement#SUCCESS_NO_INFO} instead of update counts. Unique keys are then
+   * looked up again, to see which of them now belong to the tasks of this batch.
+   *
+   * <p>When payloads are kept in a separate table, they are inserted with additional batches.
+   */
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public List<InsertTaskResponse> insertTasks(List<InsertTaskRequest> requests) {
+    final Timestamp now = Timestamp.from(Instant.now(ClockHolder.getClock()));
+
+    List<InsertTaskResponse> responses = new ArrayList<>(requests.size());
+    List<UUID> providedTaskIds = new ArrayList<>();
+    for (InsertTaskRequest request : requests) {
+      UUID taskId = request.getTaskId() == null ? UUID.randomUUID() : request.getTaskId();
+      responses.add(new InsertTaskResponse().setTaskId(taskId).setInserted(true));
+      if (request.getTaskId() != null) {
+        providedTaskIds.add(taskId);
+      }
+    }
+
+    if (!providedTaskIds.isEmpty()) {
+      Set<UUID> takenTaskIds = new HashSet<>(queryByTaskIds("getTaskIds", getTaskIdsSql, providedTaskIds,
+          (rs, rowNum) -> toUuid(rs.getObject(1))));
+      for (int i = 0; i < requests.size(); i++) {
+        UUID taskId = requests.get(i).getTaskId();
+        if (taskId != null && !takenTaskIds.add(taskId)) {
+          responses.set(i, new InsertTaskResponse().setInserted(false));
+        }
+      }
+    }
+
+    List<Integer> keyedIdxs = new ArrayList<>();
+    for (int i = 0; i < requests.size(); i++) {
+      if (requests.get(i).getKey() != null && responses.get(i).isInserted()) {
+        keyedIdxs.add(i);
+      }
+    }
+
+    if (!keyedIdxs.isEmpty()) {
+      int[] keysInsertResult = jdbcTemplate.batchUpdate(insertUniqueTaskKeySql, new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          int idx = keyedIdxs.get(i);
+          String key = requests.get(idx).getKey();
+          args(responses.get(idx).getTaskId(), key.hashCode(), key).setValues(ps);
+        }
+
+        @Override
+        public int getBatchSize() {
+          return keyedIdxs.size();
+        }
+      });
+
+      Map<UUID, String> insertedKeys = null;
+      for (int i = 0; i < keysInsertResult.length; i++) {
+        int idx = keyedIdxs.get(i);
+        String key = requests.get(idx).getKey();
+        boolean inserted;
+        if (keysInsertResult[i] == Statement.SUCCESS_NO_INFO) {
+          if (insertedKeys == null) {
+            insertedKeys = getUniqueTaskKeys(keyedIdxs.stream().map(j -> responses.get(j).getTaskId()).collect(Collectors.toList()));
+          }
+          inserted = key.equals(insertedKeys.get(responses.get(idx).getTaskId()));
+        } else {
+          inserted = keysInsertResult[i] != 0;
+        }
+        if (!inserted) {
+          log.debug("Task with key '{}' and hash '{}' was not unique.", key, key.hashCode());
+          responses.set(idx, new InsertTaskResponse().setInserted(false));
+        }
+      }
+    }
+
+    List<Integer> taskIdxs = new ArrayList<>(requests.size());
+    for (int i = 0; i < responses.size(); i++) {
+      if (responses.get(i).isInserted()) {
+        taskIdxs.add(i);
+      }
+    }
+
+    int[] tasksInsertResult = jdbcTemplate.batchUpdate(insertTaskSql, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        int idx = taskIdxs.get(i);
+        InsertTaskRequest request = requests.get(idx);
+        ZonedDateTime nextEventTime = request.getRunAfterTime() == null ? request.getMaxStuckTime() : request.getRunAfterTime();
+        insertTaskArgs(responses.get(idx).getTaskId(), request, nextEventTime, now).setValues(ps);
+      }
+
+      @Override
+      public int getBatchSize() {
+        return taskIdxs.size();
+      }
+    });
+
+    // Task ids were checked above, so SUCCESS_NO_INFO means inserted. A zero can only come from a concurrent insert with the same id.
+    List<UUID> insertedTaskIds = new ArrayList<>(taskIdxs.size());
+    List<InsertTaskRequest> insertedRequests = new ArrayList<>(taskIdxs.size());
+    List<UUID> orphanKeyTaskIds = new ArrayList<>();
+    Instant earliestWaitingTaskTime = null;
+    for (int i = 0; i < tasksInsertResult.length; i++) {
+      int idx = taskIdxs.get(i);
+      InsertTaskRequest request = requests.get(idx);
+      if (tasksInsertResult[i] == 0) {
+        if (request.getKey() != null) {
+          orphanKeyTaskIds.add(responses.get(idx).getTaskId());
+        }
+        responses.set(idx, new InsertTaskResponse().setInserted(false));
+      } else {
+        insertedTaskIds.add(responses.get(idx).getTaskId());
+        insertedRequests.add(request);
+        if (request.getStatus() == TaskStatus.WAITING) {
+          earliestWaitingTaskTime = earliest(earliestWaitingTaskTime, request.getRunAfterTime() == null ? request.getMaxStuckTime()
+              : request.getRunAfterTime());
+        }
+      }
+    }
+
+    if (!orphanKeyTaskIds.isEmpty()) {
+      jdbcTemplate.batchUpdate(deleteUniqueTaskKeySql, new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          args(orphanKeyTaskIds.get(i)).setValues(ps);
+        }
+
+        @Override
+        public int getBatchSize() {
+          return orphanKeyTaskIds.size();
+        }
+      });
+    }
+
+    insertTaskData(insertedTaskIds, insertedRequests);
+
+    if (earliestWaitingTaskTime != null) {
+      waitingTasksScheduled(earliestWaitingTaskTime);
+    }
+
+    return responses;
+  }
+
+  protected Map<UUID, String> getUniqueTaskKeys(List<UUID> taskIds) {
+    Map<UUID, String> keys = new HashMap<>();
+    for (Pair<UUID, String> key : queryByTaskIds("getUniqueTaskKeys", getUniqueTaskKeysSql, taskIds,
+        (rs, rowNum) -> ImmutablePair.of(toUuid(rs.getObject(1)), rs.getString(2)))) {
+      keys.put(key.getLeft(), key.getRight());
+    }
+    return keys;
+  }
+
   @Override
   @Transactional(rollbackFor = Exception.class)
   public boolean setToBeRetried(UUID taskId, ZonedDateTime retryTime, long version, boolean resetTriesCount) {
     Timestamp now = Timestamp.from(Instant.now(ClockHolder.getClock()));
 
-    int updatedCount;
     if (resetTriesCount) {
-      updatedCount = jdbcTemplate.update(setToBeRetriedSql1, args(TaskStatus.WAITING,
-          retryTime, 0, now, now, version + 1, taskId, version));
-    } else {
-      updatedCount = jdbcTemplate.update(setToBeRetriedSql, args(TaskStatus.WAITING,
-          retryTime, now, now, version + 1, taskId, version));
+      return setToBeRetriedWithTriesCount(taskId, retryTime, version, 0);
+    }
+    int updatedCount = jdbcTemplate.update(setToBeRetriedSql, args(TaskStatus.WAITING,
+        retryTime, now, now, version + 1, taskId, version));
+    if (updatedCount == 1) {
+      waitingTasksScheduled(retryTime.toInstant());
+    }
+    return updatedCount == 1;
+  }
+
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public boolean setToBeRetriedWithTriesCount(UUID taskId, ZonedDateTime retryTime, long version, long processingTriesCount) {
+    Timestamp now = Timestamp.from(Instant.now(ClockHolder.getClock()));
+
+    int updatedCount = jdbcTemplate.update(setToBeRetriedSql1, args(TaskStatus.WAITING,
+        retryTime, processingTriesCount, now, now, version + 1, taskId, version));
+    if (updatedCount == 1) {
+      waitingTasksScheduled(retryTime.toInstant());
     }
     return updatedCount == 1;
   }
@@ -219,6 +488,91 @@ public class MySqlTaskDao implements ITaskDao {
     return getTask(task.getId(), Task.class);
   }
 
+  /**
+   * Tasks are marked as grabbed with one multi-row update, matching on id and version, and then fetched with one select. Batches larger
+   * than the biggest question bucket are split.
+   *
+   * <p>A multi-row update does not tell which rows it changed, so every batch writes its own processing start time, and a task counts as
+   * grabbed only when the fetched row has that start time, the expected version, status and client id. Rows grabbed earlier by the same
+   * client, for example through a duplicate trigger, have an older start time and are not returned again. Start times of batches are
+   * made strictly increasing in milliseconds, the precision all supported databases keep.
+   */
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public List<Task> grabForProcessing(List<GrabForProcessingRequest> requests, String clientId) {
+    final long nowMs = ClockHolder.getClock().millis();
+    final long grabTimeMs = lastBatchGrabTimeMs.updateAndGet(lastMs -> Math.max(nowMs, lastMs + 1));
+    Timestamp now = new Timestamp(grabTimeMs);
+
+    List<Task> result = new ArrayList<>(Collections.nCopies(requests.size(), null));
+
+    // The same task can be triggered multiple times; only the first trigger is allowed to grab it.
+    Set<UUID> uniqueTaskIds = new HashSet<>();
+    List<Integer> idxs = new ArrayList<>(requests.size());
+    for (int i = 0; i < requests.size(); i++) {
+      if (uniqueTaskIds.add(requests.get(i).getTask().getId())) {
+        idxs.add(i);
+      }
+    }
+
+    List<UUID> updatedTaskIds = new ArrayList<>();
+    int updateIdx = 0;
+    while (updateIdx < idxs.size()) {
+      int questionsCount = getQuestionsCount(idxs.size() - updateIdx);
+      String sql = cachedSql(sqlKey("grabForProcessingSql1", questionsCount), () -> getGrabForProcessingSql1(questionsCount));
+
+      List<Object> deadlineArgs = new ArrayList<>(questionsCount * 2);
+      List<Object> versionArgs = new ArrayList<>(questionsCount * 2);
+      for (int i = updateIdx; i < updateIdx + questionsCount; i++) {
+        GrabForProcessingRequest request = requests.get(idxs.get(i));
+        BaseTask task = request.getTask();
+        deadlineArgs.add(task.getId());
+        deadlineArgs.add(request.getMaxProcessingEndTime());
+        versionArgs.add(task.getId());
+        versionArgs.add(task.getVersion());
+      }
+      int updatedCount = jdbcTemplate.update(sql, args(clientId, TaskStatus.PROCESSING, now, deadlineArgs, now, now, TaskStatus.SUBMITTED,
+          versionArgs));
+      if (updatedCount != 0) {
+        for (int i = updateIdx; i < updateIdx + questionsCount; i++) {
+          updatedTaskIds.add(requests.get(idxs.get(i)).getTask().getId());
+        }
+      }
+      updateIdx += questionsCount;
+    }
+
+    Map<UUID, Task> updatedTasks = new HashMap<>();
+    int idx = 0;
+    while (idx < updatedTaskIds.size()) {
+      int questionsCount = getQuestionsCount(updatedTaskIds.size() - idx);
+      String sql = cachedSql(sqlKey("grabForProcessingSql2", questionsCount), () -> getExpandedSql(grabForProcessingSql2, questionsCount));
+
+      jdbcTemplate.query(sql, args(updatedTaskIds.subList(idx, idx + questionsCount)), rs -> {
+        Task task = new Task().setId(toUuid(rs.getObject(1)))
+            .setVersion(rs.getLong(2)).setType(rs.getString(3))
+            .setStatus(rs.getString(4)).setPriority(rs.getInt(5))
+            .setSubType(rs.getString(6)).setData(rs.getString(7))
+            .setProcessingTriesCount(rs.getLong(8));
+        Timestamp processingStartTime = rs.getTimestamp(10);
+        if (clientId.equals(rs.getString(9)) && processingStartTime != null && processingStartTime.getTime() == grabTimeMs) {
+          updatedTasks.put(task.getId(), lazyLoadData(task));
+        }
+      });
+      idx += questionsCount;
+    }
+
+    for (Integer i : idxs) {
+      BaseTask task = requests.get(i).getTask();
+      Task updatedTask = updatedTasks.get(task.getId());
+      if (updatedTask != null && updatedTask.getVersion() == task.getVersion() + 1
+          && TaskStatus.PROCESSING.name().equals(updatedTask.getStatus())) {
+        result.set(i, updatedTask);
+      }
+    }
+
+    return result;
+  }
+
   @Override
   @Transactional(rollbackFor = Exception.class)
   public boolean setStatus(UUID taskId, TaskStatus status, long version) {
@@ -227,12 +581,117 @@ public class MySqlTaskDao implements ITaskDao {
     return updatedCount == 1;
   }
 
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public List<Boolean> changeStates(List<TaskStateChange> changes) {
+    Timestamp now = Timestamp.from(Instant.now(ClockHolder.getClock()));
+
+    List<Boolean> results = new ArrayList<>(Collections.nCopies(changes.size(), Boolean.FALSE));
+
+    Map<String, List<Integer>> idxsBySql = new LinkedHashMap<>();
+    for (int i = 0; i < changes.size(); i++) {
+      idxsBySql.computeIfAbsent(getChangeStateSql(changes.get(i)), k -> new ArrayList<>()).add(i);
+    }
+
+    for (Map.Entry<String, List<Integer>> entry : idxsBySql.entrySet()) {
+      List<Integer> idxs = entry.getValue();
+      int[] updateResult = jdbcTemplate.batchUpdate(entry.getKey(), new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          getChangeStateArgs(changes.get(idxs.get(i)), now).setValues(ps);
+        }
+
+        @Override
+        public int getBatchSize() {
+          return idxs.size();
+        }
+      });
+      for (int i = 0; i < updateResult.length; i++) {
+        results.set(idxs.get(i), updateResult[i] != 0);
+      }
+    }
+
+    List<UUID> deletedIds = new ArrayList<>();
+    List<UUID> clearedPayloadIds = new ArrayList<>();
+    Instant earliestWaitingTaskTime = null;
+    for (int i = 0; i < changes.size(); i++) {
+      if (results.get(i)) {
+        TaskStateChange.Type type = changes.get(i).getType();
+        if (type == TaskStateChange.Type.DELETE) {
+          deletedIds.add(changes.get(i).getTaskId());
+          clearedPayloadIds.add(changes.get(i).getTaskId());
+        } else if (type == TaskStateChange.Type.CLEAR_PAYLOAD_AND_MARK_DONE) {
+          clearedPayloadIds.add(changes.get(i).getTaskId());
+        } else if (type == TaskStateChange.Type.SET_TO_BE_RETRIED) {
+          earliestWaitingTaskTime = earliest(earliestWaitingTaskTime, changes.get(i).getRetryTime());
+        }
+      }
+    }
+    if (!deletedIds.isEmpty()) {
+      jdbcTemplate.batchUpdate(deleteUniqueTaskKeySql, new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          args(deletedIds.get(i)).setValues(ps);
+        }
+
+        @Override
+        public int getBatchSize() {
+          return deletedIds.size();
+        }
+      });
+    }
+    deleteTaskData(clearedPayloadIds);
+
+    if (earliestWaitingTaskTime != null) {
+      waitingTasksScheduled(earliestWaitingTaskTime);
+    }
+
+    return results;
+  }
+
+  protected String getChangeStateSql(TaskStateChange change) {
+    switch (change.getType()) {
+      case SET_STATUS:
+        return setStatusSql;
+      case CLEAR_PAYLOAD_AND_MARK_DONE:
+        return clearPayloadAndMarkDoneSql;
+      case DELETE:
+        return deleteTaskSql;
+      case SET_TO_BE_RETRIED:
+        return change.isResetTriesCount() ? setToBeRetriedSql1 : setToBeRetriedSql;
+      default:
+        throw new IllegalStateException("Unsupported state change type '" + change.getType() + "'.");
+    }
+  }
+
+  protected PreparedStatementSetter getChangeStateArgs(TaskStateChange change, Timestamp now) {
+    UUID taskId = change.getTaskId();
+    long version = change.getVersion();
+    switch (change.getType()) {
+      case SET_STATUS:
+        return args(change.getStatus(), now, now, version + 1, taskId, version);
+      case CLEAR_PAYLOAD_AND_MARK_DONE:
+        return args(TaskStatus.DONE, now, now, version + 1, taskId, version);
+      case DELETE:
+        return args(taskId, version);
+      case SET_TO_BE_RETRIED:
+        return change.isResetTriesCount()
+            ? args(TaskStatus.WAITING, change.getRetryTime(), 0, now, now, version + 1, taskId, version)
+            : args(TaskStatus.WAITING, change.getRetryTime(), now, now, version + 1, taskId, version);
+      default:
+        throw new IllegalStateException("Unsupported state change type '" + change.getType() + "'.");
+    }
+  }
+
   @Override
   @Transactional(rollbackFor = Exception.class)
   public boolean scheduleTaskForImmediateExecution(UUID taskId, long version) {
     Timestamp now = Timestamp.from(Instant.now(ClockHolder.getClock()));
     int updatedCount = jdbcTemplate.update(scheduleTaskForImmediateExecutionSql, args(TaskStatus.WAITING,
         now, now, now, version + 1, taskId, version));
+    if (updatedCount == 1) {
+      waitingTasksScheduled(now.toInstant());
+    }
     return updatedCount == 1;
   }
 
@@ -247,7 +706,8 @@ public class MySqlTaskDao implements ITaskDao {
         new StuckTask()
             .setVersionId(new TaskVersionId(toUuid(rs.getObject(1)), rs.getLong(2)))
             .setType(rs.getString(3))
-            .setPriority(rs.getInt(4)).setStatus(rs.getString(5)));
+            .setPriority(rs.getInt(4)).setStatus(rs.getString(5))
+            .setOrderingKey(getOrderingKey(rs, 6)));
     boolean hasMore = stuckTasks.size() > batchSize;
     if (hasMore) {
       stuckTasks.remove(stuckTasks.size() - 1);
@@ -255,6 +715,63 @@ public class MySqlTaskDao implements ITaskDao {
     return new GetStuckTasksResponse().setStuckTasks(stuckTasks).setHasMore(hasMore);
   }
 
+  @Override
+  public GetStuckTasksResponse getStuckTasks(GetStuckTasksRequest request) {
+    TaskStatus[] statuses = request.getStatuses();
+    String type = request.getType();
+    TasksCursor after = request.getAfter();
+    ZonedDateTime maxNextEventTime = request.getMaxNextEventTime();
+
+    final String sql = cachedSql(sqlKey("getStuckTasksSqls", statuses.length, type == null ? 0 : 1, maxNextEventTime == null ? 0 : 1,
+        after == null ? 0 : 1), () -> {
+          StringBuilder sb = new StringBuilder(getExpandedSql(getStuckTasksSqls[0], statuses.length));
+          if (type != null) {
+            sb.append(getStuckTasksSqls[1]);
+          }
+          if (maxNextEventTime != null) {
+            sb.append(getStuckTasksSqls[2]);
+          }
+          if (after != null) {
+            sb.append(getStuckTasksSqls[3]);
+          }
+          return sb.append(getStuckTasksSqls[4]).toString();
+        });
+
+    List<Object> args = new ArrayList<>(Arrays.asList(statuses));
+    if (type != null) {
+      args.add(type);
+    }
+    if (maxNextEventTime != null) {
+      args.add(maxNextEventTime);
+    }
+    if (after != null) {
+      args.add(after.getNextEventTime());
+      args.add(after.getNextEventTime());
+      args.add(after.getTaskId());
+    }
+    args.add(request.getBatchSize() + 1);
+
+    List<Pair<StuckTask, ZonedDateTime>> rows = jdbcTemplate.query(sql, args(args.toArray(new Object[0])), (rs, rowNum) ->
+        ImmutablePair.of(new StuckTask()
+                .setVersionId(new TaskVersionId(toUuid(rs.getObject(1)), rs.getLong(2)))
+                .setType(rs.getString(3))
+                .setPriority(rs.getInt(4)).setStatus(rs.getString(5))
+                .setOrderingKey(getOrderingKey(rs, 7)),
+            TimeUtils.toZonedDateTime(rs.getTimestamp(6))));
+    boolean hasMore = rows.size() > request.getBatchSize();
+    if (hasMore) {
+      rows.remove(rows.size() - 1);
+    }
+
+    GetStuckTasksResponse response = new GetStuckTasksResponse().setHasMore(hasMore)
+        .setStuckTasks(rows.stream().map(Pair::getLeft).collect(Collectors.toList()));
+    if (!rows.isEmpty()) {
+      Pair<StuckTask, ZonedDateTime> last = rows.get(rows.size() - 1);
+      response.setCursor(new TasksCursor().setNextEventTime(last.getRight()).setTaskId(last.getLeft().getVersionId().getId()));
+    }
+    return response;
+  }
+
   @Override
   //TODO: Annotate with ManagementOnly.
   //TODO: Will not perform well on MySQL. See #getTasksInProcessingOrWaitingStatus
@@ -287,7 +804,7 @@ public class MySqlTaskDao implements ITaskDao {
           if (updatedCount == 1) {
             result.add(new StuckTask().setVersionId(new TaskVersionId(toUuid(id), version + 1))
                 .setType(rs.getString(3)).setStatus(TaskStatus.SUBMITTED.name())
-                .setPriority(rs.getInt(4)));
+                .setPriority(rs.getInt(4)).setOrderingKey(getOrderingKey(rs, 5)));
           }
         });
 
@@ -305,6 +822,55 @@ public class MySqlTaskDao implements ITaskDao {
     return updatedCount == 1;
   }
 
+  /**
+   * Locked rows are skipped, instead of waited for, which requires MySQL 8, MariaDB 10.6 or Postgres 9.5.
+   */
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public List<BaseTask> claimSubmittedTasks(int maxCount, String nodeId, Collection<String> excludedTypes) {
+    final Timestamp now = Timestamp.from(Instant.now(ClockHolder.getClock()));
+
+    String sql = excludedTypes.isEmpty() ? claimSubmittedTasksSql
+        : cachedSql(sqlKey("claimSubmittedTasksSql2", excludedTypes.size()), () -> getExpandedSql(claimSubmittedTasksSql2, excludedTypes.size()));
+    List<Object> args = new ArrayList<>();
+    args.add(TaskStatus.SUBMITTED);
+    args.addAll(excludedTypes);
+    args.add(maxCount);
+    List<BaseTask> tasks = jdbcTemplate.query(sql, args(args.toArray(new Object[0])), (rs, rowNum) ->
+        new BaseTask().setId(toUuid(rs.getObject(1))).setVersion(rs.getLong(2))
+            .setType(rs.getString(3)).setPriority(rs.getInt(4)).setOrderingKey(getOrderingKey(rs, 5)));
+    if (tasks.isEmpty()) {
+      return tasks;
+    }
+
+    // The rows are locked by us, so every update is going to succeed.
+    jdbcTemplate.batchUpdate(claimSubmittedTasksSql1, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        BaseTask task = tasks.get(i);
+        args(nodeId, now, task.getVersion() + 1, task.getId(), task.getVersion()).setValues(ps);
+      }
+
+      @Override
+      public int getBatchSize() {
+        return tasks.size();
+      }
+    });
+
+    for (BaseTask task : tasks) {
+      task.setVersion(task.getVersion() + 1);
+    }
+    return tasks;
+  }
+
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public int releaseClaimedTasks(String nodeId) {
+    Timestamp now = Timestamp.from(Instant.now(ClockHolder.getClock()));
+
+    return jdbcTemplate.update(releaseClaimedTasksSql, args(now, TaskStatus.SUBMITTED, nodeId));
+  }
+
   @Override
   // TODO: For Tests only
   public List<Task> findTasksByTypeSubTypeAndStatus(String type, String subType, TaskStatus... statuses) {
@@ -332,7 +898,7 @@ public class MySqlTaskDao implements ITaskDao {
         new Task().setId(toUuid(rs.getObject(1)))
             .setType(rs.getString(2))
             .setSubType(rs.getString(3))
-            .setData(rs.getString(4))
+            .setData(getData(rs, 4, 9))
             .setStatus(rs.getString(5))
             .setVersion(rs.getLong(6))
             .setProcessingTriesCount(rs.getLong(7))
@@ -375,22 +941,23 @@ public class MySqlTaskDao implements ITaskDao {
       List<BaseTask1> result = jdbcTemplate.query(getTaskSql, args(taskId), (rs, rowNum) ->
           new BaseTask1().setId(toUuid(rs.getObject(1)))
               .setVersion(rs.getLong(2)).setType(rs.getString(3))
-              .setStatus(rs.getString(4)).setPriority(rs.getInt(5)));
+              .setStatus(rs.getString(4)).setPriority(rs.getInt(5))
+              .setOrderingKey(getOrderingKey(rs, 6)));
       return (T) getFirst(result);
     } else if (clazz.equals(Task.class)) {
       List<Task> result = jdbcTemplate.query(getTaskSql1, args(taskId), (rs, rowNum) ->
-          new Task().setId(toUuid(rs.getObject(1)))
+          lazyLoadData(new Task().setId(toUuid(rs.getObject(1)))
               .setVersion(rs.getLong(2)).setType(rs.getString(3))
               .setStatus(rs.getString(4)).setPriority(rs.getInt(5))
               .setSubType(rs.getString(6)).setData(rs.getString(7))
-              .setProcessingTriesCount(rs.getLong(8)));
+              .setProcessingTriesCount(rs.getLong(8))));
       return (T) getFirst(result);
     } else if (clazz.equals(FullTaskRecord.class)) {
       List<FullTaskRecord> result = jdbcTemplate.query(getTaskSql2, args(taskId), (rs, rowNum) ->
           new FullTaskRecord().setId(toUuid(rs.getObject(1)))
               .setVersion(rs.getLong(2)).setType(rs.getString(3))
               .setStatus(rs.getString(4)).setPriority(rs.getInt(5))
-              .setSubType(rs.getString(6)).setData(rs.getString(7))
+              .setSubType(rs.getString(6)).setData(getData(rs, 7, 12))
               .setProcessingTriesCount(rs.getLong(8))
               .setStateTime(toZonedDateTime(rs.getTimestamp(9)))
               .setNextEventTime(toZonedDateTime(rs.getTimestamp(10)))
@@ -407,6 +974,9 @@ public class MySqlTaskDao implements ITaskDao {
   public void deleteAllTasks() {
     jdbcTemplate.update(deleteAllTasksSql);
     jdbcTemplate.update(deleteAllTasksSql1);
+    if (tasksProperties.isTaskDataInSeparateTable()) {
+      jdbcTemplate.update(deleteAllTaskDataSql);
+    }
   }
 
   @Override
@@ -469,17 +1039,25 @@ public class MySqlTaskDao implements ITaskDao {
         return deletedIds.size();
       }
     });
+    deleteTaskData(deletedIds);
   }
 
   @Override
   @Transactional(rollbackFor = Exception.class)
   public DeleteFinishedOldTasksResult deleteOldTasks(TaskStatus taskStatus, Duration age, int batchSize) {
+    return deleteOldTasks(taskStatus, age, batchSize, null);
+  }
+
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public DeleteFinishedOldTasksResult deleteOldTasks(TaskStatus taskStatus, Duration age, int batchSize, ZonedDateTime createdBefore) {
     DeleteFinishedOldTasksResult result = new DeleteFinishedOldTasksResult();
     Timestamp deletedBeforeTime = Timestamp.from(Instant.now(ClockHolder.getClock()).minus(age));
 
-    List<Pair<Object, Long>> taskVersionIds = jdbcTemplate.query(deleteFinishedOldTasksSql,
-        args(taskStatus.name(), deletedBeforeTime, batchSize),
-        (rs, rowNum) -> ImmutablePair.of(rs.getObject(1), rs.getLong(2)));
+    PreparedStatementSetter deleteFinishedOldTasksArgs = createdBefore == null ? args(taskStatus.name(), deletedBeforeTime, batchSize)
+        : args(taskStatus.name(), deletedBeforeTime, createdBefore, batchSize);
+    List<Pair<Object, Long>> taskVersionIds = jdbcTemplate.query(createdBefore == null ? deleteFinishedOldTasksSql : deleteFinishedOldTasksSql2,
+        deleteFinishedOldTasksArgs, (rs, rowNum) -> ImmutablePair.of(rs.getObject(1), rs.getLong(2)));
 
     if (!taskVersionIds.isEmpty()) {
       UUID firstDeletedTaskId = toUuid(taskVersionIds.get(0).getLeft());
@@ -524,6 +1102,7 @@ public class MySqlTaskDao implements ITaskDao {
         return deletedIds.size();
       }
     })).sum();
+    deleteTaskData(deletedIds);
 
     result.setDeletedTasksCount(result.getDeletedTasksCount() + tasksCount);
     result.setDeletedUniqueKeysCount(result.getDeletedUniqueKeysCount() + uniqueTaskKeysCount);
@@ -539,6 +1118,7 @@ public class MySqlTaskDao implements ITaskDao {
     int updatedCount = jdbcTemplate.update(deleteTaskSql, args(taskId, version));
     if (updatedCount != 0) {
       jdbcTemplate.update(deleteUniqueTaskKeySql, args(taskId));
+      deleteTaskData(Collections.singletonList(taskId));
     }
     return updatedCount > 0;
   }
@@ -572,6 +1152,9 @@ public class MySqlTaskDao implements ITaskDao {
     Timestamp now = Timestamp.from(Instant.now(ClockHolder.getClock()));
     int updatedCount = jdbcTemplate.update(clearPayloadAndMarkDoneSql, args(TaskStatus.DONE, now, now, version + 1,
         taskId, version));
+    if (updatedCount == 1) {
+      deleteTaskData(Collections.singletonList(taskId));
+    }
 
     return updatedCount == 1;
   }
@@ -592,22 +1175,15 @@ public class MySqlTaskDao implements ITaskDao {
       if (idsLeft < 1) {
         return result;
       }
-      int bucketId = 0;
-      for (int j = questionBuckets.length - 1; j >= 0; j--) {
-        if (questionBuckets[j] <= idsLeft) {
-          bucketId = j;
-          break;
-        }
-      }
-      int questionsCount = questionBuckets[bucketId];
+      int questionsCount = getQuestionsCount(idsLeft);
 
-      String sql = cachedSql(sqlKey("getTasks", bucketId), () ->
+      String sql = cachedSql(sqlKey("getTasks", questionsCount), () ->
           getExpandedSql(getTasksSql, questionsCount));
 
       result.addAll(jdbcTemplate.query(sql, args(taskIds.subList(idx, idx + questionsCount)),
           ((rs, rowNum) ->
               new FullTaskRecord().setId(toUuid(rs.getObject(1))).setType(rs.getString(2))
-                  .setSubType(rs.getString(3)).setData(rs.getString(4))
+                  .setSubType(rs.getString(3)).setData(getData(rs, 4, 12))
                   .setStatus(rs.getString(5)).setVersion(rs.getLong(6))
                   .setProcessingTriesCount(rs.getLong(7)).setPriority(rs.getInt(8))
                   .setStateTime(TimeUtils.toZonedDateTime(rs.getTimestamp(9)))
@@ -617,12 +1193,181 @@ public class MySqlTaskDao implements ITaskDao {
     }
   }
 
+  protected <T> List<T> queryByTaskIds(String sqlName, String sql, List<UUID> taskIds, RowMapper<T> rowMapper) {
+    List<T> result = new ArrayList<>();
+    int idx = 0;
+    while (idx < taskIds.size()) {
+      int questionsCount = getQuestionsCount(taskIds.size() - idx);
+      String expandedSql = cachedSql(sqlKey(sqlName, questionsCount), () -> getExpandedSql(sql, questionsCount));
+      result.addAll(jdbcTemplate.query(expandedSql, args(taskIds.subList(idx, idx + questionsCount)), rowMapper));
+      idx += questionsCount;
+    }
+    return result;
+  }
+
   //////////////////////////
 
+  /**
+   * Payload of a task, when payloads are kept in a separate table.
+   *
+   * <p>Tasks created before enabling the separate table do not have a row there, their payloads are still in the task table.
+   */
+  protected void loadTaskData(Task task) {
+    List<Boolean> found = jdbcTemplate.query(getTaskDataSql, args(task.getId()), (rs, rowNum) -> {
+      String codec = rs.getString(2);
+      if (codec == null) {
+        task.setData(rs.getString(1));
+      } else {
+        task.setDataBytes(taskDataCodecRegistry.getCodec(codec).decode(rs.getBytes(3)));
+      }
+      return Boolean.TRUE;
+    });
+    if (found.isEmpty()) {
+      task.setData("");
+    }
+  }
+
+  /**
+   * Reads the payload from the columns selected by eager selects, where the codec columns follow right after the last regular column.
+   */
+  protected String getData(ResultSet rs, int dataIdx, int codecIdx) throws SQLException {
+    if (tasksProperties.isTaskDataInSeparateTable()) {
+      String codec = rs.getString(codecIdx);
+      if (codec != null) {
+        return new String(taskDataCodecRegistry.getCodec(codec).decode(rs.getBytes(codecIdx + 1)), StandardCharsets.UTF_8);
+      }
+    }
+    return rs.getString(dataIdx);
+  }
+
+  /**
+   * With payloads kept in a separate table, the task table has an empty payload and the actual one is loaded only when asked for.
+   */
+  protected Task lazyLoadData(Task task) {
+    if (tasksProperties.isTaskDataInSeparateTable() && "".equals(task.getData())) {
+      task.setData(null).setDataLoader(this::loadTaskData);
+    }
+    return task;
+  }
+
+  protected PreparedStatementSetter insertTaskArgs(UUID taskId, InsertTaskRequest request, ZonedDateTime nextEventTime, Timestamp now) {
+    Object[] args = {taskId, request.getType(), request.getSubType(), request.getStatus(), getTaskTableData(request), nextEventTime, now, now,
+        now, 0, 0, request.getPriority(), request.getOrderingKey()};
+    return args(orderingKeyColumn.isEmpty() ? Arrays.copyOf(args, args.length - 1) : args);
+  }
+
+  protected String getOrderingKey(ResultSet rs, int columnIndex) throws SQLException {
+    return orderingKeyColumn.isEmpty() ? null : rs.getString(columnIndex);
+  }
+
+  protected String getTaskTableData(InsertTaskRequest request) {
+    if (tasksProperties.isTaskDataInSeparateTable()) {
+      return "";
+    }
+    if (request.getDataBytes() != null) {
+      throw new IllegalStateException("Binary payloads can only be stored when task data is kept in a separate table.");
+    }
+    return request.getData();
+  }
+
+  /**
+   * Text payloads without a codec are stored as they are, everything else is encoded into the binary column.
+   */
+  protected void insertTaskData(List<UUID> taskIds, List<InsertTaskRequest> requests) {
+    if (!tasksProperties.isTaskDataInSeparateTable() || taskIds.isEmpty()) {
+      return;
+    }
+
+    List<Integer> textIdxs = new ArrayList<>();
+    List<Integer> encodedIdxs = new ArrayList<>();
+    List<Pair<String, byte[]>> encodedData = new ArrayList<>();
+    for (int i = 0; i < requests.size(); i++) {
+      InsertTaskRequest request = requests.get(i);
+      ITaskDataCodec codec = taskDataCodecRegistry.getCodecForType(request.getType());
+      if (codec == null && request.getDataBytes() == null) {
+        textIdxs.add(i);
+      } else {
+        if (codec == null) {
+          codec = taskDataCodecRegistry.getCodec(RawTaskDataCodec.NAME);
+        }
+        byte[] data = request.getDataBytes() == null ? request.getData().getBytes(StandardCharsets.UTF_8) : request.getDataBytes();
+        encodedIdxs.add(i);
+        encodedData.add(ImmutablePair.of(codec.getName(), codec.encode(data)));
+      }
+    }
+
+    if (!textIdxs.isEmpty()) {
+      jdbcTemplate.batchUpdate(insertTaskDataSql, new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          int idx = textIdxs.get(i);
+          args(taskIds.get(idx), requests.get(idx).getData()).setValues(ps);
+        }
+
+        @Override
+        public int getBatchSize() {
+          return textIdxs.size();
+        }
+      });
+    }
+    if (!encodedIdxs.isEmpty()) {
+      jdbcTemplate.batchUpdate(insertTaskDataSql1, new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          args(taskIds.get(encodedIdxs.get(i)), encodedData.get(i).getLeft(), encodedData.get(i).getRight()).setValues(ps);
+        }
+
+        @Override
+        public int getBatchSize() {
+          return encodedIdxs.size();
+        }
+      });
+    }
+  }
+
+  protected void deleteTaskData(List<?> taskIds) {
+    if (!tasksProperties.isTaskDataInSeparateTable() || taskIds.isEmpty()) {
+      return;
+    }
+    jdbcTemplate.batchUpdate(deleteTaskDataSql, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        args(taskIds.get(i)).setValues(ps);
+      }
+
+      @Override
+      public int getBatchSize() {
+        return taskIds.size();
+      }
+    });
+  }
+
   protected <T> T getFirst(List<T> list) {
     return CollectionUtils.isEmpty(list) ? null : list.get(0);
   }
 
+  /**
+   * Largest question bucket fitting into the given count of arguments.
+   */
+  protected int getQuestionsCount(int argsCount) {
+    for (int j = questionBuckets.length - 1; j >= 0; j--) {
+      if (questionBuckets[j] <= argsCount) {
+        return questionBuckets[j];
+      }
+    }
+    return questionBuckets[0];
+  }
+
+  protected String getGrabForProcessingSql1(int count) {
+    StringBuilder whenSb = new StringBuilder();
+    StringBuilder inSb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      whenSb.append(grabForProcessingWhenSql);
+      inSb.append(i == 0 ? "" : ",").append(grabForProcessingInSql);
+    }
+    return grabForProcessingSql1.replace("{when}", whenSb.toString()).replace("{in}", inSb.toString());
+  }
+
   protected String getExpandedSql(String sql, int count) {
     StringBuilder sb = new StringBuilder();
     for (int i = 0; i < count; i++) {
@@ -648,6 +1393,19 @@ public class MySqlTaskDao implements ITaskDao {
     return ImmutablePair.of(key, sum);
   }
 
+  /**
+   * Called inside the transaction, which put tasks into WAITING state, with the earliest time any of those tasks should be resumed.
+   *
+   * <p>MySQL has nothing to notify the tasks resumer with, so it just polls.
+   */
+  protected void waitingTasksScheduled(Instant earliestNextEventTime) {
+  }
+
+  private Instant earliest(Instant time, ZonedDateTime otherTime) {
+    Instant otherInstant = otherTime.toInstant();
+    return time == null || otherInstant.isBefore(time) ? otherInstant : time;
+  }
+
   protected PreparedStatementSetter args(Object... args) {
     return new ArgumentPreparedStatementSetter(args);
   }
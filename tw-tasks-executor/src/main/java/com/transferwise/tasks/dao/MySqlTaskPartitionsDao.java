@@ -0,0 +1,139 @@
+package com.transferwise.tasks.dao;
+
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.domain.TaskStatus;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Expects {@code PARTITION BY RANGE COLUMNS(time_created)} with a catch-all {@code pmax} partition, see db.tw-tasks-mysql-partitioned.xml.
+ *
+ * <p>Partition bounds are written in UTC, so the database session should use UTC as well. Otherwise the boundaries are just shifted by the offset.
+ */
+@Slf4j
+public class MySqlTaskPartitionsDao implements ITaskPartitionsDao {
+
+  protected static final DateTimeFormatter PARTITION_NAME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+  protected static final DateTimeFormatter PARTITION_BOUND_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+  @Autowired
+  protected TasksProperties tasksProperties;
+
+  protected JdbcTemplate jdbcTemplate;
+
+  protected Pattern partitionNamePattern;
+  protected String catchAllPartitionName;
+
+  protected String getTaskPartitionsSql;
+  protected String addTaskPartitionSql;
+  protected String hasUndeletableTasksSql;
+  protected String dropTaskPartitionSql;
+  protected String dropTaskPartitionSql1;
+  protected String dropTaskPartitionSql2;
+  protected String dropTaskPartitionSql3;
+  protected String dropTaskPartitionSql4;
+
+  public MySqlTaskPartitionsDao(DataSource dataSource) {
+    jdbcTemplate = new JdbcTemplate(dataSource);
+  }
+
+  @PostConstruct
+  public void init() {
+    final String taskTable = tasksProperties.getTaskTableName();
+
+    partitionNamePattern = Pattern.compile("^p(\\d{12})$");
+    catchAllPartitionName = "pmax";
+
+    getTaskPartitionsSql = "select partition_name from information_schema.partitions where table_schema=database() and table_name=?"
+        + " and partition_name is not null";
+    addTaskPartitionSql = "alter table " + taskTable + " reorganize partition " + catchAllPartitionName + " into (partition {name}"
+        + " values less than ('{createdBefore}'), partition " + catchAllPartitionName + " values less than (maxvalue))";
+    hasUndeletableTasksSql = "select 1 from " + taskTable + " partition ({name}) where status not in (?,?) or next_event_time is null"
+        + " or next_event_time>=? limit 1";
+    dropTaskPartitionSql = "select id from " + taskTable + " partition ({name}) order by id limit ?";
+    dropTaskPartitionSql1 = "select id from " + taskTable + " partition ({name}) where id>? order by id limit ?";
+    dropTaskPartitionSql2 = "delete from " + tasksProperties.getUniqueTaskKeyTableName() + " where task_id in ({ids})";
+    dropTaskPartitionSql3 = "delete from " + tasksProperties.getTaskDataTableName() + " where task_id in ({ids})";
+    dropTaskPartitionSql4 = "alter table " + taskTable + " drop partition {name}";
+  }
+
+  @Override
+  public List<TaskPartition> getTaskPartitions() {
+    List<TaskPartition> result = new ArrayList<>();
+    for (String name : jdbcTemplate.queryForList(getTaskPartitionsSql, String.class, tasksProperties.getTaskTableName())) {
+      Matcher matcher = partitionNamePattern.matcher(name);
+      if (!matcher.matches()) {
+        continue;
+      }
+      try {
+        ZonedDateTime createdBefore = LocalDateTime.parse(matcher.group(1), PARTITION_NAME_FORMATTER).atZone(ZoneOffset.UTC);
+        result.add(new TaskPartition().setName(name).setCreatedBefore(createdBefore));
+      } catch (DateTimeParseException e) {
+        log.warn("Ignoring task table partition '" + name + "'.");
+      }
+    }
+    result.sort(Comparator.comparing(TaskPartition::getCreatedBefore));
+    return result;
+  }
+
+  @Override
+  public void addTaskPartition(ZonedDateTime createdAfter, ZonedDateTime createdBefore) {
+    jdbcTemplate.execute(addTaskPartitionSql.replace("{name}", getPartitionName(createdBefore))
+        .replace("{createdBefore}", formatBound(createdBefore)));
+  }
+
+  @Override
+  public boolean hasUndeletableTasks(TaskPartition partition, ZonedDateTime deletedBeforeTime) {
+    return !jdbcTemplate.queryForList(hasUndeletableTasksSql.replace("{name}", partition.getName()), Integer.class,
+        TaskStatus.DONE.name(), TaskStatus.FAILED.name(), Timestamp.from(deletedBeforeTime.toInstant())).isEmpty();
+  }
+
+  /**
+   * Tasks of the partition are walked through by id, as the partition does not change any more.
+   */
+  @Override
+  public void dropTaskPartition(TaskPartition partition, int batchSize) {
+    Object lastId = null;
+    while (true) {
+      List<Object> ids = lastId == null
+          ? jdbcTemplate.queryForList(dropTaskPartitionSql.replace("{name}", partition.getName()), Object.class, batchSize)
+          : jdbcTemplate.queryForList(dropTaskPartitionSql1.replace("{name}", partition.getName()), Object.class, lastId, batchSize);
+      if (ids.isEmpty()) {
+        break;
+      }
+      String idsQuestions = String.join(",", Collections.nCopies(ids.size(), "?"));
+      jdbcTemplate.update(dropTaskPartitionSql2.replace("{ids}", idsQuestions), ids.toArray());
+      if (tasksProperties.isTaskDataInSeparateTable()) {
+        jdbcTemplate.update(dropTaskPartitionSql3.replace("{ids}", idsQuestions), ids.toArray());
+      }
+      if (ids.size() < batchSize) {
+        break;
+      }
+      lastId = ids.get(ids.size() - 1);
+    }
+    jdbcTemplate.execute(dropTaskPartitionSql4.replace("{name}", partition.getName()));
+  }
+
+  protected String getPartitionName(ZonedDateTime createdBefore) {
+    return "p" + PARTITION_NAME_FORMATTER.format(createdBefore.withZoneSameInstant(ZoneOffset.UTC));
+  }
+
+  protected String formatBound(ZonedDateTime time) {
+    return PARTITION_BOUND_FORMATTER.format(time.withZoneSameInstant(ZoneOffset.UTC));
+  }
+}
@@ -1,11 +1,26 @@
 package com.transferwise.tasks.dao;
 
+import static com.transferwise.tasks.utils.UuidUtils.toUuid;
+
+import com.transferwise.common.baseutils.clock.ClockHolder;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.domain.Task;
+import com.transferwise.tasks.domain.TaskStatus;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
 import java.util.UUID;
 import javax.annotation.PostConstruct;
 import javax.sql.DataSource;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public class PostgresTaskDao extends MySqlTaskDao {
 
+  protected String notifyWaitingTasksScheduledSql;
+
   public PostgresTaskDao(DataSource dataSource) {
     super(dataSource);
   }
@@ -19,14 +34,101 @@ public class PostgresTaskDao extends MySqlTaskDao {
     String uniqueTaskKeyTable = tasksProperties.getUniqueTaskKeyTableName();
 
     insertTaskSql = "insert into " + taskTable + "(id,type,sub_type,status,data,next_event_time"
-        + ",state_time,time_created,time_updated,processing_tries_count,version,priority) values"
-        + "(?,?,?,?,?,?,?,?,?,?,?,?) on conflict do nothing";
+        + ",state_time,time_created,time_updated,processing_tries_count,version,priority" + orderingKeyColumn + ") values"
+        + "(?,?,?,?,?,?,?,?,?,?,?,?" + (orderingKeyColumn.isEmpty() ? "" : ",?") + ") on conflict do nothing";
     insertUniqueTaskKeySql = "insert into " + uniqueTaskKeyTable + "(task_id,key_hash,key) values"
         + "(?, ?, ?) on conflict (key_hash, key) do nothing";
+    getUniqueTaskKeysSql = "select task_id,key from " + uniqueTaskKeyTable + " where task_id in (??)";
+    grabForProcessingSql = "update " + taskTable + " set processing_client_id=?,status=?"
+        + ",processing_start_time=?,next_event_time=?,processing_tries_count=processing_tries_count+1"
+        + ",state_time=?,time_updated=?,version=? where id=? and version=? and status=?"
+        + " returning id,version,type,status,priority,sub_type,data,processing_tries_count";
+    // Parameters in case arms are not typed by the column they end up in, and untyped ones would be resolved to text.
+    grabForProcessingWhenSql = " when ?::uuid then ?::timestamptz";
+    grabForProcessingInSql = "(?::uuid,?)";
+    notifyWaitingTasksScheduledSql = "select pg_notify(?,?)";
+  }
+
+  /**
+   * Postgres can return the updated row, so we can avoid a separate round trip for fetching the task.
+   *
+   * <p>MySQL and MariaDB do not support returning rows from an update, so {@link MySqlTaskDao} still has to do a separate select.
+   */
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public Task grabForProcessing(BaseTask task, String clientId, Instant maxProcessingEndTime) {
+    Timestamp now = Timestamp.from(Instant.now(ClockHolder.getClock()));
+
+    List<Task> result = jdbcTemplate.query(grabForProcessingSql, args(clientId, TaskStatus.PROCESSING, now,
+        maxProcessingEndTime, now, now, task.getVersion() + 1, task.getId(), task.getVersion(), TaskStatus.SUBMITTED),
+        (rs, rowNum) -> lazyLoadData(new Task().setId(toUuid(rs.getObject(1)))
+            .setVersion(rs.getLong(2)).setType(rs.getString(3))
+            .setStatus(rs.getString(4)).setPriority(rs.getInt(5))
+            .setSubType(rs.getString(6)).setData(rs.getString(7))
+            .setProcessingTriesCount(rs.getLong(8))));
+    return getFirst(result);
+  }
+
+  /**
+   * Postgres delivers the notification only when the transaction commits. Transactions sending notifications are committed one at a time,
+   * so they are kept to a minimum.
+   *
+   * <p>Tasks due after the resumer's longest sleep are not notified about, as the resumer wakes up before them anyway. Other ones are
+   * collected until the transaction is about to commit, and one notification is sent for the earliest of them.
+   *
+   * @see PostgresTaskNotificationsListener
+   */
+  @Override
+  protected void waitingTasksScheduled(Instant earliestNextEventTime) {
+    if (!tasksProperties.isWaitingTasksNotificationsEnabled()) {
+      return;
+    }
+    if (!earliestNextEventTime.isBefore(Instant.now(ClockHolder.getClock()).plus(tasksProperties.getWaitingTasksMaxPollingInterval()))) {
+      return;
+    }
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      notifyWaitingTasksScheduled(earliestNextEventTime);
+      return;
+    }
+    for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+      if (synchronization instanceof WaitingTasksNotification && ((WaitingTasksNotification) synchronization).dao == this) {
+        ((WaitingTasksNotification) synchronization).add(earliestNextEventTime);
+        return;
+      }
+    }
+    TransactionSynchronizationManager.registerSynchronization(new WaitingTasksNotification(this, earliestNextEventTime));
+  }
+
+  protected void notifyWaitingTasksScheduled(Instant earliestNextEventTime) {
+    jdbcTemplate.query(notifyWaitingTasksScheduledSql, args(tasksProperties.getWaitingTasksNotificationsChannel(),
+        String.valueOf(earliestNextEventTime.toEpochMilli())), rs -> {
+        });
   }
 
   @Override
   protected Object asUuidArg(UUID uuid) {
     return uuid;
   }
+
+  private static class WaitingTasksNotification extends TransactionSynchronizationAdapter {
+
+    private final PostgresTaskDao dao;
+    private Instant earliestNextEventTime;
+
+    private WaitingTasksNotification(PostgresTaskDao dao, Instant earliestNextEventTime) {
+      this.dao = dao;
+      this.earliestNextEventTime = earliestNextEventTime;
+    }
+
+    private void add(Instant nextEventTime) {
+      if (nextEventTime.isBefore(earliestNextEventTime)) {
+        earliestNextEventTime = nextEventTime;
+      }
+    }
+
+    @Override
+    public void beforeCommit(boolean readOnly) {
+      dao.notifyWaitingTasksScheduled(earliestNextEventTime);
+    }
+  }
 }
@@ -0,0 +1,134 @@
+package com.transferwise.tasks.dao;
+
+import com.transferwise.common.gracefulshutdown.GracefulShutdownStrategy;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.helpers.IErrorLoggingThrottler;
+import com.transferwise.tasks.helpers.executors.IExecutorsHelper;
+import com.transferwise.tasks.utils.WaitUtils;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Listens notifications sent by {@link PostgresTaskDao} when tasks get scheduled.
+ *
+ * <p>Keeps one connection from the pool for itself, with LISTEN on {@link TasksProperties#getWaitingTasksNotificationsChannel()}. When the
+ * connection breaks, a new one is taken after {@link TasksProperties#getGenericMediumDelay()}. Notifications sent in between are lost, which is
+ * why the tasks resumer still polls occasionally.
+ */
+@Slf4j
+public class PostgresTaskNotificationsListener implements ITaskNotificationsListener, GracefulShutdownStrategy {
+
+  @Autowired
+  private TasksProperties tasksProperties;
+  @Autowired
+  private IExecutorsHelper executorsHelper;
+  @Autowired
+  private IErrorLoggingThrottler errorLoggingThrottler;
+
+  private final DataSource dataSource;
+  private final List<Consumer<Instant>> listeners = new CopyOnWriteArrayList<>();
+  private ExecutorService executorService;
+  private volatile boolean shuttingDown;
+
+  public PostgresTaskNotificationsListener(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  @PostConstruct
+  public void init() {
+    if (!isEnabled()) {
+      return;
+    }
+    executorService = executorsHelper.newCachedExecutor("taskNotificationsListener");
+    executorService.submit(() -> {
+      while (!shuttingDown) {
+        try {
+          listen();
+        } catch (Throwable t) {
+          if (errorLoggingThrottler.canLogError()) {
+            log.error("Listening task notifications failed.", t);
+          }
+          WaitUtils.sleepQuietly(tasksProperties.getGenericMediumDelay());
+        }
+      }
+    });
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return tasksProperties.isWaitingTasksNotificationsEnabled();
+  }
+
+  @Override
+  public void addWaitingTasksScheduledListener(Consumer<Instant> listener) {
+    listeners.add(listener);
+  }
+
+  protected void listen() throws SQLException {
+    String channel = tasksProperties.getWaitingTasksNotificationsChannel();
+    try (Connection connection = dataSource.getConnection()) {
+      connection.setAutoCommit(true);
+      execute(connection, "listen " + channel);
+      log.info("Started to listen task notifications on channel '" + channel + "'.");
+
+      PGConnection pgConnection = connection.unwrap(PGConnection.class);
+      while (!shuttingDown) {
+        PGNotification[] notifications = pgConnection.getNotifications((int) tasksProperties.getGenericMediumDelay().toMillis());
+        if (notifications == null || notifications.length == 0) {
+          continue;
+        }
+
+        Instant earliestTime = null;
+        for (PGNotification notification : notifications) {
+          try {
+            Instant time = Instant.ofEpochMilli(Long.parseLong(notification.getParameter()));
+            if (earliestTime == null || time.isBefore(earliestTime)) {
+              earliestTime = time;
+            }
+          } catch (NumberFormatException e) {
+            log.debug("Ignoring notification with payload '" + notification.getParameter() + "'.");
+          }
+        }
+        if (earliestTime != null) {
+          for (Consumer<Instant> listener : listeners) {
+            listener.accept(earliestTime);
+          }
+        }
+      }
+
+      // The connection goes back to the pool.
+      execute(connection, "unlisten " + channel);
+    }
+  }
+
+  private void execute(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  @Override
+  public void prepareForShutdown() {
+    shuttingDown = true;
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+  }
+
+  @Override
+  public boolean canShutdown() {
+    return executorService == null || executorService.isTerminated();
+  }
+}
@@ -0,0 +1,98 @@
+package com.transferwise.tasks.dao;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Expects declarative {@code PARTITION BY RANGE (time_created)} with a default partition, see db.tw-tasks-postgres-partitioned.xml. Partitions
+ * are separate tables named {@code <task table>_p<yyyyMMddHHmm>}, by their upper bound in UTC.
+ */
+public class PostgresTaskPartitionsDao extends MySqlTaskPartitionsDao {
+
+  protected String getCatchAllPartitionSql;
+  protected String addTaskPartitionSql1;
+  protected String addTaskPartitionSql2;
+  protected String addTaskPartitionSql3;
+  protected String addTaskPartitionSql4;
+  protected String addTaskPartitionSql5;
+
+  public PostgresTaskPartitionsDao(DataSource dataSource) {
+    super(dataSource);
+  }
+
+  @PostConstruct
+  @Override
+  public void init() {
+    super.init();
+
+    String taskTable = tasksProperties.getTaskTableName();
+
+    partitionNamePattern = Pattern.compile("^" + Pattern.quote(taskTable) + "_p(\\d{12})$");
+
+    getTaskPartitionsSql = "select c.relname from pg_inherits i join pg_class c on c.oid=i.inhrelid where i.inhparent=?::regclass";
+    getCatchAllPartitionSql = "select c.relname from pg_inherits i join pg_class c on c.oid=i.inhrelid where i.inhparent=?::regclass"
+        + " and pg_get_expr(c.relpartbound,c.oid)='DEFAULT'";
+    // Rows in the default partition, belonging to the new one, would make creating it fail, so those are moved over.
+    addTaskPartitionSql = "select 1 from {catchAll} where time_created>={createdAfter} and time_created<{createdBefore} limit 1";
+    addTaskPartitionSql1 = "alter table " + taskTable + " detach partition {catchAll}";
+    addTaskPartitionSql2 = "create table {name} partition of " + taskTable + " for values from ({createdAfter}) to ({createdBefore})";
+    addTaskPartitionSql3 = "insert into {name} select * from {catchAll} where time_created>={createdAfter} and time_created<{createdBefore}";
+    addTaskPartitionSql4 = "delete from {catchAll} where time_created>={createdAfter} and time_created<{createdBefore}";
+    addTaskPartitionSql5 = "alter table " + taskTable + " attach partition {catchAll} default";
+    hasUndeletableTasksSql = "select 1 from {name} where status not in (?,?) or next_event_time is null or next_event_time>=? limit 1";
+    dropTaskPartitionSql = "select id from {name} order by id limit ?";
+    dropTaskPartitionSql1 = "select id from {name} where id>? order by id limit ?";
+    dropTaskPartitionSql4 = "alter table " + taskTable + " detach partition {name}";
+  }
+
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public void addTaskPartition(ZonedDateTime createdAfter, ZonedDateTime createdBefore) {
+    String name = getPartitionName(createdBefore);
+    String catchAllPartition = getFirst(jdbcTemplate.queryForList(getCatchAllPartitionSql, String.class, tasksProperties.getTaskTableName()));
+    String createdAfterBound = createdAfter == null ? "'-infinity'" : "'" + formatBound(createdAfter) + "'";
+    String createdBeforeBound = "'" + formatBound(createdBefore) + "'";
+
+    boolean moveTasks = catchAllPartition != null && !jdbcTemplate.queryForList(expand(addTaskPartitionSql, name, catchAllPartition,
+        createdAfterBound, createdBeforeBound), Integer.class).isEmpty();
+    if (moveTasks) {
+      jdbcTemplate.execute(expand(addTaskPartitionSql1, name, catchAllPartition, null, null));
+    }
+    jdbcTemplate.execute(expand(addTaskPartitionSql2, name, catchAllPartition, createdAfter == null ? "minvalue" : createdAfterBound,
+        createdBeforeBound));
+    if (moveTasks) {
+      jdbcTemplate.update(expand(addTaskPartitionSql3, name, catchAllPartition, createdAfterBound, createdBeforeBound));
+      jdbcTemplate.update(expand(addTaskPartitionSql4, name, catchAllPartition, createdAfterBound, createdBeforeBound));
+      jdbcTemplate.execute(expand(addTaskPartitionSql5, name, catchAllPartition, null, null));
+    }
+  }
+
+  @Override
+  public void dropTaskPartition(TaskPartition partition, int batchSize) {
+    super.dropTaskPartition(partition, batchSize);
+    jdbcTemplate.execute("drop table " + partition.getName());
+  }
+
+  @Override
+  protected String getPartitionName(ZonedDateTime createdBefore) {
+    return tasksProperties.getTaskTableName() + "_" + super.getPartitionName(createdBefore);
+  }
+
+  @Override
+  protected String formatBound(ZonedDateTime time) {
+    return super.formatBound(time) + "+00";
+  }
+
+  private String expand(String sql, String name, String catchAllPartition, String createdAfter, String createdBefore) {
+    return sql.replace("{name}", name).replace("{catchAll}", String.valueOf(catchAllPartition))
+        .replace("{createdAfter}", String.valueOf(createdAfter)).replace("{createdBefore}", String.valueOf(createdBefore));
+  }
+
+  private <T> T getFirst(List<T> list) {
+    return list.isEmpty() ? null : list.get(0);
+  }
+}
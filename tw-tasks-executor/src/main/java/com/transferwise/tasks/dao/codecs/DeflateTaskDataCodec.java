@@ -0,0 +1,41 @@
+package com.transferwise.tasks.dao.codecs;
+
+import com.transferwise.common.baseutils.ExceptionUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Best compression ratio from the built in codecs, but also the slowest one.
+ */
+public class DeflateTaskDataCodec implements ITaskDataCodec {
+
+  public static final String NAME = "deflate";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public byte[] encode(byte[] data) {
+    return ExceptionUtils.doUnchecked(() -> {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 4 + 16);
+      try (DeflaterOutputStream dos = new DeflaterOutputStream(bos)) {
+        dos.write(data);
+      }
+      return bos.toByteArray();
+    });
+  }
+
+  @Override
+  public byte[] decode(byte[] data) {
+    return ExceptionUtils.doUnchecked(() -> {
+      try (InflaterInputStream iis = new InflaterInputStream(new ByteArrayInputStream(data))) {
+        return IOUtils.toByteArray(iis);
+      }
+    });
+  }
+}
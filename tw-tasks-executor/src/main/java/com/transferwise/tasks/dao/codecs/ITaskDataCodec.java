@@ -0,0 +1,16 @@
+package com.transferwise.tasks.dao.codecs;
+
+/**
+ * Encodes task payloads before storing them into the database, for example to compress them.
+ *
+ * <p>The name of the codec is stored together with the payload, so a codec has to stay registered for as long as there are tasks encoded with
+ * it.
+ */
+public interface ITaskDataCodec {
+
+  String getName();
+
+  byte[] encode(byte[] data);
+
+  byte[] decode(byte[] data);
+}
@@ -0,0 +1,14 @@
+package com.transferwise.tasks.dao.codecs;
+
+public interface ITaskDataCodecRegistry {
+
+  /**
+   * Codec with the given name, fails when it is not registered.
+   */
+  ITaskDataCodec getCodec(String name);
+
+  /**
+   * Codec configured for the task type, or null when payloads of that type are stored as text.
+   */
+  ITaskDataCodec getCodecForType(String type);
+}
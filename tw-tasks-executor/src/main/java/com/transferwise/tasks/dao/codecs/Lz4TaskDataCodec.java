@@ -0,0 +1,47 @@
+package com.transferwise.tasks.dao.codecs;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Very fast, with a moderate compression ratio. A good default for large JSON payloads.
+ *
+ * <p>The encoded payload is prefixed with the length of the original payload, as LZ4 block format does not contain it.
+ */
+public class Lz4TaskDataCodec implements ITaskDataCodec {
+
+  public static final String NAME = "lz4";
+
+  private final LZ4Compressor compressor;
+  private final LZ4FastDecompressor decompressor;
+
+  public Lz4TaskDataCodec() {
+    LZ4Factory factory = LZ4Factory.fastestInstance();
+    compressor = factory.fastCompressor();
+    decompressor = factory.fastDecompressor();
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public byte[] encode(byte[] data) {
+    byte[] result = new byte[4 + compressor.maxCompressedLength(data.length)];
+    ByteBuffer.wrap(result).putInt(data.length);
+    int compressedLength = compressor.compress(data, 0, data.length, result, 4);
+    return Arrays.copyOf(result, 4 + compressedLength);
+  }
+
+  @Override
+  public byte[] decode(byte[] data) {
+    int length = ByteBuffer.wrap(data).getInt();
+    byte[] result = new byte[length];
+    decompressor.decompress(data, 4, result, 0, length);
+    return result;
+  }
+}
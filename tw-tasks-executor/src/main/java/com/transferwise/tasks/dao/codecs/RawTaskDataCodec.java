@@ -0,0 +1,24 @@
+package com.transferwise.tasks.dao.codecs;
+
+/**
+ * Stores binary payloads as they are.
+ */
+public class RawTaskDataCodec implements ITaskDataCodec {
+
+  public static final String NAME = "raw";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public byte[] encode(byte[] data) {
+    return data;
+  }
+
+  @Override
+  public byte[] decode(byte[] data) {
+    return data;
+  }
+}
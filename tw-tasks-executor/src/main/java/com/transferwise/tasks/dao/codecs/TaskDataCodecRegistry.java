@@ -0,0 +1,60 @@
+package com.transferwise.tasks.dao.codecs;
+
+import com.transferwise.tasks.TasksProperties;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+
+@Slf4j
+public class TaskDataCodecRegistry implements ITaskDataCodecRegistry {
+
+  @Autowired
+  private TasksProperties tasksProperties;
+
+  @Autowired(required = false)
+  private List<ITaskDataCodec> taskDataCodecs;
+
+  private final Map<String, ITaskDataCodec> codecsByName = new HashMap<>();
+  private final Map<String, ITaskDataCodec> codecsByType = new HashMap<>();
+
+  @PostConstruct
+  public void init() {
+    for (ITaskDataCodec codec : Arrays.asList(new RawTaskDataCodec(), new DeflateTaskDataCodec(), new Lz4TaskDataCodec(),
+        new ZstdTaskDataCodec())) {
+      codecsByName.put(codec.getName(), codec);
+    }
+    if (CollectionUtils.isNotEmpty(taskDataCodecs)) {
+      for (ITaskDataCodec codec : taskDataCodecs) {
+        log.info("Registering task data codec '" + codec.getName() + "'.");
+        codecsByName.put(codec.getName(), codec);
+      }
+    }
+
+    Map<String, String> codecNamesByType = tasksProperties.getTaskDataCodecs();
+    if (!codecNamesByType.isEmpty() && !tasksProperties.isTaskDataInSeparateTable()) {
+      throw new IllegalStateException("Task data codecs can only be used when task data is kept in a separate table.");
+    }
+    for (Map.Entry<String, String> entry : codecNamesByType.entrySet()) {
+      codecsByType.put(entry.getKey(), getCodec(entry.getValue()));
+    }
+  }
+
+  @Override
+  public ITaskDataCodec getCodec(String name) {
+    ITaskDataCodec codec = codecsByName.get(name);
+    if (codec == null) {
+      throw new IllegalStateException("Task data codec '" + name + "' is not registered.");
+    }
+    return codec;
+  }
+
+  @Override
+  public ITaskDataCodec getCodecForType(String type) {
+    return codecsByType.get(type);
+  }
+}
@@ -0,0 +1,28 @@
+package com.transferwise.tasks.dao.codecs;
+
+import com.github.luben.zstd.Zstd;
+
+/**
+ * Compression ratio close to Deflate, while being several times faster.
+ */
+public class ZstdTaskDataCodec implements ITaskDataCodec {
+
+  public static final String NAME = "zstd";
+
+  private static final int LEVEL = 3;
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public byte[] encode(byte[] data) {
+    return Zstd.compress(data, LEVEL);
+  }
+
+  @Override
+  public byte[] decode(byte[] data) {
+    return Zstd.decompress(data, (int) Zstd.decompressedSize(data));
+  }
+}
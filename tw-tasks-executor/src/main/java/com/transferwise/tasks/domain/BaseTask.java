@@ -1,5 +1,6 @@
 package com.transferwise.tasks.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.UUID;
 import lombok.Data;
 import lombok.experimental.Accessors;
@@ -12,6 +13,8 @@ public class BaseTask implements IBaseTask {
   private String type;
   private long version;
   private int priority;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String orderingKey;
 
   public ITaskVersionId getVersionId() {
     return new TaskVersionId(id, version);
@@ -13,9 +13,11 @@ public class BaseTask1 implements IBaseTask {
   private long version;
   private int priority;
   private String status;
+  private String orderingKey;
 
   public BaseTask toBaseTask() {
-    return new BaseTask().setVersion(getVersion()).setType(getType()).setPriority(getPriority()).setId(getId());
+    return new BaseTask().setVersion(getVersion()).setType(getType()).setPriority(getPriority()).setId(getId())
+        .setOrderingKey(getOrderingKey());
   }
 
   @Override
@@ -8,4 +8,14 @@ public interface IBaseTask {
   String getType();
 
   int getPriority();
+
+  /**
+   * Tasks with the same ordering key are processed one at a time, in the order they were created, when the concurrency policy supports it.
+   * A task going to be retried frees the key, so it loses its place in the order.
+   *
+   * <p>Null, when the task can run concurrently with any other task.
+   */
+  default String getOrderingKey() {
+    return null;
+  }
 }
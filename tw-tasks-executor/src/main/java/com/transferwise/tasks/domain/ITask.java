@@ -1,5 +1,7 @@
 package com.transferwise.tasks.domain;
 
+import java.nio.charset.StandardCharsets;
+
 public interface ITask extends IBaseTask {
 
   String getType();
@@ -8,6 +10,14 @@ public interface ITask extends IBaseTask {
 
   String getData();
 
+  /**
+   * Payload as bytes. Text payloads are given in UTF-8.
+   */
+  default byte[] getDataBytes() {
+    String data = getData();
+    return data == null ? null : data.getBytes(StandardCharsets.UTF_8);
+  }
+
   String getStatus();
 
   long getProcessingTriesCount();
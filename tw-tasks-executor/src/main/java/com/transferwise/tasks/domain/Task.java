@@ -1,29 +1,79 @@
 package com.transferwise.tasks.domain;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.function.Consumer;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.experimental.Accessors;
 
 @Data
 @Accessors(chain = true)
+@ToString(doNotUseGetters = true)
+@EqualsAndHashCode(doNotUseGetters = true)
+@SuppressFBWarnings({"EI_EXPOSE_REP", "EI_EXPOSE_REP2"})
 public class Task implements ITask {
 
   private UUID id;
   private String type;
   private String subType;
   private String data;
+  /**
+   * Binary payload. Only one of {@link #data} and {@link #dataBytes} is set, the other one is derived from it when asked.
+   */
+  @ToString.Exclude
+  private byte[] dataBytes;
   private String status;
   private long version;
   private long processingTriesCount;
   private int priority;
+  /**
+   * Only set for tasks being processed, from the trigger.
+   */
+  private String orderingKey;
+  /**
+   * When payloads are kept in a separate table, the payload is loaded only when it is asked for the first time.
+   */
+  @ToString.Exclude
+  @EqualsAndHashCode.Exclude
+  private Consumer<Task> dataLoader;
+
+  @Override
+  public String getData() {
+    loadData();
+    if (data == null && dataBytes != null) {
+      data = new String(dataBytes, StandardCharsets.UTF_8);
+    }
+    return data;
+  }
+
+  @Override
+  public byte[] getDataBytes() {
+    loadData();
+    if (dataBytes == null && data != null) {
+      dataBytes = data.getBytes(StandardCharsets.UTF_8);
+    }
+    return dataBytes;
+  }
 
   // TODO: We should create an interface instead.
   public BaseTask toBaseTask() {
-    return new BaseTask().setId(getId()).setPriority(getPriority()).setType(getType()).setVersion(getVersion());
+    return new BaseTask().setId(getId()).setPriority(getPriority()).setType(getType()).setVersion(getVersion())
+        .setOrderingKey(getOrderingKey());
   }
 
   @Override
   public ITaskVersionId getVersionId() {
     return new TaskVersionId(id, version);
   }
+
+  private void loadData() {
+    if (dataLoader != null) {
+      Consumer<Task> loader = dataLoader;
+      dataLoader = null;
+      loader.accept(this);
+    }
+  }
 }
@@ -0,0 +1,155 @@
+package com.transferwise.tasks.handler;
+
+import static com.transferwise.tasks.helpers.IMeterHelper.METRIC_PREFIX;
+
+import com.google.common.collect.ImmutableMap;
+import com.transferwise.tasks.domain.IBaseTask;
+import com.transferwise.tasks.handler.interfaces.ITaskConcurrencyPolicy;
+import com.transferwise.tasks.helpers.IMeterHelper;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+/**
+ * Adjusts its concurrency limit to the observed processing times and outcomes, within `minConcurrency` and `maxConcurrency`, using additive
+ * increase and multiplicative decrease.
+ *
+ * <p>The limit grows by one per limit-worth of finished tasks, as long as the limit is actually used and tasks succeed in their usual
+ * time. It is cut by `backoffRatio` when a task fails or is going to be retried, or when the recent processing time exceeds the long term
+ * one by more than `latencyTolerance` times, which usually means a downstream service is getting overloaded. It is cut at most once per
+ * limit-worth of finished tasks, so a burst of failures of tasks running together counts as one.
+ *
+ * <p>The limit and latencies are kept in an immutable window, replaced with a CAS for each finished task, so finishing tasks do not
+ * contend on a lock.
+ */
+public class AdaptiveTaskConcurrencyPolicy implements ITaskConcurrencyPolicy {
+
+  private static final double SHORT_LATENCY_SMOOTHING = 0.1;
+  private static final double LONG_LATENCY_SMOOTHING = 0.01;
+
+  private final AtomicInteger inProgressCnt = new AtomicInteger();
+
+  @Getter
+  private final int minConcurrency;
+  @Getter
+  private final int maxConcurrency;
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private double backoffRatio = 0.9;
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private double latencyTolerance = 2;
+
+  private final AtomicReference<Window> window;
+
+  /**
+   * Registers `currentLimit` and `latencyMs` gauges with the given name as a tag, when a meter helper is given.
+   */
+  public AdaptiveTaskConcurrencyPolicy(String name, int minConcurrency, int maxConcurrency, IMeterHelper meterHelper) {
+    if (minConcurrency < 1 || maxConcurrency < minConcurrency) {
+      throw new IllegalArgumentException("Invalid concurrency bounds " + minConcurrency + ".." + maxConcurrency + ".");
+    }
+    this.minConcurrency = minConcurrency;
+    this.maxConcurrency = maxConcurrency;
+    this.window = new AtomicReference<>(new Window(minConcurrency, -1, -1, 0));
+
+    if (meterHelper != null) {
+      Map<String, String> tags = ImmutableMap.of("policy", name);
+      meterHelper.registerGauge(METRIC_PREFIX + "adaptiveConcurrencyPolicy.currentLimit", tags, this::getCurrentLimit);
+      meterHelper.registerGauge(METRIC_PREFIX + "adaptiveConcurrencyPolicy.latencyMs", tags, this::getLatencyEstimateMs);
+    }
+  }
+
+  @Override
+  public boolean bookSpaceForTask(IBaseTask task) {
+    while (true) {
+      int cnt = inProgressCnt.get();
+      if (cnt >= getCurrentLimit()) {
+        return false;
+      }
+      if (inProgressCnt.compareAndSet(cnt, cnt + 1)) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public boolean hasSpaceForTask(IBaseTask task) {
+    return inProgressCnt.get() < getCurrentLimit();
+  }
+
+  @Override
+  public void freeSpaceForTask(IBaseTask task) {
+    if (inProgressCnt.decrementAndGet() < 0) {
+      throw new IllegalStateException("Counter went below zero. Algorithm error detected.");
+    }
+  }
+
+  @Override
+  public void registerTaskProcessed(IBaseTask task, long processingTimeMs, boolean succeeded) {
+    while (true) {
+      Window current = window.get();
+      if (window.compareAndSet(current, current.next(processingTimeMs, succeeded))) {
+        return;
+      }
+    }
+  }
+
+  public int getCurrentLimit() {
+    return (int) window.get().limit;
+  }
+
+  /**
+   * Recent processing time, -1 before any task has finished.
+   */
+  public double getLatencyEstimateMs() {
+    return window.get().shortLatencyMs;
+  }
+
+  public int getInProgressCnt() {
+    return inProgressCnt.get();
+  }
+
+  private class Window {
+
+    private final double limit;
+    private final double shortLatencyMs;
+    private final double longLatencyMs;
+    private final int finishedSinceDecreaseCnt;
+
+    private Window(double limit, double shortLatencyMs, double longLatencyMs, int finishedSinceDecreaseCnt) {
+      this.limit = limit;
+      this.shortLatencyMs = shortLatencyMs;
+      this.longLatencyMs = longLatencyMs;
+      this.finishedSinceDecreaseCnt = finishedSinceDecreaseCnt;
+    }
+
+    private Window next(long processingTimeMs, boolean succeeded) {
+      double nextShortLatencyMs = processingTimeMs;
+      double nextLongLatencyMs = processingTimeMs;
+      if (shortLatencyMs >= 0) {
+        nextShortLatencyMs = shortLatencyMs + SHORT_LATENCY_SMOOTHING * (processingTimeMs - shortLatencyMs);
+        nextLongLatencyMs = longLatencyMs + LONG_LATENCY_SMOOTHING * (processingTimeMs - longLatencyMs);
+      }
+      int nextFinishedSinceDecreaseCnt = finishedSinceDecreaseCnt + 1;
+      double nextLimit = limit;
+
+      boolean overloaded = !succeeded || nextShortLatencyMs > nextLongLatencyMs * latencyTolerance;
+      if (overloaded) {
+        if (nextFinishedSinceDecreaseCnt >= (int) limit) {
+          nextLimit = Math.max(minConcurrency, limit * backoffRatio);
+          nextFinishedSinceDecreaseCnt = 0;
+        }
+      } else if (inProgressCnt.get() * 2 >= (int) limit) {
+        // Only when the limit is really used, otherwise we can not tell if more would be fine.
+        nextLimit = Math.min(maxConcurrency, limit + 1 / limit);
+      }
+      return new Window(nextLimit, nextShortLatencyMs, nextLongLatencyMs, nextFinishedSinceDecreaseCnt);
+    }
+  }
+}
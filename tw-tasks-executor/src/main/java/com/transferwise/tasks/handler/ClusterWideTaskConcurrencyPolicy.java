@@ -0,0 +1,276 @@
+package com.transferwise.tasks.handler;
+
+import com.transferwise.common.baseutils.clock.ClockHolder;
+import com.transferwise.tasks.domain.IBaseTask;
+import com.transferwise.tasks.handler.interfaces.IPermitLeaseStore;
+import com.transferwise.tasks.handler.interfaces.ITaskConcurrencyPolicy;
+import java.time.Duration;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Limits concurrency of tasks over the whole cluster, instead of per node.
+ *
+ * <p>Nodes lease blocks of permits from a shared {@link IPermitLeaseStore} and book tasks against their local leased permits, so booking
+ * is always an atomic counter operation. When a node runs out of permits, the next block is leased on the scheduler and used by the
+ * following bookings, the processing engine is woken up for those by a space available listener. When the cluster-wide limit is reached,
+ * the store is asked again only after a back-off, growing from `minLeaseRetryInterval` to `maxLeaseRetryInterval`. Leases are renewed in
+ * the background, when a node has idle permits for longer, all but one block is given back.
+ *
+ * <p>Leases have to be renewed within `leaseDuration`. A node which has crashed or can not reach the store loses its permits after that
+ * and other nodes can take them. The node itself stops booking `clockSkewMargin` before its lease expires, tasks already running are
+ * not interrupted though, so the limit can be temporarily exceeded by tasks taking longer than the lease duration on a partitioned node.
+ */
+@Slf4j
+public class ClusterWideTaskConcurrencyPolicy implements ITaskConcurrencyPolicy, AutoCloseable {
+
+  private final IPermitLeaseStore permitLeaseStore;
+  private final String key;
+  private final ScheduledExecutorService scheduledExecutorService;
+  private final String holderId = UUID.randomUUID().toString();
+  private final Lock leaseLock = new ReentrantLock();
+  private final AtomicInteger inProgressCnt = new AtomicInteger();
+  private final AtomicBoolean leaseRequested = new AtomicBoolean();
+  private final Set<Runnable> spaceAvailableListeners = ConcurrentHashMap.newKeySet();
+
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private int maxConcurrency;
+  /**
+   * How many permits to lease at once.
+   */
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private int blockSize = 4;
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private Duration leaseDuration = Duration.ofSeconds(30);
+  /**
+   * How much nodes clocks can differ.
+   */
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private Duration clockSkewMargin = Duration.ofSeconds(5);
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private Duration minLeaseRetryInterval = Duration.ofMillis(100);
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private Duration maxLeaseRetryInterval = Duration.ofSeconds(5);
+
+  private volatile int leasedCnt;
+  private volatile long leaseValidUntilMs;
+  private ScheduledFuture<?> renewalFuture;
+  private boolean closed;
+  private volatile long nextLeaseTimeMs;
+  private long leaseRetryIntervalMs;
+
+  public ClusterWideTaskConcurrencyPolicy(IPermitLeaseStore permitLeaseStore, String key, int maxConcurrency,
+      ScheduledExecutorService scheduledExecutorService) {
+    this.permitLeaseStore = permitLeaseStore;
+    this.key = key;
+    this.maxConcurrency = maxConcurrency;
+    this.scheduledExecutorService = scheduledExecutorService;
+  }
+
+  @Override
+  public boolean bookSpaceForTask(IBaseTask task) {
+    if (tryBook()) {
+      return true;
+    }
+    requestLease();
+    return false;
+  }
+
+  @Override
+  public boolean hasSpaceForTask(IBaseTask task) {
+    return isLeaseValid(ClockHolder.getClock().millis()) && inProgressCnt.get() < leasedCnt;
+  }
+
+  @Override
+  public void freeSpaceForTask(IBaseTask task) {
+    if (inProgressCnt.decrementAndGet() < 0) {
+      throw new IllegalStateException("Counter went below zero. Algorithm error detected.");
+    }
+  }
+
+  @Override
+  public void addSpaceAvailableListener(Runnable listener) {
+    spaceAvailableListeners.add(listener);
+    // Permits could have been leased before the listener was added.
+    if (hasSpaceForTask(null)) {
+      fireSpaceAvailable();
+    }
+  }
+
+  /**
+   * Leases one more block of permits. Called on the scheduler, when bookings have run out of permits.
+   */
+  public void leaseMore() {
+    boolean leasedMore = false;
+    leaseLock.lock();
+    try {
+      long nowMs = ClockHolder.getClock().millis();
+      int currentLeasedCnt = isLeaseValid(nowMs) ? leasedCnt : 0;
+      int permits = Math.min(maxConcurrency, Math.max(currentLeasedCnt, inProgressCnt.get()) + blockSize);
+      if (lease(permits, nowMs) && leasedCnt > currentLeasedCnt) {
+        leasedMore = true;
+        leaseRetryIntervalMs = 0;
+        nextLeaseTimeMs = nowMs;
+      } else {
+        leaseRetryIntervalMs = leaseRetryIntervalMs == 0 ? minLeaseRetryInterval.toMillis()
+            : Math.min(leaseRetryIntervalMs * 2, maxLeaseRetryInterval.toMillis());
+        nextLeaseTimeMs = nowMs + leaseRetryIntervalMs;
+      }
+    } finally {
+      leaseLock.unlock();
+    }
+    if (leasedMore) {
+      fireSpaceAvailable();
+    }
+  }
+
+  /**
+   * Renews the lease, keeping at most one block of idle permits.
+   */
+  public void renewLease() {
+    leaseLock.lock();
+    try {
+      int permits = Math.min(leasedCnt, inProgressCnt.get() + blockSize);
+      if (permits > 0 || leasedCnt > 0) {
+        lease(permits, ClockHolder.getClock().millis());
+      }
+    } finally {
+      leaseLock.unlock();
+    }
+  }
+
+  /**
+   * Stops renewing the lease and gives all permits back.
+   */
+  @Override
+  public void close() {
+    leaseLock.lock();
+    try {
+      closed = true;
+      if (renewalFuture != null) {
+        renewalFuture.cancel(false);
+        renewalFuture = null;
+      }
+      if (leasedCnt > 0) {
+        lease(0, ClockHolder.getClock().millis());
+      }
+    } finally {
+      leaseLock.unlock();
+    }
+  }
+
+  public int getLeasedCnt() {
+    return isLeaseValid(ClockHolder.getClock().millis()) ? leasedCnt : 0;
+  }
+
+  public int getInProgressCnt() {
+    return inProgressCnt.get();
+  }
+
+  private boolean tryBook() {
+    if (!isLeaseValid(ClockHolder.getClock().millis())) {
+      return false;
+    }
+    while (true) {
+      int cnt = inProgressCnt.get();
+      if (cnt >= leasedCnt) {
+        return false;
+      }
+      if (inProgressCnt.compareAndSet(cnt, cnt + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private void requestLease() {
+    if (!leaseRequested.compareAndSet(false, true)) {
+      return;
+    }
+    long delayMs = Math.max(0, nextLeaseTimeMs - ClockHolder.getClock().millis());
+    try {
+      scheduledExecutorService.schedule(() -> {
+        try {
+          leaseMore();
+        } catch (Throwable t) {
+          log.error(t.getMessage(), t);
+        } finally {
+          leaseRequested.set(false);
+        }
+      }, delayMs, TimeUnit.MILLISECONDS);
+    } catch (Throwable t) {
+      leaseRequested.set(false);
+      log.error(t.getMessage(), t);
+    }
+  }
+
+  private boolean isLeaseValid(long nowMs) {
+    return nowMs < leaseValidUntilMs;
+  }
+
+  private boolean lease(int permits, long nowMs) {
+    long expiresAtMs = nowMs + leaseDuration.toMillis();
+    int granted;
+    try {
+      granted = permitLeaseStore.lease(key, holderId, permits, maxConcurrency, nowMs, expiresAtMs);
+    } catch (Throwable t) {
+      // Current permits can still be used until the lease expires.
+      log.warn("Leasing concurrency permits for '" + key + "' failed.", t);
+      return false;
+    }
+
+    leasedCnt = granted;
+    leaseValidUntilMs = expiresAtMs - clockSkewMargin.toMillis();
+    scheduleRenewal();
+    return true;
+  }
+
+  private void fireSpaceAvailable() {
+    for (Runnable listener : spaceAvailableListeners) {
+      if (spaceAvailableListeners.remove(listener)) {
+        try {
+          listener.run();
+        } catch (Throwable t) {
+          log.error(t.getMessage(), t);
+        }
+      }
+    }
+  }
+
+  private void scheduleRenewal() {
+    if (renewalFuture != null || closed) {
+      return;
+    }
+    long periodMs = Math.max(1, (leaseDuration.toMillis() - clockSkewMargin.toMillis()) / 3);
+    renewalFuture = scheduledExecutorService.scheduleWithFixedDelay(() -> {
+      try {
+        renewLease();
+      } catch (Throwable t) {
+        log.error(t.getMessage(), t);
+      }
+    }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+  }
+}
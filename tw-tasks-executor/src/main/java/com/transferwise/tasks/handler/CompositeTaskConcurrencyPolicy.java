@@ -0,0 +1,224 @@
+package com.transferwise.tasks.handler;
+
+import static com.transferwise.tasks.helpers.IMeterHelper.METRIC_PREFIX;
+
+import com.google.common.collect.ImmutableMap;
+import com.transferwise.tasks.domain.IBaseTask;
+import com.transferwise.tasks.handler.interfaces.ITaskConcurrencyPolicy;
+import com.transferwise.tasks.helpers.IMeterHelper;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Books space from several levels of limits, for example max 20 per task type, max 100 for the processing bucket and max 300 for the
+ * node.
+ *
+ * <p>Levels are booked in the order they were added. When one of them has no space, the bookings of the levels before are cancelled, so a
+ * task either holds space on all levels or on none. A competing booking can be rejected meanwhile, but limits are never exceeded. Rate
+ * limiting levels, like {@link TokenBucketTaskConcurrencyPolicy}, give their token back on cancelling, but are best added last anyway.
+ *
+ * <p>A level can be given as a maximum concurrency per key, or as any other policy. Policy instances can be shared between several
+ * composite policies, for example one {@link SimpleTaskConcurrencyPolicy} as the node level for all task handlers.
+ */
+public class CompositeTaskConcurrencyPolicy implements ITaskConcurrencyPolicy {
+
+  private final String name;
+  private final IMeterHelper meterHelper;
+
+  private volatile Level[] levels = new Level[0];
+
+  /**
+   * Counts rejected bookings and registers a `saturation` gauge for levels with a maximum concurrency, both tagged with the given name
+   * and the level name, when a meter helper is given.
+   */
+  public CompositeTaskConcurrencyPolicy(String name, IMeterHelper meterHelper) {
+    this.name = name;
+    this.meterHelper = meterHelper;
+  }
+
+  /**
+   * Adds a level allowing at most `maxConcurrency` tasks with the same key in progress.
+   */
+  public CompositeTaskConcurrencyPolicy addLevel(String levelName, int maxConcurrency, Function<IBaseTask, String> keyFunction) {
+    KeyedLevelPolicy policy = new KeyedLevelPolicy(maxConcurrency, keyFunction);
+    addLevel(levelName, policy);
+    if (meterHelper != null) {
+      meterHelper.registerGauge(METRIC_PREFIX + "compositeConcurrencyPolicy.saturation", getTags(levelName), policy::getSaturation);
+    }
+    return this;
+  }
+
+  public synchronized CompositeTaskConcurrencyPolicy addLevel(String levelName, ITaskConcurrencyPolicy policy) {
+    Level[] newLevels = Arrays.copyOf(levels, levels.length + 1);
+    newLevels[levels.length] = new Level(policy, getTags(levelName));
+    levels = newLevels;
+    return this;
+  }
+
+  @Override
+  public boolean bookSpaceForTask(IBaseTask task) {
+    Level[] levels = this.levels;
+    for (int i = 0; i < levels.length; i++) {
+      if (!levels[i].policy.bookSpaceForTask(task)) {
+        for (int j = i - 1; j >= 0; j--) {
+          levels[j].policy.cancelBooking(task);
+        }
+        if (meterHelper != null) {
+          meterHelper.incrementCounter(METRIC_PREFIX + "compositeConcurrencyPolicy.rejectedBookingsCount", levels[i].tags, 1);
+        }
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void freeSpaceForTask(IBaseTask task) {
+    Level[] levels = this.levels;
+    for (int i = levels.length - 1; i >= 0; i--) {
+      levels[i].policy.freeSpaceForTask(task);
+    }
+  }
+
+  @Override
+  public void cancelBooking(IBaseTask task) {
+    Level[] levels = this.levels;
+    for (int i = levels.length - 1; i >= 0; i--) {
+      levels[i].policy.cancelBooking(task);
+    }
+  }
+
+  @Override
+  public boolean hasSpaceForTask(IBaseTask task) {
+    for (Level level : levels) {
+      if (!level.policy.hasSpaceForTask(task)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Tells the time of the first level without space, as levels are booked in order and that one rejected the booking. When the levels
+   * have got space meanwhile, -1.
+   */
+  @Override
+  public long getSpaceAvailableTimeMs(IBaseTask task) {
+    for (Level level : levels) {
+      if (!level.policy.hasSpaceForTask(task)) {
+        return level.policy.getSpaceAvailableTimeMs(task);
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public String getSpaceAvailableKey(IBaseTask task) {
+    for (Level level : levels) {
+      if (!level.policy.hasSpaceForTask(task)) {
+        return level.policy.getSpaceAvailableKey(task);
+      }
+    }
+    return task.getType();
+  }
+
+  @Override
+  public void registerTaskProcessed(IBaseTask task, long processingTimeMs, boolean succeeded) {
+    for (Level level : levels) {
+      level.policy.registerTaskProcessed(task, processingTimeMs, succeeded);
+    }
+  }
+
+  @Override
+  public void addSpaceAvailableListener(Runnable listener) {
+    for (Level level : levels) {
+      level.policy.addSpaceAvailableListener(listener);
+    }
+  }
+
+  @Override
+  public boolean isOrderingKeyBusy(IBaseTask task) {
+    for (Level level : levels) {
+      if (level.policy.isOrderingKeyBusy(task)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Map<String, String> getTags(String levelName) {
+    return ImmutableMap.of("policy", name, "level", levelName);
+  }
+
+  private static class Level {
+
+    private final ITaskConcurrencyPolicy policy;
+    private final Map<String, String> tags;
+
+    private Level(ITaskConcurrencyPolicy policy, Map<String, String> tags) {
+      this.policy = policy;
+      this.tags = tags;
+    }
+  }
+
+  private static class KeyedLevelPolicy implements ITaskConcurrencyPolicy {
+
+    private final int maxConcurrency;
+    private final Function<IBaseTask, String> keyFunction;
+    private final Map<String, AtomicInteger> inProgressCnts = new ConcurrentHashMap<>();
+
+    private KeyedLevelPolicy(int maxConcurrency, Function<IBaseTask, String> keyFunction) {
+      this.maxConcurrency = maxConcurrency;
+      this.keyFunction = keyFunction;
+    }
+
+    @Override
+    public boolean bookSpaceForTask(IBaseTask task) {
+      AtomicInteger inProgressCnt = getInProgressCnt(task);
+      while (true) {
+        int cnt = inProgressCnt.get();
+        if (cnt >= maxConcurrency) {
+          return false;
+        }
+        if (inProgressCnt.compareAndSet(cnt, cnt + 1)) {
+          return true;
+        }
+      }
+    }
+
+    @Override
+    public void freeSpaceForTask(IBaseTask task) {
+      if (getInProgressCnt(task).decrementAndGet() < 0) {
+        throw new IllegalStateException("Counter went below zero. Algorithm error detected.");
+      }
+    }
+
+    @Override
+    public boolean hasSpaceForTask(IBaseTask task) {
+      return getInProgressCnt(task).get() < maxConcurrency;
+    }
+
+    /**
+     * Share of the limit used by the busiest key.
+     */
+    private double getSaturation() {
+      int maxInProgressCnt = 0;
+      for (AtomicInteger inProgressCnt : inProgressCnts.values()) {
+        maxInProgressCnt = Math.max(maxInProgressCnt, inProgressCnt.get());
+      }
+      return maxConcurrency == 0 ? 1 : (double) maxInProgressCnt / maxConcurrency;
+    }
+
+    private AtomicInteger getInProgressCnt(IBaseTask task) {
+      String key = keyFunction.apply(task);
+      AtomicInteger inProgressCnt = inProgressCnts.get(key);
+      if (inProgressCnt == null) {
+        inProgressCnt = inProgressCnts.computeIfAbsent(key, k -> new AtomicInteger());
+      }
+      return inProgressCnt;
+    }
+  }
+}
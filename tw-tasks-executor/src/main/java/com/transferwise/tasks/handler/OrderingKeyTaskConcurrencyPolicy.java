@@ -0,0 +1,158 @@
+package com.transferwise.tasks.handler;
+
+import com.transferwise.tasks.domain.IBaseTask;
+import com.transferwise.tasks.handler.interfaces.ITaskConcurrencyPolicy;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Processes tasks with the same ordering key one at a time, while tasks with other keys, or without a key, run in parallel. Allows
+ * to replace database row locks and retries in processors, for tasks which must not run concurrently for the same entity.
+ *
+ * <p>Keys in progress are kept in a lock table split into stripes by the key's hash, each with its own monitor, so bookings of different
+ * keys rarely contend. A triggering finding its key busy is set aside by the processing engine until the task holding the key has
+ * finished, so it does not hold back other tasks of its type, and triggerings of the same key are dispatched in the order they arrived.
+ * The key is freed when the processing ends, also when the task is going to be retried, so retries are not ordered.
+ *
+ * <p>The lock table is local to the node. Kafka triggers are partitioned by the ordering key, so tasks with the same key are processed by
+ * the node owning the key's partition. During a partition rebalance, a task can still be running on the previous owner.
+ *
+ * <p>Concurrency itself can be limited by a delegate policy, for example {@link SimpleTaskConcurrencyPolicy}.
+ */
+public class OrderingKeyTaskConcurrencyPolicy implements ITaskConcurrencyPolicy {
+
+  private final ITaskConcurrencyPolicy delegate;
+  private final Stripe[] stripes;
+
+  public OrderingKeyTaskConcurrencyPolicy() {
+    this(null);
+  }
+
+  public OrderingKeyTaskConcurrencyPolicy(ITaskConcurrencyPolicy delegate) {
+    this(delegate, 64);
+  }
+
+  /**
+   * Stripes count is rounded up to a power of two.
+   */
+  public OrderingKeyTaskConcurrencyPolicy(ITaskConcurrencyPolicy delegate, int stripesCount) {
+    this.delegate = delegate;
+    this.stripes = new Stripe[Integer.highestOneBit(Math.max(1, stripesCount - 1)) << 1];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  @Override
+  public boolean bookSpaceForTask(IBaseTask task) {
+    if (delegate != null && !delegate.bookSpaceForTask(task)) {
+      return false;
+    }
+    String orderingKey = task.getOrderingKey();
+    if (orderingKey != null) {
+      Stripe stripe = getStripe(orderingKey);
+      boolean locked;
+      synchronized (stripe) {
+        locked = stripe.keys.add(orderingKey);
+      }
+      if (!locked) {
+        if (delegate != null) {
+          delegate.cancelBooking(task);
+        }
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void freeSpaceForTask(IBaseTask task) {
+    unlockOrderingKey(task);
+    if (delegate != null) {
+      delegate.freeSpaceForTask(task);
+    }
+  }
+
+  @Override
+  public void cancelBooking(IBaseTask task) {
+    unlockOrderingKey(task);
+    if (delegate != null) {
+      delegate.cancelBooking(task);
+    }
+  }
+
+  @Override
+  public boolean isOrderingKeyBusy(IBaseTask task) {
+    String orderingKey = task.getOrderingKey();
+    if (orderingKey == null) {
+      return delegate != null && delegate.isOrderingKeyBusy(task);
+    }
+    Stripe stripe = getStripe(orderingKey);
+    synchronized (stripe) {
+      return stripe.keys.contains(orderingKey);
+    }
+  }
+
+  @Override
+  public boolean hasSpaceForTask(IBaseTask task) {
+    return (delegate == null || delegate.hasSpaceForTask(task)) && !isOrderingKeyBusy(task);
+  }
+
+  @Override
+  public long getSpaceAvailableTimeMs(IBaseTask task) {
+    return delegate == null ? -1 : delegate.getSpaceAvailableTimeMs(task);
+  }
+
+  @Override
+  public String getSpaceAvailableKey(IBaseTask task) {
+    return delegate == null ? task.getType() : delegate.getSpaceAvailableKey(task);
+  }
+
+  @Override
+  public void registerTaskProcessed(IBaseTask task, long processingTimeMs, boolean succeeded) {
+    if (delegate != null) {
+      delegate.registerTaskProcessed(task, processingTimeMs, succeeded);
+    }
+  }
+
+  @Override
+  public void addSpaceAvailableListener(Runnable listener) {
+    if (delegate != null) {
+      delegate.addSpaceAvailableListener(listener);
+    }
+  }
+
+  public int getLockedKeysCount() {
+    int count = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        count += stripe.keys.size();
+      }
+    }
+    return count;
+  }
+
+  private void unlockOrderingKey(IBaseTask task) {
+    String orderingKey = task.getOrderingKey();
+    if (orderingKey != null) {
+      Stripe stripe = getStripe(orderingKey);
+      boolean unlocked;
+      synchronized (stripe) {
+        unlocked = stripe.keys.remove(orderingKey);
+      }
+      if (!unlocked) {
+        throw new IllegalStateException("Ordering key '" + orderingKey + "' was not locked. Algorithm error detected.");
+      }
+    }
+  }
+
+  private Stripe getStripe(String orderingKey) {
+    int hash = orderingKey.hashCode();
+    return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+  }
+
+  private static class Stripe {
+
+    private final Set<String> keys = new HashSet<>();
+  }
+}
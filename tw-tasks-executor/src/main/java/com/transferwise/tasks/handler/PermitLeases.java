@@ -0,0 +1,66 @@
+package com.transferwise.tasks.handler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Leases of one permits key, as stored by {@link com.transferwise.tasks.handler.interfaces.IPermitLeaseStore} implementations.
+ *
+ * <p>Serialized as one "holderId permits expiresAtMs" line per lease.
+ */
+public class PermitLeases {
+
+  private final Map<String, Lease> leases = new LinkedHashMap<>();
+
+  public static PermitLeases parse(byte[] data) {
+    PermitLeases permitLeases = new PermitLeases();
+    if (data == null) {
+      return permitLeases;
+    }
+    for (String line : StringUtils.split(new String(data, StandardCharsets.UTF_8), '\n')) {
+      String[] parts = StringUtils.split(line, ' ');
+      if (parts.length == 3) {
+        permitLeases.leases.put(parts[0], new Lease().setPermits(Integer.parseInt(parts[1])).setExpiresAtMs(Long.parseLong(parts[2])));
+      }
+    }
+    return permitLeases;
+  }
+
+  public byte[] toBytes() {
+    StringBuilder sb = new StringBuilder();
+    leases.forEach((holderId, lease) -> sb.append(holderId).append(' ').append(lease.getPermits()).append(' ').append(lease.getExpiresAtMs())
+        .append('\n'));
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Drops expired leases and replaces the holder's lease with as many of requested permits, as are not leased by others.
+   */
+  public int grant(String holderId, int permits, int maxPermits, long nowMs, long expiresAtMs) {
+    leases.values().removeIf(lease -> lease.getExpiresAtMs() <= nowMs);
+    leases.remove(holderId);
+
+    int leasedByOthers = leases.values().stream().mapToInt(Lease::getPermits).sum();
+    int granted = Math.max(0, Math.min(permits, maxPermits - leasedByOthers));
+    if (granted > 0) {
+      leases.put(holderId, new Lease().setPermits(granted).setExpiresAtMs(expiresAtMs));
+    }
+    return granted;
+  }
+
+  public int getLeasedPermits() {
+    return leases.values().stream().mapToInt(Lease::getPermits).sum();
+  }
+
+  @Data
+  @Accessors(chain = true)
+  public static class Lease {
+
+    private int permits;
+    private long expiresAtMs;
+  }
+}
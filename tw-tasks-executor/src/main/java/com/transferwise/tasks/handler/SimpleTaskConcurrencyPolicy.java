@@ -33,6 +33,11 @@ public class SimpleTaskConcurrencyPolicy implements ITaskConcurrencyPolicy {
     return true;
   }
 
+  @Override
+  public boolean hasSpaceForTask(IBaseTask task) {
+    return inProgressCnt.get() < maxConcurrency;
+  }
+
   @Override
   public void freeSpaceForTask(IBaseTask task) {
     if (inProgressCnt.decrementAndGet() < 0) {
@@ -33,6 +33,14 @@ public class SimpleTaskProcessingPolicy implements ITaskProcessingPolicy {
   @Accessors(chain = true)
   private StuckTaskResolutionStrategy stuckTaskResolutionStrategy = StuckTaskResolutionStrategy.MARK_AS_ERROR;
 
+  /**
+   * See {@link ITaskProcessingPolicy#getSchedulingWeight(IBaseTask)}.
+   */
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private int schedulingWeight = 1;
+
   @Override
   public Instant getProcessingDeadline(IBaseTask task) {
     return ClockHolder.getClock().instant().plus(maxProcessingDuration);
@@ -47,4 +55,9 @@ public class SimpleTaskProcessingPolicy implements ITaskProcessingPolicy {
   public StuckTaskResolutionStrategy getStuckTaskResolutionStrategy(IBaseTask task) {
     return stuckTaskResolutionStrategy;
   }
+
+  @Override
+  public int getSchedulingWeight(IBaseTask task) {
+    return schedulingWeight;
+  }
 }
@@ -0,0 +1,166 @@
+package com.transferwise.tasks.handler;
+
+import com.transferwise.common.baseutils.clock.ClockHolder;
+import com.transferwise.tasks.domain.IBaseTask;
+import com.transferwise.tasks.handler.interfaces.ITaskConcurrencyPolicy;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+/**
+ * Limits how many tasks can be started per second, separately for each key, by default the task type. Useful for tasks calling rate limited
+ * partners, instead of sleeping in processors.
+ *
+ * <p>The token bucket is implemented as generic cell rate algorithm, so booking is a single CAS on the theoretical arrival time of the
+ * next task. Up to `burstSize` tasks can be started at once, after the bucket has been idle.
+ *
+ * <p>Concurrency itself can be limited by a delegate policy, for example {@link SimpleTaskConcurrencyPolicy}.
+ */
+public class TokenBucketTaskConcurrencyPolicy implements ITaskConcurrencyPolicy {
+
+  private final ITaskConcurrencyPolicy delegate;
+  private final Map<String, AtomicLong> theoreticalArrivalTimesNs = new ConcurrentHashMap<>();
+
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private double taskStartsPerSecond;
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private int burstSize = 1;
+  /**
+   * Tasks with the same key share a rate limit. For example the type and sub-type, or a partner from the task type.
+   */
+  @Getter
+  @Setter
+  @Accessors(chain = true)
+  private Function<IBaseTask, String> keyFunction = IBaseTask::getType;
+
+  public TokenBucketTaskConcurrencyPolicy(double taskStartsPerSecond) {
+    this(taskStartsPerSecond, null);
+  }
+
+  public TokenBucketTaskConcurrencyPolicy(double taskStartsPerSecond, ITaskConcurrencyPolicy delegate) {
+    this.taskStartsPerSecond = taskStartsPerSecond;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public boolean bookSpaceForTask(IBaseTask task) {
+    if (delegate != null && !delegate.bookSpaceForTask(task)) {
+      return false;
+    }
+    if (!tryTakeToken(task)) {
+      if (delegate != null) {
+        delegate.cancelBooking(task);
+      }
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public void freeSpaceForTask(IBaseTask task) {
+    if (delegate != null) {
+      delegate.freeSpaceForTask(task);
+    }
+  }
+
+  /**
+   * Returns the token taken by the booking, so a start rejected by another limit does not count against the rate.
+   */
+  @Override
+  public void cancelBooking(IBaseTask task) {
+    getTheoreticalArrivalTimeNs(task).addAndGet(-getEmissionIntervalNs());
+    if (delegate != null) {
+      delegate.cancelBooking(task);
+    }
+  }
+
+  @Override
+  public void registerTaskProcessed(IBaseTask task, long processingTimeMs, boolean succeeded) {
+    if (delegate != null) {
+      delegate.registerTaskProcessed(task, processingTimeMs, succeeded);
+    }
+  }
+
+  @Override
+  public void addSpaceAvailableListener(Runnable listener) {
+    if (delegate != null) {
+      delegate.addSpaceAvailableListener(listener);
+    }
+  }
+
+  @Override
+  public boolean isOrderingKeyBusy(IBaseTask task) {
+    return delegate != null && delegate.isOrderingKeyBusy(task);
+  }
+
+  @Override
+  public boolean hasSpaceForTask(IBaseTask task) {
+    return (delegate == null || delegate.hasSpaceForTask(task)) && getTokenAvailableTimeNs(task) <= currentTimeNs();
+  }
+
+  @Override
+  public long getSpaceAvailableTimeMs(IBaseTask task) {
+    long tokenAvailableTimeNs = getTokenAvailableTimeNs(task);
+    if (tokenAvailableTimeNs <= currentTimeNs()) {
+      // Booking failed on the delegate.
+      return delegate == null ? -1 : delegate.getSpaceAvailableTimeMs(task);
+    }
+    return (tokenAvailableTimeNs + 999_999) / 1_000_000;
+  }
+
+  @Override
+  public String getSpaceAvailableKey(IBaseTask task) {
+    if (getTokenAvailableTimeNs(task) <= currentTimeNs()) {
+      return delegate == null ? task.getType() : delegate.getSpaceAvailableKey(task);
+    }
+    return keyFunction.apply(task);
+  }
+
+  private boolean tryTakeToken(IBaseTask task) {
+    AtomicLong theoreticalArrivalTimeNs = getTheoreticalArrivalTimeNs(task);
+    long emissionIntervalNs = getEmissionIntervalNs();
+    long burstToleranceNs = emissionIntervalNs * (Math.max(1, burstSize) - 1);
+    long nowNs = currentTimeNs();
+    while (true) {
+      long tatNs = theoreticalArrivalTimeNs.get();
+      if (tatNs - burstToleranceNs > nowNs) {
+        return false;
+      }
+      if (theoreticalArrivalTimeNs.compareAndSet(tatNs, Math.max(tatNs, nowNs) + emissionIntervalNs)) {
+        return true;
+      }
+    }
+  }
+
+  private long getTokenAvailableTimeNs(IBaseTask task) {
+    long burstToleranceNs = getEmissionIntervalNs() * (Math.max(1, burstSize) - 1);
+    return getTheoreticalArrivalTimeNs(task).get() - burstToleranceNs;
+  }
+
+  private AtomicLong getTheoreticalArrivalTimeNs(IBaseTask task) {
+    String key = keyFunction.apply(task);
+    AtomicLong theoreticalArrivalTimeNs = theoreticalArrivalTimesNs.get(key);
+    if (theoreticalArrivalTimeNs == null) {
+      theoreticalArrivalTimeNs = theoreticalArrivalTimesNs.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE / 2));
+    }
+    return theoreticalArrivalTimeNs;
+  }
+
+  private long getEmissionIntervalNs() {
+    return Math.max(1, (long) (1_000_000_000d / taskStartsPerSecond));
+  }
+
+  private long currentTimeNs() {
+    Instant now = ClockHolder.getClock().instant();
+    return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+  }
+}
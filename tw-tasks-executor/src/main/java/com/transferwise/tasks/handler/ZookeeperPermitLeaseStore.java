@@ -0,0 +1,63 @@
+package com.transferwise.tasks.handler;
+
+import com.transferwise.common.baseutils.ExceptionUtils;
+import com.transferwise.tasks.handler.interfaces.IPermitLeaseStore;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Keeps leases of each key in one Zookeeper node, updated with optimistic locking on the node version.
+ *
+ * <p>Lease expiry times are in the clocks of the nodes writing them, so nodes clocks are expected to be in sync within the clock skew margin
+ * of {@link ClusterWideTaskConcurrencyPolicy}.
+ */
+public class ZookeeperPermitLeaseStore implements IPermitLeaseStore {
+
+  private final CuratorFramework curatorFramework;
+  private final String basePath;
+
+  public ZookeeperPermitLeaseStore(CuratorFramework curatorFramework, String groupId) {
+    this.curatorFramework = curatorFramework;
+    this.basePath = "/tw/tw_tasks/" + groupId + "/concurrency_permits/";
+  }
+
+  @Override
+  public int lease(String key, String holderId, int permits, int maxPermits, long nowMs, long expiresAtMs) {
+    String path = basePath + encodeKey(key);
+    return ExceptionUtils.doUnchecked(() -> {
+      while (true) {
+        Stat stat = new Stat();
+        byte[] data;
+        try {
+          data = curatorFramework.getData().storingStatIn(stat).forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+          data = null;
+        }
+
+        PermitLeases permitLeases = PermitLeases.parse(data);
+        int granted = permitLeases.grant(holderId, permits, maxPermits, nowMs, expiresAtMs);
+        try {
+          if (data == null) {
+            curatorFramework.create().creatingParentsIfNeeded().forPath(path, permitLeases.toBytes());
+          } else {
+            curatorFramework.setData().withVersion(stat.getVersion()).forPath(path, permitLeases.toBytes());
+          }
+          return granted;
+        } catch (KeeperException.BadVersionException | KeeperException.NodeExistsException e) {
+          // Someone else changed the leases meanwhile.
+        }
+      }
+    });
+  }
+
+  /**
+   * Keys can contain slashes, for example when made of a type and a sub-type, which would nest Zookeeper nodes. Dots are encoded as well,
+   * as `.` and `..` are not valid node names.
+   */
+  private String encodeKey(String key) {
+    return ExceptionUtils.doUnchecked(() -> URLEncoder.encode(key, StandardCharsets.UTF_8.name()).replace(".", "%2E"));
+  }
+}
@@ -0,0 +1,16 @@
+package com.transferwise.tasks.handler.interfaces;
+
+/**
+ * Shared storage of concurrency permits leased by cluster nodes.
+ */
+public interface IPermitLeaseStore {
+
+  /**
+   * Atomically replaces the holder's lease of the given key with a lease of up to `permits` permits, valid until `expiresAtMs`.
+   *
+   * <p>Leases of other holders, which have expired by `nowMs`, are not counted and can be removed. Requesting 0 permits releases the lease.
+   *
+   * @return permits granted, never more than `maxPermits` minus permits leased by other holders.
+   */
+  int lease(String key, String holderId, int permits, int maxPermits, long nowMs, long expiresAtMs);
+}
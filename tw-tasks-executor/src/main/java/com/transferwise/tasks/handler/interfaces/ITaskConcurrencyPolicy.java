@@ -7,4 +7,63 @@ public interface ITaskConcurrencyPolicy {
   boolean bookSpaceForTask(IBaseTask task);
 
   void freeSpaceForTask(IBaseTask task);
+
+  /**
+   * Gives back space booked for a task, which is not going to be processed after all, for example because another limit rejected it.
+   * Unlike {@link #freeSpaceForTask(IBaseTask)}, rate limits return the start taken by the booking.
+   */
+  default void cancelBooking(IBaseTask task) {
+    freeSpaceForTask(task);
+  }
+
+  /**
+   * If space could be booked for the task right now, without booking it. Only a hint, as space can be taken by others meanwhile.
+   *
+   * <p>False, when the policy can not tell.
+   */
+  default boolean hasSpaceForTask(IBaseTask task) {
+    return false;
+  }
+
+  /**
+   * After booking failed, tells when space is expected for the task, in epoch millis, if that does not depend on other tasks finishing. For
+   * example when a rate limit was hit. The type is not tried again before that.
+   *
+   * <p>-1, when space is freed only by finishing tasks.
+   */
+  default long getSpaceAvailableTimeMs(IBaseTask task) {
+    return -1;
+  }
+
+  /**
+   * The key, the time from {@link #getSpaceAvailableTimeMs(IBaseTask)} applies to, for example the key of a rate limit. Tasks of all types
+   * waiting for the same key are not tried before that time.
+   */
+  default String getSpaceAvailableKey(IBaseTask task) {
+    return task.getType();
+  }
+
+  /**
+   * Called when a task, space was booked for, has been processed, right before its space is freed. Allows to adapt to processing times and
+   * failures.
+   *
+   * @param succeeded false, when the processor failed or asked for the task to be retried.
+   */
+  default void registerTaskProcessed(IBaseTask task, long processingTimeMs, boolean succeeded) {
+  }
+
+  /**
+   * After booking failed, asks to be told once when space may have become available without tasks finishing, for example when permits were
+   * leased in the background. Policies, where space is freed only by finishing tasks, do not need to call it.
+   */
+  default void addSpaceAvailableListener(Runnable listener) {
+  }
+
+  /**
+   * If a task with the same ordering key is in progress, so booking space for this one can not succeed before that has finished. Such
+   * triggerings are set aside until then, instead of holding back other tasks of the type.
+   */
+  default boolean isOrderingKeyBusy(IBaseTask task) {
+    return false;
+  }
 }
@@ -33,4 +33,14 @@ public interface ITaskProcessingPolicy {
   default boolean canExecuteTaskOnThisNode(IBaseTask task) {
     return true;
   }
+
+  /**
+   * Share of processing slots given to the task's type, relative to other types having tasks waiting with the same priority.
+   *
+   * <p>With weights 2 and 1, two tasks of the first type are dispatched for every task of the second type, as long as both have tasks waiting and
+   * there is room for them.
+   */
+  default int getSchedulingWeight(IBaseTask task) {
+    return 1;
+  }
 }
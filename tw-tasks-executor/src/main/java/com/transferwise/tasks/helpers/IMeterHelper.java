@@ -36,6 +36,8 @@ public interface IMeterHelper {
 
   void incrementCounter(String name, Map<String, String> tags, long delta);
 
+  void registerTaskTriggeringQueueTime(String bucketId, String taskType, long queuedTimeMs);
+
   void registerTaskProcessingEnd(String bucketId, String type, long processingStartTimeMs, String processingResult);
 
   void registerKafkaCoreMessageProcessing(String topic);
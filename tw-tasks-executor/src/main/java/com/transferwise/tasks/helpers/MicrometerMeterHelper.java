@@ -63,6 +63,12 @@ public class MicrometerMeterHelper implements IMeterHelper {
     gauges.get(Triple.of("tasks.ongoingProcessingsCount", resolvedBucketId, taskType)).decrementAndGet();
   }
 
+  @Override
+  public void registerTaskTriggeringQueueTime(String bucketId, String taskType, long queuedTimeMs) {
+    meterRegistry.timer(METRIC_PREFIX + "tasks.triggeringQueueTime", TAG_BUCKET_ID, resolveBucketId(bucketId), TAG_TASK_TYPE, taskType)
+        .record(ClockHolder.getClock().millis() - queuedTimeMs, TimeUnit.MILLISECONDS);
+  }
+
   @Override
   public void registerFailedStatusChange(String taskType, String fromStatus, TaskStatus toStatus) {
     meterRegistry.counter(METRIC_PREFIX + "tasks.failedStatusChangeCount", TAG_TASK_TYPE, taskType,
@@ -36,6 +36,11 @@ public class NoOpMeterHelper implements IMeterHelper {
 
   }
 
+  @Override
+  public void registerTaskTriggeringQueueTime(String bucketId, String taskType, long queuedTimeMs) {
+
+  }
+
   @Override
   public void registerTaskMarkedAsFailed(String bucketId, String taskType) {
 
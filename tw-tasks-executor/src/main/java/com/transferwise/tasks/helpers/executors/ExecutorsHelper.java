@@ -1,18 +1,22 @@
 package com.transferwise.tasks.helpers.executors;
 
+import com.transferwise.common.baseutils.ExceptionUtils;
 import java.time.Duration;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class ExecutorsHelper implements IExecutorsHelper {
 
   private static final long KEEP_ALIVE_TIMEOUT = 60L;
+  private static final boolean VIRTUAL_THREADS_SUPPORTED = hasMethod(Thread.class, "ofVirtual");
 
   @Override
   public ExecutorService newCachedExecutor(String groupName) {
@@ -32,7 +36,12 @@ public class ExecutorsHelper implements IExecutorsHelper {
 
   @Override
   public ExecutorService newBoundedThreadPoolExecutor(String groupName, int maxThreads, int maxQueueSize, Duration maxWait) {
-    return new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_TIMEOUT, TimeUnit.SECONDS, new LinkedBlockingQueue<>(maxQueueSize),
+    return newBoundedThreadPoolExecutor(groupName, maxThreads, maxThreads, maxQueueSize, maxWait);
+  }
+
+  @Override
+  public ExecutorService newBoundedThreadPoolExecutor(String groupName, int coreThreads, int maxThreads, int maxQueueSize, Duration maxWait) {
+    return new ThreadPoolExecutor(coreThreads, maxThreads, KEEP_ALIVE_TIMEOUT, TimeUnit.SECONDS, new LinkedBlockingQueue<>(maxQueueSize),
         new ExecutorThreadFactory(groupName), (r, executor) -> {
       try {
         if (!executor.getQueue().offer(r, maxWait.toMillis(), TimeUnit.MILLISECONDS)) {
@@ -43,4 +52,35 @@ public class ExecutorsHelper implements IExecutorsHelper {
       }
     });
   }
+
+  @Override
+  public boolean isVirtualThreadsSupported() {
+    return VIRTUAL_THREADS_SUPPORTED;
+  }
+
+  /**
+   * We are compiled against JDK 8, so virtual threads can only be reached by reflection.
+   */
+  @Override
+  public ExecutorService newVirtualThreadPerTaskExecutor(String groupName) {
+    if (!VIRTUAL_THREADS_SUPPORTED) {
+      throw new IllegalStateException("Virtual threads are not supported by this JDK.");
+    }
+    return ExceptionUtils.doUnchecked(() -> {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "g-" + groupName + "-vt-", 0L);
+      ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+    });
+  }
+
+  private static boolean hasMethod(Class<?> clazz, String name) {
+    try {
+      clazz.getMethod(name);
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
 }
@@ -14,4 +14,26 @@ public interface IExecutorsHelper {
    * Rejectes when maxQueueSize would be exceeded.
    */
   ExecutorService newBoundedThreadPoolExecutor(String groupName, int maxThreads, int maxQueueSize, Duration maxWait);
+
+  /**
+   * Like {@link #newBoundedThreadPoolExecutor(String, int, int, Duration)}, but threads above {@code coreThreads} are only started when the queue
+   * is full, and are stopped when idle. Custom implementations keep all threads running, unless they override it.
+   */
+  default ExecutorService newBoundedThreadPoolExecutor(String groupName, int coreThreads, int maxThreads, int maxQueueSize, Duration maxWait) {
+    return newBoundedThreadPoolExecutor(groupName, maxThreads, maxQueueSize, maxWait);
+  }
+
+  /**
+   * If the JDK we run on has virtual threads (21+). Custom implementations do not support them, unless they override it.
+   */
+  default boolean isVirtualThreadsSupported() {
+    return false;
+  }
+
+  /**
+   * Runs every submitted task on a new virtual thread. Can only be used, when {@link #isVirtualThreadsSupported()}.
+   */
+  default ExecutorService newVirtualThreadPerTaskExecutor(String groupName) {
+    throw new IllegalStateException("Virtual threads are not supported by " + getClass().getName() + ".");
+  }
 }
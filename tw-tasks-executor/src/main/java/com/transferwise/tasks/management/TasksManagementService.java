@@ -103,13 +103,25 @@ public class TasksManagementService implements ITasksManagementService {
       return response;
     }
 
-    List<ITaskDao.DaoTask1> tasksInError = taskDao.getTasksInErrorStatus(request.getMaxCount());
-    List<TaskVersionId> taskVersionIdsToResume = tasksInError.stream()
-        .filter(t -> t.getType().equals(request.getTaskType()))
-        .map(t -> new TaskVersionId().setId(t.getId()).setVersion(t.getVersion()))
-        .collect(Collectors.toList());
+    ITaskDao.GetStuckTasksRequest tasksInErrorRequest = new ITaskDao.GetStuckTasksRequest()
+        .setBatchSize(request.getMaxCount()).setStatuses(new TaskStatus[]{TaskStatus.ERROR}).setType(request.getTaskType());
+    while (response.getResults().size() < request.getMaxCount()) {
+      ITaskDao.GetStuckTasksResponse tasksInError = taskDao.getStuckTasks(tasksInErrorRequest);
+      List<TaskVersionId> taskVersionIdsToResume = tasksInError.getStuckTasks().stream()
+          .limit(request.getMaxCount() - response.getResults().size())
+          .map(ITaskDao.StuckTask::getVersionId)
+          .collect(Collectors.toList());
+
+      response.getResults().putAll(resumeTasksImmediately(new ResumeTasksImmediatelyRequest().setTaskVersionIds(taskVersionIdsToResume))
+          .getResults());
+
+      if (!tasksInError.isHasMore()) {
+        break;
+      }
+      tasksInErrorRequest.setAfter(tasksInError.getCursor());
+    }
 
-    return resumeTasksImmediately(new ResumeTasksImmediatelyRequest().setTaskVersionIds(taskVersionIdsToResume));
+    return response;
   }
 
   @Override
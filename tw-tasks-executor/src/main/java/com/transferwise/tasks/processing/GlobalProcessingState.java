@@ -1,17 +1,25 @@
 package com.transferwise.tasks.processing;
 
+import com.google.common.collect.Iterables;
 import com.transferwise.tasks.triggering.TaskTriggering;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import lombok.Data;
 import lombok.experimental.Accessors;
@@ -20,23 +28,90 @@ import lombok.experimental.Accessors;
 @Accessors(chain = true)
 public class GlobalProcessingState {
 
+  private static final int ORDERING_KEY_QUEUES_STRIPES_COUNT = 64;
+
   private Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+  /**
+   * Triggerings set aside until a task with the same ordering key has finished, by ordering key. Split into stripes by the key's hash, each
+   * guarded by itself, so dispatching and completions of different keys rarely contend.
+   */
+  private List<Map<String, OrderingKeyQueue>> orderingKeyQueuesStripes = new ArrayList<>();
+
+  {
+    for (int i = 0; i < ORDERING_KEY_QUEUES_STRIPES_COUNT; i++) {
+      orderingKeyQueuesStripes.add(new HashMap<>());
+    }
+  }
+
+  /**
+   * Returns the stripe of the ordering key's queue. Has to be accessed under its own lock.
+   */
+  public Map<String, OrderingKeyQueue> getOrderingKeyQueues(String orderingKey) {
+    int hash = orderingKey.hashCode();
+    return orderingKeyQueuesStripes.get((hash ^ (hash >>> 16)) & (ORDERING_KEY_QUEUES_STRIPES_COUNT - 1));
+  }
+
+  public int getOrderingKeyQueuesCount() {
+    int count = 0;
+    for (Map<String, OrderingKeyQueue> orderingKeyQueues : orderingKeyQueuesStripes) {
+      synchronized (orderingKeyQueues) {
+        count += orderingKeyQueues.size();
+      }
+    }
+    return count;
+  }
+
+  @Data
+  @Accessors(chain = true)
+  public static class OrderingKeyQueue {
+
+    /**
+     * In the order the triggerings were dispatched.
+     */
+    private Deque<TaskTriggering> triggerings = new ArrayDeque<>();
+    /**
+     * Taken out of {@link #triggerings} and given back to the processing state, when the key was freed. Triggerings with the same key
+     * are set aside until this one has been dispatched.
+     */
+    private TaskTriggering releasedTriggering;
+  }
 
   @Data
   @Accessors(chain = true)
   public static class Bucket {
 
     private String bucketId;
-    private Lock versionLock = new ReentrantLock();
-    private Condition versionCondition = versionLock.newCondition();
     private AtomicLong version = new AtomicLong(0);
-    private Set<Integer> priorities = new TreeSet<>();
+    /**
+     * Given to concurrency policies without space, so the bucket's processing thread is woken up when they get space in the background.
+     */
+    private final Runnable spaceAvailableListener = this::increaseVersion;
+    /**
+     * Threads parked in {@link #awaitVersionChange(long, Duration)}. Usually the bucket's processing thread and sometimes a triggerer waiting for
+     * room.
+     */
+    private Queue<Thread> versionWaiters = new ConcurrentLinkedQueue<>();
+    private Set<Integer> priorities = new ConcurrentSkipListSet<>();
     private Map<Integer, PrioritySlot> prioritySlots = new ConcurrentHashMap<>();
     private AtomicInteger size = new AtomicInteger();
+    /**
+     * Triggerings set aside until their ordering key is free. Those are not counted in {@link #size}, so keys with many waiting triggerings do
+     * not take the room of other tasks, but have a budget of their own.
+     */
+    private AtomicInteger setAsideSize = new AtomicInteger();
     private AtomicInteger runningTasksCount = new AtomicInteger();
     private AtomicInteger inProgressTasksGrabbingCount = new AtomicInteger();
     private Lock tasksGrabbingLock = new ReentrantLock();
     private Condition tasksGrabbingCondition = tasksGrabbingLock.newCondition();
+    /**
+     * Concurrency policy keys without space until the given time, for example rate limits. Types waiting for those are not tried before that.
+     * Only accessed by the bucket's processing thread.
+     */
+    private Map<String, Long> keysThrottledUntilMs = new HashMap<>();
+    /**
+     * Types, whose first triggering is waiting for a key in {@link #keysThrottledUntilMs}. Only accessed by the bucket's processing thread.
+     */
+    private Map<String, String> throttledTypesKeys = new HashMap<>();
 
     public Bucket(int minPriority, int maxPriority) {
       for (int i = minPriority; i < maxPriority; i++) {
@@ -44,13 +119,37 @@ public class GlobalProcessingState {
       }
     }
 
+    /**
+     * Wakes up all threads waiting for a change, without taking any locks.
+     */
     public void increaseVersion() {
-      versionLock.lock();
+      version.incrementAndGet();
+      for (Thread waiter : versionWaiters) {
+        LockSupport.unpark(waiter);
+      }
+    }
+
+    /**
+     * Waits until the version is not the given one anymore, or until the wait time has passed.
+     */
+    public void awaitVersionChange(long seenVersion, Duration maxWait) throws InterruptedException {
+      Thread thread = Thread.currentThread();
+      // Registering before checking the version, so an increase in between will not be missed.
+      versionWaiters.add(thread);
       try {
-        version.incrementAndGet();
-        versionCondition.signalAll();
+        long deadlineNs = System.nanoTime() + maxWait.toNanos();
+        while (version.get() == seenVersion) {
+          long waitTimeNs = deadlineNs - System.nanoTime();
+          if (waitTimeNs <= 0) {
+            return;
+          }
+          LockSupport.parkNanos(this, waitTimeNs);
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+        }
       } finally {
-        versionLock.unlock();
+        versionWaiters.remove(thread);
       }
     }
 
@@ -58,11 +157,11 @@ public class GlobalProcessingState {
       if (priorities.contains(priority)) {
         return;
       }
-      priorities.add(priority);
       prioritySlots.put(priority, new PrioritySlot());
+      priorities.add(priority);
     }
 
-    public synchronized PrioritySlot getPrioritySlot(Integer priority) {
+    public PrioritySlot getPrioritySlot(Integer priority) {
       return prioritySlots.get(priority);
     }
   }
@@ -71,28 +170,41 @@ public class GlobalProcessingState {
   @Accessors(chain = true)
   public static class PrioritySlot {
 
-    private Set<TypeTasks> orderedTypeTasks = new TreeSet<>((ttA, ttB) -> {
-      if (ttA == ttB) {
-        return 0;
-      }
-      TaskTriggering ttAPeek = ttA.getTasks().peek();
-      TaskTriggering ttBPeek = ttB.getTasks().peek();
-      if (ttAPeek == null && ttBPeek != null) {
-        return 1;
-      } else if (ttAPeek != null && ttBPeek == null) {
-        return -1;
-      } else if (ttAPeek == null || ttAPeek.getSequence() == ttBPeek.getSequence()) {
-        return ttA.getType().compareTo(ttB.getType());
-      }
-      return ttA.getType().compareTo(ttB.getType());
-    });
-
-    private Map<String, TypeTasks> typeTasks = new HashMap<>();
+    /**
+     * Queues by type, ordered by type.
+     *
+     * <p>Queues are never removed, as task types are a small and stable set.
+     */
+    private ConcurrentSkipListMap<String, TypeTasks> typeTasks = new ConcurrentSkipListMap<>();
+    /**
+     * Count of triggerings in all the queues, allows to skip empty priorities quickly.
+     */
+    private AtomicInteger size = new AtomicInteger();
+    /**
+     * Type the next round-robin round starts from. Only accessed by the bucket's processing thread.
+     */
+    private String nextType;
 
     /**
-     * Intermediate unstructured buffer to reduce the need to lock the whole prioritySlot.
+     * Queues in the round-robin order, starting from {@link #nextType}.
      */
-    private Queue<TaskTriggering> taskTriggerings = new ConcurrentLinkedQueue<>();
+    public Iterable<TypeTasks> getTypeTasksInRoundOrder() {
+      String type = nextType;
+      if (type == null) {
+        return typeTasks.values();
+      }
+      return Iterables.concat(typeTasks.tailMap(type, true).values(), typeTasks.headMap(type, false).values());
+    }
+
+    public void add(TaskTriggering taskTriggering) {
+      String type = taskTriggering.getTask().getType();
+      TypeTasks slotTypeTasks = typeTasks.get(type);
+      if (slotTypeTasks == null) {
+        slotTypeTasks = typeTasks.computeIfAbsent(type, k -> new TypeTasks().setType(k));
+      }
+      slotTypeTasks.getTasks().add(taskTriggering);
+      size.incrementAndGet();
+    }
   }
 
   @Data
@@ -101,8 +213,13 @@ public class GlobalProcessingState {
 
     private String type;
     private Queue<TaskTriggering> tasks = new ConcurrentLinkedQueue<>();
+    /**
+     * Scheduling weight of the type, 0 when not resolved yet.
+     */
+    private int weight;
+    /**
+     * Count of tasks the type can still dispatch in the current round-robin round. Only accessed by the bucket's processing thread.
+     */
+    private int credit;
   }
 }
-
-
-
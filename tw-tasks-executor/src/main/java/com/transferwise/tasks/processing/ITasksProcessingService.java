@@ -2,6 +2,7 @@ package com.transferwise.tasks.processing;
 
 import com.transferwise.tasks.triggering.TaskTriggering;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import lombok.Data;
 import lombok.experimental.Accessors;
 
@@ -21,4 +22,10 @@ public interface ITasksProcessingService {
   }
 
   void addTaskTriggeringFinishedListener(Consumer<TaskTriggering> consumer);
+
+  /**
+   * Drops triggerings set aside behind their ordering key, for example when the Kafka partitions they were read from have been revoked and
+   * another node is going to process them.
+   */
+  void removeSetAsideTaskTriggerings(Predicate<TaskTriggering> predicate);
 }
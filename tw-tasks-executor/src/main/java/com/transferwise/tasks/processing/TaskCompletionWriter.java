@@ -0,0 +1,181 @@
+package com.transferwise.tasks.processing;
+
+import static com.transferwise.tasks.helpers.IMeterHelper.METRIC_PREFIX;
+
+import com.newrelic.api.agent.NewRelic;
+import com.newrelic.api.agent.Trace;
+import com.transferwise.common.baseutils.clock.ClockHolder;
+import com.transferwise.common.gracefulshutdown.GracefulShutdownStrategy;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.dao.ITaskDao.TaskStateChange;
+import com.transferwise.tasks.helpers.IMeterHelper;
+import com.transferwise.tasks.helpers.executors.IExecutorsHelper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Group commit for task state changes done after processing.
+ *
+ * <p>State changes from many task executor threads are queued and written by one thread, with one transaction and batched statements
+ * per flush. A flush happens when {@link TasksProperties#getAsyncTaskCompletionsBatchSize()} changes have been collected or when the oldest one
+ * has waited for {@link TasksProperties#getAsyncTaskCompletionsMaxDelay()}.
+ *
+ * <p>When the queue is full, the change is written synchronously in the calling thread, which gives us natural backpressure.
+ *
+ * <p>On shutdown, the writer keeps working until all queued changes are written, as running tasks can not finish before that.
+ */
+@Slf4j
+public class TaskCompletionWriter implements GracefulShutdownStrategy {
+
+  @Autowired
+  private TasksProperties tasksProperties;
+  @Autowired
+  private ITaskDao taskDao;
+  @Autowired
+  private IExecutorsHelper executorsHelper;
+  @Autowired
+  private IMeterHelper meterHelper;
+
+  private BlockingQueue<Completion> completions;
+  private AtomicInteger inProgressCompletionsCount = new AtomicInteger();
+  private volatile boolean shuttingDown;
+  private volatile boolean stopped;
+
+  @PostConstruct
+  public void init() {
+    if (!isEnabled()) {
+      return;
+    }
+    completions = new ArrayBlockingQueue<>(tasksProperties.getMaxAsyncTaskCompletions());
+
+    ExecutorService executorService = executorsHelper.newCachedExecutor("taskCompletionWriter");
+    executorService.submit(() -> {
+      while (true) {
+        if (shuttingDown && inProgressCompletionsCount.get() == 0) {
+          stopped = true;
+          // Any completion registered after this point sees the stopped flag and is written synchronously.
+          if (inProgressCompletionsCount.get() == 0) {
+            break;
+          }
+        }
+        try {
+          writeNextBatch();
+        } catch (Throwable t) {
+          log.error(t.getMessage(), t);
+        }
+      }
+    });
+
+    meterHelper.registerGauge(METRIC_PREFIX + "taskCompletionWriter.inProgressCompletionsCount", () -> inProgressCompletionsCount.get());
+  }
+
+  public boolean isEnabled() {
+    return tasksProperties.isAsyncTaskCompletion();
+  }
+
+  /**
+   * Writes the state change asynchronously and gives the result to the result handler.
+   *
+   * <p>The result handler is called from the writer thread, so it should be fast.
+   */
+  public void write(TaskStateChange change, Consumer<Boolean> resultHandler) {
+    inProgressCompletionsCount.incrementAndGet();
+    Completion completion = new Completion().setChange(change).setResultHandler(resultHandler);
+    if (stopped || !completions.offer(completion)) {
+      writeBatch(Collections.singletonList(completion));
+    }
+  }
+
+  protected void writeNextBatch() throws InterruptedException {
+    Completion first = completions.poll(tasksProperties.getGenericMediumDelay().toMillis(), TimeUnit.MILLISECONDS);
+    if (first == null) {
+      return;
+    }
+
+    int batchSize = tasksProperties.getAsyncTaskCompletionsBatchSize();
+    List<Completion> batch = new ArrayList<>(batchSize);
+    batch.add(first);
+
+    long deadlineMs = ClockHolder.getClock().millis() + tasksProperties.getAsyncTaskCompletionsMaxDelay().toMillis();
+    while (batch.size() < batchSize) {
+      completions.drainTo(batch, batchSize - batch.size());
+      long waitTimeMs = deadlineMs - ClockHolder.getClock().millis();
+      if (batch.size() >= batchSize || waitTimeMs <= 0) {
+        break;
+      }
+      Completion next = completions.poll(waitTimeMs, TimeUnit.MILLISECONDS);
+      if (next == null) {
+        break;
+      }
+      batch.add(next);
+    }
+
+    writeBatch(batch);
+  }
+
+  @Trace(dispatcher = true)
+  protected void writeBatch(List<Completion> batch) {
+    NewRelic.setTransactionName("TwTasksEngine", "TaskCompletionWriting");
+    List<TaskStateChange> changes = new ArrayList<>(batch.size());
+    for (Completion completion : batch) {
+      changes.add(completion.getChange());
+    }
+
+    List<Boolean> results;
+    try {
+      results = taskDao.changeStates(changes);
+    } catch (Throwable t) {
+      log.error("Writing " + batch.size() + " task state changes in one batch failed, trying one by one.", t);
+      results = new ArrayList<>(batch.size());
+      for (TaskStateChange change : changes) {
+        try {
+          results.add(taskDao.changeStates(Collections.singletonList(change)).get(0));
+        } catch (Throwable t2) {
+          log.error("Writing state change for task '" + change.getTaskId() + "' failed.", t2);
+          results.add(Boolean.FALSE);
+        }
+      }
+    }
+
+    for (int i = 0; i < batch.size(); i++) {
+      try {
+        batch.get(i).getResultHandler().accept(results.get(i));
+      } catch (Throwable t) {
+        log.error(t.getMessage(), t);
+      } finally {
+        inProgressCompletionsCount.decrementAndGet();
+      }
+    }
+  }
+
+  @Override
+  public void prepareForShutdown() {
+    shuttingDown = true;
+  }
+
+  @Override
+  public boolean canShutdown() {
+    return inProgressCompletionsCount.get() == 0;
+  }
+
+  @Data
+  @Accessors(chain = true)
+  protected static class Completion {
+
+    private TaskStateChange change;
+    private Consumer<Boolean> resultHandler;
+  }
+}
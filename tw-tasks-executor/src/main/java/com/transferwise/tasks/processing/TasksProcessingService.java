@@ -38,25 +38,30 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import javax.annotation.PostConstruct;
 import lombok.Data;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.mutable.MutableBoolean;
 import org.apache.commons.lang3.mutable.MutableObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
@@ -93,29 +98,41 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
   private IMeterHelper meterHelper;
   @Autowired
   private UnitOfWorkManager unitOfWorkManager;
+  @Autowired
+  private TaskCompletionWriter taskCompletionWriter;
 
   private AtomicInteger runningTasksCount = new AtomicInteger();
 
   private ExecutorService taskExecutor;
   private ExecutorService tasksProcessingExecutor;
   private ExecutorService tasksGrabbingExecutor;
+  private ExecutorService virtualTaskExecutor;
+  private ExecutorService virtualTasksGrabbingExecutor;
+  private Map<String, BucketExecutors> bucketsExecutors = new ConcurrentHashMap<>();
 
   private volatile boolean shuttingDown;
   private AtomicInteger ongoingTasksGrabbingsCount = new AtomicInteger();
 
   private Consumer<TaskTriggering> taskTriggeringProcessingListener;
 
-  private AtomicLong taskTriggeringSequence = new AtomicLong(0);
-
   private Instant shutdownStartTime;
   private Set<Thread> tasksProcessingThreads = new HashSet<>();
   private Lock tasksProcessingThreadsLock = new ReentrantLock();
+  private Map<String, TasksGrabbingBatch> tasksGrabbingBatches = new ConcurrentHashMap<>();
+  private final TaskStateWriter syncTaskStateWriter = (change, resultHandler) -> resultHandler.accept(changeTaskState(change));
 
   @PostConstruct
   public void init() {
     taskExecutor = executorsHelper.newCachedExecutor("taskExecutor");
     tasksProcessingExecutor = executorsHelper.newCachedExecutor("tasksProcessing");
     tasksGrabbingExecutor = executorsHelper.newCachedExecutor("tasksGrabbing");
+    if (executorsHelper.isVirtualThreadsSupported()) {
+      virtualTaskExecutor = executorsHelper.newVirtualThreadPerTaskExecutor("taskExecutor");
+      virtualTasksGrabbingExecutor = executorsHelper.newVirtualThreadPerTaskExecutor("tasksGrabbing");
+    } else {
+      virtualTaskExecutor = taskExecutor;
+      virtualTasksGrabbingExecutor = tasksGrabbingExecutor;
+    }
 
     meterHelper.registerGauge(METRIC_PREFIX + "processing.ongoingTasksGrabbingsCount", () -> ongoingTasksGrabbingsCount.get());
   }
@@ -134,14 +151,16 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
 
     GlobalProcessingState.Bucket bucket = globalProcessingState.getBuckets().get(bucketId);
 
-    if (bucket.getSize().get() >= bucketProperties.getMaxTriggersInMemory()) {
+    if (bucket.getSize().get() >= bucketProperties.getMaxTriggersInMemory()
+        || bucket.getSetAsideSize().get() >= bucketProperties.getMaxTriggersInMemory()) {
       return new AddTaskForProcessingResponse().setResult(AddTaskForProcessingResponse.ResultCode.FULL);
     }
 
     int priority = priorityManager.normalize(task.getPriority());
     GlobalProcessingState.PrioritySlot prioritySlot = bucket.getPrioritySlot(priority);
 
-    prioritySlot.getTaskTriggerings().add(taskTriggering);
+    taskTriggering.setQueuedTimeMs(ClockHolder.getClock().millis());
+    prioritySlot.add(taskTriggering);
     bucket.getSize().incrementAndGet();
 
     bucket.increaseVersion();
@@ -155,98 +174,386 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
   }
 
   /**
-   * Finds one task triggering for which there is an available processing slot.
-   *
-   * <p>Return immediately as soon as one suitable task has been triggered.
+   * A triggering already released back to the processing state is left there, the key's queue is then advanced when it is dispatched.
    */
-  protected void processTasks(GlobalProcessingState.Bucket bucket) {
-    String bucketId = bucket.getBucketId();
+  @Override
+  public void removeSetAsideTaskTriggerings(Predicate<TaskTriggering> predicate) {
+    Set<GlobalProcessingState.Bucket> changedBuckets = new HashSet<>();
+    for (Map<String, GlobalProcessingState.OrderingKeyQueue> orderingKeyQueues : globalProcessingState.getOrderingKeyQueuesStripes()) {
+      synchronized (orderingKeyQueues) {
+        for (GlobalProcessingState.OrderingKeyQueue queue : orderingKeyQueues.values()) {
+          Iterator<TaskTriggering> iterator = queue.getTriggerings().iterator();
+          while (iterator.hasNext()) {
+            TaskTriggering taskTriggering = iterator.next();
+            if (predicate.test(taskTriggering)) {
+              iterator.remove();
+              GlobalProcessingState.Bucket bucket = globalProcessingState.getBuckets().get(taskTriggering.getBucketId());
+              bucket.getSetAsideSize().decrementAndGet();
+              changedBuckets.add(bucket);
+              log.debug("Removed set aside task '{}' triggering.", taskTriggering.getTask().getVersionId());
+            }
+          }
+        }
+      }
+    }
+    changedBuckets.forEach(GlobalProcessingState.Bucket::increaseVersion);
+  }
 
-    boolean taskProcessed = false;
+  /**
+   * Dispatches task triggerings in the order of priority, for as long as there are available processing slots for them.
+   *
+   * <p>Inside a priority, types share processing slots by weighted round-robin (deficit round-robin with every task costing one): on its turn, a
+   * type dispatches as many tasks as its scheduling weight, then the next type gets its turn. Types without space are skipped for lower
+   * priorities as well.
+   *
+   * <p>With {@link TasksProperties#getTriggerAgingThreshold()} set, triggerings which have waited longer than that are dispatched first, as if
+   * they had the highest priority.
+   *
+   * <p>Triggerings are added concurrently by triggerers, but only the bucket's processing thread takes them out.
+   *
+   * @return count of task triggerings taken out of the processing state.
+   */
+  protected int processTasks(GlobalProcessingState.Bucket bucket) {
+    int processedCount = 0;
+    Set<String> noRoomTypes = new HashSet<>();
+
+    long nowMs = ClockHolder.getClock().millis();
+    if (!bucket.getKeysThrottledUntilMs().isEmpty()) {
+      bucket.getKeysThrottledUntilMs().values().removeIf(throttledUntilMs -> throttledUntilMs <= nowMs);
+      bucket.getThrottledTypesKeys().values().removeIf(key -> !bucket.getKeysThrottledUntilMs().containsKey(key));
+      noRoomTypes.addAll(bucket.getThrottledTypesKeys().keySet());
+    }
 
-    Map<String, Boolean> noRoomMap = new HashMap<>();
+    Duration agingThreshold = tasksProperties.getTriggerAgingThreshold();
+    if (agingThreshold != null) {
+      processedCount += processAgedTasks(bucket, nowMs - agingThreshold.toMillis(), noRoomTypes);
+    }
 
     for (Integer priority : bucket.getPriorities()) {
-      if (taskProcessed) {
-        break;
-      }
-
       GlobalProcessingState.PrioritySlot prioritySlot = bucket.getPrioritySlot(priority);
+      if (prioritySlot.getSize().get() == 0) {
+        continue;
+      }
+      processedCount += processTasks(bucket, prioritySlot, noRoomTypes);
+    }
+    return processedCount;
+  }
 
-      transferFromIntermediateBuffer(bucket, prioritySlot);
-
-      for (GlobalProcessingState.TypeTasks typeTasks : new ArrayList<>(prioritySlot.getOrderedTypeTasks())) {
-        String type = typeTasks.getType();
-
-        if (noRoomMap.containsKey(type)) {
+  private int processTasks(GlobalProcessingState.Bucket bucket, GlobalProcessingState.PrioritySlot prioritySlot, Set<String> noRoomTypes) {
+    int processedCount = 0;
+    boolean roundDispatched = true;
+    while (roundDispatched) {
+      roundDispatched = false;
+      for (GlobalProcessingState.TypeTasks typeTasks : prioritySlot.getTypeTasksInRoundOrder()) {
+        if (noRoomTypes.contains(typeTasks.getType())) {
+          continue;
+        }
+        if (typeTasks.getTasks().isEmpty()) {
+          typeTasks.setCredit(0);
           continue;
         }
+        if (typeTasks.getCredit() == 0) {
+          if (typeTasks.getWeight() == 0) {
+            typeTasks.setWeight(Math.max(1, getSchedulingWeight(typeTasks.getTasks().peek().getTask())));
+          }
+          typeTasks.setCredit(typeTasks.getWeight());
+        }
 
-        TaskTriggering taskTriggering = typeTasks.getTasks().peek();
-        if (taskTriggering == null) {
-          // Empty queues are always in the end, no point of going forward.
-          break;
+        int dispatchedCount = dispatchTypeTasks(bucket, prioritySlot, typeTasks, noRoomTypes);
+        if (typeTasks.getTasks().isEmpty()) {
+          typeTasks.setCredit(0);
         }
-        BaseTask task = taskTriggering.getTask();
-        MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), task.getVersionId());
-        try {
-          try {
-            ProcessTaskResponse processTaskResponse = grabTaskForProcessing(bucketId, task);
+        if (dispatchedCount > 0) {
+          processedCount += dispatchedCount;
+          roundDispatched = true;
+          // A type stopped by a lack of room keeps its turn and the rest of its credit, until there is room again.
+          prioritySlot.setNextType(typeTasks.getCredit() > 0 ? typeTasks.getType() : prioritySlot.getTypeTasks().higherKey(typeTasks.getType()));
+        }
+      }
+    }
+    return processedCount;
+  }
 
-            if (processTaskResponse.getResult() == ProcessTaskResponse.Result.NO_SPACE) {
-              noRoomMap.put(type, Boolean.TRUE);
-            } else {
-              // Start again, i.e. find a task with highest priority and lowest offset.
-              taskProcessed = true;
-            }
-          } catch (Throwable t) {
-            log.error("Scheduling of task '" + task.getVersionId() + "' failed.", t);
-            taskProcessed = true;
+  /**
+   * Queues are in the order of arrival, so aged triggerings are always at their heads. Triggerings released after being set aside are queued
+   * again with the release time, the time they were set aside does not count for aging.
+   */
+  private int processAgedTasks(GlobalProcessingState.Bucket bucket, long agedBeforeMs, Set<String> noRoomTypes) {
+    int processedCount = 0;
+    for (Integer priority : bucket.getPriorities()) {
+      GlobalProcessingState.PrioritySlot prioritySlot = bucket.getPrioritySlot(priority);
+      if (prioritySlot.getSize().get() == 0) {
+        continue;
+      }
+      for (GlobalProcessingState.TypeTasks typeTasks : prioritySlot.getTypeTasks().values()) {
+        TaskTriggering taskTriggering;
+        while (!noRoomTypes.contains(typeTasks.getType()) && (taskTriggering = typeTasks.getTasks().peek()) != null
+            && taskTriggering.getQueuedTimeMs() <= agedBeforeMs) {
+          if (dispatchTaskTriggering(bucket, prioritySlot, typeTasks, taskTriggering, noRoomTypes)) {
+            processedCount++;
+            meterHelper.incrementCounter(METRIC_PREFIX + "processing.agedTriggersCount",
+                ImmutableMap.of("bucketId", bucket.getBucketId(), "priority", String.valueOf(priority)), 1);
           }
+        }
+      }
+    }
+    return processedCount;
+  }
 
-          if (taskProcessed) {
-            taskTriggeringProcessingListener.accept(taskTriggering);
-            prioritySlot.getOrderedTypeTasks().remove(typeTasks);
-            typeTasks.getTasks().poll();
-            log.debug("Removed task '{}' triggering from processingState.", task.getVersionId());
-            prioritySlot.getOrderedTypeTasks().add(typeTasks);
-            bucket.increaseVersion();
+  private int dispatchTypeTasks(GlobalProcessingState.Bucket bucket, GlobalProcessingState.PrioritySlot prioritySlot,
+      GlobalProcessingState.TypeTasks typeTasks, Set<String> noRoomTypes) {
+    int dispatchedCount = 0;
+    TaskTriggering taskTriggering;
+    while (typeTasks.getCredit() > 0 && (taskTriggering = typeTasks.getTasks().peek()) != null) {
+      if (!dispatchTaskTriggering(bucket, prioritySlot, typeTasks, taskTriggering, noRoomTypes)) {
+        break;
+      }
+      typeTasks.setCredit(typeTasks.getCredit() - 1);
+      dispatchedCount++;
+    }
+    return dispatchedCount;
+  }
 
-            break;
+  /**
+   * Types sharing a policy key, for example a partner's rate limit, share the time they are throttled until.
+   */
+  private void throttle(GlobalProcessingState.Bucket bucket, String type, ProcessTaskResponse processTaskResponse) {
+    String key = processTaskResponse.getSpaceAvailableKey() == null ? type : processTaskResponse.getSpaceAvailableKey();
+    bucket.getKeysThrottledUntilMs().merge(key, processTaskResponse.getSpaceAvailableTimeMs(), Math::max);
+    bucket.getThrottledTypesKeys().put(type, key);
+  }
+
+  /**
+   * Takes the triggering out of the processing state, unless there is no room for its type.
+   *
+   * @return false, when there was no room.
+   */
+  private boolean dispatchTaskTriggering(GlobalProcessingState.Bucket bucket, GlobalProcessingState.PrioritySlot prioritySlot,
+      GlobalProcessingState.TypeTasks typeTasks, TaskTriggering taskTriggering, Set<String> noRoomTypes) {
+    String bucketId = bucket.getBucketId();
+    BaseTask task = taskTriggering.getTask();
+    MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), task.getVersionId());
+    try {
+      if (task.getOrderingKey() != null && setAsideBehindOrderingKey(taskTriggering)) {
+        takeOutOfProcessingState(bucket, prioritySlot, typeTasks, taskTriggering);
+        return true;
+      }
+      boolean spaceBooked = false;
+      try {
+        ProcessTaskResponse processTaskResponse = grabTaskForProcessing(bucketId, task);
+        if (processTaskResponse.getResult() == ProcessTaskResponse.Result.NO_SPACE) {
+          if (task.getOrderingKey() != null && setAsideUntilOrderingKeyIsFree(taskTriggering, processTaskResponse.getConcurrencyPolicy())) {
+            takeOutOfProcessingState(bucket, prioritySlot, typeTasks, taskTriggering);
+            return true;
+          }
+          noRoomTypes.add(typeTasks.getType());
+          if (processTaskResponse.getSpaceAvailableTimeMs() != -1) {
+            throttle(bucket, typeTasks.getType(), processTaskResponse);
+            meterHelper.incrementCounter(METRIC_PREFIX + "processing.throttledBookingsCount",
+                ImmutableMap.of("bucketId", bucketId, "taskType", task.getType()), 1);
+          } else if (processTaskResponse.getConcurrencyPolicy() != null) {
+            processTaskResponse.getConcurrencyPolicy().addSpaceAvailableListener(bucket.getSpaceAvailableListener());
           }
-        } finally {
-          MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), null);
+          return false;
         }
+        spaceBooked = processTaskResponse.isSpaceBooked();
+      } catch (Throwable t) {
+        log.error("Scheduling of task '" + task.getVersionId() + "' failed.", t);
+      }
+      if (task.getOrderingKey() != null) {
+        orderingKeyTriggeringDispatched(taskTriggering, spaceBooked);
       }
+
+      taskTriggeringProcessingListener.accept(taskTriggering);
+      typeTasks.getTasks().poll();
+      prioritySlot.getSize().decrementAndGet();
+      meterHelper.registerTaskTriggeringQueueTime(bucketId, task.getType(), taskTriggering.getQueuedTimeMs());
+      log.debug("Removed task '{}' triggering from processingState.", task.getVersionId());
+      return true;
+    } finally {
+      MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), null);
     }
   }
 
-  protected void transferFromIntermediateBuffer(GlobalProcessingState.Bucket bucket, GlobalProcessingState.PrioritySlot prioritySlot) {
-    while (true) {
-      TaskTriggering taskTriggering = prioritySlot.getTaskTriggerings().poll();
-      if (taskTriggering == null) {
-        break;
+  /**
+   * Triggerings set aside move from the bucket's size to its set aside size. They are not given to the triggering processing listener, so
+   * their Kafka offsets are not committed before they are dispatched.
+   */
+  private void takeOutOfProcessingState(GlobalProcessingState.Bucket bucket, GlobalProcessingState.PrioritySlot prioritySlot,
+      GlobalProcessingState.TypeTasks typeTasks, TaskTriggering taskTriggering) {
+    typeTasks.getTasks().poll();
+    prioritySlot.getSize().decrementAndGet();
+    bucket.getSetAsideSize().incrementAndGet();
+    bucket.getSize().decrementAndGet();
+    meterHelper.incrementCounter(METRIC_PREFIX + "processing.orderingKeyWaitsCount",
+        ImmutableMap.of("bucketId", taskTriggering.getBucketId(), "taskType", taskTriggering.getTask().getType()), 1);
+    log.debug("Task '{}' triggering was set aside until its ordering key is free.", taskTriggering.getTask().getVersionId());
+  }
+
+  /**
+   * Sets the triggering aside, when triggerings with the same ordering key are already waiting, so those are dispatched first.
+   */
+  private boolean setAsideBehindOrderingKey(TaskTriggering taskTriggering) {
+    String orderingKey = taskTriggering.getTask().getOrderingKey();
+    Map<String, GlobalProcessingState.OrderingKeyQueue> orderingKeyQueues = globalProcessingState.getOrderingKeyQueues(orderingKey);
+    synchronized (orderingKeyQueues) {
+      GlobalProcessingState.OrderingKeyQueue queue = orderingKeyQueues.get(orderingKey);
+      if (queue == null || queue.getReleasedTriggering() == taskTriggering) {
+        return false;
       }
+      queue.getTriggerings().add(taskTriggering);
+      return true;
+    }
+  }
 
-      taskTriggering.setSequence(taskTriggeringSequence.incrementAndGet());
+  /**
+   * Sets the triggering aside, when a task with the same ordering key is in progress. It is checked again under the lock, as the key may have
+   * been freed since the booking failed.
+   */
+  private boolean setAsideUntilOrderingKeyIsFree(TaskTriggering taskTriggering, ITaskConcurrencyPolicy concurrencyPolicy) {
+    if (concurrencyPolicy == null) {
+      return false;
+    }
+    String orderingKey = taskTriggering.getTask().getOrderingKey();
+    Map<String, GlobalProcessingState.OrderingKeyQueue> orderingKeyQueues = globalProcessingState.getOrderingKeyQueues(orderingKey);
+    synchronized (orderingKeyQueues) {
+      if (!concurrencyPolicy.isOrderingKeyBusy(taskTriggering.getTask())) {
+        return false;
+      }
+      GlobalProcessingState.OrderingKeyQueue queue = orderingKeyQueues.computeIfAbsent(orderingKey,
+          k -> new GlobalProcessingState.OrderingKeyQueue());
+      if (queue.getReleasedTriggering() == taskTriggering) {
+        queue.setReleasedTriggering(null);
+        queue.getTriggerings().addFirst(taskTriggering);
+      } else {
+        queue.getTriggerings().add(taskTriggering);
+      }
+      return true;
+    }
+  }
 
-      String taskType = taskTriggering.getTask().getType();
-      GlobalProcessingState.TypeTasks typeTasks = prioritySlot.getTypeTasks().get(taskType);
-      if (typeTasks == null) {
-        prioritySlot.getTypeTasks().put(taskType, typeTasks = new GlobalProcessingState.TypeTasks().setType(taskType));
-        prioritySlot.getOrderedTypeTasks().add(typeTasks);
+  private void orderingKeyTriggeringDispatched(TaskTriggering taskTriggering, boolean spaceBooked) {
+    String orderingKey = taskTriggering.getTask().getOrderingKey();
+    Map<String, GlobalProcessingState.OrderingKeyQueue> orderingKeyQueues = globalProcessingState.getOrderingKeyQueues(orderingKey);
+    synchronized (orderingKeyQueues) {
+      GlobalProcessingState.OrderingKeyQueue queue = orderingKeyQueues.get(orderingKey);
+      if (queue == null || queue.getReleasedTriggering() != taskTriggering) {
+        return;
       }
-      boolean emptyQueue = typeTasks.getTasks().peek() == null;
-      if (emptyQueue) {
-        prioritySlot.getOrderedTypeTasks().remove(typeTasks);
+      queue.setReleasedTriggering(null);
+      if (!spaceBooked) {
+        // The task is not going to free the key, so the next one can go right away.
+        releaseNextOrderingKeyTriggering(orderingKeyQueues, orderingKey, queue);
+      } else if (queue.getTriggerings().isEmpty()) {
+        orderingKeyQueues.remove(orderingKey);
       }
-      typeTasks.getTasks().add(taskTriggering);
-      if (emptyQueue) {
-        prioritySlot.getOrderedTypeTasks().add(typeTasks);
+    }
+  }
+
+  private void freeSpaceForTask(ITaskConcurrencyPolicy concurrencyPolicy, IBaseTask task) {
+    concurrencyPolicy.freeSpaceForTask(task);
+    String orderingKey = task.getOrderingKey();
+    if (orderingKey != null) {
+      Map<String, GlobalProcessingState.OrderingKeyQueue> orderingKeyQueues = globalProcessingState.getOrderingKeyQueues(orderingKey);
+      synchronized (orderingKeyQueues) {
+        GlobalProcessingState.OrderingKeyQueue queue = orderingKeyQueues.get(orderingKey);
+        if (queue != null && queue.getReleasedTriggering() == null) {
+          releaseNextOrderingKeyTriggering(orderingKeyQueues, orderingKey, queue);
+        }
       }
+    }
+  }
 
-      bucket.increaseVersion();
+  /**
+   * Gives the next triggering set aside back to the processing state. Has to be called under the lock of the key's queues stripe.
+   */
+  private void releaseNextOrderingKeyTriggering(Map<String, GlobalProcessingState.OrderingKeyQueue> orderingKeyQueues, String orderingKey,
+      GlobalProcessingState.OrderingKeyQueue queue) {
+    TaskTriggering taskTriggering = queue.getTriggerings().poll();
+    if (taskTriggering == null) {
+      orderingKeyQueues.remove(orderingKey);
+      return;
     }
+    queue.setReleasedTriggering(taskTriggering);
+    // Type queues are only added to at their tail, so their heads stay the oldest ones for aging.
+    taskTriggering.setQueuedTimeMs(ClockHolder.getClock().millis());
+    GlobalProcessingState.Bucket bucket = globalProcessingState.getBuckets().get(taskTriggering.getBucketId());
+    // Released ones always fit, so the key can make progress.
+    bucket.getSize().incrementAndGet();
+    bucket.getSetAsideSize().decrementAndGet();
+    bucket.getPrioritySlot(priorityManager.normalize(taskTriggering.getTask().getPriority())).add(taskTriggering);
+    bucket.increaseVersion();
+  }
+
+  protected long getOldestTriggerAgeMs(GlobalProcessingState.PrioritySlot prioritySlot) {
+    long oldestQueuedTimeMs = Long.MAX_VALUE;
+    for (GlobalProcessingState.TypeTasks typeTasks : prioritySlot.getTypeTasks().values()) {
+      TaskTriggering taskTriggering = typeTasks.getTasks().peek();
+      if (taskTriggering != null) {
+        oldestQueuedTimeMs = Math.min(oldestQueuedTimeMs, taskTriggering.getQueuedTimeMs());
+      }
+    }
+    return oldestQueuedTimeMs == Long.MAX_VALUE ? 0 : Math.max(0, ClockHolder.getClock().millis() - oldestQueuedTimeMs);
+  }
+
+  protected ExecutorService getTaskExecutor(String bucketId) {
+    BucketExecutors bucketExecutors = bucketsExecutors.get(bucketId);
+    if (bucketExecutors != null) {
+      return bucketExecutors.getTaskExecutor();
+    }
+    return isVirtualThreadsMode(bucketId) ? virtualTaskExecutor : taskExecutor;
+  }
+
+  protected ExecutorService getTasksGrabbingExecutor(String bucketId) {
+    BucketExecutors bucketExecutors = bucketsExecutors.get(bucketId);
+    if (bucketExecutors != null) {
+      return bucketExecutors.getTasksGrabbingExecutor();
+    }
+    return isVirtualThreadsMode(bucketId) ? virtualTasksGrabbingExecutor : tasksGrabbingExecutor;
+  }
+
+  protected void registerBucketExecutors(String bucketId) {
+    BucketProperties bucketProperties = bucketsManager.getBucketProperties(bucketId);
+    Integer maxThreads = bucketProperties.getTaskExecutorMaxThreads();
+    if (maxThreads == null) {
+      return;
+    }
+    if (isVirtualThreadsMode(bucketId) && executorsHelper.isVirtualThreadsSupported()) {
+      log.warn("Bucket '" + bucketId + "' runs tasks on virtual threads, so `taskExecutorMaxThreads` is ignored.");
+      return;
+    }
+
+    Integer coreThreads = bucketProperties.getTaskExecutorCoreThreads();
+    ExecutorService bucketTaskExecutor = executorsHelper.newBoundedThreadPoolExecutor("taskExecutor-" + bucketId,
+        coreThreads == null ? maxThreads : coreThreads, maxThreads, bucketProperties.getTaskExecutorQueueSize(),
+        bucketProperties.getTaskExecutorMaxQueueWait());
+    // Grabbings are already limited by the grabbing slots, so the queue is never waited for.
+    ExecutorService bucketTasksGrabbingExecutor = executorsHelper.newBoundedThreadPoolExecutor("tasksGrabbing-" + bucketId,
+        bucketProperties.getTaskGrabbingConcurrency(), bucketProperties.getTaskGrabbingConcurrency(), tasksProperties.getGenericMediumDelay());
+    bucketsExecutors.put(bucketId, new BucketExecutors().setTaskExecutor(bucketTaskExecutor).setTasksGrabbingExecutor(bucketTasksGrabbingExecutor));
+
+    registerExecutorGauges("taskExecutor", bucketId, bucketTaskExecutor);
+    registerExecutorGauges("tasksGrabbingExecutor", bucketId, bucketTasksGrabbingExecutor);
+  }
+
+  private void registerExecutorGauges(String name, String bucketId, ExecutorService executorService) {
+    if (!(executorService instanceof ThreadPoolExecutor)) {
+      return;
+    }
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) executorService;
+    Map<String, String> tags = ImmutableMap.of("bucketId", bucketId);
+    meterHelper.registerGauge(METRIC_PREFIX + "processing." + name + ".activeThreadsCount", tags, executor::getActiveCount);
+    meterHelper.registerGauge(METRIC_PREFIX + "processing." + name + ".threadsCount", tags, executor::getPoolSize);
+    meterHelper.registerGauge(METRIC_PREFIX + "processing." + name + ".queueSize", tags, () -> executor.getQueue().size());
+  }
+
+  private boolean isVirtualThreadsMode(String bucketId) {
+    return bucketsManager.getBucketProperties(bucketId).getTaskExecutorMode() == TasksProperties.ExecutorMode.VIRTUAL_THREADS;
+  }
+
+  protected int getSchedulingWeight(BaseTask task) {
+    ITaskProcessingPolicy processingPolicy = taskHandlerRegistry.getTaskProcessingPolicy(task);
+    return processingPolicy == null ? 1 : processingPolicy.getSchedulingWeight(task);
   }
 
   protected void markAsError(IBaseTask task, String bucketId) {
@@ -261,7 +568,7 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
 
   protected ProcessTaskResponse grabTaskForProcessing(String bucketId, BaseTask task) {
     GlobalProcessingState.Bucket bucket = globalProcessingState.getBuckets().get(bucketId);
-    BucketProperties bucketProperties = bucketsManager.getBucketProperties(bucketId);
+    final BucketProperties bucketProperties = bucketsManager.getBucketProperties(bucketId);
 
     ITaskHandler taskHandler = taskHandlerRegistry.getTaskHandler(task);
     if (taskHandler == null) {
@@ -291,31 +598,37 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
 
     if (!concurrencyPolicy.bookSpaceForTask(task)) {
       log.debug("There is no space to process task '{}'.", task.getVersionId());
-      return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.NO_SPACE);
+      return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.NO_SPACE).setConcurrencyPolicy(concurrencyPolicy)
+          .setSpaceAvailableTimeMs(concurrencyPolicy.getSpaceAvailableTimeMs(task))
+          .setSpaceAvailableKey(concurrencyPolicy.getSpaceAvailableKey(task));
     }
 
-    try {
-      bucket.getTasksGrabbingLock().lock();
-      try {
-        while (bucket.getInProgressTasksGrabbingCount().incrementAndGet() > bucketProperties.getTaskGrabbingConcurrency()) {
-          bucket.getInProgressTasksGrabbingCount().decrementAndGet();
-          boolean ignored = bucket.getTasksGrabbingCondition().await(tasksProperties.getGenericMediumDelay().toMillis(), TimeUnit.MILLISECONDS);
-        }
-      } finally {
-        bucket.getTasksGrabbingLock().unlock();
+    if (bucketProperties.getTaskGrabbingMaxBatchSize() > 1) {
+      TasksGrabbingBatch batch = tasksGrabbingBatches.computeIfAbsent(bucketId, k -> new TasksGrabbingBatch());
+      if (batch.getTaskGrabbings().isEmpty()) {
+        batch.setStartTimeMs(ClockHolder.getClock().millis());
+      }
+      batch.getTaskGrabbings().add(new TaskGrabbing().setTask(task).setConcurrencyPolicy(concurrencyPolicy).setTaskHandler(taskHandler));
+      if (batch.getTaskGrabbings().size() >= bucketProperties.getTaskGrabbingMaxBatchSize()) {
+        flushTasksGrabbingBatch(bucket);
       }
+      return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.OK).setSpaceBooked(true);
+    }
+
+    try {
+      acquireTasksGrabbingSlot(bucket, bucketProperties);
       ongoingTasksGrabbingsCount.incrementAndGet();
-      tasksGrabbingExecutor.submit(() -> grabTaskForProcessing0(bucket, task, concurrencyPolicy, taskHandler));
+      getTasksGrabbingExecutor(bucket.getBucketId()).submit(() -> grabTaskForProcessing0(bucket, task, concurrencyPolicy, taskHandler));
     } catch (Throwable t) {
       log.error(t.getMessage(), t);
-      concurrencyPolicy.freeSpaceForTask(task);
+      freeSpaceForTask(concurrencyPolicy, task);
       if (!taskDao.setStatus(task.getId(), TaskStatus.ERROR, task.getVersion())) {
         meterHelper.registerFailedStatusChange(task.getType(), TaskStatus.UNKNOWN.name(), TaskStatus.ERROR);
       }
       return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.ERROR);
     }
 
-    return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.OK);
+    return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.OK).setSpaceBooked(true);
   }
 
   @Trace(dispatcher = true)
@@ -326,6 +639,7 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
       Instant maxProcessingEndTime = taskHandler.getProcessingPolicy(task).getProcessingDeadline(task);
 
       boolean grabbed = false;
+      boolean rejected = false;
       try {
         boolean expectingVersionToBeTheSameInDb = true;
         if (tasksProperties.isCheckVersionBeforeGrabbing()) {
@@ -338,14 +652,17 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
         if (taskForProcessing == null) {
           log.debug("Task '{}' was not available for processing with its version.", task.getVersionId());
         } else {
-          scheduleTask(bucket.getBucketId(), taskHandler, concurrencyPolicy, taskForProcessing);
-          grabbed = true;
+          taskForProcessing.setOrderingKey(task.getOrderingKey());
+          grabbed = scheduleTask(bucket.getBucketId(), taskHandler, concurrencyPolicy, taskForProcessing);
+          rejected = !grabbed;
         }
       } finally {
         if (!grabbed) {
-          concurrencyPolicy.freeSpaceForTask(task);
+          freeSpaceForTask(concurrencyPolicy, task);
           bucket.increaseVersion();
-          meterHelper.registerFailedTaskGrabbing(bucket.getBucketId(), task.getType());
+          if (!rejected) {
+            meterHelper.registerFailedTaskGrabbing(bucket.getBucketId(), task.getType());
+          }
         }
       }
     } catch (Throwable t) {
@@ -354,32 +671,195 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
       bucket.getSize().decrementAndGet();
       bucket.increaseVersion();
 
-      Lock tasksGrabbingLock = bucket.getTasksGrabbingLock();
-      tasksGrabbingLock.lock();
-      try {
+      releaseTasksGrabbingSlot(bucket);
+
+      ongoingTasksGrabbingsCount.decrementAndGet();
+    }
+  }
+
+  protected void acquireTasksGrabbingSlot(GlobalProcessingState.Bucket bucket, BucketProperties bucketProperties) throws InterruptedException {
+    bucket.getTasksGrabbingLock().lock();
+    try {
+      while (bucket.getInProgressTasksGrabbingCount().incrementAndGet() > bucketProperties.getTaskGrabbingConcurrency()) {
         bucket.getInProgressTasksGrabbingCount().decrementAndGet();
-        bucket.getTasksGrabbingCondition().signalAll();
-      } finally {
-        tasksGrabbingLock.unlock();
+        boolean ignored = bucket.getTasksGrabbingCondition().await(tasksProperties.getGenericMediumDelay().toMillis(), TimeUnit.MILLISECONDS);
       }
+    } finally {
+      bucket.getTasksGrabbingLock().unlock();
+    }
+  }
+
+  protected void releaseTasksGrabbingSlot(GlobalProcessingState.Bucket bucket) {
+    Lock tasksGrabbingLock = bucket.getTasksGrabbingLock();
+    tasksGrabbingLock.lock();
+    try {
+      bucket.getInProgressTasksGrabbingCount().decrementAndGet();
+      bucket.getTasksGrabbingCondition().signalAll();
+    } finally {
+      tasksGrabbingLock.unlock();
+    }
+  }
+
+  /**
+   * Returns how many milliseconds are left until the bucket's grabbing batch has to be grabbed, or -1 if there is no batch waiting.
+   */
+  protected long getTasksGrabbingBatchWaitTimeMs(GlobalProcessingState.Bucket bucket) {
+    TasksGrabbingBatch batch = tasksGrabbingBatches.get(bucket.getBucketId());
+    if (batch == null || batch.getTaskGrabbings().isEmpty()) {
+      return -1;
+    }
+    long maxWaitMs = bucketsManager.getBucketProperties(bucket.getBucketId()).getTaskGrabbingMaxBatchWait().toMillis();
+    return Math.max(0, batch.getStartTimeMs() + maxWaitMs - ClockHolder.getClock().millis());
+  }
+
+  /**
+   * Returns how many milliseconds are left until the first throttled key can be tried again, or -1 if no key is throttled.
+   */
+  protected long getThrottlingWaitTimeMs(GlobalProcessingState.Bucket bucket) {
+    if (bucket.getKeysThrottledUntilMs().isEmpty()) {
+      return -1;
+    }
+    long throttledUntilMs = Collections.min(bucket.getKeysThrottledUntilMs().values());
+    return Math.max(0, throttledUntilMs - ClockHolder.getClock().millis());
+  }
+
+  /**
+   * Hands the collected grabbing batch over to the grabbing executor.
+   *
+   * <p>Batches are collected and flushed only by the bucket's processing thread, so no locking is needed around them.
+   */
+  protected void flushTasksGrabbingBatch(GlobalProcessingState.Bucket bucket) {
+    TasksGrabbingBatch batch = tasksGrabbingBatches.get(bucket.getBucketId());
+    if (batch == null || batch.getTaskGrabbings().isEmpty()) {
+      return;
+    }
+    List<TaskGrabbing> taskGrabbings = batch.getTaskGrabbings();
+    batch.setTaskGrabbings(new ArrayList<>());
+
+    boolean submitted = false;
+    boolean slotAcquired = false;
+    try {
+      acquireTasksGrabbingSlot(bucket, bucketsManager.getBucketProperties(bucket.getBucketId()));
+      slotAcquired = true;
+      ongoingTasksGrabbingsCount.incrementAndGet();
+      getTasksGrabbingExecutor(bucket.getBucketId()).submit(() -> grabTasksForProcessing0(bucket, taskGrabbings));
+      submitted = true;
+    } catch (Throwable t) {
+      log.error(t.getMessage(), t);
+    } finally {
+      if (!submitted) {
+        if (slotAcquired) {
+          ongoingTasksGrabbingsCount.decrementAndGet();
+          releaseTasksGrabbingSlot(bucket);
+        }
+        for (TaskGrabbing taskGrabbing : taskGrabbings) {
+          BaseTask task = taskGrabbing.getTask();
+          freeSpaceForTask(taskGrabbing.getConcurrencyPolicy(), task);
+          if (!taskDao.setStatus(task.getId(), TaskStatus.ERROR, task.getVersion())) {
+            meterHelper.registerFailedStatusChange(task.getType(), TaskStatus.UNKNOWN.name(), TaskStatus.ERROR);
+          }
+        }
+        bucket.getSize().addAndGet(-taskGrabbings.size());
+        bucket.increaseVersion();
+      }
+    }
+  }
+
+  @Trace(dispatcher = true)
+  protected void grabTasksForProcessing0(GlobalProcessingState.Bucket bucket, List<TaskGrabbing> taskGrabbings) {
+    NewRelic.setTransactionName("TwTasksEngine", "TasksGrabbing");
+    boolean[] grabbed = new boolean[taskGrabbings.size()];
+    boolean[] rejected = new boolean[taskGrabbings.size()];
+    try {
+      List<ITaskDao.GrabForProcessingRequest> requests = new ArrayList<>(taskGrabbings.size());
+      for (TaskGrabbing taskGrabbing : taskGrabbings) {
+        BaseTask task = taskGrabbing.getTask();
+        requests.add(new ITaskDao.GrabForProcessingRequest().setTask(task)
+            .setMaxProcessingEndTime(taskGrabbing.getTaskHandler().getProcessingPolicy(task).getProcessingDeadline(task)));
+      }
+
+      List<Task> tasksForProcessing = taskDao.grabForProcessing(requests, tasksProperties.getClientId());
+
+      // After the executor has rejected one task, the rest of the batch is handed back right away, instead of waiting for the queue again.
+      boolean executorFull = false;
+      for (int i = 0; i < taskGrabbings.size(); i++) {
+        TaskGrabbing taskGrabbing = taskGrabbings.get(i);
+        Task taskForProcessing = tasksForProcessing.get(i);
+        if (taskForProcessing == null) {
+          log.debug("Task '{}' was not available for processing with its version.", taskGrabbing.getTask().getVersionId());
+          continue;
+        }
+        try {
+          if (executorFull) {
+            rejected[i] = true;
+            setToBeRetriedAfterRejection(taskForProcessing);
+            continue;
+          }
+          taskForProcessing.setOrderingKey(taskGrabbing.getTask().getOrderingKey());
+          grabbed[i] = scheduleTask(bucket.getBucketId(), taskGrabbing.getTaskHandler(), taskGrabbing.getConcurrencyPolicy(), taskForProcessing);
+          rejected[i] = !grabbed[i];
+          executorFull = rejected[i];
+        } catch (Throwable t) {
+          log.error("Scheduling task '" + taskForProcessing.getVersionId() + "' failed.", t);
+        }
+      }
+    } catch (Throwable t) {
+      log.error("Grabbing " + taskGrabbings.size() + " tasks failed.", t);
+    } finally {
+      for (int i = 0; i < taskGrabbings.size(); i++) {
+        if (!grabbed[i]) {
+          TaskGrabbing taskGrabbing = taskGrabbings.get(i);
+          freeSpaceForTask(taskGrabbing.getConcurrencyPolicy(), taskGrabbing.getTask());
+          if (!rejected[i]) {
+            meterHelper.registerFailedTaskGrabbing(bucket.getBucketId(), taskGrabbing.getTask().getType());
+          }
+        }
+      }
+      bucket.getSize().addAndGet(-taskGrabbings.size());
+      bucket.increaseVersion();
+
+      releaseTasksGrabbingSlot(bucket);
 
       ongoingTasksGrabbingsCount.decrementAndGet();
     }
   }
 
-  protected void scheduleTask(String bucketId, ITaskHandler taskHandler, ITaskConcurrencyPolicy concurrencyPolicy, Task taskForProcessing) {
+  /**
+   * Returns false, when the executor rejected the task. The task is then put back to be retried immediately, without using up one of its
+   * processing tries, and the caller has to free its processing slot.
+   */
+  protected boolean scheduleTask(String bucketId, ITaskHandler taskHandler, ITaskConcurrencyPolicy concurrencyPolicy, Task taskForProcessing) {
     GlobalProcessingState.Bucket bucket = globalProcessingState.getBuckets().get(bucketId);
-    taskExecutor.submit(() -> {
-      runningTasksCount.incrementAndGet();
-      bucket.getRunningTasksCount().incrementAndGet();
-      MdcContext.clear();  // Gives a clear MDC to tasks, avoids MDC leaking between tasks.
-      MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), taskForProcessing.getVersionId());
-      try {
-        processTask(taskHandler, concurrencyPolicy, bucketId, taskForProcessing);
-      } catch (Throwable t) {
-        log.error("Processing task '" + taskForProcessing.getVersionId() + "' failed.", t);
-      }
-    });
+    try {
+      getTaskExecutor(bucketId).submit(() -> {
+        runningTasksCount.incrementAndGet();
+        bucket.getRunningTasksCount().incrementAndGet();
+        MdcContext.clear();  // Gives a clear MDC to tasks, avoids MDC leaking between tasks.
+        MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), taskForProcessing.getVersionId());
+        try {
+          processTask(taskHandler, concurrencyPolicy, bucketId, taskForProcessing);
+        } catch (Throwable t) {
+          log.error("Processing task '" + taskForProcessing.getVersionId() + "' failed.", t);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      meterHelper.incrementCounter(METRIC_PREFIX + "processing.taskExecutor.rejectedCount", ImmutableMap.of("bucketId", bucketId), 1);
+      log.warn("Task {} was rejected by the executor of bucket '{}', retrying it.", LogUtils.asParameter(taskForProcessing.getVersionId()),
+          bucketId);
+      setToBeRetriedAfterRejection(taskForProcessing);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Puts a grabbed task back to be retried immediately, giving back the processing try counted by grabbing.
+   */
+  private void setToBeRetriedAfterRejection(Task task) {
+    if (!taskDao.setToBeRetriedWithTriesCount(task.getId(), ZonedDateTime.now(ClockHolder.getClock()), task.getVersion(),
+        Math.max(0, task.getProcessingTriesCount() - 1))) {
+      meterHelper.registerFailedStatusChange(task.getType(), TaskStatus.PROCESSING.name(), TaskStatus.WAITING);
+    }
   }
 
   protected void processWithInterceptors(int interceptorIdx, Task task, Runnable processor) {
@@ -409,6 +889,7 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
 
                   long processingStartTimeMs = ClockHolder.getClock().millis();
                   MutableObject<ProcessingResult> processingResultHolder = new MutableObject<>(ProcessingResult.SUCCESS);
+                  MutableBoolean taskFinishingDeferred = new MutableBoolean();
 
                   ITaskProcessor taskProcessor = taskHandler.getProcessor(task.toBaseTask());
                   processWithInterceptors(0, task, () -> {
@@ -431,6 +912,22 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
 
                         if (!isProcessorTransactional) {
                           process.run();
+
+                          if (taskCompletionWriter.isEnabled()) {
+                            TaskStateWriter asyncTaskStateWriter = (change, resultHandler) -> {
+                              taskFinishingDeferred.setTrue();
+                              taskCompletionWriter.write(change, succeeded -> {
+                                try {
+                                  resultHandler.accept(succeeded);
+                                } finally {
+                                  taskFinished(bucketId, concurrencyPolicy, task, processingStartTimeMs, processingResultHolder.getValue());
+                                }
+                              });
+                            };
+                            handleSyncProcessResult(bucketId, taskHandler, task, resultHolder.getValue(), processingResultHolder,
+                                asyncTaskStateWriter);
+                            return;
+                          }
                         }
 
                         transactionsHelper.withTransaction().asNew().call(() -> {
@@ -442,16 +939,7 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
                             log.debug("Task processor for task '{}' has crappy code. Fixing it with a rollback exception.", task.getVersionId());
                             throw new SyncProcessingRolledbackException(result);
                           }
-                          if (result == null || result.getResultCode() == null
-                              || result.getResultCode() == ISyncTaskProcessor.ProcessResult.ResultCode.DONE) {
-                            markTaskAsDone(task);
-                          } else if (result.getResultCode() == ISyncTaskProcessor.ProcessResult.ResultCode.COMMIT_AND_RETRY) {
-                            processingResultHolder.setValue(ProcessingResult.COMMIT_AND_RETRY);
-                            setRepeatOnSuccess(bucketId, taskHandler, task);
-                          } else {
-                            processingResultHolder.setValue(ProcessingResult.ERROR);
-                            setRetriesOrError(bucketId, taskHandler, task, null);
-                          }
+                          handleSyncProcessResult(bucketId, taskHandler, task, result, processingResultHolder, syncTaskStateWriter);
                           return null;
                         });
                       } catch (SyncProcessingRolledbackException e) {
@@ -482,7 +970,9 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
                         processingResultHolder.setValue(ProcessingResult.ERROR);
                         setRetriesOrError(bucketId, taskHandler, task, t);
                       } finally {
-                        taskFinished(bucketId, concurrencyPolicy, task, processingStartTimeMs, processingResultHolder.getValue());
+                        if (taskFinishingDeferred.isFalse()) {
+                          taskFinished(bucketId, concurrencyPolicy, task, processingStartTimeMs, processingResultHolder.getValue());
+                        }
                       }
                     } else if (taskProcessor instanceof IAsyncTaskProcessor) {
                       AtomicBoolean taskMarkedAsFinished = new AtomicBoolean(); // Buggy implementation could call our callbacks many times.
@@ -519,6 +1009,23 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
                 }));
   }
 
+  /**
+   * Writes exactly one state change with the given writer.
+   */
+  protected void handleSyncProcessResult(String bucketId, ITaskHandler taskHandler, Task task, ISyncTaskProcessor.ProcessResult result,
+      MutableObject<ProcessingResult> processingResultHolder, TaskStateWriter taskStateWriter) {
+    if (result == null || result.getResultCode() == null
+        || result.getResultCode() == ISyncTaskProcessor.ProcessResult.ResultCode.DONE) {
+      markTaskAsDone(task, taskStateWriter);
+    } else if (result.getResultCode() == ISyncTaskProcessor.ProcessResult.ResultCode.COMMIT_AND_RETRY) {
+      processingResultHolder.setValue(ProcessingResult.COMMIT_AND_RETRY);
+      setRepeatOnSuccess(bucketId, taskHandler, task, taskStateWriter);
+    } else {
+      processingResultHolder.setValue(ProcessingResult.ERROR);
+      setRetriesOrError(bucketId, taskHandler, task, null, taskStateWriter);
+    }
+  }
+
   @Trace(dispatcher = true)
   protected void markTaskAsDoneFromAsync(Task task) {
     NewRelic.setTransactionName("TwTasksEngine", "AsyncDone");
@@ -532,61 +1039,99 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
   }
 
   protected void markTaskAsDone(Task task) {
+    markTaskAsDone(task, syncTaskStateWriter);
+  }
+
+  protected void markTaskAsDone(Task task, TaskStateWriter taskStateWriter) {
     UUID taskId = task.getId();
     log.debug("Task '{}' finished successfully.", taskId);
+    ITaskDao.TaskStateChange change = new ITaskDao.TaskStateChange().setTaskId(taskId).setVersion(task.getVersion());
     if (tasksProperties.isDeleteTaskOnFinish()) {
-      taskDao.deleteTask(taskId, task.getVersion());
-    } else if (tasksProperties.isClearPayloadOnFinish()) {
-      if (!taskDao.clearPayloadAndMarkDone(taskId, task.getVersion())) {
-        meterHelper.registerFailedStatusChange(task.getType(), task.getStatus(), TaskStatus.DONE);
-      }
+      taskStateWriter.write(change.setType(ITaskDao.TaskStateChange.Type.DELETE), succeeded -> {
+      });
     } else {
-      if (!taskDao.setStatus(taskId, TaskStatus.DONE, task.getVersion())) {
-        meterHelper.registerFailedStatusChange(task.getType(), task.getStatus(), TaskStatus.DONE);
+      if (tasksProperties.isClearPayloadOnFinish()) {
+        change.setType(ITaskDao.TaskStateChange.Type.CLEAR_PAYLOAD_AND_MARK_DONE);
+      } else {
+        change.setType(ITaskDao.TaskStateChange.Type.SET_STATUS).setStatus(TaskStatus.DONE);
       }
+      taskStateWriter.write(change, succeeded -> {
+        if (!succeeded) {
+          meterHelper.registerFailedStatusChange(task.getType(), task.getStatus(), TaskStatus.DONE);
+        }
+      });
     }
   }
 
-  private void setRepeatOnSuccess(String bucketId, ITaskHandler taskHandler, Task task) {
+  private void setRepeatOnSuccess(String bucketId, ITaskHandler taskHandler, Task task, TaskStateWriter taskStateWriter) {
     ITaskRetryPolicy retryPolicy = taskHandler.getRetryPolicy(task.toBaseTask());
     if (retryPolicy.resetTriesCountOnSuccess(task)) {
       task.setProcessingTriesCount(0); // in DAO, it will get reset as well
     }
     ZonedDateTime retryTime = retryPolicy.getRetryTime(task, null);
     if (retryTime == null) {
-      setRetriesOrError(bucketId, task, null);
+      setRetriesOrError(bucketId, task, null, taskStateWriter);
     } else {
       log.debug("Repeating task '{}' will be reprocessed @ {}. Tries count reset: {}.", task.getVersionId(), retryTime,
           retryPolicy.resetTriesCountOnSuccess(task));
       meterHelper.registerTaskRetry(bucketId, task.getType());
-      setToBeRetried(task, retryTime, retryPolicy.resetTriesCountOnSuccess(task));
+      setToBeRetried(task, retryTime, retryPolicy.resetTriesCountOnSuccess(task), taskStateWriter);
     }
   }
 
   protected void setRetriesOrError(String bucketId, ITaskHandler taskHandler, Task task, Throwable t) {
+    setRetriesOrError(bucketId, taskHandler, task, t, syncTaskStateWriter);
+  }
+
+  protected void setRetriesOrError(String bucketId, ITaskHandler taskHandler, Task task, Throwable t, TaskStateWriter taskStateWriter) {
     ZonedDateTime retryTime = taskHandler.getRetryPolicy(task.toBaseTask()).getRetryTime(task, t);
-    setRetriesOrError(bucketId, task, retryTime);
+    setRetriesOrError(bucketId, task, retryTime, taskStateWriter);
   }
 
   protected void setRetriesOrError(String bucketId, Task task, ZonedDateTime retryTime) {
+    setRetriesOrError(bucketId, task, retryTime, syncTaskStateWriter);
+  }
+
+  protected void setRetriesOrError(String bucketId, Task task, ZonedDateTime retryTime, TaskStateWriter taskStateWriter) {
     if (retryTime == null) {
       log.info("Task {} marked as ERROR.", LogUtils.asParameter(task.getVersionId()));
-      if (taskDao.setStatus(task.getId(), TaskStatus.ERROR, task.getVersion())) {
-        meterHelper.registerTaskMarkedAsError(bucketId, task.getType());
-      } else {
-        meterHelper.registerFailedStatusChange(task.getType(), task.getStatus(), TaskStatus.ERROR);
-      }
+      taskStateWriter.write(new ITaskDao.TaskStateChange().setTaskId(task.getId()).setVersion(task.getVersion())
+          .setType(ITaskDao.TaskStateChange.Type.SET_STATUS).setStatus(TaskStatus.ERROR), succeeded -> {
+            if (succeeded) {
+              meterHelper.registerTaskMarkedAsError(bucketId, task.getType());
+            } else {
+              meterHelper.registerFailedStatusChange(task.getType(), task.getStatus(), TaskStatus.ERROR);
+            }
+          });
     } else {
       log.info("Task {} will be reprocessed @ " + retryTime + ".", LogUtils.asParameter(task.getVersionId()));
       meterHelper.registerTaskRetryOnError(bucketId, task.getType());
-      setToBeRetried(task, retryTime, false);
+      setToBeRetried(task, retryTime, false, taskStateWriter);
     }
   }
 
-  private void setToBeRetried(Task task, ZonedDateTime retryTime, boolean resetTriesCount) {
-    if (!taskDao.setToBeRetried(task.getId(), retryTime, task.getVersion(), resetTriesCount)) {
-      meterHelper.registerFailedStatusChange(task.getType(), task.getStatus(), TaskStatus.WAITING);
-      log.error("Failed to setup task {} to be retried.", LogUtils.asParameter(task.getVersionId()), new Throwable());
+  private void setToBeRetried(Task task, ZonedDateTime retryTime, boolean resetTriesCount, TaskStateWriter taskStateWriter) {
+    taskStateWriter.write(new ITaskDao.TaskStateChange().setTaskId(task.getId()).setVersion(task.getVersion())
+        .setType(ITaskDao.TaskStateChange.Type.SET_TO_BE_RETRIED).setRetryTime(retryTime).setResetTriesCount(resetTriesCount), succeeded -> {
+          if (!succeeded) {
+            meterHelper.registerFailedStatusChange(task.getType(), task.getStatus(), TaskStatus.WAITING);
+            log.error("Failed to setup task {} to be retried.", LogUtils.asParameter(task.getVersionId()), new Throwable());
+          }
+        });
+  }
+
+  protected boolean changeTaskState(ITaskDao.TaskStateChange change) {
+    switch (change.getType()) {
+      case SET_STATUS:
+        return taskDao.setStatus(change.getTaskId(), change.getStatus(), change.getVersion());
+      case CLEAR_PAYLOAD_AND_MARK_DONE:
+        return taskDao.clearPayloadAndMarkDone(change.getTaskId(), change.getVersion());
+      case DELETE:
+        return taskDao.deleteTask(change.getTaskId(), change.getVersion());
+      case SET_TO_BE_RETRIED:
+        return taskDao.setToBeRetried(change.getTaskId(), change.getRetryTime(), change.getVersion(), change.isResetTriesCount());
+      default:
+        throw new IllegalStateException("Unsupported state change type '" + change.getType() + "'.");
     }
   }
 
@@ -597,7 +1142,14 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
     bucket.getRunningTasksCount().decrementAndGet();
     meterHelper.registerTaskProcessingEnd(bucketId, task.getType(), processingStartTimeMs, processingResult.name());
 
-    concurrencyPolicy.freeSpaceForTask(task);
+    try {
+      // Retries are usually asked for when a downstream service is not keeping up, so they count as congestion as failures do.
+      concurrencyPolicy.registerTaskProcessed(task, ClockHolder.getClock().millis() - processingStartTimeMs,
+          processingResult == ProcessingResult.SUCCESS);
+    } catch (Throwable t) {
+      log.error(t.getMessage(), t);
+    }
+    freeSpaceForTask(concurrencyPolicy, task);
     bucket.increaseVersion();
   }
 
@@ -606,6 +1158,11 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
     shutdownStartTime = Instant.now(ClockHolder.getClock());
     shuttingDown = true;
     tasksProcessingExecutor.shutdown();
+    // Tasks already queued are still processed, later submits are rejected and put back to be retried.
+    for (BucketExecutors bucketExecutors : bucketsExecutors.values()) {
+      bucketExecutors.getTasksGrabbingExecutor().shutdown();
+      bucketExecutors.getTaskExecutor().shutdown();
+    }
   }
 
   @Override
@@ -622,6 +1179,11 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
         }
       });
     }
+    for (BucketExecutors bucketExecutors : bucketsExecutors.values()) {
+      if (!bucketExecutors.getTasksGrabbingExecutor().isTerminated() || !bucketExecutors.getTaskExecutor().isTerminated()) {
+        return false;
+      }
+    }
     return tasksProcessingExecutor.isTerminated() && runningTasksCount.get() == 0;
   }
 
@@ -633,6 +1195,13 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
             "Suboptimal configuration for bucket '" + bucketId + "' found. triggerSameTaskInAllNodes=false and checkVersionBeforeGrabbing=true.");
       }
 
+      if (bucketsManager.getBucketProperties(bucketId).getTaskExecutorMode() == TasksProperties.ExecutorMode.VIRTUAL_THREADS
+          && !executorsHelper.isVirtualThreadsSupported()) {
+        log.warn("Virtual threads were asked for bucket '" + bucketId + "', but the JDK does not support those. Using platform threads instead.");
+      }
+
+      registerBucketExecutors(bucketId);
+
       GlobalProcessingState.Bucket bucket = globalProcessingState.getBuckets().get(bucketId);
 
       Map<String, String> tags = ImmutableMap.of("bucketId", bucketId);
@@ -640,6 +1209,12 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
       meterHelper
           .registerGauge(METRIC_PREFIX + "processing.inProgressTasksGrabbingCount", tags, () -> bucket.getInProgressTasksGrabbingCount().get());
       meterHelper.registerGauge(METRIC_PREFIX + "processing.triggersCount", tags, () -> bucket.getSize().get());
+      meterHelper.registerGauge(METRIC_PREFIX + "processing.setAsideTriggersCount", tags, () -> bucket.getSetAsideSize().get());
+      for (Integer priority : bucket.getPriorities()) {
+        GlobalProcessingState.PrioritySlot prioritySlot = bucket.getPrioritySlot(priority);
+        meterHelper.registerGauge(METRIC_PREFIX + "processing.oldestTriggerAgeMs", ImmutableMap.of("bucketId", bucketId, "priority",
+            String.valueOf(priority)), () -> getOldestTriggerAgeMs(prioritySlot));
+      }
 
       tasksProcessingExecutor.submit(() -> {
         while (!shuttingDown) {
@@ -648,24 +1223,36 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
 
             processTasks(bucket);
 
-            Lock versionLock = bucket.getVersionLock();
-            versionLock.lock();
-            try {
-              while (bucket.getVersion().get() == stateVersion && !shuttingDown) {
-                try {
-                  bucket.getVersionCondition().await(tasksProperties.getGenericMediumDelay().toMillis(), TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                  log.error(e.getMessage(), e);
-                }
+            if (getTasksGrabbingBatchWaitTimeMs(bucket) == 0) {
+              flushTasksGrabbingBatch(bucket);
+            }
+
+            while (bucket.getVersion().get() == stateVersion && !shuttingDown) {
+              long waitTimeMs = tasksProperties.getGenericMediumDelay().toMillis();
+              long batchWaitTimeMs = getTasksGrabbingBatchWaitTimeMs(bucket);
+              if (batchWaitTimeMs == 0) {
+                break;
+              } else if (batchWaitTimeMs > 0) {
+                waitTimeMs = Math.min(waitTimeMs, batchWaitTimeMs);
+              }
+              long throttlingWaitTimeMs = getThrottlingWaitTimeMs(bucket);
+              if (throttlingWaitTimeMs == 0) {
+                break;
+              } else if (throttlingWaitTimeMs > 0) {
+                waitTimeMs = Math.min(waitTimeMs, throttlingWaitTimeMs);
+              }
+              try {
+                bucket.awaitVersionChange(stateVersion, Duration.ofMillis(waitTimeMs));
+              } catch (InterruptedException e) {
+                log.error(e.getMessage(), e);
               }
-            } finally {
-              versionLock.unlock();
             }
           } catch (Throwable t) {
             log.error(t.getMessage(), t);
             WaitUtils.sleepQuietly(tasksProperties.getGenericMediumDelay());
           }
         }
+        flushTasksGrabbingBatch(bucket);
       });
     }
   }
@@ -675,12 +1262,53 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
   protected static class ProcessTaskResponse {
 
     private Result result;
+    /**
+     * With NO_SPACE, when the concurrency policy expects to have space again, -1 if only when some tasks finish.
+     */
+    private long spaceAvailableTimeMs = -1;
+    /**
+     * With a space available time, the policy key it applies to. The task type, when null.
+     */
+    private String spaceAvailableKey;
+    /**
+     * With NO_SPACE, the policy which had no space.
+     */
+    private ITaskConcurrencyPolicy concurrencyPolicy;
+    /**
+     * With OK, if space was booked for the task, so it will be freed when the task has finished.
+     */
+    private boolean spaceBooked;
 
     public enum Result {
       OK, NO_SPACE, ERROR
     }
   }
 
+  @Data
+  @Accessors(chain = true)
+  protected static class TaskGrabbing {
+
+    private BaseTask task;
+    private ITaskConcurrencyPolicy concurrencyPolicy;
+    private ITaskHandler taskHandler;
+  }
+
+  @Data
+  @Accessors(chain = true)
+  protected static class TasksGrabbingBatch {
+
+    private List<TaskGrabbing> taskGrabbings = new ArrayList<>();
+    private long startTimeMs;
+  }
+
+  @Data
+  @Accessors(chain = true)
+  protected static class BucketExecutors {
+
+    private ExecutorService taskExecutor;
+    private ExecutorService tasksGrabbingExecutor;
+  }
+
   protected static class SyncProcessingRolledbackException extends RuntimeException {
 
     static final long serialVersionUID = 1L;
@@ -694,7 +1322,16 @@ public class TasksProcessingService implements GracefulShutdownStrategy, ITasksP
     }
   }
 
-  private enum ProcessingResult {
+  /**
+   * Writes a task state change, either synchronously or through {@link TaskCompletionWriter}, and gives the result to the result handler.
+   */
+  @FunctionalInterface
+  protected interface TaskStateWriter {
+
+    void write(ITaskDao.TaskStateChange change, Consumer<Boolean> resultHandler);
+  }
+
+  protected enum ProcessingResult {
     SUCCESS,
     COMMIT_AND_RETRY,
     ERROR
@@ -5,6 +5,7 @@ import com.newrelic.api.agent.Trace;
 import com.transferwise.common.baseutils.ExceptionUtils;
 import com.transferwise.common.baseutils.clock.ClockHolder;
 import com.transferwise.common.baseutils.concurrency.IExecutorServicesProvider;
+import com.transferwise.common.baseutils.concurrency.LockUtils;
 import com.transferwise.common.baseutils.concurrency.ScheduledTaskExecutor;
 import com.transferwise.common.baseutils.concurrency.ThreadNamingExecutorServiceWrapper;
 import com.transferwise.common.gracefulshutdown.GracefulShutdownStrategy;
@@ -12,6 +13,7 @@ import com.transferwise.common.leaderselector.Leader;
 import com.transferwise.common.leaderselector.LeaderSelector;
 import com.transferwise.tasks.TasksProperties;
 import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.dao.ITaskNotificationsListener;
 import com.transferwise.tasks.domain.BaseTask;
 import com.transferwise.tasks.domain.IBaseTask;
 import com.transferwise.tasks.domain.TaskStatus;
@@ -24,16 +26,21 @@ import com.transferwise.tasks.triggering.ITasksExecutionTriggerer;
 import com.transferwise.tasks.utils.DomainUtils;
 import com.transferwise.tasks.utils.LogUtils;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.mutable.MutableObject;
 import org.apache.curator.framework.CuratorFramework;
+import org.springframework.beans.factory.annotation.Autowired;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -47,6 +54,9 @@ public class TasksResumer implements ITasksResumer, GracefulShutdownStrategy {
   private final IExecutorServicesProvider executorServicesProvider;
   private final IMeterHelper meterHelper;
 
+  @Autowired(required = false)
+  private ITaskNotificationsListener taskNotificationsListener;
+
   private LeaderSelector leaderSelector;
 
   private volatile boolean shuttingDown = false;
@@ -55,6 +65,11 @@ public class TasksResumer implements ITasksResumer, GracefulShutdownStrategy {
 
   private int batchSize = 1000;
 
+  private final Lock waitingTasksResumingLock = new ReentrantLock();
+  private final Condition waitingTasksResumingCondition = waitingTasksResumingLock.newCondition();
+  // When the waiting tasks should be resumed next time, null while they are being resumed.
+  private Instant waitingTasksResumingTime;
+
   @PostConstruct
   public void init() {
     String nodePath = "/tw/tw_tasks/" + tasksProperties.getGroupId() + "/tasks_resumer";
@@ -62,6 +77,12 @@ public class TasksResumer implements ITasksResumer, GracefulShutdownStrategy {
 
     verifyCorrectCuratorConfig();
 
+    if (isWaitingTasksNotificationsEnabled()) {
+      taskNotificationsListener.addWaitingTasksScheduledListener(this::wakeUpWaitingTasksResuming);
+    } else if (tasksProperties.isWaitingTasksNotificationsEnabled()) {
+      log.warn("Waiting tasks notifications are enabled, but not supported by the database. Polling for scheduled tasks instead.");
+    }
+
     leaderSelector = new LeaderSelector(curatorFramework, nodePath, executorService,
         control -> {
           ScheduledTaskExecutor scheduledTaskExecutor = executorServicesProvider.getGlobalScheduledTaskExecutor();
@@ -75,14 +96,20 @@ public class TasksResumer implements ITasksResumer, GracefulShutdownStrategy {
 
                 log.info("Started to resume stuck tasks after each " + tasksProperties.getStuckTasksPollingInterval() + ".");
 
-                scheduledTaskHandleHolder.setValue(scheduledTaskExecutor.scheduleAtFixedInterval(() -> {
-                  if (paused) {
-                    return;
-                  }
-                  resumeWaitingTasks(control);
-                }, tasksProperties.getWaitingTasksPollingInterval(), tasksProperties.getWaitingTasksPollingInterval()));
+                if (isWaitingTasksNotificationsEnabled()) {
+                  scheduledTaskHandleHolder.setValue(scheduledTaskExecutor.scheduleOnce(() -> resumeWaitingTasksWhenDue(control), Duration.ZERO));
 
-                log.info("Started to resume scheduled tasks after each " + tasksProperties.getWaitingTasksPollingInterval() + ".");
+                  log.info("Started to resume scheduled tasks when they are due.");
+                } else {
+                  scheduledTaskHandleHolder.setValue(scheduledTaskExecutor.scheduleAtFixedInterval(() -> {
+                    if (paused) {
+                      return;
+                    }
+                    resumeWaitingTasks(control);
+                  }, tasksProperties.getWaitingTasksPollingInterval(), tasksProperties.getWaitingTasksPollingInterval()));
+
+                  log.info("Started to resume scheduled tasks after each " + tasksProperties.getWaitingTasksPollingInterval() + ".");
+                }
               },
               () -> {
                 log.info("Stopping stuck tasks resumer.");
@@ -94,6 +121,7 @@ public class TasksResumer implements ITasksResumer, GracefulShutdownStrategy {
                 if (scheduledTaskHandleHolder.getValue() != null) {
                   scheduledTaskHandleHolder.getValue().stop();
                 }
+                wakeUpWaitingTasksResuming(Instant.EPOCH);
 
                 if (stuckTaskHandleHolder.getValue() != null) {
                   stuckTaskHandleHolder.getValue().waitUntilStopped(Duration.ofMinutes(1));
@@ -129,9 +157,11 @@ public class TasksResumer implements ITasksResumer, GracefulShutdownStrategy {
   protected void resumeStuckTasks(Leader.Control control) {
     NewRelic.setTransactionName("TwTasksEngine", "ResumeStuckTasks");
     try {
+      ITaskDao.GetStuckTasksRequest request = new ITaskDao.GetStuckTasksRequest().setBatchSize(batchSize)
+          .setStatuses(new TaskStatus[]{TaskStatus.NEW, TaskStatus.SUBMITTED, TaskStatus.PROCESSING})
+          .setMaxNextEventTime(ZonedDateTime.now(ClockHolder.getClock()));
       while (true) {
-        ITaskDao.GetStuckTasksResponse result = taskDao.getStuckTasks(batchSize, TaskStatus.NEW,
-            TaskStatus.SUBMITTED, TaskStatus.PROCESSING);
+        ITaskDao.GetStuckTasksResponse result = taskDao.getStuckTasks(request);
         AtomicInteger resumedCount = new AtomicInteger();
         AtomicInteger errorCount = new AtomicInteger();
         AtomicInteger failedCount = new AtomicInteger();
@@ -151,6 +181,7 @@ public class TasksResumer implements ITasksResumer, GracefulShutdownStrategy {
         if (!result.isHasMore()) {
           break;
         }
+        request.setAfter(result.getCursor());
       }
     } catch (Throwable t) {
       log.error(t.getMessage(), t);
@@ -162,8 +193,10 @@ public class TasksResumer implements ITasksResumer, GracefulShutdownStrategy {
   protected void resumeWaitingTasks(Leader.Control control) {
     NewRelic.setTransactionName("TwTasksEngine", "WaitingTasksResumer");
     try {
+      ITaskDao.GetStuckTasksRequest request = new ITaskDao.GetStuckTasksRequest().setBatchSize(batchSize)
+          .setStatuses(new TaskStatus[]{TaskStatus.WAITING}).setMaxNextEventTime(ZonedDateTime.now(ClockHolder.getClock()));
       while (true) {
-        ITaskDao.GetStuckTasksResponse result = taskDao.getStuckTasks(batchSize, TaskStatus.WAITING);
+        ITaskDao.GetStuckTasksResponse result = taskDao.getStuckTasks(request);
         for (ITaskDao.StuckTask task : result.getStuckTasks()) {
           if (control.shouldStop()) {
             return;
@@ -190,12 +223,73 @@ public class TasksResumer implements ITasksResumer, GracefulShutdownStrategy {
         if (!result.isHasMore()) {
           break;
         }
+        request.setAfter(result.getCursor());
       }
     } catch (Throwable t) {
       log.error(t.getMessage(), t);
     }
   }
 
+  /**
+   * Instead of polling with a fixed interval, resumes waiting tasks when the earliest of them is due, or when a notification tells about an even
+   * earlier one.
+   */
+  protected void resumeWaitingTasksWhenDue(Leader.Control control) {
+    while (!control.shouldStop()) {
+      LockUtils.withLock(waitingTasksResumingLock, () -> {
+        waitingTasksResumingTime = null;
+      });
+
+      if (!paused) {
+        resumeWaitingTasks(control);
+      }
+
+      Instant now = Instant.now(ClockHolder.getClock());
+      Instant nextTime = now.plus(tasksProperties.getWaitingTasksMaxPollingInterval());
+      try {
+        ZonedDateTime earliestTime = taskDao.getEarliestTaskNextEventTime(TaskStatus.WAITING);
+        if (earliestTime != null && earliestTime.toInstant().isBefore(nextTime)) {
+          // Tasks left due after resuming, e.g. when paused, do not deserve a busy loop.
+          nextTime = earliestTime.toInstant().isAfter(now) ? earliestTime.toInstant() : now.plus(tasksProperties.getWaitingTasksPollingInterval());
+        }
+      } catch (Throwable t) {
+        log.error(t.getMessage(), t);
+        nextTime = now.plus(tasksProperties.getWaitingTasksPollingInterval());
+      }
+
+      waitingTasksResumingLock.lock();
+      try {
+        if (waitingTasksResumingTime == null || nextTime.isBefore(waitingTasksResumingTime)) {
+          waitingTasksResumingTime = nextTime;
+        }
+        while (!control.shouldStop()) {
+          long waitTimeMs = Duration.between(Instant.now(ClockHolder.getClock()), waitingTasksResumingTime).toMillis();
+          if (waitTimeMs <= 0) {
+            break;
+          }
+          waitingTasksResumingCondition.await(Math.min(waitTimeMs, tasksProperties.getGenericMediumDelay().toMillis()), TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException e) {
+        log.error(e.getMessage(), e);
+      } finally {
+        waitingTasksResumingLock.unlock();
+      }
+    }
+  }
+
+  protected void wakeUpWaitingTasksResuming(Instant time) {
+    LockUtils.withLock(waitingTasksResumingLock, () -> {
+      if (waitingTasksResumingTime == null || time.isBefore(waitingTasksResumingTime)) {
+        waitingTasksResumingTime = time;
+        waitingTasksResumingCondition.signalAll();
+      }
+    });
+  }
+
+  protected boolean isWaitingTasksNotificationsEnabled() {
+    return taskNotificationsListener != null && taskNotificationsListener.isEnabled();
+  }
+
   protected void handleStuckTask(ITaskDao.StuckTask task, AtomicInteger resumedCount, AtomicInteger errorCount, AtomicInteger failedCount) {
     ITaskProcessingPolicy.StuckTaskResolutionStrategy taskResolutionStrategy = null;
 
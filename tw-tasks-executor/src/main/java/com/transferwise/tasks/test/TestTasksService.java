@@ -96,6 +96,34 @@ public class TestTasksService extends TasksService implements ITestTasksService
     }
   }
 
+  @Override
+  @Transactional(rollbackFor = Exception.class)
+  public List<AddTaskResponse> addTasks(List<AddTaskRequest> requests) {
+    List<AddTaskResponse> responses = new ArrayList<>(requests.size());
+    List<AddTaskRequest> notInterceptedRequests = new ArrayList<>();
+    List<Integer> notInterceptedIdxs = new ArrayList<>();
+    for (AddTaskRequest request : requests) {
+      track(request);
+      if (newTaskInterceptPredicate != null && newTaskInterceptPredicate.test(request)) {
+        interceptedNewTasks.add(request);
+        UUID taskId = request.getTaskId() == null ? UUID.randomUUID() : request.getTaskId();
+        log.info("Intercepted task '" + taskId + "' with type '" + request.getType() + "'.");
+        responses.add(new AddTaskResponse().setResult(AddTaskResponse.Result.OK).setTaskId(taskId));
+      } else {
+        notInterceptedIdxs.add(responses.size());
+        notInterceptedRequests.add(request);
+        responses.add(null);
+      }
+    }
+    if (!notInterceptedRequests.isEmpty()) {
+      List<AddTaskResponse> notInterceptedResponses = super.addTasks(notInterceptedRequests);
+      for (int i = 0; i < notInterceptedIdxs.size(); i++) {
+        responses.set(notInterceptedIdxs.get(i), notInterceptedResponses.get(i));
+      }
+    }
+    return responses;
+  }
+
   private void track(AddTaskRequest request) {
     taskAdditionTrackers
         .entrySet()
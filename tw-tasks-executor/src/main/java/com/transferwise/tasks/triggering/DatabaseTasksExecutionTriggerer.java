@@ -0,0 +1,474 @@
+package com.transferwise.tasks.triggering;
+
+import static com.transferwise.tasks.helpers.IMeterHelper.METRIC_PREFIX;
+
+import com.google.common.collect.ImmutableMap;
+import com.transferwise.common.baseutils.concurrency.LockUtils;
+import com.transferwise.common.gracefulshutdown.GracefulShutdownStrategy;
+import com.transferwise.tasks.ITasksService;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.buckets.BucketProperties;
+import com.transferwise.tasks.buckets.IBucketsManager;
+import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.domain.TaskStatus;
+import com.transferwise.tasks.handler.interfaces.ITaskHandler;
+import com.transferwise.tasks.handler.interfaces.ITaskHandlerRegistry;
+import com.transferwise.tasks.helpers.IErrorLoggingThrottler;
+import com.transferwise.tasks.helpers.IMeterHelper;
+import com.transferwise.tasks.helpers.executors.IExecutorsHelper;
+import com.transferwise.tasks.mdc.MdcContext;
+import com.transferwise.tasks.processing.GlobalProcessingState;
+import com.transferwise.tasks.processing.ITasksProcessingService;
+import com.transferwise.tasks.utils.LogUtils;
+import com.transferwise.tasks.utils.WaitUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.PostConstruct;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.BooleanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Triggers tasks by claiming submitted tasks directly from the tasks table, without Kafka.
+ *
+ * <p>One polling thread per node claims batches of tasks with `select ... for update skip locked`, so nodes never block each other, and
+ * hands them over to the processing service. Only as many tasks are claimed, as there is room in processing buckets, so tasks not fitting into
+ * one node stay available for other nodes. Types known to go to buckets without room are left out of the claim, so one full bucket does not
+ * stop claiming tasks for the other ones.
+ *
+ * <p>A claim is just the node's client id in `processing_client_id` of a submitted task. Tasks claimed by a node, but not grabbed for processing
+ * before the node went down, are released on the next start of a node with the same client id, or by the stuck tasks resumer.
+ *
+ * <p>As one query serves all buckets, tasks claimed for a bucket with stopped processing are held in memory until the processing is started again.
+ * The same happens to tasks claimed for a bucket which turned out to have no room, e.g. because their type was not seen before, until the
+ * bucket has room again. A bucket never holds more than {@link BucketProperties#getMaxTriggersInMemory()} tasks, plus one claimed batch.
+ */
+@Slf4j
+@Transactional(propagation = Propagation.NEVER, rollbackFor = Exception.class)
+@SuppressWarnings("checkstyle:MultipleStringLiterals")
+public class DatabaseTasksExecutionTriggerer implements ITasksExecutionTriggerer, GracefulShutdownStrategy {
+
+  @Autowired
+  private ITasksProcessingService tasksProcessingService;
+  @Autowired
+  private ITaskDao taskDao;
+  @Autowired
+  private TasksProperties tasksProperties;
+  // to avoid a circular dependency when task handlers create tasks, and because we don't use this during
+  // initialisation, we use lazy initialisation for this field
+  @Autowired
+  @Lazy
+  private ITaskHandlerRegistry taskHandlerRegistry;
+  @Autowired
+  private IExecutorsHelper executorsHelper;
+  @Autowired
+  private GlobalProcessingState globalProcessingState;
+  @Autowired
+  private IBucketsManager bucketsManager;
+  @Autowired
+  private IErrorLoggingThrottler errorLoggingThrottler;
+  @Autowired
+  private IMeterHelper meterHelper;
+
+  private ExecutorService executorService;
+  private volatile boolean shuttingDown;
+  private boolean polling;
+  private Map<String, ProcessingBucket> processingBuckets = new ConcurrentHashMap<>();
+  private Map<String, Set<String>> bucketIdsByType = new ConcurrentHashMap<>();
+  private AtomicInteger parkedTasksCount = new AtomicInteger();
+  private Lock lifecycleLock = new ReentrantLock();
+  private Lock wakeUpLock = new ReentrantLock();
+  private Condition wakeUpCondition = wakeUpLock.newCondition();
+  private boolean wakeUpRequested;
+  private volatile boolean claimsReleased;
+
+  @PostConstruct
+  public void init() {
+    executorService = executorsHelper.newCachedExecutor("dtet");
+
+    // A finished triggering means there is room for a new one.
+    tasksProcessingService.addTaskTriggeringFinishedListener(taskTriggering -> wakeUp());
+
+    meterHelper.registerGauge(METRIC_PREFIX + "databaseTasksExecutionTriggerer.parkedTasksCount", () -> parkedTasksCount.get());
+  }
+
+  @Override
+  public void trigger(BaseTask task) {
+    String processingBucketId = resolveBucketId(task);
+    if (processingBucketId == null) {
+      return;
+    }
+
+    if (BooleanUtils.isTrue(bucketsManager.getBucketProperties(processingBucketId).getTriggerInSameProcess())) {
+      TaskTriggering taskTriggering = new TaskTriggering().setTask(task).setBucketId(processingBucketId);
+      ITasksProcessingService.AddTaskForProcessingResponse addTaskForProcessingResponse = tasksProcessingService.addTaskForProcessing(taskTriggering);
+
+      if (addTaskForProcessingResponse.getResult() == ITasksProcessingService.AddTaskForProcessingResponse.ResultCode.OK) {
+        return;
+      }
+    }
+
+    // The task is already committed, the poller will claim it, either in this node or in some other.
+    wakeUp();
+  }
+
+  /**
+   * Claims one batch of tasks and hands them over to processing.
+   *
+   * <p>Returns true, when the batch was full, i.e. there are probably more tasks waiting to be claimed.
+   */
+  protected boolean claimTasks() {
+    dispatchParkedTasks();
+
+    Map<String, Integer> rooms = new HashMap<>();
+    int totalRoom = 0;
+    for (String bucketId : bucketsManager.getBucketIds()) {
+      int room = getRoom(bucketId);
+      rooms.put(bucketId, room);
+      totalRoom += Math.max(0, room);
+    }
+    int maxCount = Math.min(tasksProperties.getTriggerFetchSize(), totalRoom);
+    if (maxCount <= 0) {
+      return false;
+    }
+
+    List<String> excludedTypes = new ArrayList<>();
+    bucketIdsByType.forEach((type, bucketIds) -> {
+      if (bucketIds.stream().allMatch(bucketId -> rooms.getOrDefault(bucketId, 0) <= 0)) {
+        excludedTypes.add(type);
+      }
+    });
+
+    List<BaseTask> tasks = taskDao.claimSubmittedTasks(maxCount, tasksProperties.getClientId(), excludedTypes);
+    meterHelper.incrementCounter(METRIC_PREFIX + "databaseTasksExecutionTriggerer.claimedTasksCount", tasks.size());
+
+    for (BaseTask task : tasks) {
+      MdcContext.with(() -> {
+        MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), task.getVersionId());
+
+        String bucketId = resolveBucketId(task);
+        if (bucketId == null) {
+          return;
+        }
+        bucketIdsByType.computeIfAbsent(task.getType(), k -> ConcurrentHashMap.newKeySet()).add(bucketId);
+        boolean hasRoom = rooms.merge(bucketId, -1, Integer::sum) >= 0;
+
+        boolean parked = LockUtils.withLock(lifecycleLock, () -> {
+          ProcessingBucket processingBucket = getProcessingBucket(bucketId);
+          if (processingBucket.getState() == ITasksService.TasksProcessingState.STARTED) {
+            if (hasRoom) {
+              return false;
+            }
+            log.debug("Parking task '{}' until there is room in bucket '{}'.", task.getVersionId(), bucketId);
+          } else {
+            log.debug("Parking task '{}' until processing is started in bucket '{}'.", task.getVersionId(), bucketId);
+          }
+          processingBucket.getParkedTasks().add(task);
+          parkedTasksCount.incrementAndGet();
+          return true;
+        });
+
+        if (!parked) {
+          addTaskForProcessing(bucketId, task);
+        }
+      });
+    }
+    return tasks.size() == maxCount;
+  }
+
+  /**
+   * Hands tasks parked in started buckets over to processing, as far as there is room for them.
+   */
+  protected void dispatchParkedTasks() {
+    for (String bucketId : bucketsManager.getBucketIds()) {
+      int maxTriggersInMemory = bucketsManager.getBucketProperties(bucketId).getMaxTriggersInMemory();
+      List<BaseTask> tasks = LockUtils.withLock(lifecycleLock, () -> {
+        ProcessingBucket processingBucket = getProcessingBucket(bucketId);
+        List<BaseTask> parkedTasks = processingBucket.getParkedTasks();
+        if (processingBucket.getState() != ITasksService.TasksProcessingState.STARTED || parkedTasks.isEmpty()) {
+          return Collections.emptyList();
+        }
+        int count = Math.min(parkedTasks.size(), maxTriggersInMemory - globalProcessingState.getBuckets().get(bucketId).getSize().get());
+        if (count <= 0) {
+          return Collections.emptyList();
+        }
+        List<BaseTask> result = new ArrayList<>(parkedTasks.subList(0, count));
+        parkedTasks.subList(0, count).clear();
+        parkedTasksCount.addAndGet(-count);
+        return result;
+      });
+      for (BaseTask task : tasks) {
+        addTaskForProcessing(bucketId, task);
+      }
+    }
+  }
+
+  protected void addTaskForProcessing(String bucketId, BaseTask task) {
+    GlobalProcessingState.Bucket bucket = globalProcessingState.getBuckets().get(bucketId);
+    TaskTriggering taskTriggering = new TaskTriggering().setTask(task).setBucketId(bucketId);
+
+    meterHelper.incrementCounter(METRIC_PREFIX + "databaseTasksExecutionTriggerer.receivedTriggersCount", ImmutableMap.of("bucketId", bucketId), 1);
+    while (!shuttingDown) {
+      long processingStateVersion = bucket.getVersion().get();
+
+      log.debug("Adding task '{}' for processing.", task.getVersionId());
+      ITasksProcessingService.AddTaskForProcessingResponse addTaskForProcessingResponse = tasksProcessingService
+          .addTaskForProcessing(taskTriggering);
+
+      // Can only happen when tasks are also triggered in the same process, as we never claim more than there is room for.
+      if (addTaskForProcessingResponse.getResult() == ITasksProcessingService.AddTaskForProcessingResponse.ResultCode.FULL) {
+        while (bucket.getVersion().get() == processingStateVersion && !shuttingDown) {
+          try {
+            bucket.awaitVersionChange(processingStateVersion, tasksProperties.getGenericMediumDelay());
+          } catch (InterruptedException e) {
+            log.error(e.getMessage(), e);
+          }
+        }
+      } else {
+        break;
+      }
+    }
+  }
+
+  /**
+   * How many tasks can be claimed for the bucket.
+   *
+   * <p>For a stopped bucket, we only care about the amount of parked tasks.
+   */
+  protected int getRoom(String bucketId) {
+    int maxTriggersInMemory = bucketsManager.getBucketProperties(bucketId).getMaxTriggersInMemory();
+    return LockUtils.withLock(lifecycleLock, () -> {
+      ProcessingBucket processingBucket = getProcessingBucket(bucketId);
+      int room = maxTriggersInMemory - processingBucket.getParkedTasks().size();
+      if (processingBucket.getState() != ITasksService.TasksProcessingState.STARTED) {
+        return room;
+      }
+      return room - globalProcessingState.getBuckets().get(bucketId).getSize().get();
+    });
+  }
+
+  /**
+   * Returns null, when the task was marked as ERROR, because it can not be processed.
+   */
+  protected String resolveBucketId(BaseTask task) {
+    ITaskHandler taskHandler = taskHandlerRegistry.getTaskHandler(task);
+    if (taskHandler == null) {
+      log.error("Marking task {} as ERROR, because no task handler was found for type '" + task.getType() + "'.",
+          LogUtils.asParameter(task.getVersionId()));
+      meterHelper.registerTaskMarkedAsError(null, task.getType());
+      if (!taskDao.setStatus(task.getId(), TaskStatus.ERROR, task.getVersion())) {
+        meterHelper.registerFailedStatusChange(task.getType(), TaskStatus.UNKNOWN.name(), TaskStatus.ERROR);
+        log.error("Marking task {} as ERROR failed, version may have changed.", LogUtils.asParameter(task.getVersionId()), new Throwable());
+      }
+      return null;
+    }
+
+    String processingBucketId = taskHandler.getProcessingPolicy(task).getProcessingBucket(task);
+
+    if (!bucketsManager.isConfiguredBucket(processingBucketId)) {
+      log.error("Marking task {} as ERROR, because task handler has unknown bucket '{}'.", LogUtils.asParameter(task.getVersionId()),
+          processingBucketId);
+      meterHelper.registerTaskMarkedAsError(processingBucketId, task.getType());
+      if (!taskDao.setStatus(task.getId(), TaskStatus.ERROR, task.getVersion())) {
+        meterHelper.registerFailedStatusChange(task.getType(), TaskStatus.UNKNOWN.name(), TaskStatus.ERROR);
+        log.error("Marking task {} as ERROR failed, version may have changed.", LogUtils.asParameter(task.getVersionId()), new Throwable());
+      }
+      return null;
+    }
+    return processingBucketId;
+  }
+
+  protected void wakeUp() {
+    LockUtils.withLock(wakeUpLock, () -> {
+      wakeUpRequested = true;
+      wakeUpCondition.signalAll();
+    });
+  }
+
+  protected void waitForWakeUp() {
+    wakeUpLock.lock();
+    try {
+      if (!wakeUpRequested && !shuttingDown) {
+        wakeUpCondition.await(tasksProperties.getDatabaseTriggeringPollingInterval().toMillis(), TimeUnit.MILLISECONDS);
+      }
+      wakeUpRequested = false;
+    } catch (InterruptedException e) {
+      log.error(e.getMessage(), e);
+    } finally {
+      wakeUpLock.unlock();
+    }
+  }
+
+  protected void poll() {
+    log.info("Started to claim tasks from database.");
+    while (!shuttingDown) {
+      boolean hasStartedBuckets = LockUtils.withLock(lifecycleLock, () -> {
+        boolean result = false;
+        for (String bucketId : bucketsManager.getBucketIds()) {
+          ProcessingBucket processingBucket = getProcessingBucket(bucketId);
+          if (processingBucket.getState() == ITasksService.TasksProcessingState.STOP_IN_PROGRESS) {
+            stopBucketProcessing(bucketId, processingBucket);
+          } else if (processingBucket.getState() == ITasksService.TasksProcessingState.STARTED) {
+            result = true;
+          }
+        }
+        if (!result) {
+          polling = false;
+        }
+        return result;
+      });
+      if (!hasStartedBuckets) {
+        break;
+      }
+
+      try {
+        if (!claimTasks()) {
+          waitForWakeUp();
+        }
+      } catch (Throwable t) {
+        if (errorLoggingThrottler.canLogError()) {
+          log.error("Claiming tasks from database failed.", t);
+        }
+        WaitUtils.sleepQuietly(tasksProperties.getGenericMediumDelay());
+      }
+    }
+    log.info("Stopped to claim tasks from database.");
+  }
+
+  @Override
+  public void applicationStarted() {
+    // A previous instance with the same client id may have crashed with unprocessed claims.
+    int releasedCount = taskDao.releaseClaimedTasks(tasksProperties.getClientId());
+    if (releasedCount > 0) {
+      log.info("Released " + releasedCount + " tasks claimed by previous instance of '" + tasksProperties.getClientId() + "'.");
+    }
+
+    LockUtils.withLock(lifecycleLock, () -> {
+      for (String bucketId : bucketsManager.getBucketIds()) {
+        if (Boolean.TRUE.equals(bucketsManager.getBucketProperties(bucketId).getAutoStartProcessing())) {
+          if (getProcessingBucket(bucketId).getState() == ITasksService.TasksProcessingState.STOPPED) {
+            startBucketProcessing(bucketId);
+          }
+        }
+      }
+    });
+  }
+
+  private void startBucketProcessing(String bucketId) {
+    ProcessingBucket processingBucket = getProcessingBucket(bucketId);
+    processingBucket.setState(ITasksService.TasksProcessingState.STARTED);
+
+    List<BaseTask> parkedTasks = new ArrayList<>(processingBucket.getParkedTasks());
+    processingBucket.getParkedTasks().clear();
+    parkedTasksCount.addAndGet(-parkedTasks.size());
+    if (!parkedTasks.isEmpty()) {
+      executorService.submit(() -> {
+        for (BaseTask task : parkedTasks) {
+          addTaskForProcessing(bucketId, task);
+        }
+      });
+    }
+
+    if (!polling) {
+      polling = true;
+      executorService.submit(this::poll);
+    }
+    log.info("Started triggers processing for bucket '" + bucketId + "'.");
+  }
+
+  private void stopBucketProcessing(String bucketId, ProcessingBucket processingBucket) {
+    processingBucket.setState(ITasksService.TasksProcessingState.STOPPED);
+    if (processingBucket.getStopFuture() != null) {
+      processingBucket.getStopFuture().complete(null);
+    }
+    processingBucket.setStopFuture(null);
+    log.info("Stopped triggers processing for bucket '" + bucketId + "'.");
+  }
+
+  @Override
+  public void startTasksProcessing(String bucketId) {
+    String safeBucketId = bucketId == null ? IBucketsManager.DEFAULT_ID : bucketId;
+    LockUtils.withLock(lifecycleLock, () -> {
+      if (getProcessingBucket(safeBucketId).getState() == ITasksService.TasksProcessingState.STOPPED) {
+        startBucketProcessing(safeBucketId);
+      }
+    });
+  }
+
+  @Override
+  public Future<Void> stopTasksProcessing(String bucketId) {
+    return LockUtils.withLock(lifecycleLock, () -> {
+      ProcessingBucket bucket = getProcessingBucket(bucketId);
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      if (bucket.getState() != ITasksService.TasksProcessingState.STARTED) {
+        future.complete(null);
+        return future;
+      }
+      bucket.setStopFuture(future);
+      bucket.setState(ITasksService.TasksProcessingState.STOP_IN_PROGRESS);
+      wakeUp();
+      return future;
+    });
+  }
+
+  @Override
+  public ITasksService.TasksProcessingState getTasksProcessingState(String bucketId) {
+    return getProcessingBucket(bucketId).getState();
+  }
+
+  @Override
+  public void prepareForShutdown() {
+    shuttingDown = true;
+    wakeUp();
+    executorService.shutdown();
+  }
+
+  @Override
+  public boolean canShutdown() {
+    if (!executorService.isTerminated()) {
+      return false;
+    }
+    if (!claimsReleased) {
+      claimsReleased = true;
+      // Tasks not grabbed by now, would otherwise wait for the stuck tasks resumer.
+      try {
+        taskDao.releaseClaimedTasks(tasksProperties.getClientId());
+      } catch (Throwable t) {
+        log.error(t.getMessage(), t);
+      }
+    }
+    return true;
+  }
+
+  private ProcessingBucket getProcessingBucket(String bucketId) {
+    return processingBuckets.computeIfAbsent(bucketId == null ? IBucketsManager.DEFAULT_ID : bucketId, (k) -> new ProcessingBucket());
+  }
+
+  @Data
+  @Accessors(chain = true)
+  private static class ProcessingBucket {
+
+    private ITasksService.TasksProcessingState state = ITasksService.TasksProcessingState.STOPPED;
+    private CompletableFuture<Void> stopFuture;
+    private List<BaseTask> parkedTasks = new ArrayList<>();
+  }
+}
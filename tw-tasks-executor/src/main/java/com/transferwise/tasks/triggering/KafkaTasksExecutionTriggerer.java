@@ -16,6 +16,7 @@ import com.transferwise.tasks.config.TwTasksKafkaConfiguration;
 import com.transferwise.tasks.dao.ITaskDao;
 import com.transferwise.tasks.domain.BaseTask;
 import com.transferwise.tasks.domain.TaskStatus;
+import com.transferwise.tasks.handler.interfaces.ITaskConcurrencyPolicy;
 import com.transferwise.tasks.handler.interfaces.ITaskHandler;
 import com.transferwise.tasks.handler.interfaces.ITaskHandlerRegistry;
 import com.transferwise.tasks.helpers.IErrorLoggingThrottler;
@@ -25,9 +26,9 @@ import com.transferwise.tasks.helpers.kafka.ITopicPartitionsManager;
 import com.transferwise.tasks.mdc.MdcContext;
 import com.transferwise.tasks.processing.GlobalProcessingState;
 import com.transferwise.tasks.processing.ITasksProcessingService;
-import com.transferwise.tasks.utils.JsonUtils;
 import com.transferwise.tasks.utils.LogUtils;
 import com.transferwise.tasks.utils.WaitUtils;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
@@ -35,13 +36,13 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -53,6 +54,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.kafka.clients.consumer.CommitFailedException;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
@@ -60,7 +62,6 @@ import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
-import org.apache.kafka.clients.consumer.internals.NoOpConsumerRebalanceListener;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.RetriableException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -160,21 +161,26 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
       return;
     }
 
-    if (BooleanUtils.isTrue(bucketsManager.getBucketProperties(processingBucketId).getTriggerInSameProcess())) {
+    BucketProperties bucketProperties = bucketsManager.getBucketProperties(processingBucketId);
+    boolean triggerInSameProcess = BooleanUtils.isTrue(bucketProperties.getTriggerInSameProcess());
+    // Tasks with an ordering key have to go through their partition, so they are all processed by the same node.
+    if (triggerInSameProcess || (task.getOrderingKey() == null && isIdleForTask(taskHandler, task, processingBucketId, bucketProperties))) {
       TaskTriggering taskTriggering = new TaskTriggering().setTask(task).setBucketId(processingBucketId);
       ITasksProcessingService.AddTaskForProcessingResponse addTaskForProcessingResponse = tasksProcessingService.addTaskForProcessing(taskTriggering);
 
       if (addTaskForProcessingResponse.getResult() == ITasksProcessingService.AddTaskForProcessingResponse.ResultCode.OK) {
+        if (!triggerInSameProcess) {
+          meterHelper.incrementCounter(METRIC_PREFIX + "kafkaTasksExecutionTriggerer.sameProcessTriggersCount",
+              ImmutableMap.of("bucketId", processingBucketId, "taskType", task.getType()), 1);
+        }
         return;
       }
     }
 
-    String taskSt = JsonUtils.toJson(objectMapper, task);
-
-    // TODO: Future improvement: try to also trigger in the same node, if there is room or more specifically if it is idle (for min latency)
-    // TODO: Maybe needs another concurrency control for that. E.g. only trigger in node, when conc < 5, even max conc is 10.
+    String taskSt = TaskTriggerCodec.encode(objectMapper, task, tasksProperties.getTriggerMessageFormat());
 
-    kafkaConfiguration.getKafkaTemplate().send(getTopic(processingBucketId), UUID.randomUUID().toString(), taskSt).addCallback(
+    String key = task.getOrderingKey() == null ? UUID.randomUUID().toString() : task.getOrderingKey();
+    kafkaConfiguration.getKafkaTemplate().send(getTopic(processingBucketId), key, taskSt).addCallback(
         result -> {
           if (log.isDebugEnabled()) {
             MdcContext.with(() -> {
@@ -193,6 +199,25 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
         });
   }
 
+  /**
+   * The node is considered idle for the task, when the bucket has only a few triggers in memory and there is free processing space for the task.
+   */
+  protected boolean isIdleForTask(ITaskHandler taskHandler, BaseTask task, String bucketId, BucketProperties bucketProperties) {
+    Integer threshold = bucketProperties.getTriggerInSameProcessWhenIdleThreshold();
+    if (threshold == null || threshold <= 0 || shuttingDown) {
+      return false;
+    }
+    GlobalProcessingState.Bucket bucket = globalProcessingState.getBuckets().get(bucketId);
+    if (bucket == null || bucket.getSize().get() >= threshold) {
+      return false;
+    }
+    if (!taskHandler.getProcessingPolicy(task).canExecuteTaskOnThisNode(task)) {
+      return false;
+    }
+    ITaskConcurrencyPolicy concurrencyPolicy = taskHandler.getConcurrencyPolicy(task);
+    return concurrencyPolicy != null && concurrencyPolicy.hasSpaceForTask(task);
+  }
+
   @SuppressWarnings({"rawtypes", "unchecked"})
   public ConsumerBucket getConsumerBucket(String bucketId) {
     return ExceptionUtils.doUnchecked(() -> {
@@ -218,7 +243,7 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
         consumerBucket.setTopicConfigured(true);
       }
 
-      KafkaConsumer<String, String> kafkaConsumer = consumerBucket.getKafkaConsumer();
+      Consumer<String, String> kafkaConsumer = consumerBucket.getKafkaConsumer();
       if (kafkaConsumer == null) {
         String groupId = (String) kafkaConsumerProps.get(ConsumerConfig.GROUP_ID_CONFIG);
         if (groupId == null) {
@@ -248,14 +273,20 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
         List<String> topics = getTopics(bucketId);
         log.info("Subscribing to Kafka topics '" + topics + "'");
 
-        KafkaConsumer kafkaConsumerRef = kafkaConsumer;
-        kafkaConsumer.subscribe(topics, bucketProperties.getAutoResetOffsetToDuration() != null ? new ConsumerRebalanceListener() {
+        Consumer kafkaConsumerRef = kafkaConsumer;
+        ConsumerBucket consumerBucketRef = consumerBucket;
+        kafkaConsumer.subscribe(topics, new ConsumerRebalanceListener() {
           @Override
           public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            commitOffsets(consumerBucketRef, true);
+            releasePartitions(consumerBucketRef, partitions);
           }
 
           @Override
           public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            if (bucketProperties.getAutoResetOffsetToDuration() == null) {
+              return;
+            }
             Map<TopicPartition, Long> timestampsToSearch = new HashMap<>();
             long timestampToSearchMs = ZonedDateTime.now(ClockHolder.getClock()).plus(bucketProperties.getAutoResetOffsetToDuration()).toInstant()
                 .toEpochMilli();
@@ -286,7 +317,7 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
               kafkaConsumerRef.seekToBeginning(seekToBeginningPartitions);
             }
           }
-        } : new NoOpConsumerRebalanceListener());
+        });
       }
       return consumerBucket;
     });
@@ -300,12 +331,26 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
       GlobalProcessingState.Bucket bucket = globalProcessingState.getBuckets().get(bucketId);
 
       while (!shuttingDown && (getProcessingBucket(bucketId).getState() == ITasksService.TasksProcessingState.STARTED)) {
-        ConsumerRecords<String, String> consumerRecords = consumerBucket.getKafkaConsumer()
-            .poll(tasksProperties.getGenericMediumDelay());
+        long processingStateVersion = bucket.getVersion().get();
+        boolean full = !addFetchedTriggerings(consumerBucket);
+
+        Consumer<String, String> kafkaConsumer = consumerBucket.getKafkaConsumer();
+        if (full) {
+          // Partitions are paused instead of not polling, so the consumer stays in the group and keeps its partitions.
+          pausePartitions(consumerBucket);
+          try {
+            bucket.awaitVersionChange(processingStateVersion, tasksProperties.getGenericMediumDelay());
+          } catch (InterruptedException e) {
+            log.error(e.getMessage(), e);
+          }
+        } else if (consumerBucket.isPaused()) {
+          resumePartitions(consumerBucket);
+        }
+
+        ConsumerRecords<String, String> consumerRecords = kafkaConsumer.poll(full ? Duration.ZERO : tasksProperties.getGenericMediumDelay());
 
         commitOffsets(consumerBucket, false);
 
-        consumerBucket.setUnprocessedFetchedRecordsCount(consumerRecords.count());
         for (ConsumerRecord<String, String> consumerRecord : consumerRecords) {
           TopicPartition topicPartition = new TopicPartition(consumerRecord.topic(), consumerRecord.partition());
 
@@ -314,50 +359,12 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
 
           log.debug("Received Kafka message from topic '{}' partition {} offset {}.", consumerRecord.topic(), consumerRecord.partition(), offset);
 
-          BaseTask task = JsonUtils.fromJson(objectMapper, consumerRecord.value(), BaseTask.class);
-          MdcContext.with(() -> {
-            MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), task.getVersionId());
-
-            TaskTriggering taskTriggering = new TaskTriggering().setTask(task).setBucketId(bucketId).setOffset(offset)
-                .setTopicPartition(topicPartition);
-
-            meterHelper
-                .incrementCounter(METRIC_PREFIX + "kafkaTasksExecutionTriggerer.receivedTriggersCount", ImmutableMap.of("bucketId", bucketId), 1);
-            while (!shuttingDown) {
-              long processingStateVersion = bucket.getVersion().get();
-
-              log.debug("Adding task '{}' for processing.", task.getVersionId());
-              ITasksProcessingService.AddTaskForProcessingResponse addTaskForProcessingResponse = tasksProcessingService
-                  .addTaskForProcessing(taskTriggering);
-
-              /*
-                  TODO: This can theoretically cause a big interval between KafkaConsumer polls and we may loose our partitions.
-                  The whole algorithm in this method needs to be overlooked, because of this. Probably some kind of KafkaConsumer.cancel/pause
-                  approach needs to be used.
-                  Or we go over ResultCode.FULL and wait before polling, instead (Feels much better).
-               */
-              if (addTaskForProcessingResponse.getResult() == ITasksProcessingService.AddTaskForProcessingResponse.ResultCode.FULL) {
-                Lock versionLock = bucket.getVersionLock();
-                versionLock.lock();
-                try {
-                  // TODO: consumerBucket.getKafkaConsumer().pause(...)
-                  while (bucket.getVersion().get() == processingStateVersion && !shuttingDown) {
-                    try {
-                      bucket.getVersionCondition().await(tasksProperties.getGenericMediumDelay().toMillis(), TimeUnit.MILLISECONDS);
-                    } catch (InterruptedException e) {
-                      log.error(e.getMessage(), e);
-                    }
-                  }
-                  //TODO: consumerBucket.getKafkaConsumer().resume(...)
-                } finally {
-                  versionLock.unlock();
-                }
-              } else {
-                break;
-              }
-            }
-            consumerBucket.decrementUnprocessedFetchedRecordsCount();
-          });
+          BaseTask task = TaskTriggerCodec.decode(objectMapper, consumerRecord.value());
+          consumerBucket.getFetchedTriggerings().add(new TaskTriggering().setTask(task).setBucketId(bucketId).setOffset(offset)
+              .setTopicPartition(topicPartition));
+
+          meterHelper
+              .incrementCounter(METRIC_PREFIX + "kafkaTasksExecutionTriggerer.receivedTriggersCount", ImmutableMap.of("bucketId", bucketId), 1);
         }
       }
     } finally {
@@ -368,57 +375,74 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
     }
   }
 
-  void registerPolledOffset(ConsumerBucket consumerBucket, TopicPartition topicPartition, long offset) {
-    ConsumerTopicPartition consumerTopicPartition = consumerBucket.getConsumerTopicPartitions().get(topicPartition);
-    if (consumerTopicPartition == null) {
-      consumerBucket.getConsumerTopicPartitions().put(topicPartition, consumerTopicPartition = new ConsumerTopicPartition());
+  /**
+   * Hands fetched triggerings over to processing, in the order they were fetched.
+   *
+   * @return false, when processing got full before all triggerings were handed over.
+   */
+  protected boolean addFetchedTriggerings(ConsumerBucket consumerBucket) {
+    TaskTriggering taskTriggering;
+    while ((taskTriggering = consumerBucket.getFetchedTriggerings().peek()) != null && !shuttingDown) {
+      TaskTriggering finalTaskTriggering = taskTriggering;
+      boolean added = MdcContext.with(() -> {
+        MdcContext.put(tasksProperties.getTwTaskVersionIdMdcKey(), finalTaskTriggering.getTask().getVersionId());
+        log.debug("Adding task '{}' for processing.", finalTaskTriggering.getTask().getVersionId());
+        return tasksProcessingService.addTaskForProcessing(finalTaskTriggering).getResult()
+            != ITasksProcessingService.AddTaskForProcessingResponse.ResultCode.FULL;
+      });
+      if (!added) {
+        return false;
+      }
+      consumerBucket.getFetchedTriggerings().poll();
     }
+    return true;
+  }
 
-    consumerBucket.getOffsetsStorageLock().lock();
-    try {
-      consumerTopicPartition.getOffsetsCompleted().remove(offset);
-      consumerTopicPartition.getOffsets().add(offset);
-    } finally {
-      consumerBucket.getOffsetsStorageLock().unlock();
+  protected void pausePartitions(ConsumerBucket consumerBucket) {
+    Consumer<String, String> kafkaConsumer = consumerBucket.getKafkaConsumer();
+    // Also pauses partitions assigned since the last time.
+    kafkaConsumer.pause(kafkaConsumer.assignment());
+    if (!consumerBucket.isPaused()) {
+      consumerBucket.setPaused(true);
+      meterHelper.incrementCounter(METRIC_PREFIX + "kafkaTasksExecutionTriggerer.pausesCount", ImmutableMap.of("bucketId",
+          consumerBucket.getBucketId()), 1);
+      log.debug("Paused consuming triggers in bucket '{}', as there is no room for them.", consumerBucket.getBucketId());
     }
   }
 
-  void releaseCompletedOffset(ConsumerBucket consumerBucket, TopicPartition topicPartition, long offset) {
-    consumerBucket.getOffsetsStorageLock().lock();
-    try {
-      ConsumerTopicPartition consumerTopicPartition = consumerBucket.getConsumerTopicPartitions().get(topicPartition);
+  protected void resumePartitions(ConsumerBucket consumerBucket) {
+    Consumer<String, String> kafkaConsumer = consumerBucket.getKafkaConsumer();
+    kafkaConsumer.resume(kafkaConsumer.paused());
+    consumerBucket.setPaused(false);
+    log.debug("Resumed consuming triggers in bucket '{}'.", consumerBucket.getBucketId());
+  }
 
-      TreeSet<Long> offsets = consumerTopicPartition.getOffsets();
-      if (!offsets.contains(offset)) {
-        // Theoretically possible, when we reconnect to Kafka and we had registered one offset multiple times
-        // (in this case there is only single record in TreeSet for it).
+  void registerPolledOffset(ConsumerBucket consumerBucket, TopicPartition topicPartition, long offset) {
+    consumerBucket.getOffsetsTrackers().computeIfAbsent(topicPartition, k -> new PartitionOffsetsTracker()).register(offset);
+  }
 
-        meterHelper.incrementCounter(METRIC_PREFIX + "kafkaTasksExecutionTriggerer.offsetAlreadyCommitted", 1);
-        log.debug("Offset " + offset + " has already been commited.");
-        return;
-      }
-      consumerTopicPartition.getOffsetsCompleted().put(offset, Boolean.TRUE);
-
-      boolean isFirst = offsets.first() == offset;
-      if (isFirst) {
-        while (!offsets.isEmpty()) {
-          long firstOffset = offsets.first();
-          if (consumerTopicPartition.isDone(firstOffset)) {
-            // From Kafka Docs
-            // Note: The committed offset should always be the offset of the next message that your application will read.
-            consumerBucket.getOffsetsToBeCommited().put(topicPartition, new OffsetAndMetadata(firstOffset + 1));
-            offsets.pollFirst();
-            consumerTopicPartition.getOffsetsCompleted().remove(firstOffset);
-          } else {
-            break;
-          }
-        }
-      }
-    } finally {
-      consumerBucket.getOffsetsStorageLock().unlock();
+  void releaseCompletedOffset(ConsumerBucket consumerBucket, TopicPartition topicPartition, long offset) {
+    PartitionOffsetsTracker offsetsTracker = consumerBucket.getOffsetsTrackers().get(topicPartition);
+    if (offsetsTracker == null || !offsetsTracker.complete(offset)) {
+      // Theoretically possible, when we reconnect to Kafka and we had registered one offset multiple times.
+      meterHelper.incrementCounter(METRIC_PREFIX + "kafkaTasksExecutionTriggerer.offsetAlreadyCommitted", 1);
+      log.debug("Offset " + offset + " has already been commited.");
     }
   }
 
+  /**
+   * Forgets fetched triggerings and tracked offsets of partitions, which this consumer does not own anymore.
+   *
+   * <p>Their offsets were not committed, so whoever gets the partitions, fetches those triggerings again. Tasks still in processing complete
+   * without a tracker, so they do not hold back commits, when a partition comes back at a later offset.
+   */
+  void releasePartitions(ConsumerBucket consumerBucket, Collection<TopicPartition> partitions) {
+    consumerBucket.getFetchedTriggerings().removeIf(taskTriggering -> partitions.contains(taskTriggering.getTopicPartition()));
+    partitions.forEach(consumerBucket.getOffsetsTrackers()::remove);
+    // Their offsets were not committed, so the new owner of the partitions processes them.
+    tasksProcessingService.removeSetAsideTaskTriggerings(taskTriggering -> partitions.contains(taskTriggering.getTopicPartition()));
+  }
+
   private void commitOffsets(ConsumerBucket consumerBucket, boolean finalize) {
     // No need to commit after every fast poll.
     if (!finalize && (System.currentTimeMillis() - consumerBucket.getLastCommitTime() < tasksProperties.getGenericMediumDelay().toMillis())) {
@@ -426,35 +450,32 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
     }
 
     String bucketId = consumerBucket.getBucketId();
-    consumerBucket.getOffsetsStorageLock().lock();
+    Map<TopicPartition, OffsetAndMetadata> offsetsToBeCommited = consumerBucket.getOffsetsToBeCommited();
+    if (offsetsToBeCommited.isEmpty()) {
+      return;
+    }
     try {
-      if (consumerBucket.getOffsetsToBeCommited().isEmpty()) {
-        return;
+      if (log.isDebugEnabled()) {
+        log.debug("Commiting bucket '" + bucketId + "' offsets to Kafka: " + offsetsToBeCommited.entrySet().stream()
+            .map(e -> e.getKey() + ":" + e.getValue().offset()).collect(Collectors.joining(", ")));
       }
-      try {
-        if (log.isDebugEnabled()) {
-          log.debug("Commiting bucket '" + bucketId + "' offsets to Kafka: " + consumerBucket.getOffsetsToBeCommited().entrySet().stream()
-              .map(e -> e.getKey() + ":" + e.getValue().offset()).collect(Collectors.joining(", ")));
-        }
-        meterHelper.incrementCounter(METRIC_PREFIX + "kafkaTasksExecutionTriggerer.commitsCount",
-            ImmutableMap.of("bucketId", bucketId), 1);
-        if (finalize) {
-          consumerBucket.getKafkaConsumer().commitSync(consumerBucket.getOffsetsToBeCommited());
-        } else {
-          consumerBucket.getKafkaConsumer().commitAsync(consumerBucket.getOffsetsToBeCommited(), (map, e) -> {
-            if (e != null) {
-              registerCommitException(bucketId, e);
-            }
-          });
-        }
-      } catch (Throwable t) {
-        registerCommitException(bucketId, t);
+      meterHelper.incrementCounter(METRIC_PREFIX + "kafkaTasksExecutionTriggerer.commitsCount",
+          ImmutableMap.of("bucketId", bucketId), 1);
+      if (finalize) {
+        consumerBucket.getKafkaConsumer().commitSync(offsetsToBeCommited);
+      } else {
+        consumerBucket.getKafkaConsumer().commitAsync(offsetsToBeCommited, (map, e) -> {
+          if (e != null) {
+            registerCommitException(bucketId, e);
+          }
+        });
       }
-      // Notice, we even clear commitable offsets on error.
-      consumerBucket.getOffsetsToBeCommited().clear();
-    } finally {
-      consumerBucket.getOffsetsStorageLock().unlock();
+    } catch (Throwable t) {
+      registerCommitException(bucketId, t);
     }
+    // Notice, we even consider offsets commited on error.
+    offsetsToBeCommited.forEach((topicPartition, offsetAndMetadata) -> consumerBucket.getOffsetsTrackers().get(topicPartition)
+        .markCommitted(offsetAndMetadata.offset()));
     consumerBucket.setLastCommitTime(System.currentTimeMillis());
   }
 
@@ -470,11 +491,11 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
     }
   }
 
-  private void closeKafkaConsumer(ConsumerBucket consumerBucket) {
+  void closeKafkaConsumer(ConsumerBucket consumerBucket) {
     if (consumerBucket == null) {
       return;
     }
-    KafkaConsumer<String, String> kafkaConsumer = consumerBucket.getKafkaConsumer();
+    Consumer<String, String> kafkaConsumer = consumerBucket.getKafkaConsumer();
     if (kafkaConsumer == null) {
       return;
     }
@@ -495,6 +516,10 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
     log.info("Closed Kafka consumer for bucket '" + consumerBucket.getBucketId() + "'.");
 
     consumerBucket.setKafkaConsumer(null);
+    // All partitions are dropped, the same way as revoked ones.
+    consumerBucket.getFetchedTriggerings().clear();
+    consumerBucket.getOffsetsTrackers().clear();
+    consumerBucket.setPaused(false);
   }
 
   private String getTopic(String bucketId) {
@@ -607,44 +632,40 @@ public class KafkaTasksExecutionTriggerer implements ITasksExecutionTriggerer, G
 
     private String bucketId;
     private long lastCommitTime = System.currentTimeMillis();
-    private KafkaConsumer<String, String> kafkaConsumer;
-    private Map<TopicPartition, ConsumerTopicPartition> consumerTopicPartitions = new ConcurrentHashMap<>();
-    private Lock offsetsStorageLock = new ReentrantLock();
-    private Map<TopicPartition, OffsetAndMetadata> offsetsToBeCommited = new ConcurrentHashMap<>();
-    private int unprocessedFetchedRecordsCount;
+    private Consumer<String, String> kafkaConsumer;
+    private Map<TopicPartition, PartitionOffsetsTracker> offsetsTrackers = new ConcurrentHashMap<>();
+    /**
+     * Triggerings fetched from Kafka, but not handed over to processing yet, as there was no room for them.
+     */
+    private Queue<TaskTriggering> fetchedTriggerings = new ConcurrentLinkedQueue<>();
+    private boolean paused;
     private boolean topicConfigured;
 
+    public Map<TopicPartition, OffsetAndMetadata> getOffsetsToBeCommited() {
+      Map<TopicPartition, OffsetAndMetadata> offsetsToBeCommited = new HashMap<>();
+      offsetsTrackers.forEach((topicPartition, offsetsTracker) -> {
+        long offset = offsetsTracker.getOffsetToBeCommitted();
+        if (offset != -1) {
+          offsetsToBeCommited.put(topicPartition, new OffsetAndMetadata(offset));
+        }
+      });
+      return offsetsToBeCommited;
+    }
+
     public int getOffsetsToBeCommitedCount() {
-      return offsetsToBeCommited.size();
+      return (int) offsetsTrackers.values().stream().filter(ot -> ot.getOffsetToBeCommitted() != -1).count();
     }
 
     public int getUnprocessedFetchedRecordsCount() {
-      return unprocessedFetchedRecordsCount;
+      return fetchedTriggerings.size();
     }
 
     public int getOffsetsCount() {
-      return consumerTopicPartitions.values().stream().mapToInt(cp -> cp.getOffsets().size()).sum();
+      return offsetsTrackers.values().stream().mapToInt(PartitionOffsetsTracker::getOffsetsCount).sum();
     }
 
     public int getOffsetsCompletedCount() {
-      return consumerTopicPartitions.values().stream().mapToInt(cp -> cp.getOffsetsCompleted().size()).sum();
-    }
-
-    public void decrementUnprocessedFetchedRecordsCount() {
-      unprocessedFetchedRecordsCount--;
-    }
-  }
-
-  @Data
-  @Accessors(chain = true)
-  public static class ConsumerTopicPartition {
-
-    private TreeSet<Long> offsets = new TreeSet<>();
-    private Map<Long, Boolean> offsetsCompleted = new HashMap<>();
-
-    public boolean isDone(Long offset) {
-      Boolean done = offsetsCompleted.get(offset);
-      return done != null && done;
+      return offsetsTrackers.values().stream().mapToInt(PartitionOffsetsTracker::getOffsetsCompletedCount).sum();
     }
   }
 
@@ -0,0 +1,289 @@
+package com.transferwise.tasks.triggering;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks offsets of a single Kafka partition, which have been polled and handed over to processing, and finds the offset up to which
+ * everything has been completed and can be committed.
+ *
+ * <p>Offsets are kept as bits in fixed size segments, so an offset in flight costs two bits, instead of a few boxed objects in sorted
+ * collections. Offsets are registered only by the polling thread. Completions are marked lock-free and the one completing the lowest
+ * offset in flight moves the watermark forward, under a lock no-one waits for.
+ */
+public class PartitionOffsetsTracker {
+
+  private static final int SEGMENT_BITS = 12;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+  private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  private final Lock advanceLock = new ReentrantLock();
+  private final AtomicInteger inFlightCount = new AtomicInteger();
+  private final AtomicInteger completedCount = new AtomicInteger();
+  private volatile Segment recentSegment;
+  /**
+   * Lowest offset, which can not be committed yet. Everything below it has been completed.
+   */
+  private volatile long watermark;
+  /**
+   * Offset following the highest registered one.
+   */
+  private volatile long registeredUpTo;
+  /**
+   * Watermark reached by completing offsets, -1 if none was completed yet.
+   */
+  private volatile long committableOffset = -1;
+  private volatile long committedOffset = -1;
+
+  /**
+   * Registers an offset polled from Kafka. Has to be called from the polling thread only.
+   *
+   * @return false, if everything up to and including the offset has already been completed.
+   */
+  public boolean register(long offset) {
+    long currentWatermark = watermark;
+    long currentRegisteredUpTo = registeredUpTo;
+    if (offset >= currentRegisteredUpTo && (offset == currentWatermark || currentWatermark != currentRegisteredUpTo)) {
+      // The usual case, offsets are coming in increasing order.
+      getOrCreateSegment(offset).setRegistered(offset);
+      inFlightCount.incrementAndGet();
+      registeredUpTo = offset + 1;
+      return true;
+    }
+
+    advanceLock.lock();
+    try {
+      if (offset < watermark) {
+        return false;
+      }
+      if (watermark == registeredUpTo && offset > watermark) {
+        // Nothing is in flight, no point to scan through the gap later.
+        segments.clear();
+        recentSegment = null;
+        watermark = offset;
+      }
+      Segment segment = getOrCreateSegment(offset);
+      if (segment.setRegistered(offset)) {
+        inFlightCount.incrementAndGet();
+      } else if (segment.clearCompleted(offset)) {
+        // Polled again, after a reconnect for example, it has to be processed again.
+        completedCount.decrementAndGet();
+        inFlightCount.incrementAndGet();
+      }
+      if (offset >= registeredUpTo) {
+        registeredUpTo = offset + 1;
+      }
+      return true;
+    } finally {
+      advanceLock.unlock();
+    }
+  }
+
+  /**
+   * Marks a registered offset as completed and moves the watermark, if it was the lowest offset in flight.
+   *
+   * @return false, if the offset is not registered or has been completed already.
+   */
+  public boolean complete(long offset) {
+    if (offset < watermark || offset >= registeredUpTo) {
+      return false;
+    }
+    Segment segment = getSegment(offset);
+    if (segment == null || !segment.isRegistered(offset) || !segment.setCompleted(offset)) {
+      return false;
+    }
+    inFlightCount.decrementAndGet();
+    completedCount.incrementAndGet();
+
+    if (offset == watermark) {
+      tryAdvance();
+    }
+    return true;
+  }
+
+  /**
+   * Returns the offset to be committed to Kafka, or -1, if the watermark has not moved since the last commit.
+   *
+   * <p>From Kafka docs: The committed offset should always be the offset of the next message that your application will read.
+   */
+  public long getOffsetToBeCommitted() {
+    long offset = committableOffset;
+    return offset > committedOffset ? offset : -1;
+  }
+
+  public void markCommitted(long offset) {
+    if (offset > committedOffset) {
+      committedOffset = offset;
+    }
+  }
+
+  public long getWatermark() {
+    return watermark;
+  }
+
+  /**
+   * Offsets registered and not passed by the watermark yet, including completed ones.
+   */
+  public int getOffsetsCount() {
+    return inFlightCount.get() + completedCount.get();
+  }
+
+  /**
+   * Offsets completed, but not passed by the watermark yet.
+   */
+  public int getOffsetsCompletedCount() {
+    return completedCount.get();
+  }
+
+  private void tryAdvance() {
+    // Whoever completes the next offset while we are holding the lock, does not wait for us, so we have to check it after unlocking.
+    while (advanceLock.tryLock()) {
+      try {
+        advance();
+      } finally {
+        advanceLock.unlock();
+      }
+      if (!isCompleted(watermark)) {
+        return;
+      }
+    }
+  }
+
+  private boolean isCompleted(long offset) {
+    if (offset >= registeredUpTo) {
+      return false;
+    }
+    Segment segment = getSegment(offset);
+    return segment != null && segment.isCompleted(offset);
+  }
+
+  private void advance() {
+    // Has to be read before any bits, so we do not see half-registered offsets.
+    final long upTo = registeredUpTo;
+    final long from = watermark;
+    long offset = from;
+    int passedCount = 0;
+
+    while (offset < upTo) {
+      long segmentIdx = offset >>> SEGMENT_BITS;
+      Segment segment = segments.get(segmentIdx);
+      if (segment == null) {
+        Long nextSegmentIdx = segments.ceilingKey(segmentIdx);
+        offset = nextSegmentIdx == null ? upTo : nextSegmentIdx << SEGMENT_BITS;
+        continue;
+      }
+
+      int wordIdx = (int) ((offset & (SEGMENT_SIZE - 1)) >>> 6);
+      long wordStart = offset & ~63L;
+      long mask = -1L << (offset & 63);
+      if (upTo - wordStart < 64) {
+        mask &= (1L << (upTo - wordStart)) - 1;
+      }
+      long registered = segment.registered.get(wordIdx);
+      long completed = segment.completed.get(wordIdx) & registered;
+      long blocking = registered & ~completed & mask;
+      if (blocking != 0) {
+        int blockingBit = Long.numberOfTrailingZeros(blocking);
+        passedCount += Long.bitCount(completed & mask & ((1L << blockingBit) - 1));
+        offset = wordStart + blockingBit;
+        break;
+      }
+      passedCount += Long.bitCount(completed & mask);
+      offset = wordStart + 64;
+    }
+    offset = Math.min(offset, upTo);
+
+    if (offset > from) {
+      completedCount.addAndGet(-passedCount);
+      watermark = offset;
+      committableOffset = offset;
+      segments.headMap(offset >>> SEGMENT_BITS).clear();
+    }
+  }
+
+  private Segment getSegment(long offset) {
+    long segmentIdx = offset >>> SEGMENT_BITS;
+    Segment segment = recentSegment;
+    if (segment != null && segment.idx == segmentIdx) {
+      return segment;
+    }
+    return segments.get(segmentIdx);
+  }
+
+  private Segment getOrCreateSegment(long offset) {
+    Segment segment = getSegment(offset);
+    if (segment == null) {
+      long segmentIdx = offset >>> SEGMENT_BITS;
+      segment = new Segment(segmentIdx);
+      segments.put(segmentIdx, segment);
+    }
+    recentSegment = segment;
+    return segment;
+  }
+
+  private static class Segment {
+
+    private final long idx;
+    private final AtomicLongArray registered = new AtomicLongArray(SEGMENT_SIZE >>> 6);
+    private final AtomicLongArray completed = new AtomicLongArray(SEGMENT_SIZE >>> 6);
+
+    Segment(long idx) {
+      this.idx = idx;
+    }
+
+    boolean isRegistered(long offset) {
+      return isSet(registered, offset);
+    }
+
+    boolean isCompleted(long offset) {
+      return isSet(registered, offset) && isSet(completed, offset);
+    }
+
+    boolean setRegistered(long offset) {
+      return set(registered, offset);
+    }
+
+    boolean setCompleted(long offset) {
+      return set(completed, offset);
+    }
+
+    boolean clearCompleted(long offset) {
+      int wordIdx = wordIdx(offset);
+      long bit = 1L << offset;
+      while (true) {
+        long word = completed.get(wordIdx);
+        if ((word & bit) == 0) {
+          return false;
+        }
+        if (completed.compareAndSet(wordIdx, word, word & ~bit)) {
+          return true;
+        }
+      }
+    }
+
+    private static boolean isSet(AtomicLongArray bits, long offset) {
+      return (bits.get(wordIdx(offset)) & (1L << offset)) != 0;
+    }
+
+    private static boolean set(AtomicLongArray bits, long offset) {
+      int wordIdx = wordIdx(offset);
+      long bit = 1L << offset;
+      while (true) {
+        long word = bits.get(wordIdx);
+        if ((word & bit) != 0) {
+          return false;
+        }
+        if (bits.compareAndSet(wordIdx, word, word | bit)) {
+          return true;
+        }
+      }
+    }
+
+    private static int wordIdx(long offset) {
+      return (int) ((offset & (SEGMENT_SIZE - 1)) >>> 6);
+    }
+  }
+}
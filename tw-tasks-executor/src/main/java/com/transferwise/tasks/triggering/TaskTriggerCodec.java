@@ -0,0 +1,129 @@
+package com.transferwise.tasks.triggering;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.transferwise.tasks.TasksProperties.TriggerMessageFormat;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.utils.JsonUtils;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Serializes task triggers sent through Kafka.
+ *
+ * <p>The binary format is a format version byte, task id as two longs, version and priority as varints and the task type as a length
+ * prefixed UTF-8 string. Format version 2 appends the ordering key as a length prefixed UTF-8 string. Tasks without one are still written
+ * in version 1, which older nodes can read. As triggers go through String serializers, it is Base64 encoded. Decoding detects the format by the first
+ * character, a JSON object always starts with '{', which is not in the Base64 alphabet.
+ */
+@UtilityClass
+public class TaskTriggerCodec {
+
+  static final byte BINARY_FORMAT_VERSION = 1;
+  static final byte BINARY_FORMAT_VERSION_WITH_ORDERING_KEY = 2;
+
+  public static String encode(ObjectMapper objectMapper, BaseTask task, TriggerMessageFormat format) {
+    if (format == TriggerMessageFormat.BINARY) {
+      return Base64.getEncoder().withoutPadding().encodeToString(encodeBinary(task));
+    }
+    return JsonUtils.toJson(objectMapper, task);
+  }
+
+  public static BaseTask decode(ObjectMapper objectMapper, String message) {
+    if (isJson(message)) {
+      return JsonUtils.fromJson(objectMapper, message, BaseTask.class);
+    }
+    return decodeBinary(Base64.getDecoder().decode(message));
+  }
+
+  static byte[] encodeBinary(BaseTask task) {
+    byte[] type = task.getType() == null ? null : task.getType().getBytes(StandardCharsets.UTF_8);
+    int typeLength = type == null ? 0 : type.length;
+    byte[] orderingKey = task.getOrderingKey() == null ? null : task.getOrderingKey().getBytes(StandardCharsets.UTF_8);
+    int orderingKeyLength = orderingKey == null ? 0 : orderingKey.length;
+    ByteBuffer buffer = ByteBuffer.allocate(1 + 16 + 10 + 5 + 5 + typeLength + 5 + orderingKeyLength);
+
+    buffer.put(orderingKey == null ? BINARY_FORMAT_VERSION : BINARY_FORMAT_VERSION_WITH_ORDERING_KEY);
+    buffer.putLong(task.getId().getMostSignificantBits());
+    buffer.putLong(task.getId().getLeastSignificantBits());
+    putVarLong(buffer, task.getVersion());
+    putVarLong(buffer, zigZag(task.getPriority()));
+    // 0 is a missing type, anything else is its length + 1.
+    putVarLong(buffer, type == null ? 0 : typeLength + 1);
+    if (type != null) {
+      buffer.put(type);
+    }
+    if (orderingKey != null) {
+      putVarLong(buffer, orderingKeyLength);
+      buffer.put(orderingKey);
+    }
+
+    byte[] result = new byte[buffer.position()];
+    buffer.flip();
+    buffer.get(result);
+    return result;
+  }
+
+  static BaseTask decodeBinary(byte[] data) {
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    byte formatVersion = buffer.get();
+    if (formatVersion != BINARY_FORMAT_VERSION && formatVersion != BINARY_FORMAT_VERSION_WITH_ORDERING_KEY) {
+      throw new IllegalStateException("Unsupported trigger message format version " + formatVersion + ".");
+    }
+
+    BaseTask task = new BaseTask();
+    task.setId(new UUID(buffer.getLong(), buffer.getLong()));
+    task.setVersion(getVarLong(buffer));
+    task.setPriority((int) unZigZag(getVarLong(buffer)));
+    int typeLength = (int) getVarLong(buffer);
+    if (typeLength > 0) {
+      task.setType(new String(data, buffer.position(), typeLength - 1, StandardCharsets.UTF_8));
+      buffer.position(buffer.position() + typeLength - 1);
+    }
+    if (formatVersion == BINARY_FORMAT_VERSION_WITH_ORDERING_KEY) {
+      int orderingKeyLength = (int) getVarLong(buffer);
+      task.setOrderingKey(new String(data, buffer.position(), orderingKeyLength, StandardCharsets.UTF_8));
+    }
+    return task;
+  }
+
+  private static boolean isJson(String message) {
+    for (int i = 0; i < message.length(); i++) {
+      char c = message.charAt(i);
+      if (!Character.isWhitespace(c)) {
+        return c == '{';
+      }
+    }
+    return false;
+  }
+
+  private static void putVarLong(ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static long getVarLong(ByteBuffer buffer) {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IllegalStateException("Malformed varint in trigger message.");
+  }
+
+  private static long zigZag(int value) {
+    return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
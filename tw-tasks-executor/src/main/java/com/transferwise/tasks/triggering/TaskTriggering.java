@@ -11,9 +11,13 @@ public class TaskTriggering {
 
   private BaseTask task;
   private long offset;
-  private long sequence;
   private TopicPartition topicPartition;
   private String bucketId;
+  /**
+   * When the triggering was added to the processing state, or given back to it after being set aside behind its ordering key, in epoch
+   * millis.
+   */
+  private long queuedTimeMs;
 
   public boolean isSameProcessTrigger() {
     return topicPartition == null;
@@ -21,7 +21,8 @@ public class DomainUtils {
           .setId(task.getVersionId().getId())
           .setPriority(task.getPriority())
           .setType(task.getType())
-          .setVersion(task.getVersionId().getVersion());
+          .setVersion(task.getVersionId().getVersion())
+          .setOrderingKey(task.getOrderingKey());
     }
     throw new IllegalArgumentException("No conversion is supprorted from " + resultClass.getCanonicalName() + ".");
   }
@@ -0,0 +1,103 @@
+package com.transferwise.tasks.cleaning;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.transferwise.common.baseutils.clock.ClockHolder;
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.dao.ITaskPartitionsDao;
+import com.transferwise.tasks.dao.ITaskPartitionsDao.TaskPartition;
+import com.transferwise.tasks.domain.TaskStatus;
+import com.transferwise.tasks.helpers.IMeterHelper;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+
+class PartitionDroppingTasksCleanerTest extends BaseTest {
+
+  @Spy
+  private TasksProperties tasksProperties;
+  @Mock
+  private ITaskDao taskDao;
+  @Mock
+  private ITaskPartitionsDao taskPartitionsDao;
+  @Mock
+  private IMeterHelper meterHelper;
+
+  @InjectMocks
+  private PartitionDroppingTasksCleaner cleaner;
+
+  private final ZonedDateTime now = ZonedDateTime.of(2026, 10, 18, 10, 0, 0, 0, ZoneOffset.UTC);
+
+  @BeforeEach
+  void setup() {
+    ClockHolder.setClock(Clock.fixed(now.toInstant(), ZoneOffset.UTC));
+    tasksProperties.setTaskTablePartitionInterval(Duration.ofDays(1));
+    tasksProperties.setTaskTablePartitionsAhead(3);
+    tasksProperties.setFinishedTasksHistoryToKeep(Duration.ofDays(30));
+  }
+
+  @Test
+  void partitionsAreCreatedAheadWhenThereAreNone() {
+    when(taskPartitionsDao.getTaskPartitions()).thenReturn(Collections.emptyList());
+
+    cleaner.maintainPartitions();
+
+    ZonedDateTime today = now.withHour(0);
+    verify(taskPartitionsDao).addTaskPartition(null, today.plusDays(1));
+    verify(taskPartitionsDao).addTaskPartition(today.plusDays(1), today.plusDays(2));
+    verify(taskPartitionsDao).addTaskPartition(today.plusDays(2), today.plusDays(3));
+    verify(taskPartitionsDao).addTaskPartition(today.plusDays(3), today.plusDays(4));
+    verify(taskPartitionsDao, times(4)).addTaskPartition(any(), any());
+  }
+
+  @Test
+  void onlyExpiredPartitionsWithoutUnfinishedTasksAreDropped() {
+    ZonedDateTime today = now.withHour(0);
+    TaskPartition droppable = partition(today.minusDays(31));
+    TaskPartition withUnfinishedTasks = partition(today.minusDays(30));
+    TaskPartition notExpired = partition(today.minusDays(29));
+    when(taskPartitionsDao.getTaskPartitions()).thenReturn(Arrays.asList(droppable, withUnfinishedTasks, notExpired, partition(today.plusDays(4))));
+    when(taskPartitionsDao.hasUndeletableTasks(droppable, now.minusDays(30))).thenReturn(false);
+    when(taskPartitionsDao.hasUndeletableTasks(withUnfinishedTasks, now.minusDays(30))).thenReturn(true);
+
+    cleaner.maintainPartitions();
+    cleaner.deleteOldTasks(TaskStatus.DONE);
+
+    verify(taskPartitionsDao, never()).addTaskPartition(any(), any());
+    verify(taskPartitionsDao).dropTaskPartition(droppable, tasksProperties.getTasksHistoryDeletingBatchSize());
+    verify(taskPartitionsDao, never()).dropTaskPartition(eq(withUnfinishedTasks), anyInt());
+    verify(taskPartitionsDao, never()).hasUndeletableTasks(eq(notExpired), any());
+    verify(taskDao).deleteOldTasks(eq(TaskStatus.DONE), eq(Duration.ofDays(30)), anyInt(), eq(today.minusDays(30)));
+  }
+
+  @Test
+  void noRowsAreDeletedWhenNothingHasExpired() {
+    when(taskPartitionsDao.getTaskPartitions()).thenReturn(Collections.singletonList(partition(now.withHour(0).plusDays(4))));
+
+    cleaner.maintainPartitions();
+    cleaner.deleteOldTasks(TaskStatus.DONE);
+
+    verify(taskDao, never()).deleteOldTasks(any(), any(), anyInt(), any());
+    verify(taskDao, never()).deleteOldTasks(any(), any(), anyInt());
+  }
+
+  private TaskPartition partition(ZonedDateTime createdBefore) {
+    return new TaskPartition().setName("p" + createdBefore.toLocalDate()).setCreatedBefore(createdBefore);
+  }
+}
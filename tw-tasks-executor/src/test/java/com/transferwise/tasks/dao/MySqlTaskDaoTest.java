@@ -0,0 +1,210 @@
+package com.transferwise.tasks.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.transferwise.common.baseutils.clock.TestClock;
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.dao.ITaskDao.GrabForProcessingRequest;
+import com.transferwise.tasks.dao.ITaskDao.InsertTaskRequest;
+import com.transferwise.tasks.dao.ITaskDao.InsertTaskResponse;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.domain.Task;
+import com.transferwise.tasks.domain.TaskStatus;
+import com.transferwise.tasks.utils.UuidUtils;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class MySqlTaskDaoTest extends BaseTest {
+
+  private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+  private MySqlTaskDao taskDao;
+
+  @BeforeEach
+  void setup() {
+    taskDao = new MySqlTaskDao(mock(DataSource.class));
+    ReflectionTestUtils.setField(taskDao, "tasksProperties", new TasksProperties());
+    taskDao.init();
+    taskDao.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Test
+  void uniqueKeyConflictsAreDetectedWhenDriverDoesNotReportUpdateCounts() throws Exception {
+    UUID taskId0 = UUID.randomUUID();
+    UUID taskId1 = UUID.randomUUID();
+    UUID taskId2 = UUID.randomUUID();
+    when(jdbcTemplate.query(eq(taskDao.getExpandedSql(taskDao.getTaskIdsSql, 1)), any(PreparedStatementSetter.class),
+        any(RowMapper.class))).thenReturn(Collections.emptyList());
+    when(jdbcTemplate.batchUpdate(eq(taskDao.insertUniqueTaskKeySql), any(BatchPreparedStatementSetter.class)))
+        .thenReturn(new int[]{Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO});
+    // The second task's key was ignored by the database, as the first task took it.
+    when(jdbcTemplate.query(eq(taskDao.getExpandedSql(taskDao.getUniqueTaskKeysSql, 1)), any(PreparedStatementSetter.class),
+        any(RowMapper.class))).thenAnswer(invocation -> {
+          RowMapper<?> rowMapper = invocation.getArgument(2);
+          return Arrays.asList(mapKeyRow(rowMapper, taskId0, "A"), mapKeyRow(rowMapper, taskId2, "B"));
+        });
+    ArgumentCaptor<BatchPreparedStatementSetter> tasksInsert = ArgumentCaptor.forClass(BatchPreparedStatementSetter.class);
+    when(jdbcTemplate.batchUpdate(eq(taskDao.insertTaskSql), tasksInsert.capture()))
+        .thenReturn(new int[]{Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO});
+
+    List<InsertTaskResponse> responses = taskDao.insertTasks(Arrays.asList(
+        insertTaskRequest(taskId0, "A"),
+        insertTaskRequest(taskId1, "A"),
+        insertTaskRequest(taskId2, "B")
+    ));
+
+    assertTrue(responses.get(0).isInserted());
+    assertFalse(responses.get(1).isInserted());
+    assertTrue(responses.get(2).isInserted());
+    assertEquals(2, tasksInsert.getValue().getBatchSize());
+  }
+
+  @Test
+  void tasksWithTakenIdsAreNotInserted() {
+    UUID existingTaskId = UUID.randomUUID();
+    UUID taskId = UUID.randomUUID();
+    when(jdbcTemplate.query(eq(taskDao.getExpandedSql(taskDao.getTaskIdsSql, 1)), any(PreparedStatementSetter.class),
+        any(RowMapper.class))).thenReturn(Collections.emptyList(), Collections.singletonList(existingTaskId));
+    ArgumentCaptor<BatchPreparedStatementSetter> tasksInsert = ArgumentCaptor.forClass(BatchPreparedStatementSetter.class);
+    when(jdbcTemplate.batchUpdate(eq(taskDao.insertTaskSql), tasksInsert.capture())).thenReturn(new int[]{Statement.SUCCESS_NO_INFO});
+
+    List<InsertTaskResponse> responses = taskDao.insertTasks(Arrays.asList(
+        insertTaskRequest(taskId, null),
+        insertTaskRequest(existingTaskId, null),
+        insertTaskRequest(taskId, null)
+    ));
+
+    assertTrue(responses.get(0).isInserted());
+    assertFalse(responses.get(1).isInserted());
+    assertFalse(responses.get(2).isInserted());
+    assertEquals(1, tasksInsert.getValue().getBatchSize());
+  }
+
+  @Test
+  void uniqueKeyIsDeletedWhenTaskWasNotInserted() {
+    when(jdbcTemplate.batchUpdate(eq(taskDao.insertUniqueTaskKeySql), any(BatchPreparedStatementSetter.class))).thenReturn(new int[]{1});
+    when(jdbcTemplate.batchUpdate(eq(taskDao.insertTaskSql), any(BatchPreparedStatementSetter.class))).thenReturn(new int[]{0});
+
+    List<InsertTaskResponse> responses = taskDao.insertTasks(Collections.singletonList(insertTaskRequest(null, "A")));
+
+    assertFalse(responses.get(0).isInserted());
+    ArgumentCaptor<BatchPreparedStatementSetter> keysDelete = ArgumentCaptor.forClass(BatchPreparedStatementSetter.class);
+    verify(jdbcTemplate).batchUpdate(eq(taskDao.deleteUniqueTaskKeySql), keysDelete.capture());
+    assertEquals(1, keysDelete.getValue().getBatchSize());
+  }
+
+  @Test
+  void tasksAreGrabbedWithOneMultiRowUpdatePerQuestionBucket() {
+    List<GrabForProcessingRequest> requests = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      requests.add(new GrabForProcessingRequest().setTask(new BaseTask().setId(UUID.randomUUID()).setVersion(i))
+          .setMaxProcessingEndTime(Instant.now()));
+    }
+    requests.add(new GrabForProcessingRequest().setTask(requests.get(0).getTask()).setMaxProcessingEndTime(Instant.now()));
+
+    List<Task> tasks = taskDao.grabForProcessing(requests, "node");
+
+    assertEquals(7, tasks.size());
+    assertThat(taskDao.getGrabForProcessingSql1(2))
+        .contains("next_event_time=case id when ? then ? when ? then ? end")
+        .contains("(id,version) in ((?,?),(?,?))");
+    verify(jdbcTemplate).update(eq(taskDao.getGrabForProcessingSql1(5)), any(PreparedStatementSetter.class));
+    verify(jdbcTemplate).update(eq(taskDao.getGrabForProcessingSql1(1)), any(PreparedStatementSetter.class));
+  }
+
+  @Test
+  void claimsAreReleasedOnlyWithDatabaseTriggering() {
+    assertThat(taskDao.setStatusSql1).doesNotContain("processing_client_id");
+    assertThat(taskDao.prepareStuckOnProcessingTaskForResumingSql1).doesNotContain("processing_client_id");
+
+    TasksProperties tasksProperties = new TasksProperties();
+    tasksProperties.setTriggeringType(TasksProperties.TriggeringType.DATABASE);
+    ReflectionTestUtils.setField(taskDao, "tasksProperties", tasksProperties);
+    taskDao.init();
+
+    assertThat(taskDao.setStatusSql1).contains(",processing_client_id=null");
+    assertThat(taskDao.prepareStuckOnProcessingTaskForResumingSql1).contains(",processing_client_id=null");
+  }
+
+  @Test
+  void tasksAlreadyHeldBySameClientAreNotReturnedByBatchGrab() throws Exception {
+    final TestClock testClock = TestClock.createAndRegister();
+    final long nowMs = testClock.millis();
+    BaseTask freeTask = new BaseTask().setId(UUID.randomUUID()).setVersion(3);
+    BaseTask heldTask = new BaseTask().setId(UUID.randomUUID()).setVersion(7);
+    when(jdbcTemplate.update(anyString(), any(PreparedStatementSetter.class))).thenReturn(1);
+    // The held task was grabbed a second ago by an earlier trigger, so its row looks like a row grabbed by this batch except for the time.
+    doAnswer(invocation -> {
+      RowCallbackHandler handler = invocation.getArgument(2);
+      handler.processRow(grabbedRow(freeTask.getId(), 4, nowMs));
+      handler.processRow(grabbedRow(heldTask.getId(), 8, nowMs - 1000));
+      return null;
+    }).when(jdbcTemplate).query(anyString(), any(PreparedStatementSetter.class), any(RowCallbackHandler.class));
+
+    List<Task> tasks = taskDao.grabForProcessing(Arrays.asList(
+        new GrabForProcessingRequest().setTask(freeTask).setMaxProcessingEndTime(Instant.now()),
+        new GrabForProcessingRequest().setTask(heldTask).setMaxProcessingEndTime(Instant.now())
+    ), "node");
+
+    assertEquals(freeTask.getId(), tasks.get(0).getId());
+    assertNull(tasks.get(1));
+
+    // A duplicate trigger in the same millisecond does not return the task grabbed above either.
+    tasks = taskDao.grabForProcessing(Collections.singletonList(
+        new GrabForProcessingRequest().setTask(freeTask).setMaxProcessingEndTime(Instant.now())), "node");
+
+    assertNull(tasks.get(0));
+  }
+
+  private static ResultSet grabbedRow(UUID taskId, long version, long processingStartTimeMs) throws Exception {
+    ResultSet rs = mock(ResultSet.class, withSettings().lenient());
+    when(rs.getObject(1)).thenReturn(UuidUtils.toBytes(taskId));
+    when(rs.getLong(2)).thenReturn(version);
+    when(rs.getString(4)).thenReturn(TaskStatus.PROCESSING.name());
+    when(rs.getString(9)).thenReturn("node");
+    when(rs.getTimestamp(10)).thenReturn(new Timestamp(processingStartTimeMs));
+    return rs;
+  }
+
+  private static Object mapKeyRow(RowMapper<?> rowMapper, UUID taskId, String key) throws Exception {
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getObject(1)).thenReturn(UuidUtils.toBytes(taskId));
+    when(rs.getString(2)).thenReturn(key);
+    return rowMapper.mapRow(rs, 0);
+  }
+
+  private static InsertTaskRequest insertTaskRequest(UUID taskId, String key) {
+    return new InsertTaskRequest().setTaskId(taskId).setKey(key).setType("TEST").setStatus(TaskStatus.SUBMITTED).setData("DATA")
+        .setPriority(5).setMaxStuckTime(ZonedDateTime.now().plusMinutes(30));
+  }
+}
@@ -0,0 +1,51 @@
+package com.transferwise.tasks.dao;
+
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.dao.ITaskPartitionsDao.TaskPartition;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class MySqlTaskPartitionsDaoTest extends BaseTest {
+
+  private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+  private MySqlTaskPartitionsDao taskPartitionsDao;
+
+  @BeforeEach
+  void setup() {
+    TasksProperties tasksProperties = new TasksProperties();
+    tasksProperties.setTaskDataInSeparateTable(true);
+    taskPartitionsDao = new MySqlTaskPartitionsDao(mock(DataSource.class));
+    ReflectionTestUtils.setField(taskPartitionsDao, "tasksProperties", tasksProperties);
+    taskPartitionsDao.init();
+    taskPartitionsDao.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Test
+  void keysAndPayloadsAreDeletedInBatchesBeforeDroppingPartition() {
+    when(jdbcTemplate.queryForList("select id from tw_task partition (p202610180000) order by id limit ?", Object.class, 2))
+        .thenReturn(Arrays.asList("id1", "id2"));
+    when(jdbcTemplate.queryForList("select id from tw_task partition (p202610180000) where id>? order by id limit ?", Object.class, "id2", 2))
+        .thenReturn(Collections.singletonList("id3"));
+
+    taskPartitionsDao.dropTaskPartition(new TaskPartition().setName("p202610180000"), 2);
+
+    InOrder inOrder = inOrder(jdbcTemplate);
+    inOrder.verify(jdbcTemplate).update(eq("delete from unique_tw_task_key where task_id in (?,?)"), eq("id1"), eq("id2"));
+    inOrder.verify(jdbcTemplate).update(eq("delete from tw_task_data where task_id in (?,?)"), eq("id1"), eq("id2"));
+    inOrder.verify(jdbcTemplate).update(eq("delete from unique_tw_task_key where task_id in (?)"), eq("id3"));
+    inOrder.verify(jdbcTemplate).update(eq("delete from tw_task_data where task_id in (?)"), eq("id3"));
+    inOrder.verify(jdbcTemplate).execute("alter table tw_task drop partition p202610180000");
+  }
+}
@@ -0,0 +1,80 @@
+package com.transferwise.tasks.dao;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.TasksProperties;
+import java.time.Duration;
+import java.time.Instant;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+class PostgresTaskDaoTest extends BaseTest {
+
+  private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+  private PostgresTaskDao taskDao;
+
+  @BeforeEach
+  void setup() {
+    TasksProperties tasksProperties = new TasksProperties();
+    tasksProperties.setWaitingTasksNotificationsEnabled(true);
+    tasksProperties.setWaitingTasksMaxPollingInterval(Duration.ofMinutes(1));
+    taskDao = new PostgresTaskDao(mock(DataSource.class));
+    ReflectionTestUtils.setField(taskDao, "tasksProperties", tasksProperties);
+    taskDao.init();
+    taskDao.jdbcTemplate = jdbcTemplate;
+    TransactionSynchronizationManager.initSynchronization();
+  }
+
+  @AfterEach
+  void cleanup() {
+    TransactionSynchronizationManager.clearSynchronization();
+  }
+
+  @Test
+  void oneNotificationIsSentPerTransactionForTheEarliestTask() {
+    Instant now = Instant.now();
+    taskDao.waitingTasksScheduled(now.plusSeconds(20));
+    taskDao.waitingTasksScheduled(now.plusSeconds(10));
+    taskDao.waitingTasksScheduled(now.plusSeconds(30));
+
+    verify(jdbcTemplate, never()).query(any(String.class), any(PreparedStatementSetter.class), any(RowCallbackHandler.class));
+
+    for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+      synchronization.beforeCommit(false);
+    }
+
+    ArgumentCaptor<PreparedStatementSetter> args = ArgumentCaptor.forClass(PreparedStatementSetter.class);
+    verify(jdbcTemplate).query(eq(taskDao.notifyWaitingTasksScheduledSql), args.capture(), any(RowCallbackHandler.class));
+    assertArgs(args.getValue(), "tw_task_waiting", String.valueOf(now.plusSeconds(10).toEpochMilli()));
+  }
+
+  @Test
+  void tasksDueAfterTheLongestResumerSleepAreNotNotified() {
+    taskDao.waitingTasksScheduled(Instant.now().plusSeconds(120));
+
+    for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+      synchronization.beforeCommit(false);
+    }
+
+    verify(jdbcTemplate, never()).query(any(String.class), any(PreparedStatementSetter.class), any(RowCallbackHandler.class));
+  }
+
+  private static void assertArgs(PreparedStatementSetter setter, Object... expected) {
+    assertArrayEquals(expected, (Object[]) ReflectionTestUtils.getField(setter, "args"));
+  }
+}
@@ -0,0 +1,67 @@
+package com.transferwise.tasks.dao.codecs;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.TasksProperties;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+
+class TaskDataCodecRegistryTest extends BaseTest {
+
+  @Spy
+  private TasksProperties tasksProperties = new TasksProperties();
+
+  @InjectMocks
+  private TaskDataCodecRegistry taskDataCodecRegistry;
+
+  @Test
+  void builtInCodecsRestoreTheOriginalPayload() {
+    taskDataCodecRegistry.init();
+    byte[] data = StringUtils.repeat("{\"topic\":\"MyTopic\",\"message\":\"Hello World!\"}", 1000).getBytes(StandardCharsets.UTF_8);
+
+    for (String name : new String[]{RawTaskDataCodec.NAME, DeflateTaskDataCodec.NAME, Lz4TaskDataCodec.NAME, ZstdTaskDataCodec.NAME}) {
+      ITaskDataCodec codec = taskDataCodecRegistry.getCodec(name);
+      byte[] encoded = codec.encode(data);
+
+      assertEquals(name, codec.getName());
+      assertArrayEquals(data, codec.decode(encoded));
+      if (!RawTaskDataCodec.NAME.equals(name)) {
+        assertTrue(encoded.length < data.length / 10, name);
+      }
+      assertArrayEquals(new byte[0], codec.decode(codec.encode(new byte[0])));
+    }
+  }
+
+  @Test
+  void codecsAreChosenByTaskType() {
+    tasksProperties.setTaskDataInSeparateTable(true);
+    tasksProperties.getTaskDataCodecs().put("SendToKafka", "lz4");
+    taskDataCodecRegistry.init();
+
+    assertEquals(Lz4TaskDataCodec.NAME, taskDataCodecRegistry.getCodecForType("SendToKafka").getName());
+    assertNull(taskDataCodecRegistry.getCodecForType("MyTask"));
+  }
+
+  @Test
+  void codecsCanNotBeUsedWithoutSeparateTable() {
+    tasksProperties.getTaskDataCodecs().put("SendToKafka", "lz4");
+
+    assertThrows(IllegalStateException.class, () -> taskDataCodecRegistry.init());
+  }
+
+  @Test
+  void unknownCodecsAreNotAccepted() {
+    tasksProperties.setTaskDataInSeparateTable(true);
+    tasksProperties.getTaskDataCodecs().put("SendToKafka", "snappy");
+
+    assertThrows(IllegalStateException.class, () -> taskDataCodecRegistry.init());
+  }
+}
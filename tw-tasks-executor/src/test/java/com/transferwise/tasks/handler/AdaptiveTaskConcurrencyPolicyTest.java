@@ -0,0 +1,115 @@
+package com.transferwise.tasks.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.domain.IBaseTask;
+import com.transferwise.tasks.helpers.NoOpMeterHelper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveTaskConcurrencyPolicyTest {
+
+  private static final IBaseTask TASK = new BaseTask().setType("A");
+
+  @Test
+  void limitGrowsWhileTasksSucceedInUsualTime() {
+    AdaptiveTaskConcurrencyPolicy policy = new AdaptiveTaskConcurrencyPolicy("test", 2, 20, new NoOpMeterHelper());
+    assertEquals(2, policy.getCurrentLimit());
+    assertEquals(-1, policy.getLatencyEstimateMs());
+
+    runFullyLoaded(policy, 1000, 100, true);
+
+    assertEquals(20, policy.getCurrentLimit());
+    assertEquals(100, policy.getLatencyEstimateMs(), 0.001);
+  }
+
+  @Test
+  void limitDoesNotGrowWhenNotUsed() {
+    AdaptiveTaskConcurrencyPolicy policy = new AdaptiveTaskConcurrencyPolicy("test", 4, 20, null);
+
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(policy.bookSpaceForTask(TASK));
+      policy.registerTaskProcessed(TASK, 100, true);
+      policy.freeSpaceForTask(TASK);
+    }
+
+    assertEquals(4, policy.getCurrentLimit());
+  }
+
+  @Test
+  void limitIsCutOnFailuresAndSlowdowns() {
+    AdaptiveTaskConcurrencyPolicy policy = new AdaptiveTaskConcurrencyPolicy("test", 2, 20, null);
+    runFullyLoaded(policy, 1000, 100, true);
+    assertEquals(20, policy.getCurrentLimit());
+
+    // A burst of failures of tasks running together cuts the limit once.
+    runFullyLoaded(policy, 10, 100, false);
+    assertEquals(18, policy.getCurrentLimit());
+
+    runFullyLoaded(policy, 200, 100, false);
+    assertThat(policy.getCurrentLimit()).isBetween(2, 10);
+
+    runFullyLoaded(policy, 2000, 100, false);
+    assertEquals(2, policy.getCurrentLimit());
+
+    runFullyLoaded(policy, 1000, 100, true);
+    assertEquals(20, policy.getCurrentLimit());
+
+    runFullyLoaded(policy, 100, 1000, true);
+    assertThat(policy.getCurrentLimit()).isLessThan(20);
+  }
+
+  @Test
+  void bookingIsLimited() {
+    AdaptiveTaskConcurrencyPolicy policy = new AdaptiveTaskConcurrencyPolicy("test", 2, 20, null);
+
+    assertTrue(policy.bookSpaceForTask(TASK));
+    assertTrue(policy.hasSpaceForTask(TASK));
+    assertTrue(policy.bookSpaceForTask(TASK));
+    assertFalse(policy.hasSpaceForTask(TASK));
+    assertFalse(policy.bookSpaceForTask(TASK));
+
+    policy.freeSpaceForTask(TASK);
+    assertTrue(policy.bookSpaceForTask(TASK));
+  }
+
+  @Test
+  void concurrentCompletionsAreAllRegistered() throws Exception {
+    AdaptiveTaskConcurrencyPolicy policy = new AdaptiveTaskConcurrencyPolicy("test", 2, 20, null);
+    int threadsCount = 8;
+    ExecutorService executorService = Executors.newFixedThreadPool(threadsCount);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threadsCount; t++) {
+      futures.add(executorService.submit(() -> runFullyLoaded(policy, 1000, 100, true)));
+    }
+    for (Future<?> future : futures) {
+      future.get(60, TimeUnit.SECONDS);
+    }
+    executorService.shutdown();
+
+    assertEquals(20, policy.getCurrentLimit());
+    assertEquals(100, policy.getLatencyEstimateMs(), 0.001);
+  }
+
+  /**
+   * Keeps the policy at its limit, finishing one task at a time.
+   */
+  private void runFullyLoaded(AdaptiveTaskConcurrencyPolicy policy, int tasksCount, long processingTimeMs, boolean succeeded) {
+    for (int i = 0; i < tasksCount; i++) {
+      while (policy.bookSpaceForTask(TASK)) {
+        // Fill up.
+      }
+      policy.registerTaskProcessed(TASK, processingTimeMs, succeeded);
+      policy.freeSpaceForTask(TASK);
+    }
+  }
+}
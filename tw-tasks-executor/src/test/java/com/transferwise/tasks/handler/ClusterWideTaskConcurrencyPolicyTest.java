@@ -0,0 +1,300 @@
+package com.transferwise.tasks.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.transferwise.common.baseutils.clock.TestClock;
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.domain.IBaseTask;
+import com.transferwise.tasks.handler.interfaces.IPermitLeaseStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class ClusterWideTaskConcurrencyPolicyTest extends BaseTest {
+
+  private static final IBaseTask TASK = new BaseTask().setType("PAYOUT");
+
+  private TestClock testClock;
+  private InMemoryPermitLeaseStore permitLeaseStore;
+
+  @BeforeEach
+  void setup() {
+    testClock = TestClock.createAndRegister();
+    permitLeaseStore = new InMemoryPermitLeaseStore();
+  }
+
+  @Test
+  void clusterWideLimitIsNeverExceeded() throws Exception {
+    int maxConcurrency = 10;
+    List<ClusterWideTaskConcurrencyPolicy> nodes = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      nodes.add(newNode(maxConcurrency));
+    }
+
+    AtomicInteger inProgressCnt = new AtomicInteger();
+    AtomicInteger maxInProgressCnt = new AtomicInteger();
+    AtomicInteger bookingsCnt = new AtomicInteger();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    int threadsCount = 16;
+    ExecutorService executorService = Executors.newFixedThreadPool(threadsCount);
+    CountDownLatch latch = new CountDownLatch(threadsCount);
+    for (int t = 0; t < threadsCount; t++) {
+      int finalT = t;
+      executorService.submit(() -> {
+        try {
+          Random random = new Random(finalT);
+          for (int i = 0; i < 20_000; i++) {
+            ClusterWideTaskConcurrencyPolicy node = nodes.get(random.nextInt(nodes.size()));
+            if (node.bookSpaceForTask(TASK)) {
+              int cnt = inProgressCnt.incrementAndGet();
+              maxInProgressCnt.accumulateAndGet(cnt, Math::max);
+              bookingsCnt.incrementAndGet();
+              inProgressCnt.decrementAndGet();
+              node.freeSpaceForTask(TASK);
+            }
+            if (random.nextInt(100) == 0) {
+              node.leaseMore();
+            }
+            if (random.nextInt(1000) == 0) {
+              node.renewLease();
+            }
+          }
+        } catch (Throwable e) {
+          failure.set(e);
+        } finally {
+          latch.countDown();
+        }
+      });
+    }
+    assertTrue(latch.await(60, TimeUnit.SECONDS));
+    executorService.shutdown();
+
+    assertThat(failure.get()).isNull();
+    assertThat(maxInProgressCnt.get()).isBetween(1, maxConcurrency);
+    assertThat(bookingsCnt.get()).isGreaterThan(0);
+    assertThat(permitLeaseStore.getLeasedPermits("PAYOUT")).isLessThanOrEqualTo(maxConcurrency);
+  }
+
+  @Test
+  void bookingsLeaseOnTheSchedulerAndBackOffWhenLimitIsReached() {
+    ScheduledExecutorService scheduledExecutorService = mock(ScheduledExecutorService.class);
+    AtomicInteger leasesCnt = new AtomicInteger();
+    ClusterWideTaskConcurrencyPolicy node = new ClusterWideTaskConcurrencyPolicy((key, holderId, permits, maxPermits, nowMs, expiresAtMs) -> {
+      leasesCnt.incrementAndGet();
+      return permitLeaseStore.lease(key, holderId, permits, maxPermits, nowMs, expiresAtMs);
+    }, "PAYOUT", 3, scheduledExecutorService).setBlockSize(3);
+    final ArgumentCaptor<Runnable> leasing = ArgumentCaptor.forClass(Runnable.class);
+    final ArgumentCaptor<Long> leasingDelayMs = ArgumentCaptor.forClass(Long.class);
+
+    assertFalse(node.bookSpaceForTask(TASK));
+    assertFalse(node.bookSpaceForTask(TASK));
+    assertEquals(0, leasesCnt.get());
+    verify(scheduledExecutorService).schedule(leasing.capture(), leasingDelayMs.capture(), eq(TimeUnit.MILLISECONDS));
+    leasing.getValue().run();
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(node.bookSpaceForTask(TASK));
+    }
+    // The limit is reached, so the following leases do not grow and back off.
+    for (int i = 0; i < 3; i++) {
+      assertFalse(node.bookSpaceForTask(TASK));
+      assertFalse(node.bookSpaceForTask(TASK));
+      verify(scheduledExecutorService, times(i + 2)).schedule(leasing.capture(), leasingDelayMs.capture(), eq(TimeUnit.MILLISECONDS));
+      leasing.getValue().run();
+    }
+
+    assertThat(leasingDelayMs.getValue()).isEqualTo(200L);
+    assertEquals(4, leasesCnt.get());
+
+    node.freeSpaceForTask(TASK);
+    assertTrue(node.bookSpaceForTask(TASK));
+    assertEquals(4, leasesCnt.get());
+  }
+
+  @Test
+  void busyNodeCanUseCapacityOfIdleNodes() {
+    ClusterWideTaskConcurrencyPolicy busyNode = newNode(10);
+    ClusterWideTaskConcurrencyPolicy idleNode = newNode(10);
+
+    assertEquals(1, bookCount(idleNode, 1));
+    idleNode.freeSpaceForTask(TASK);
+
+    // The idle node keeps one block.
+    assertEquals(7, bookAll(busyNode));
+
+    idleNode.close();
+    assertEquals(3, bookAll(busyNode));
+    assertEquals(10, busyNode.getInProgressCnt());
+  }
+
+  @Test
+  void idlePermitsAreGivenBackOnRenewal() {
+    ClusterWideTaskConcurrencyPolicy node = newNode(10);
+    assertEquals(10, bookAll(node));
+    for (int i = 0; i < 10; i++) {
+      node.freeSpaceForTask(TASK);
+    }
+
+    node.renewLease();
+
+    assertEquals(3, node.getLeasedCnt());
+    assertEquals(3, permitLeaseStore.getLeasedPermits("PAYOUT"));
+  }
+
+  @Test
+  void permitsOfCrashedNodeExpire() {
+    ClusterWideTaskConcurrencyPolicy node = newNode(10);
+    ClusterWideTaskConcurrencyPolicy crashedNode = newNode(10);
+    assertEquals(10, bookAll(crashedNode));
+
+    assertEquals(0, bookAll(node));
+
+    testClock.tick(Duration.ofSeconds(29));
+    assertEquals(0, bookAll(node));
+
+    testClock.tick(Duration.ofSeconds(1));
+    assertEquals(10, bookAll(node));
+  }
+
+  @Test
+  void partitionedNodeStopsBookingBeforeItsPermitsAreTakenOver() {
+    AtomicBoolean partitioned = new AtomicBoolean();
+    ClusterWideTaskConcurrencyPolicy partitionedNode = newNode((key, holderId, permits, maxPermits, nowMs, expiresAtMs) -> {
+      if (partitioned.get()) {
+        throw new IllegalStateException("Store is unreachable.");
+      }
+      return permitLeaseStore.lease(key, holderId, permits, maxPermits, nowMs, expiresAtMs);
+    });
+    assertEquals(5, bookCount(partitionedNode, 5));
+
+    partitioned.set(true);
+    partitionedNode.renewLease();
+    // Still can use permits leased before.
+    assertTrue(partitionedNode.bookSpaceForTask(TASK));
+
+    testClock.tick(Duration.ofSeconds(25));
+    assertFalse(partitionedNode.hasSpaceForTask(TASK));
+    assertFalse(partitionedNode.bookSpaceForTask(TASK));
+    // Lease is still there for others.
+    final ClusterWideTaskConcurrencyPolicy node = newNode(permitLeaseStore);
+    assertEquals(4, bookAll(node));
+
+    testClock.tick(Duration.ofSeconds(5));
+    assertEquals(6, bookAll(node));
+  }
+
+  @Test
+  void listenersAreToldOnceWhenPermitsAreLeasedInBackground() {
+    ScheduledExecutorService scheduledExecutorService = mock(ScheduledExecutorService.class);
+    ClusterWideTaskConcurrencyPolicy node = new ClusterWideTaskConcurrencyPolicy(permitLeaseStore, "PAYOUT", 10, scheduledExecutorService);
+    AtomicInteger toldCnt = new AtomicInteger();
+    Runnable listener = toldCnt::incrementAndGet;
+
+    assertFalse(node.bookSpaceForTask(TASK));
+    node.addSpaceAvailableListener(listener);
+    node.addSpaceAvailableListener(listener);
+    assertEquals(0, toldCnt.get());
+    ArgumentCaptor<Runnable> leasing = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduledExecutorService).schedule(leasing.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+    leasing.getValue().run();
+    assertEquals(1, toldCnt.get());
+
+    node.leaseMore();
+    assertEquals(1, toldCnt.get());
+
+    // Permits leased before the listener was added.
+    node.addSpaceAvailableListener(listener);
+    assertEquals(2, toldCnt.get());
+  }
+
+  @Test
+  void closingStopsLeaseRenewal() {
+    ScheduledExecutorService scheduledExecutorService = mock(ScheduledExecutorService.class);
+    ScheduledFuture<?> renewal = mock(ScheduledFuture.class);
+    doReturn(renewal).when(scheduledExecutorService).scheduleWithFixedDelay(any(), anyLong(), anyLong(), eq(TimeUnit.MILLISECONDS));
+    ClusterWideTaskConcurrencyPolicy node = new ClusterWideTaskConcurrencyPolicy(permitLeaseStore, "PAYOUT", 10, scheduledExecutorService);
+    node.leaseMore();
+    node.leaseMore();
+
+    node.close();
+
+    verify(renewal).cancel(false);
+    verify(scheduledExecutorService).scheduleWithFixedDelay(any(), anyLong(), anyLong(), eq(TimeUnit.MILLISECONDS));
+    assertEquals(0, permitLeaseStore.getLeasedPermits("PAYOUT"));
+  }
+
+  private ClusterWideTaskConcurrencyPolicy newNode(int maxConcurrency) {
+    return newNode(permitLeaseStore).setMaxConcurrency(maxConcurrency);
+  }
+
+  private ClusterWideTaskConcurrencyPolicy newNode(IPermitLeaseStore permitLeaseStore) {
+    return new ClusterWideTaskConcurrencyPolicy(permitLeaseStore, "PAYOUT", 10, mock(ScheduledExecutorService.class)).setBlockSize(3)
+        .setLeaseDuration(Duration.ofSeconds(30)).setClockSkewMargin(Duration.ofSeconds(5));
+  }
+
+  private int bookAll(ClusterWideTaskConcurrencyPolicy node) {
+    return bookCount(node, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Leases synchronously instead of the scheduler, whenever booking runs out of permits.
+   */
+  private int bookCount(ClusterWideTaskConcurrencyPolicy node, int maxCount) {
+    int booked = 0;
+    while (booked < maxCount) {
+      if (node.bookSpaceForTask(TASK)) {
+        booked++;
+        continue;
+      }
+      int leasedCnt = node.getLeasedCnt();
+      node.leaseMore();
+      if (node.getLeasedCnt() <= leasedCnt) {
+        break;
+      }
+    }
+    return booked;
+  }
+
+  private static class InMemoryPermitLeaseStore implements IPermitLeaseStore {
+
+    private final Map<String, byte[]> data = new HashMap<>();
+
+    @Override
+    public synchronized int lease(String key, String holderId, int permits, int maxPermits, long nowMs, long expiresAtMs) {
+      PermitLeases permitLeases = PermitLeases.parse(data.get(key));
+      int granted = permitLeases.grant(holderId, permits, maxPermits, nowMs, expiresAtMs);
+      data.put(key, permitLeases.toBytes());
+      return granted;
+    }
+
+    synchronized int getLeasedPermits(String key) {
+      return PermitLeases.parse(data.get(key)).getLeasedPermits();
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package com.transferwise.tasks.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.collect.ImmutableMap;
+import com.transferwise.common.baseutils.clock.TestClock;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.domain.IBaseTask;
+import com.transferwise.tasks.helpers.IMeterHelper;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.junit.jupiter.api.Test;
+
+class CompositeTaskConcurrencyPolicyTest {
+
+  private static final IBaseTask TASK_A = new BaseTask().setType("A");
+  private static final IBaseTask TASK_B = new BaseTask().setType("B");
+
+  @Test
+  void allLevelsAreRespected() {
+    CompositeTaskConcurrencyPolicy policy = new CompositeTaskConcurrencyPolicy("test", null)
+        .addLevel("type", 2, IBaseTask::getType)
+        .addLevel("bucket", 3, task -> "default");
+
+    assertTrue(policy.bookSpaceForTask(TASK_A));
+    assertTrue(policy.bookSpaceForTask(TASK_A));
+    assertFalse(policy.hasSpaceForTask(TASK_A));
+    assertFalse(policy.bookSpaceForTask(TASK_A));
+
+    assertTrue(policy.hasSpaceForTask(TASK_B));
+    assertTrue(policy.bookSpaceForTask(TASK_B));
+    assertFalse(policy.bookSpaceForTask(TASK_B));
+
+    policy.freeSpaceForTask(TASK_A);
+    assertTrue(policy.bookSpaceForTask(TASK_B));
+  }
+
+  @Test
+  void partialBookingsAreRolledBack() {
+    SimpleTaskConcurrencyPolicy nodePolicy = new SimpleTaskConcurrencyPolicy(10);
+    CompositeTaskConcurrencyPolicy policy = new CompositeTaskConcurrencyPolicy("test", null)
+        .addLevel("node", nodePolicy)
+        .addLevel("type", 1, IBaseTask::getType);
+
+    assertTrue(policy.bookSpaceForTask(TASK_A));
+    for (int i = 0; i < 5; i++) {
+      assertFalse(policy.bookSpaceForTask(TASK_A));
+    }
+    assertEquals(1, nodePolicy.inProgressCnt.get());
+
+    policy.freeSpaceForTask(TASK_A);
+    assertEquals(0, nodePolicy.inProgressCnt.get());
+  }
+
+  @Test
+  void rolledBackBookingsReturnRateLimitTokens() {
+    TestClock.createAndRegister();
+    try {
+      CompositeTaskConcurrencyPolicy policy = new CompositeTaskConcurrencyPolicy("test", null)
+          .addLevel("rate", new TokenBucketTaskConcurrencyPolicy(10).setBurstSize(2))
+          .addLevel("type", 1, IBaseTask::getType);
+
+      assertTrue(policy.bookSpaceForTask(TASK_A));
+      // Takes the second token, which is returned when the type level rejects.
+      assertFalse(policy.bookSpaceForTask(TASK_A));
+      assertFalse(policy.bookSpaceForTask(TASK_A));
+
+      policy.freeSpaceForTask(TASK_A);
+      assertTrue(policy.bookSpaceForTask(TASK_A));
+    } finally {
+      TestClock.reset();
+    }
+  }
+
+  @Test
+  void spaceAvailableTimeIsTakenFromRejectingLevel() {
+    TestClock testClock = TestClock.createAndRegister();
+    try {
+      CompositeTaskConcurrencyPolicy policy = new CompositeTaskConcurrencyPolicy("test", null)
+          .addLevel("type", 1, IBaseTask::getType)
+          .addLevel("rate", new TokenBucketTaskConcurrencyPolicy(10));
+
+      assertTrue(policy.bookSpaceForTask(TASK_A));
+      // Rejected by the type level, so space depends on the running task, not on the rate limit.
+      assertFalse(policy.bookSpaceForTask(TASK_A));
+      assertEquals(-1, policy.getSpaceAvailableTimeMs(TASK_A));
+
+      policy.freeSpaceForTask(TASK_A);
+      assertFalse(policy.bookSpaceForTask(TASK_A));
+      assertEquals(testClock.millis() + 100, policy.getSpaceAvailableTimeMs(TASK_A));
+    } finally {
+      TestClock.reset();
+    }
+  }
+
+  @Test
+  void sharedLevelLimitsSeveralPolicies() {
+    SimpleTaskConcurrencyPolicy nodePolicy = new SimpleTaskConcurrencyPolicy(3);
+    CompositeTaskConcurrencyPolicy policyA = new CompositeTaskConcurrencyPolicy("a", null)
+        .addLevel("type", 2, IBaseTask::getType).addLevel("node", nodePolicy);
+    CompositeTaskConcurrencyPolicy policyB = new CompositeTaskConcurrencyPolicy("b", null)
+        .addLevel("type", 2, IBaseTask::getType).addLevel("node", nodePolicy);
+
+    assertTrue(policyA.bookSpaceForTask(TASK_A));
+    assertTrue(policyA.bookSpaceForTask(TASK_A));
+    assertTrue(policyB.bookSpaceForTask(TASK_B));
+    assertFalse(policyB.bookSpaceForTask(TASK_B));
+
+    policyA.freeSpaceForTask(TASK_A);
+    assertTrue(policyB.bookSpaceForTask(TASK_B));
+    assertEquals(3, nodePolicy.inProgressCnt.get());
+  }
+
+  @Test
+  void rejectionsAreCountedPerLevel() {
+    IMeterHelper meterHelper = mock(IMeterHelper.class);
+    CompositeTaskConcurrencyPolicy policy = new CompositeTaskConcurrencyPolicy("payouts", meterHelper)
+        .addLevel("type", 1, IBaseTask::getType)
+        .addLevel("bucket", 1, task -> "default");
+
+    assertTrue(policy.bookSpaceForTask(TASK_A));
+    assertFalse(policy.bookSpaceForTask(TASK_A));
+    assertFalse(policy.bookSpaceForTask(TASK_B));
+    assertFalse(policy.bookSpaceForTask(TASK_B));
+
+    verify(meterHelper).registerGauge(eq("twTasks.compositeConcurrencyPolicy.saturation"),
+        eq(ImmutableMap.of("policy", "payouts", "level", "type")), any());
+    verify(meterHelper).incrementCounter("twTasks.compositeConcurrencyPolicy.rejectedBookingsCount",
+        ImmutableMap.of("policy", "payouts", "level", "type"), 1);
+    verify(meterHelper, times(2)).incrementCounter("twTasks.compositeConcurrencyPolicy.rejectedBookingsCount",
+        ImmutableMap.of("policy", "payouts", "level", "bucket"), 1);
+  }
+
+  @Test
+  void limitsAreNeverExceededConcurrently() throws Exception {
+    String[] types = {"A", "B", "C", "D"};
+    IBaseTask[] tasks = new IBaseTask[types.length];
+    for (int i = 0; i < types.length; i++) {
+      tasks[i] = new BaseTask().setType(types[i]);
+    }
+    CompositeTaskConcurrencyPolicy policy = new CompositeTaskConcurrencyPolicy("test", null)
+        .addLevel("type", 3, IBaseTask::getType)
+        .addLevel("node", 8, task -> "node");
+
+    AtomicReferenceArray<AtomicInteger> inProgressCntsByType = new AtomicReferenceArray<>(types.length);
+    for (int i = 0; i < types.length; i++) {
+      inProgressCntsByType.set(i, new AtomicInteger());
+    }
+    AtomicInteger inProgressCnt = new AtomicInteger();
+    AtomicReference<String> failure = new AtomicReference<>();
+    int threadsCount = 8;
+    ExecutorService executorService = Executors.newFixedThreadPool(threadsCount);
+    CountDownLatch latch = new CountDownLatch(threadsCount);
+    for (int t = 0; t < threadsCount; t++) {
+      int typeIdx = t % types.length;
+      executorService.submit(() -> {
+        try {
+          for (int i = 0; i < 2_000; i++) {
+            if (policy.bookSpaceForTask(tasks[typeIdx])) {
+              if (inProgressCntsByType.get(typeIdx).incrementAndGet() > 3) {
+                failure.set("Type limit exceeded.");
+              }
+              if (inProgressCnt.incrementAndGet() > 8) {
+                failure.set("Node limit exceeded.");
+              }
+              inProgressCnt.decrementAndGet();
+              inProgressCntsByType.get(typeIdx).decrementAndGet();
+              policy.freeSpaceForTask(tasks[typeIdx]);
+            }
+          }
+        } catch (Throwable e) {
+          failure.set(e.toString());
+        } finally {
+          latch.countDown();
+        }
+      });
+    }
+    assertTrue(latch.await(60, TimeUnit.SECONDS));
+    executorService.shutdown();
+
+    assertThat(failure.get()).isNull();
+    for (IBaseTask task : tasks) {
+      assertTrue(policy.hasSpaceForTask(task));
+    }
+  }
+}
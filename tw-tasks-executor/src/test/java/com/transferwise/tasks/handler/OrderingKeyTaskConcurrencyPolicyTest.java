@@ -0,0 +1,134 @@
+package com.transferwise.tasks.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.domain.IBaseTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.junit.jupiter.api.Test;
+
+class OrderingKeyTaskConcurrencyPolicyTest {
+
+  @Test
+  void tasksWithTheSameKeyAreProcessedOneAtATime() {
+    OrderingKeyTaskConcurrencyPolicy policy = new OrderingKeyTaskConcurrencyPolicy();
+    IBaseTask task0 = task("profile-1");
+    IBaseTask task1 = task("profile-1");
+    final IBaseTask otherTask = task("profile-2");
+
+    assertTrue(policy.bookSpaceForTask(task0));
+    assertTrue(policy.isOrderingKeyBusy(task1));
+    assertFalse(policy.hasSpaceForTask(task1));
+    assertFalse(policy.bookSpaceForTask(task1));
+
+    assertFalse(policy.isOrderingKeyBusy(otherTask));
+    assertTrue(policy.bookSpaceForTask(otherTask));
+    assertEquals(2, policy.getLockedKeysCount());
+
+    policy.freeSpaceForTask(task0);
+    assertFalse(policy.isOrderingKeyBusy(task1));
+    assertTrue(policy.bookSpaceForTask(task1));
+  }
+
+  @Test
+  void tasksWithoutKeyAreNotSerialized() {
+    OrderingKeyTaskConcurrencyPolicy policy = new OrderingKeyTaskConcurrencyPolicy();
+    IBaseTask task = task(null);
+
+    assertTrue(policy.bookSpaceForTask(task));
+    assertTrue(policy.bookSpaceForTask(task));
+    assertFalse(policy.isOrderingKeyBusy(task));
+    assertEquals(0, policy.getLockedKeysCount());
+
+    policy.freeSpaceForTask(task);
+    policy.freeSpaceForTask(task);
+  }
+
+  @Test
+  void delegateBookingIsRolledBackWhenKeyIsBusy() {
+    SimpleTaskConcurrencyPolicy delegate = new SimpleTaskConcurrencyPolicy(2);
+    OrderingKeyTaskConcurrencyPolicy policy = new OrderingKeyTaskConcurrencyPolicy(delegate);
+
+    assertTrue(policy.bookSpaceForTask(task("a")));
+    for (int i = 0; i < 5; i++) {
+      assertFalse(policy.bookSpaceForTask(task("a")));
+    }
+    assertEquals(1, delegate.inProgressCnt.get());
+
+    assertTrue(policy.bookSpaceForTask(task("b")));
+    assertFalse(policy.bookSpaceForTask(task("c")));
+    assertEquals(2, policy.getLockedKeysCount());
+
+    policy.freeSpaceForTask(task("a"));
+    policy.freeSpaceForTask(task("b"));
+    assertEquals(0, delegate.inProgressCnt.get());
+    assertEquals(0, policy.getLockedKeysCount());
+  }
+
+  @Test
+  void freeingNotLockedKeyIsDetected() {
+    OrderingKeyTaskConcurrencyPolicy policy = new OrderingKeyTaskConcurrencyPolicy();
+
+    assertThrows(IllegalStateException.class, () -> policy.freeSpaceForTask(task("a")));
+  }
+
+  @Test
+  void sameKeyIsNeverProcessedConcurrently() throws Exception {
+    int keysCount = 8;
+    IBaseTask[] tasks = new IBaseTask[keysCount];
+    AtomicReferenceArray<AtomicInteger> inProgressCntsByKey = new AtomicReferenceArray<>(keysCount);
+    for (int i = 0; i < keysCount; i++) {
+      tasks[i] = task("key-" + i);
+      inProgressCntsByKey.set(i, new AtomicInteger());
+    }
+    OrderingKeyTaskConcurrencyPolicy policy = new OrderingKeyTaskConcurrencyPolicy(new SimpleTaskConcurrencyPolicy(6), 4);
+
+    AtomicInteger bookingsCnt = new AtomicInteger();
+    AtomicReference<String> failure = new AtomicReference<>();
+    int threadsCount = 8;
+    ExecutorService executorService = Executors.newFixedThreadPool(threadsCount);
+    CountDownLatch latch = new CountDownLatch(threadsCount);
+    for (int t = 0; t < threadsCount; t++) {
+      int firstKeyIdx = t;
+      executorService.submit(() -> {
+        try {
+          for (int i = 0; i < 2_000; i++) {
+            int keyIdx = (firstKeyIdx + i) % keysCount;
+            if (policy.bookSpaceForTask(tasks[keyIdx])) {
+              if (inProgressCntsByKey.get(keyIdx).incrementAndGet() > 1) {
+                failure.set("Key processed concurrently.");
+              }
+              bookingsCnt.incrementAndGet();
+              inProgressCntsByKey.get(keyIdx).decrementAndGet();
+              policy.freeSpaceForTask(tasks[keyIdx]);
+            }
+          }
+        } catch (Throwable e) {
+          failure.set(e.toString());
+        } finally {
+          latch.countDown();
+        }
+      });
+    }
+    assertTrue(latch.await(60, TimeUnit.SECONDS));
+    executorService.shutdown();
+
+    assertThat(failure.get()).isNull();
+    assertThat(bookingsCnt.get()).isGreaterThan(0);
+    assertEquals(0, policy.getLockedKeysCount());
+  }
+
+  private static IBaseTask task(String orderingKey) {
+    return new BaseTask().setType("test").setOrderingKey(orderingKey);
+  }
+}
@@ -0,0 +1,111 @@
+package com.transferwise.tasks.handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.transferwise.common.baseutils.clock.TestClock;
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.domain.IBaseTask;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTaskConcurrencyPolicyTest extends BaseTest {
+
+  private static final IBaseTask TASK_A = new BaseTask().setType("A");
+  private static final IBaseTask TASK_B = new BaseTask().setType("B");
+
+  private TestClock testClock;
+
+  @BeforeEach
+  void setup() {
+    testClock = TestClock.createAndRegister();
+  }
+
+  @Test
+  void taskStartsAreLimitedPerType() {
+    TokenBucketTaskConcurrencyPolicy policy = new TokenBucketTaskConcurrencyPolicy(10).setBurstSize(3);
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(policy.bookSpaceForTask(TASK_A));
+    }
+    assertFalse(policy.bookSpaceForTask(TASK_A));
+    assertFalse(policy.hasSpaceForTask(TASK_A));
+    assertEquals(testClock.millis() + 100, policy.getSpaceAvailableTimeMs(TASK_A));
+
+    // Other types have their own buckets.
+    assertTrue(policy.bookSpaceForTask(TASK_B));
+
+    testClock.tick(Duration.ofMillis(99));
+    assertFalse(policy.bookSpaceForTask(TASK_A));
+    testClock.tick(Duration.ofMillis(1));
+    assertTrue(policy.hasSpaceForTask(TASK_A));
+    assertTrue(policy.bookSpaceForTask(TASK_A));
+    assertFalse(policy.bookSpaceForTask(TASK_A));
+
+    // Tokens are not accumulated over the burst size.
+    testClock.tick(Duration.ofSeconds(10));
+    for (int i = 0; i < 3; i++) {
+      assertTrue(policy.bookSpaceForTask(TASK_A));
+    }
+    assertFalse(policy.bookSpaceForTask(TASK_A));
+  }
+
+  @Test
+  void spaceAvailableTimeAppliesToTheRateLimitKey() {
+    TokenBucketTaskConcurrencyPolicy policy = new TokenBucketTaskConcurrencyPolicy(10).setKeyFunction(task -> "PARTNER");
+
+    assertTrue(policy.bookSpaceForTask(TASK_A));
+    assertFalse(policy.bookSpaceForTask(TASK_B));
+    assertEquals("PARTNER", policy.getSpaceAvailableKey(TASK_B));
+    assertEquals(testClock.millis() + 100, policy.getSpaceAvailableTimeMs(TASK_B));
+  }
+
+  @Test
+  void delegateLimitsConcurrency() {
+    SimpleTaskConcurrencyPolicy delegate = new SimpleTaskConcurrencyPolicy(1);
+    TokenBucketTaskConcurrencyPolicy policy = new TokenBucketTaskConcurrencyPolicy(1000, delegate).setBurstSize(10);
+
+    assertTrue(policy.bookSpaceForTask(TASK_A));
+    assertFalse(policy.bookSpaceForTask(TASK_A));
+    // Space depends on the running task finishing.
+    assertEquals(-1, policy.getSpaceAvailableTimeMs(TASK_A));
+
+    policy.freeSpaceForTask(TASK_A);
+    assertTrue(policy.bookSpaceForTask(TASK_A));
+  }
+
+  @Test
+  void concurrentBookingsDoNotExceedTheBurst() throws Exception {
+    TokenBucketTaskConcurrencyPolicy policy = new TokenBucketTaskConcurrencyPolicy(1).setBurstSize(100);
+    AtomicInteger bookedCount = new AtomicInteger();
+    ExecutorService executorService = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executorService.submit(() -> {
+          for (int i = 0; i < 10_000; i++) {
+            if (policy.bookSpaceForTask(TASK_A)) {
+              bookedCount.incrementAndGet();
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executorService.shutdown();
+    }
+
+    assertEquals(100, bookedCount.get());
+  }
+}
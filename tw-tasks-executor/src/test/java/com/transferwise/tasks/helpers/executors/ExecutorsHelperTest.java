@@ -0,0 +1,161 @@
+package com.transferwise.tasks.helpers.executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.transferwise.tasks.BaseTest;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+@Slf4j
+class ExecutorsHelperTest extends BaseTest {
+
+  private final ExecutorsHelper executorsHelper = new ExecutorsHelper();
+
+  @Test
+  void virtualThreadExecutorCanNotBeCreatedWithoutSupport() {
+    assumeFalse(executorsHelper.isVirtualThreadsSupported());
+
+    assertThrows(IllegalStateException.class, () -> executorsHelper.newVirtualThreadPerTaskExecutor("test"));
+  }
+
+  @Test
+  void virtualThreadsCanBeInterrupted() throws Exception {
+    assumeTrue(executorsHelper.isVirtualThreadsSupported());
+
+    ExecutorService executor = executorsHelper.newVirtualThreadPerTaskExecutor("test");
+    AtomicReference<Thread> threadRef = new AtomicReference<>();
+    CountDownLatch started = new CountDownLatch(1);
+    final Future<Boolean> interrupted = executor.submit(() -> {
+      threadRef.set(Thread.currentThread());
+      started.countDown();
+      try {
+        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        return false;
+      } catch (InterruptedException e) {
+        return true;
+      }
+    });
+
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(threadRef.get()));
+    assertTrue(threadRef.get().getName().startsWith("g-test-vt-"));
+    threadRef.get().interrupt();
+    assertTrue(interrupted.get(10, TimeUnit.SECONDS));
+    executor.shutdown();
+  }
+
+  /**
+   * Compares running many blocking, I/O-bound-like, processors on platform and virtual threads.
+   *
+   * <p>Context switches are read from /proc, so are only available on Linux. Those are summed over live threads, before the blocked tasks are
+   * released, so are only approximate.
+   */
+  @Test
+  void blockingTasksNeedFarLessThreadsOnVirtualThreads() throws Exception {
+    assumeTrue(executorsHelper.isVirtualThreadsSupported());
+
+    int tasksCount = 2000;
+    LoadResult platformResult = runBlockingTasks(executorsHelper.newCachedExecutor("platform"), tasksCount);
+    LoadResult virtualResult = runBlockingTasks(executorsHelper.newVirtualThreadPerTaskExecutor("virtual"), tasksCount);
+
+    log.info("Platform threads: {}", platformResult);
+    log.info("Virtual threads: {}", virtualResult);
+
+    assertEquals(tasksCount, platformResult.getCompletedCount());
+    assertEquals(tasksCount, virtualResult.getCompletedCount());
+    assertTrue(virtualResult.getPeakThreadsCount() * 4 < platformResult.getPeakThreadsCount());
+  }
+
+  private LoadResult runBlockingTasks(ExecutorService executor, int tasksCount) throws Exception {
+    ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+    threadMxBean.resetPeakThreadCount();
+    System.gc();
+    long usedMemoryBefore = usedMemory();
+    final long contextSwitchesBefore = contextSwitches();
+    final long startTimeMs = System.currentTimeMillis();
+
+    AtomicInteger completedCount = new AtomicInteger();
+    CountDownLatch allStarted = new CountDownLatch(tasksCount);
+    CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < tasksCount; i++) {
+      executor.submit(() -> {
+        allStarted.countDown();
+        try {
+          release.await();
+          completedCount.incrementAndGet();
+        } catch (InterruptedException ignored) {
+          // Will fail on the count.
+        }
+      });
+    }
+    assertTrue(allStarted.await(60, TimeUnit.SECONDS));
+    final long usedMemoryDuringLoad = usedMemory() - usedMemoryBefore;
+    final long contextSwitchesDuringLoad = contextSwitchesBefore < 0 ? -1 : Math.max(0, contextSwitches() - contextSwitchesBefore);
+    release.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+    return new LoadResult()
+        .setCompletedCount(completedCount.get())
+        .setPeakThreadsCount(threadMxBean.getPeakThreadCount())
+        .setUsedMemoryMb(usedMemoryDuringLoad / 1024 / 1024)
+        .setContextSwitches(contextSwitchesDuringLoad)
+        .setDurationMs(System.currentTimeMillis() - startTimeMs);
+  }
+
+  private long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  @SneakyThrows
+  private long contextSwitches() {
+    Path tasksDir = Paths.get("/proc/self/task");
+    if (!Files.isDirectory(tasksDir)) {
+      return -1;
+    }
+    long contextSwitches = 0;
+    try (DirectoryStream<Path> tasks = Files.newDirectoryStream(tasksDir)) {
+      for (Path task : tasks) {
+        try {
+          contextSwitches += Files.readAllLines(task.resolve("status")).stream().filter(l -> l.contains("ctxt_switches"))
+              .mapToLong(l -> Long.parseLong(l.substring(l.indexOf(':') + 1).trim())).sum();
+        } catch (IOException ignored) {
+          // Thread has ended meanwhile.
+        }
+      }
+    }
+    return contextSwitches;
+  }
+
+  @Data
+  @Accessors(chain = true)
+  private static class LoadResult {
+
+    private int completedCount;
+    private int peakThreadsCount;
+    private long usedMemoryMb;
+    private long contextSwitches;
+    private long durationMs;
+  }
+}
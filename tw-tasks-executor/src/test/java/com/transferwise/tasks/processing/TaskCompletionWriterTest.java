@@ -0,0 +1,118 @@
+package com.transferwise.tasks.processing;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.dao.ITaskDao.TaskStateChange;
+import com.transferwise.tasks.domain.TaskStatus;
+import com.transferwise.tasks.helpers.IMeterHelper;
+import com.transferwise.tasks.helpers.executors.IExecutorsHelper;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+
+class TaskCompletionWriterTest extends BaseTest {
+
+  @Spy
+  private TasksProperties tasksProperties = new TasksProperties();
+
+  @Mock
+  private ITaskDao taskDao;
+
+  @Mock
+  private IExecutorsHelper executorsHelper;
+
+  @Mock
+  private IMeterHelper meterHelper;
+
+  @InjectMocks
+  private TaskCompletionWriter writer;
+
+  private ExecutorService executorService = Executors.newCachedThreadPool();
+
+  @BeforeEach
+  void setup() {
+    tasksProperties.setAsyncTaskCompletion(true);
+    tasksProperties.setAsyncTaskCompletionsBatchSize(5);
+    tasksProperties.setAsyncTaskCompletionsMaxDelay(Duration.ofSeconds(5));
+    tasksProperties.setGenericMediumDelay(Duration.ofMillis(10));
+    when(executorsHelper.newCachedExecutor(any())).thenReturn(executorService);
+  }
+
+  @AfterEach
+  void cleanup() {
+    writer.prepareForShutdown();
+    await().until(() -> writer.canShutdown());
+    executorService.shutdownNow();
+  }
+
+  @Test
+  void stateChangesAreWrittenInBatches() {
+    when(taskDao.changeStates(anyList())).thenAnswer(invocation -> Collections.nCopies(((List<?>) invocation.getArgument(0)).size(), true));
+    writer.init();
+
+    AtomicInteger succeededCount = new AtomicInteger();
+    for (int i = 0; i < 10; i++) {
+      writer.write(stateChange(), succeeded -> {
+        if (succeeded) {
+          succeededCount.incrementAndGet();
+        }
+      });
+    }
+
+    await().until(() -> succeededCount.get() == 10);
+    verify(taskDao, times(2)).changeStates(argThat(changes -> changes.size() == 5));
+    assertTrue(writer.canShutdown());
+  }
+
+  @Test
+  void stateChangesAreWrittenOneByOneWhenBatchFails() {
+    when(taskDao.changeStates(argThat(changes -> changes != null && changes.size() > 1))).thenThrow(new IllegalStateException("Deadlock"));
+    when(taskDao.changeStates(argThat(changes -> changes != null && changes.size() == 1)))
+        .thenReturn(Collections.singletonList(true))
+        .thenReturn(Collections.singletonList(false))
+        .thenReturn(Collections.singletonList(true));
+    tasksProperties.setAsyncTaskCompletionsBatchSize(3);
+    writer.init();
+
+    AtomicInteger succeededCount = new AtomicInteger();
+    AtomicInteger failedCount = new AtomicInteger();
+    for (int i = 0; i < 3; i++) {
+      writer.write(stateChange(), succeeded -> {
+        if (succeeded) {
+          succeededCount.incrementAndGet();
+        } else {
+          failedCount.incrementAndGet();
+        }
+      });
+    }
+
+    await().until(() -> succeededCount.get() + failedCount.get() == 3);
+    assertEquals(2, succeededCount.get());
+    assertEquals(1, failedCount.get());
+  }
+
+  private TaskStateChange stateChange() {
+    return new TaskStateChange().setTaskId(UUID.randomUUID()).setVersion(1).setType(TaskStateChange.Type.SET_STATUS).setStatus(TaskStatus.DONE);
+  }
+}
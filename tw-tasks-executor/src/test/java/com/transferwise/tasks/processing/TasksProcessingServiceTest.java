@@ -0,0 +1,604 @@
+package com.transferwise.tasks.processing;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.transferwise.common.baseutils.clock.ClockHolder;
+import com.transferwise.common.baseutils.clock.TestClock;
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.PriorityManager;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.buckets.BucketProperties;
+import com.transferwise.tasks.buckets.IBucketsManager;
+import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.domain.Task;
+import com.transferwise.tasks.handler.ClusterWideTaskConcurrencyPolicy;
+import com.transferwise.tasks.handler.OrderingKeyTaskConcurrencyPolicy;
+import com.transferwise.tasks.handler.SimpleTaskConcurrencyPolicy;
+import com.transferwise.tasks.handler.SimpleTaskProcessingPolicy;
+import com.transferwise.tasks.handler.interfaces.ITaskConcurrencyPolicy;
+import com.transferwise.tasks.handler.interfaces.ITaskHandler;
+import com.transferwise.tasks.helpers.NoOpMeterHelper;
+import com.transferwise.tasks.helpers.executors.ExecutorsHelper;
+import com.transferwise.tasks.processing.ITasksProcessingService.AddTaskForProcessingResponse.ResultCode;
+import com.transferwise.tasks.processing.TasksProcessingService.BucketExecutors;
+import com.transferwise.tasks.processing.TasksProcessingService.ProcessTaskResponse;
+import com.transferwise.tasks.processing.TasksProcessingService.TaskGrabbing;
+import com.transferwise.tasks.triggering.TaskTriggering;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class TasksProcessingServiceTest extends BaseTest {
+
+  private final Map<String, Integer> freeSlotsByType = new HashMap<>();
+  private final Map<String, Integer> weightsByType = new HashMap<>();
+  /**
+   * Free slots shared by all types, like when several types are handled with one concurrency policy. No limit when null.
+   */
+  private final Integer[] sharedFreeSlotsRef = new Integer[1];
+  private final Map<String, Long> throttledUntilMsByType = new HashMap<>();
+  private final Map<String, String> throttlingKeysByType = new HashMap<>();
+  private final Map<String, Integer> grabAttemptsByType = new HashMap<>();
+  private final List<BaseTask> grabbedTasks = new ArrayList<>();
+  private final List<TaskTriggering> finishedTriggerings = new ArrayList<>();
+  private final OrderingKeyTaskConcurrencyPolicy orderingKeyPolicy = new OrderingKeyTaskConcurrencyPolicy();
+  private final Map<String, ITaskConcurrencyPolicy> concurrencyPoliciesByType = new HashMap<>();
+  private TasksProcessingService service;
+  private GlobalProcessingState.Bucket bucket;
+
+  @BeforeEach
+  void setup() {
+    service = new TasksProcessingService() {
+      @Override
+      protected ProcessTaskResponse grabTaskForProcessing(String bucketId, BaseTask task) {
+        grabAttemptsByType.merge(task.getType(), 1, Integer::sum);
+        if (task.getOrderingKey() != null) {
+          if (!orderingKeyPolicy.bookSpaceForTask(task)) {
+            return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.NO_SPACE).setConcurrencyPolicy(orderingKeyPolicy);
+          }
+          grabbedTasks.add(task);
+          return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.OK).setSpaceBooked(true);
+        }
+        ITaskConcurrencyPolicy concurrencyPolicy = concurrencyPoliciesByType.get(task.getType());
+        if (concurrencyPolicy != null) {
+          if (!concurrencyPolicy.bookSpaceForTask(task)) {
+            return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.NO_SPACE).setConcurrencyPolicy(concurrencyPolicy)
+                .setSpaceAvailableTimeMs(concurrencyPolicy.getSpaceAvailableTimeMs(task));
+          }
+          grabbedTasks.add(task);
+          return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.OK).setSpaceBooked(true);
+        }
+        Long throttledUntilMs = throttledUntilMsByType.get(task.getType());
+        if (throttledUntilMs != null && throttledUntilMs > ClockHolder.getClock().millis()) {
+          return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.NO_SPACE).setSpaceAvailableTimeMs(throttledUntilMs)
+              .setSpaceAvailableKey(throttlingKeysByType.get(task.getType()));
+        }
+        Integer freeSlots = freeSlotsByType.get(task.getType());
+        if (freeSlots != null) {
+          if (freeSlots == 0) {
+            return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.NO_SPACE);
+          }
+          freeSlotsByType.put(task.getType(), freeSlots - 1);
+        }
+        Integer sharedFreeSlots = sharedFreeSlotsRef[0];
+        if (sharedFreeSlots != null) {
+          if (sharedFreeSlots == 0) {
+            return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.NO_SPACE);
+          }
+          sharedFreeSlotsRef[0] = sharedFreeSlots - 1;
+        }
+        grabbedTasks.add(task);
+        return new ProcessTaskResponse().setResult(ProcessTaskResponse.Result.OK);
+      }
+
+      @Override
+      protected int getSchedulingWeight(BaseTask task) {
+        return weightsByType.getOrDefault(task.getType(), 1);
+      }
+    };
+    ReflectionTestUtils.setField(service, "tasksProperties", new TasksProperties());
+    ReflectionTestUtils.setField(service, "meterHelper", new NoOpMeterHelper());
+    service.addTaskTriggeringFinishedListener(finishedTriggerings::add);
+
+    bucket = new GlobalProcessingState.Bucket(0, 10).setBucketId("test");
+  }
+
+  @Test
+  void allTasksWithFreeSlotsAreDispatchedInOnePass() {
+    freeSlotsByType.put("B", 2);
+    addTasks(5, "A", 3);
+    addTasks(5, "B", 3);
+    addTasks(5, "C", 3);
+
+    int processedCount = service.processTasks(bucket);
+
+    assertEquals(8, processedCount);
+    assertEquals(8, finishedTriggerings.size());
+    assertEquals(Arrays.asList("A", "B", "C", "A", "B", "C", "A", "C"), types(grabbedTasks));
+    assertEquals(1, bucket.getPrioritySlot(5).getTypeTasks().get("B").getTasks().size());
+
+    assertEquals(0, service.processTasks(bucket));
+
+    freeSlotsByType.put("B", 1);
+    addTasks(5, "A", 1);
+
+    assertEquals(2, service.processTasks(bucket));
+  }
+
+  @Test
+  void higherPrioritiesAreDispatchedFirstAndTypesWithoutSpaceAreSkippedInLowerOnes() {
+    freeSlotsByType.put("B", 1);
+    addTasks(7, "A", 1);
+    addTasks(7, "B", 1);
+    addTasks(2, "B", 2);
+    addTasks(2, "C", 1);
+
+    service.processTasks(bucket);
+
+    assertEquals(3, grabbedTasks.size());
+    assertEquals(2, grabbedTasks.get(0).getPriority());
+    assertEquals("B", grabbedTasks.get(0).getType());
+    assertEquals(2, grabbedTasks.get(1).getPriority());
+    assertEquals("C", grabbedTasks.get(1).getType());
+    assertEquals(7, grabbedTasks.get(2).getPriority());
+    assertEquals("A", grabbedTasks.get(2).getType());
+  }
+
+  @Test
+  void typesShareSlotsByTheirWeights() {
+    weightsByType.put("A", 2);
+    addTasks(5, "A", 10);
+    addTasks(5, "B", 10);
+    sharedFreeSlotsRef[0] = 6;
+
+    service.processTasks(bucket);
+
+    assertEquals(Arrays.asList("A", "A", "B", "A", "A", "B"), types(grabbedTasks));
+  }
+
+  @Test
+  void alphabeticallyLaterTypesAreNotStarved() {
+    addTasks(5, "A", 100);
+    addTasks(5, "Z", 1);
+
+    for (int i = 0; i < 2; i++) {
+      sharedFreeSlotsRef[0] = 1;
+      service.processTasks(bucket);
+    }
+
+    assertEquals(Arrays.asList("A", "Z"), types(grabbedTasks));
+  }
+
+  @Test
+  void agedTriggersAreDispatchedBeforeHigherPriorityOnes() {
+    final TestClock testClock = TestClock.createAndRegister();
+    ((TasksProperties) ReflectionTestUtils.getField(service, "tasksProperties")).setTriggerAgingThreshold(Duration.ofMinutes(1));
+    addTasks(9, "A", 1);
+    testClock.tick(Duration.ofSeconds(30));
+    addTasks(9, "B", 1);
+    testClock.tick(Duration.ofSeconds(40));
+    addTasks(1, "C", 2);
+
+    assertEquals(70_000, service.getOldestTriggerAgeMs(bucket.getPrioritySlot(9)));
+    assertEquals(0, service.getOldestTriggerAgeMs(bucket.getPrioritySlot(1)));
+    assertEquals(0, service.getOldestTriggerAgeMs(bucket.getPrioritySlot(5)));
+
+    sharedFreeSlotsRef[0] = 2;
+    service.processTasks(bucket);
+
+    assertEquals(Arrays.asList("A", "C"), types(grabbedTasks));
+  }
+
+  @Test
+  void throttledTypesAreNotTriedUntilTheirSpaceIsAvailable() {
+    TestClock testClock = TestClock.createAndRegister();
+    throttledUntilMsByType.put("A", testClock.millis() + 1000);
+    addTasks(5, "A", 2);
+    addTasks(5, "B", 1);
+
+    assertEquals(1, service.processTasks(bucket));
+    assertEquals(Arrays.asList("B"), types(grabbedTasks));
+    assertEquals(1000, service.getThrottlingWaitTimeMs(bucket));
+
+    addTasks(5, "B", 1);
+    assertEquals(1, service.processTasks(bucket));
+    assertEquals(1, grabAttemptsByType.get("A"));
+
+    testClock.tick(Duration.ofMillis(1000));
+    assertEquals(0, service.getThrottlingWaitTimeMs(bucket));
+    assertEquals(2, service.processTasks(bucket));
+    assertEquals(-1, service.getThrottlingWaitTimeMs(bucket));
+  }
+
+  @Test
+  void bucketIsWokenUpWhenPermitsAreLeasedInBackground() {
+    ScheduledExecutorService scheduledExecutorService = mock(ScheduledExecutorService.class);
+    concurrencyPoliciesByType.put("A", new ClusterWideTaskConcurrencyPolicy((key, holderId, permits, maxPermits, nowMs, expiresAtMs) -> permits,
+        "A", 10, scheduledExecutorService));
+    addTasks(5, "A", 1);
+
+    assertEquals(0, service.processTasks(bucket));
+    long version = bucket.getVersion().get();
+    ArgumentCaptor<Runnable> leasing = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduledExecutorService).schedule(leasing.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+    leasing.getValue().run();
+
+    assertEquals(version + 1, bucket.getVersion().get());
+    assertEquals(1, service.processTasks(bucket));
+  }
+
+  @Test
+  void typesThrottledByTheSameKeyShareTheThrottlingTime() {
+    TestClock testClock = TestClock.createAndRegister();
+    throttledUntilMsByType.put("A", testClock.millis() + 500);
+    throttledUntilMsByType.put("B", testClock.millis() + 1000);
+    throttlingKeysByType.put("A", "PARTNER");
+    throttlingKeysByType.put("B", "PARTNER");
+    addTasks(5, "A", 1);
+    addTasks(5, "B", 1);
+
+    // The partner's rate limit was hit by B later, so A waits for it as well.
+    assertEquals(0, service.processTasks(bucket));
+    assertEquals(1000, service.getThrottlingWaitTimeMs(bucket));
+
+    testClock.tick(Duration.ofMillis(500));
+    assertEquals(0, service.processTasks(bucket));
+    assertEquals(1, grabAttemptsByType.get("A"));
+    assertEquals(500, service.getThrottlingWaitTimeMs(bucket));
+
+    testClock.tick(Duration.ofMillis(500));
+    assertEquals(2, service.processTasks(bucket));
+    assertEquals(-1, service.getThrottlingWaitTimeMs(bucket));
+  }
+
+  @Test
+  void triggeringsAddedConcurrentlyAreAllDispatched() throws Exception {
+    int threadsCount = 8;
+    int triggersPerThread = 1000;
+    ExecutorService executorService = Executors.newFixedThreadPool(threadsCount);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threadsCount; i++) {
+        String type = "TYPE_" + i;
+        futures.add(executorService.submit(() -> addTasks(5, type, triggersPerThread)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executorService.shutdown();
+    }
+
+    assertEquals(threadsCount * triggersPerThread, bucket.getPrioritySlot(5).getSize().get());
+    assertEquals(threadsCount * triggersPerThread, service.processTasks(bucket));
+    assertEquals(0, bucket.getPrioritySlot(5).getSize().get());
+  }
+
+  @Test
+  void versionChangeWakesUpWaitingThread() throws Exception {
+    long version = bucket.getVersion().get();
+    CountDownLatch woken = new CountDownLatch(1);
+    Thread waiter = new Thread(() -> {
+      try {
+        bucket.awaitVersionChange(version, Duration.ofMinutes(1));
+        woken.countDown();
+      } catch (InterruptedException ignored) {
+        // Test will fail on the latch.
+      }
+    });
+    waiter.start();
+
+    await().until(() -> !bucket.getVersionWaiters().isEmpty());
+    bucket.increaseVersion();
+
+    assertTrue(woken.await(10, TimeUnit.SECONDS));
+    waiter.join();
+    assertTrue(bucket.getVersionWaiters().isEmpty());
+  }
+
+  @Test
+  void bucketWithMaxThreadsGetsItsOwnBoundedExecutors() {
+    setupBucketExecutors(new BucketProperties().setTaskExecutorMaxThreads(3));
+
+    ThreadPoolExecutor taskExecutor = (ThreadPoolExecutor) service.getTaskExecutor("test");
+    assertEquals(3, taskExecutor.getMaximumPoolSize());
+    assertEquals(3, taskExecutor.getCorePoolSize());
+    assertNotSame(taskExecutor, service.getTaskExecutor("other"));
+    assertNotSame(service.getTasksGrabbingExecutor("test"), service.getTasksGrabbingExecutor("other"));
+  }
+
+  @Test
+  void taskRejectedByBucketExecutorIsRetried() throws Exception {
+    ITaskDao taskDao = setupBucketExecutors(new BucketProperties().setTaskExecutorMaxThreads(1).setTaskExecutorQueueSize(1)
+        .setTaskExecutorMaxQueueWait(Duration.ofMillis(1)));
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService taskExecutor = service.getTaskExecutor("test");
+    for (int i = 0; i < 2; i++) {
+      taskExecutor.submit(() -> {
+        release.await();
+        return null;
+      });
+    }
+    Task task = new Task().setId(UUID.randomUUID()).setType("A").setVersion(2).setProcessingTriesCount(3);
+
+    assertFalse(service.scheduleTask("test", null, null, task));
+
+    verify(taskDao).setToBeRetriedWithTriesCount(eq(task.getId()), any(), eq(2L), eq(2L));
+    release.countDown();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void restOfBatchIsPutBackAfterRejectionWithoutWaitingForExecutor() {
+    final ITaskDao taskDao = setupBucketExecutors(new BucketProperties().setTaskExecutorMaxThreads(1));
+    ExecutorService taskExecutor = mock(ExecutorService.class);
+    when(taskExecutor.submit(any(Runnable.class))).thenThrow(new RejectedExecutionException());
+    ((Map<String, BucketExecutors>) ReflectionTestUtils.getField(service, "bucketsExecutors")).get("test").setTaskExecutor(taskExecutor);
+    ITaskHandler taskHandler = mock(ITaskHandler.class);
+    when(taskHandler.getProcessingPolicy(any())).thenReturn(new SimpleTaskProcessingPolicy());
+    SimpleTaskConcurrencyPolicy concurrencyPolicy = new SimpleTaskConcurrencyPolicy(3);
+    List<TaskGrabbing> taskGrabbings = new ArrayList<>();
+    List<Task> tasksForProcessing = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      BaseTask task = new BaseTask().setId(UUID.randomUUID()).setType("A").setVersion(1);
+      assertTrue(concurrencyPolicy.bookSpaceForTask(task));
+      taskGrabbings.add(new TaskGrabbing().setTask(task).setConcurrencyPolicy(concurrencyPolicy).setTaskHandler(taskHandler));
+      tasksForProcessing.add(new Task().setId(task.getId()).setType("A").setVersion(2).setProcessingTriesCount(1));
+    }
+    when(taskDao.grabForProcessing(any(), any())).thenReturn(tasksForProcessing);
+    bucket.getSize().set(3);
+
+    service.grabTasksForProcessing0(bucket, taskGrabbings);
+
+    for (Task task : tasksForProcessing) {
+      verify(taskDao).setToBeRetriedWithTriesCount(eq(task.getId()), any(), eq(2L), eq(0L));
+    }
+    for (TaskGrabbing taskGrabbing : taskGrabbings) {
+      assertTrue(concurrencyPolicy.bookSpaceForTask(taskGrabbing.getTask()));
+    }
+    assertEquals(0, bucket.getSize().get());
+    verify(taskExecutor).submit(any(Runnable.class));
+  }
+
+  @Test
+  void bucketExecutorsAreShutDownWithTheService() {
+    setupBucketExecutors(new BucketProperties().setTaskExecutorMaxThreads(1));
+    ReflectionTestUtils.setField(service, "tasksProcessingExecutor", Executors.newSingleThreadExecutor());
+    ExecutorService taskExecutor = service.getTaskExecutor("test");
+    ExecutorService tasksGrabbingExecutor = service.getTasksGrabbingExecutor("test");
+
+    service.prepareForShutdown();
+
+    assertTrue(taskExecutor.isShutdown());
+    assertTrue(tasksGrabbingExecutor.isShutdown());
+    await().until(service::canShutdown);
+  }
+
+  @Test
+  void retriesAreRegisteredAsCongestionWithConcurrencyPolicy() {
+    GlobalProcessingState globalProcessingState = new GlobalProcessingState();
+    globalProcessingState.getBuckets().put("test", bucket);
+    ReflectionTestUtils.setField(service, "globalProcessingState", globalProcessingState);
+    ITaskConcurrencyPolicy concurrencyPolicy = mock(ITaskConcurrencyPolicy.class);
+    Task task = new Task().setId(UUID.randomUUID()).setType("A");
+    long processingStartTimeMs = ClockHolder.getClock().millis();
+
+    ReflectionTestUtils.invokeMethod(service, "taskFinished", "test", concurrencyPolicy, task, processingStartTimeMs,
+        TasksProcessingService.ProcessingResult.COMMIT_AND_RETRY);
+    ReflectionTestUtils.invokeMethod(service, "taskFinished", "test", concurrencyPolicy, task, processingStartTimeMs,
+        TasksProcessingService.ProcessingResult.SUCCESS);
+
+    InOrder inOrder = inOrder(concurrencyPolicy);
+    inOrder.verify(concurrencyPolicy).registerTaskProcessed(eq(task), anyLong(), eq(false));
+    inOrder.verify(concurrencyPolicy).registerTaskProcessed(eq(task), anyLong(), eq(true));
+  }
+
+  @Test
+  void allQueuedTriggersOfManyTypesAreDispatchedInOnePass() {
+    int typesCount = 50;
+    int triggersCount = 1_000;
+    for (int i = 0; i < triggersCount; i++) {
+      addTasks(5, "TYPE_" + (i % typesCount), 1);
+    }
+
+    assertEquals(triggersCount, service.processTasks(bucket));
+    assertEquals(triggersCount, grabbedTasks.size());
+  }
+
+  @Test
+  void triggeringsWithBusyOrderingKeyAreSetAsideAndDispatchedInOrder() {
+    GlobalProcessingState globalProcessingState = new GlobalProcessingState();
+    globalProcessingState.getBuckets().put("test", bucket);
+    PriorityManager priorityManager = new PriorityManager();
+    ReflectionTestUtils.setField(priorityManager, "tasksProperties", new TasksProperties());
+    ReflectionTestUtils.setField(service, "globalProcessingState", globalProcessingState);
+    ReflectionTestUtils.setField(service, "priorityManager", priorityManager);
+
+    BaseTask task0 = addTask(5, "A", "profile-1");
+    final BaseTask task1 = addTask(5, "A", "profile-1");
+    final BaseTask task2 = addTask(5, "A", "profile-1");
+    BaseTask otherKeyTask = addTask(5, "A", "profile-2");
+    BaseTask noKeyTask = addTask(5, "A", null);
+
+    service.processTasks(bucket);
+
+    assertEquals(Arrays.asList(task0, otherKeyTask, noKeyTask), grabbedTasks);
+    assertEquals(3, finishedTriggerings.size());
+    assertEquals(2, globalProcessingState.getOrderingKeyQueues("profile-1").get("profile-1").getTriggerings().size());
+    assertEquals(2, bucket.getSetAsideSize().get());
+
+    freeSpaceForTask(otherKeyTask);
+    service.processTasks(bucket);
+    assertEquals(3, grabbedTasks.size());
+
+    freeSpaceForTask(task0);
+    service.processTasks(bucket);
+    freeSpaceForTask(task1);
+    service.processTasks(bucket);
+
+    assertEquals(Arrays.asList(task0, otherKeyTask, noKeyTask, task1, task2), grabbedTasks);
+    assertEquals(5, finishedTriggerings.size());
+
+    freeSpaceForTask(task2);
+    assertEquals(0, globalProcessingState.getOrderingKeyQueuesCount());
+    assertEquals(0, bucket.getSetAsideSize().get());
+    assertEquals(0, orderingKeyPolicy.getLockedKeysCount());
+  }
+
+  @Test
+  void releasedTriggeringsAreQueuedAgainWithTheReleaseTime() {
+    final TestClock testClock = TestClock.createAndRegister();
+    GlobalProcessingState globalProcessingState = new GlobalProcessingState();
+    globalProcessingState.getBuckets().put("test", bucket);
+    PriorityManager priorityManager = new PriorityManager();
+    ReflectionTestUtils.setField(priorityManager, "tasksProperties", new TasksProperties());
+    ReflectionTestUtils.setField(service, "globalProcessingState", globalProcessingState);
+    ReflectionTestUtils.setField(service, "priorityManager", priorityManager);
+    final BaseTask task0 = addTask(5, "A", "profile-1");
+    final BaseTask task1 = addTask(5, "A", "profile-1");
+
+    service.processTasks(bucket);
+    testClock.tick(Duration.ofMinutes(2));
+
+    freeSpaceForTask(task0);
+
+    // The time spent set aside behind its ordering key does not count for aging.
+    TaskTriggering releasedTriggering = bucket.getPrioritySlot(5).getTypeTasks().get("A").getTasks().peek();
+    assertEquals(task1, releasedTriggering.getTask());
+    assertEquals(testClock.millis(), releasedTriggering.getQueuedTimeMs());
+    assertEquals(0, service.getOldestTriggerAgeMs(bucket.getPrioritySlot(5)));
+  }
+
+  @Test
+  void setAsideTriggeringsOfRevokedPartitionsAreRemoved() {
+    GlobalProcessingState globalProcessingState = new GlobalProcessingState();
+    globalProcessingState.getBuckets().put("test", bucket);
+    PriorityManager priorityManager = new PriorityManager();
+    ReflectionTestUtils.setField(priorityManager, "tasksProperties", new TasksProperties());
+    ReflectionTestUtils.setField(service, "globalProcessingState", globalProcessingState);
+    ReflectionTestUtils.setField(service, "priorityManager", priorityManager);
+    TopicPartition revokedPartition = new TopicPartition("topic", 0);
+
+    final BaseTask task0 = addTask(5, "A", "profile-1");
+    addTask(5, "A", "profile-1");
+    BaseTask task2 = addTask(5, "A", "profile-1");
+    bucket.getPrioritySlot(5).getTypeTasks().get("A").getTasks()
+        .forEach(taskTriggering -> taskTriggering.setTopicPartition(
+            taskTriggering.getTask() == task2 ? new TopicPartition("topic", 1) : revokedPartition));
+
+    service.processTasks(bucket);
+    assertEquals(2, bucket.getSetAsideSize().get());
+
+    service.removeSetAsideTaskTriggerings(taskTriggering -> revokedPartition.equals(taskTriggering.getTopicPartition()));
+
+    assertEquals(1, bucket.getSetAsideSize().get());
+    freeSpaceForTask(task0);
+    service.processTasks(bucket);
+    assertEquals(Arrays.asList(task0, task2), grabbedTasks);
+
+    freeSpaceForTask(task2);
+    assertEquals(0, globalProcessingState.getOrderingKeyQueuesCount());
+    assertEquals(0, bucket.getSetAsideSize().get());
+  }
+
+  @Test
+  void setAsideTriggeringsHaveTheirOwnBudget() {
+    GlobalProcessingState globalProcessingState = new GlobalProcessingState();
+    globalProcessingState.getBuckets().put("test", bucket);
+    IBucketsManager bucketsManager = mock(IBucketsManager.class);
+    when(bucketsManager.getBucketProperties("test")).thenReturn(new BucketProperties().setMaxTriggersInMemory(2));
+    PriorityManager priorityManager = new PriorityManager();
+    ReflectionTestUtils.setField(priorityManager, "tasksProperties", new TasksProperties());
+    ReflectionTestUtils.setField(service, "globalProcessingState", globalProcessingState);
+    ReflectionTestUtils.setField(service, "bucketsManager", bucketsManager);
+    ReflectionTestUtils.setField(service, "priorityManager", priorityManager);
+
+    bucket.getSetAsideSize().set(1);
+    assertEquals(ResultCode.OK, service.addTaskForProcessing(triggering("A")).getResult());
+    assertEquals(ResultCode.OK, service.addTaskForProcessing(triggering("A")).getResult());
+    assertEquals(ResultCode.FULL, service.addTaskForProcessing(triggering("A")).getResult());
+
+    bucket.getSize().set(0);
+    bucket.getSetAsideSize().set(2);
+    assertEquals(ResultCode.FULL, service.addTaskForProcessing(triggering("A")).getResult());
+  }
+
+  private TaskTriggering triggering(String type) {
+    return new TaskTriggering().setTask(new BaseTask().setId(UUID.randomUUID()).setType(type).setPriority(5)).setBucketId("test");
+  }
+
+  private ITaskDao setupBucketExecutors(BucketProperties bucketProperties) {
+    IBucketsManager bucketsManager = mock(IBucketsManager.class);
+    when(bucketsManager.getBucketProperties("test")).thenReturn(bucketProperties.setTaskExecutorMode(TasksProperties.ExecutorMode.PLATFORM_THREADS));
+    lenient().when(bucketsManager.getBucketProperties("other"))
+        .thenReturn(new BucketProperties().setTaskExecutorMode(TasksProperties.ExecutorMode.PLATFORM_THREADS));
+    GlobalProcessingState globalProcessingState = new GlobalProcessingState();
+    globalProcessingState.getBuckets().put("test", bucket);
+    ITaskDao taskDao = mock(ITaskDao.class);
+    ExecutorsHelper executorsHelper = new ExecutorsHelper();
+
+    ReflectionTestUtils.setField(service, "bucketsManager", bucketsManager);
+    ReflectionTestUtils.setField(service, "executorsHelper", executorsHelper);
+    ReflectionTestUtils.setField(service, "globalProcessingState", globalProcessingState);
+    ReflectionTestUtils.setField(service, "taskDao", taskDao);
+    ReflectionTestUtils.setField(service, "taskExecutor", executorsHelper.newCachedExecutor("taskExecutor"));
+    ReflectionTestUtils.setField(service, "tasksGrabbingExecutor", executorsHelper.newCachedExecutor("tasksGrabbing"));
+    service.registerBucketExecutors("test");
+    return taskDao;
+  }
+
+  private void addTasks(int priority, String type, int count) {
+    for (int i = 0; i < count; i++) {
+      BaseTask task = new BaseTask().setId(UUID.randomUUID()).setType(type).setPriority(priority);
+      bucket.getPrioritySlot(priority).add(new TaskTriggering().setTask(task).setBucketId(bucket.getBucketId())
+          .setQueuedTimeMs(ClockHolder.getClock().millis()));
+    }
+  }
+
+  private BaseTask addTask(int priority, String type, String orderingKey) {
+    BaseTask task = new BaseTask().setId(UUID.randomUUID()).setType(type).setPriority(priority).setOrderingKey(orderingKey);
+    bucket.getPrioritySlot(priority).add(new TaskTriggering().setTask(task).setBucketId(bucket.getBucketId())
+        .setQueuedTimeMs(ClockHolder.getClock().millis()));
+    return task;
+  }
+
+  private void freeSpaceForTask(BaseTask task) {
+    ReflectionTestUtils.invokeMethod(service, "freeSpaceForTask", orderingKeyPolicy, task);
+  }
+
+  private List<String> types(List<BaseTask> tasks) {
+    return tasks.stream().map(BaseTask::getType).collect(Collectors.toList());
+  }
+}
@@ -5,12 +5,14 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.transferwise.common.baseutils.clock.ClockHolder;
 import com.transferwise.common.baseutils.concurrency.IExecutorServicesProvider;
+import com.transferwise.common.leaderselector.Leader;
 import com.transferwise.tasks.BaseTest;
 import com.transferwise.tasks.TasksProperties;
 import com.transferwise.tasks.dao.ITaskDao;
@@ -25,8 +27,15 @@ import com.transferwise.tasks.helpers.IMeterHelper;
 import com.transferwise.tasks.triggering.ITasksExecutionTriggerer;
 import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.Collections;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 import org.apache.curator.framework.CuratorFramework;
@@ -146,6 +155,33 @@ class TasksResumerTest extends BaseTest {
     assertEquals(failed, numFailed.get());
   }
 
+  @Test
+  void waitingTasksAreResumedEarlierWhenNotifiedAboutEarlierTask() throws Exception {
+    when(tasksProperties.getWaitingTasksMaxPollingInterval()).thenReturn(Duration.ofHours(1));
+    when(tasksProperties.getGenericMediumDelay()).thenReturn(Duration.ofSeconds(5));
+    when(taskDao.getEarliestTaskNextEventTime(TaskStatus.WAITING)).thenReturn(now.plusMinutes(30));
+    when(taskDao.getStuckTasks(any(ITaskDao.GetStuckTasksRequest.class)))
+        .thenReturn(new ITaskDao.GetStuckTasksResponse().setStuckTasks(Collections.emptyList()));
+    AtomicBoolean stopped = new AtomicBoolean();
+    Leader.Control control = Mockito.mock(Leader.Control.class);
+    when(control.shouldStop()).thenAnswer(invocation -> stopped.get());
+
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      final Future<?> future = executorService.submit(() -> service.resumeWaitingTasksWhenDue(control));
+      verify(taskDao, timeout(5000).times(1)).getStuckTasks(any(ITaskDao.GetStuckTasksRequest.class));
+
+      service.wakeUpWaitingTasksResuming(now.toInstant());
+      verify(taskDao, timeout(5000).times(2)).getStuckTasks(any(ITaskDao.GetStuckTasksRequest.class));
+
+      stopped.set(true);
+      service.wakeUpWaitingTasksResuming(Instant.EPOCH);
+      future.get(5, TimeUnit.SECONDS);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
   private static Stream<Arguments> resolutionCasesForHandleStuckTransfers() {
     return Stream.of(
         Arguments.of(1, 0, 0, StuckTaskResolutionStrategy.RETRY),
@@ -21,6 +21,7 @@ import com.transferwise.tasks.triggering.KafkaTasksExecutionTriggerer;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -114,6 +115,46 @@ public class TaskProcessingIntTest extends BaseIntTest {
     assertEquals(ITasksService.TasksProcessingState.STARTED, tasksService.getTasksProcessingState(null));
   }
 
+  @Test
+  void tasksAddedInBatchWillGetProcessed() {
+    final int initialDuplicatesCount = counterSum("twTasks.tasks.duplicatesCount");
+    final int tasksCount = 100;
+
+    testTaskHandlerAdapter.setProcessor(resultRegisteringSyncTaskProcessor);
+
+    List<ITasksService.AddTaskRequest> requests = new ArrayList<>();
+    for (int i = 0; i < tasksCount; i++) {
+      requests.add(new ITasksService.AddTaskRequest().setDataString("Hello World! " + i).setType("test").setKey("batch" + i));
+    }
+    requests.add(new ITasksService.AddTaskRequest().setDataString("Hello World! 0").setType("test").setKey("batch0"));
+
+    List<ITasksService.AddTaskResponse> responses = tasksService.addTasks(requests);
+
+    assertEquals(tasksCount + 1, responses.size());
+    assertEquals(tasksCount, responses.stream().filter(r -> r.getResult() == ITasksService.AddTaskResponse.Result.OK).count());
+    assertEquals(ITasksService.AddTaskResponse.Result.ALREADY_EXISTS, responses.get(tasksCount).getResult());
+
+    await().until(() -> resultRegisteringSyncTaskProcessor.getTaskResults().size() == tasksCount);
+    assertEquals(initialDuplicatesCount + 1, counterSum("twTasks.tasks.duplicatesCount"));
+  }
+
+  @Test
+  void tasksWillGetProcessedWhenGrabbedInBatches() {
+    final int tasksCount = 23;
+
+    testTaskHandlerAdapter.setProcessor(resultRegisteringSyncTaskProcessor);
+    testTaskHandlerAdapter.setProcessingPolicy(new SimpleTaskProcessingPolicy().setProcessingBucket("batchedGrabbing"));
+
+    List<ITasksService.AddTaskRequest> requests = new ArrayList<>();
+    for (int i = 0; i < tasksCount; i++) {
+      requests.add(new ITasksService.AddTaskRequest().setDataString("Hello World! " + i).setType("test"));
+    }
+    tasksService.addTasks(requests);
+
+    await().until(() -> resultRegisteringSyncTaskProcessor.getTaskResults().size() == tasksCount);
+    await().until(() -> taskDao.getTasksCountInStatus(tasksCount + 1, TaskStatus.DONE) == tasksCount);
+  }
+
   @Test
   void taskRunningForTooLongWillBeHandled() throws Exception {
     final long initialMarkedAsErrors = getCountOfMarkedAsErrorTasks();
@@ -0,0 +1,78 @@
+package com.transferwise.tasks.testapp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.transferwise.tasks.BaseIntTest;
+import com.transferwise.tasks.handler.ZookeeperPermitLeaseStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+class ZookeeperPermitLeaseStoreIntTest extends BaseIntTest {
+
+  private static final long NOW_MS = 1_000_000;
+  private static final long EXPIRES_AT_MS = NOW_MS + 30_000;
+
+  @Autowired
+  private CuratorFramework curatorFramework;
+
+  private String groupId;
+  private ZookeeperPermitLeaseStore permitLeaseStore;
+
+  @BeforeEach
+  void setup() {
+    groupId = "permitLeases" + UUID.randomUUID();
+    permitLeaseStore = new ZookeeperPermitLeaseStore(curatorFramework, groupId);
+  }
+
+  @Test
+  void leasesOfAllHoldersAreLimited() {
+    assertEquals(6, permitLeaseStore.lease("PAYOUT", "node1", 6, 10, NOW_MS, EXPIRES_AT_MS));
+    assertEquals(4, permitLeaseStore.lease("PAYOUT", "node2", 6, 10, NOW_MS, EXPIRES_AT_MS));
+    assertEquals(0, permitLeaseStore.lease("PAYOUT", "node3", 1, 10, NOW_MS, EXPIRES_AT_MS));
+
+    assertEquals(2, permitLeaseStore.lease("PAYOUT", "node1", 2, 10, NOW_MS, EXPIRES_AT_MS));
+    assertEquals(4, permitLeaseStore.lease("PAYOUT", "node3", 4, 10, NOW_MS, EXPIRES_AT_MS));
+
+    // Expired leases are taken over.
+    assertEquals(10, permitLeaseStore.lease("PAYOUT", "node3", 10, 10, EXPIRES_AT_MS, EXPIRES_AT_MS + 30_000));
+  }
+
+  @Test
+  void concurrentLeasesDoNotExceedTheLimit() throws Exception {
+    int holdersCount = 8;
+    ExecutorService executorService = Executors.newFixedThreadPool(holdersCount);
+    List<Future<Integer>> futures = new ArrayList<>();
+    for (int i = 0; i < holdersCount; i++) {
+      String holderId = "node" + i;
+      futures.add(executorService.submit(() -> permitLeaseStore.lease("PAYOUT", holderId, 3, 10, NOW_MS, EXPIRES_AT_MS)));
+    }
+    int granted = 0;
+    for (Future<Integer> future : futures) {
+      granted += future.get(30, TimeUnit.SECONDS);
+    }
+    executorService.shutdown();
+
+    assertEquals(10, granted);
+  }
+
+  @Test
+  void keysWithSlashesAndDotsAreKeptInOneNode() throws Exception {
+    assertEquals(2, permitLeaseStore.lease("PAYOUT/PARTNER", "node1", 2, 2, NOW_MS, EXPIRES_AT_MS));
+    assertEquals(0, permitLeaseStore.lease("PAYOUT/PARTNER", "node2", 1, 2, NOW_MS, EXPIRES_AT_MS));
+    assertEquals(1, permitLeaseStore.lease("..", "node1", 1, 2, NOW_MS, EXPIRES_AT_MS));
+    assertEquals(1, permitLeaseStore.lease("PAYOUT", "node1", 1, 2, NOW_MS, EXPIRES_AT_MS));
+
+    assertThat(curatorFramework.getChildren().forPath("/tw/tw_tasks/" + groupId + "/concurrency_permits"))
+        .containsExactlyInAnyOrder("PAYOUT%2FPARTNER", "%2E%2E", "PAYOUT");
+  }
+}
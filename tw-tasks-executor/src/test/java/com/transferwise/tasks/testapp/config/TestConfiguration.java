@@ -38,10 +38,13 @@ public class TestConfiguration {
   public void init() {
     bucketsManager.registerBucketProperties("manualStart", new BucketProperties()
         .setAutoStartProcessing(false));
+    bucketsManager.registerBucketProperties("batchedGrabbing", new BucketProperties()
+        .setTaskGrabbingMaxBatchSize(5));
 
     AdminClient adminClient = AdminClient.create(kafkaConfiguration.getKafkaProperties().buildAdminProperties());
 
     List<NewTopic> newTopics = Arrays.asList(new NewTopic("twTasks.test-mysql.executeTask.manualStart", 1, (short) 1),
+        new NewTopic("twTasks.test-mysql.executeTask.batchedGrabbing", 1, (short) 1),
         new NewTopic("twTasks.test-mysql.executeTask.default", 1, (short) 1),
         new NewTopic("ToKafkaTest", 100, (short) 1),
         new NewTopic("toKafkaBatchTestTopic", 1, (short) 1),
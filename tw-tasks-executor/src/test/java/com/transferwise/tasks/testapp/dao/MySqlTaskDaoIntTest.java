@@ -1,5 +1,12 @@
 package com.transferwise.tasks.testapp.dao;
 
+import com.transferwise.tasks.dao.MySqlTaskDao;
+import javax.sql.DataSource;
+
 class MySqlTaskDaoIntTest extends TaskDaoIntTest {
 
+  @Override
+  protected MySqlTaskDao createTaskDao(DataSource dataSource) {
+    return new MySqlTaskDao(dataSource);
+  }
 }
@@ -0,0 +1,12 @@
+package com.transferwise.tasks.testapp.dao;
+
+import com.transferwise.tasks.dao.MySqlTaskDao;
+import javax.sql.DataSource;
+
+class MySqlTaskDataInSeparateTableIntTest extends TaskDataInSeparateTableIntTest {
+
+  @Override
+  protected MySqlTaskDao createTaskDao(DataSource dataSource) {
+    return new MySqlTaskDao(dataSource);
+  }
+}
@@ -0,0 +1,33 @@
+package com.transferwise.tasks.testapp.dao;
+
+import com.transferwise.tasks.dao.MySqlTaskDao;
+import com.transferwise.tasks.dao.MySqlTaskPartitionsDao;
+import javax.sql.DataSource;
+
+class MySqlTaskPartitionsDaoIntTest extends TaskPartitionsDaoIntTest {
+
+  @Override
+  protected MySqlTaskDao createTaskDao(DataSource dataSource) {
+    return new MySqlTaskDao(dataSource);
+  }
+
+  @Override
+  protected MySqlTaskPartitionsDao createTaskPartitionsDao(DataSource dataSource) {
+    return new MySqlTaskPartitionsDao(dataSource);
+  }
+
+  @Override
+  protected String[] getCreateTablesSqls() {
+    return new String[]{
+        "create table " + TASK_TABLE + " (id varbinary(16) not null, type varchar(255) not null, sub_type varchar(255) null,"
+            + " status varchar(11) not null, data longtext not null, next_event_time datetime(6) null, state_time datetime(6) not null,"
+            + " processing_client_id varchar(255) null, processing_start_time datetime(6) null, time_created datetime(6) not null,"
+            + " time_updated datetime(6) not null, processing_tries_count int not null, version int not null, priority int not null default 5,"
+            + " primary key (id, time_created)) partition by range columns(time_created) (partition pmax values less than (maxvalue))",
+        "create table " + UNIQUE_TASK_KEY_TABLE + " (task_id varbinary(16) primary key, key_hash int not null, `key` varchar(150) not null,"
+            + " unique key uidx1 (key_hash, `key`))",
+        "create table " + TASK_DATA_TABLE + " (task_id varbinary(16) primary key, data longtext not null, data_codec varchar(32) null,"
+            + " data_bin longblob null)"
+    };
+  }
+}
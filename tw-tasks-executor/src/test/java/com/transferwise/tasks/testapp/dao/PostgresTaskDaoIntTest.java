@@ -1,8 +1,15 @@
 package com.transferwise.tasks.testapp.dao;
 
+import com.transferwise.tasks.dao.MySqlTaskDao;
+import com.transferwise.tasks.dao.PostgresTaskDao;
+import javax.sql.DataSource;
 import org.springframework.test.context.ActiveProfiles;
 
 @ActiveProfiles("postgres")
 class PostgresTaskDaoIntTest extends TaskDaoIntTest {
 
+  @Override
+  protected MySqlTaskDao createTaskDao(DataSource dataSource) {
+    return new PostgresTaskDao(dataSource);
+  }
 }
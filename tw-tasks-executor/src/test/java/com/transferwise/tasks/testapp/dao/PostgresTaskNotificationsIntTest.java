@@ -0,0 +1,90 @@
+package com.transferwise.tasks.testapp.dao;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.transferwise.tasks.BaseIntTest;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.dao.PostgresTaskDao;
+import com.transferwise.tasks.dao.PostgresTaskNotificationsListener;
+import com.transferwise.tasks.dao.codecs.ITaskDataCodecRegistry;
+import com.transferwise.tasks.domain.TaskStatus;
+import com.transferwise.tasks.helpers.IErrorLoggingThrottler;
+import com.transferwise.tasks.helpers.executors.IExecutorsHelper;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@ActiveProfiles("postgres")
+class PostgresTaskNotificationsIntTest extends BaseIntTest {
+
+  @Autowired
+  private DataSource dataSource;
+  @Autowired
+  private ITaskDataCodecRegistry taskDataCodecRegistry;
+  @Autowired
+  private IExecutorsHelper executorsHelper;
+  @Autowired
+  private IErrorLoggingThrottler errorLoggingThrottler;
+
+  private PostgresTaskDao taskDao;
+  private PostgresTaskNotificationsListener listener;
+  private List<Instant> notifiedTimes = new CopyOnWriteArrayList<>();
+
+  @BeforeEach
+  void setup() {
+    TasksProperties tasksProperties = new TasksProperties();
+    tasksProperties.setWaitingTasksNotificationsEnabled(true);
+    tasksProperties.setGenericMediumDelay(Duration.ofMillis(100));
+
+    taskDao = new PostgresTaskDao(dataSource);
+    ReflectionTestUtils.setField(taskDao, "tasksProperties", tasksProperties);
+    ReflectionTestUtils.setField(taskDao, "taskDataCodecRegistry", taskDataCodecRegistry);
+    taskDao.init();
+
+    listener = new PostgresTaskNotificationsListener(dataSource);
+    ReflectionTestUtils.setField(listener, "tasksProperties", tasksProperties);
+    ReflectionTestUtils.setField(listener, "executorsHelper", executorsHelper);
+    ReflectionTestUtils.setField(listener, "errorLoggingThrottler", errorLoggingThrottler);
+    listener.addWaitingTasksScheduledListener(notifiedTimes::add);
+    listener.init();
+  }
+
+  @AfterEach
+  void cleanup() {
+    listener.prepareForShutdown();
+    await().until(() -> listener.canShutdown());
+    taskDao.deleteAllTasks();
+  }
+
+  @Test
+  void schedulingATaskNotifiesAboutItsDueTime() {
+    ZonedDateTime runAfterTime = ZonedDateTime.now().plusSeconds(30).truncatedTo(ChronoUnit.MILLIS);
+    // Listening starts asynchronously, so we keep scheduling until the listener catches up.
+    await().until(() -> {
+      taskDao.insertTask(new ITaskDao.InsertTaskRequest()
+          .setData("DATA")
+          .setTaskId(UUID.randomUUID())
+          .setRunAfterTime(runAfterTime)
+          .setMaxStuckTime(runAfterTime)
+          .setPriority(5)
+          .setStatus(TaskStatus.WAITING)
+          .setType("TEST"));
+      return !notifiedTimes.isEmpty();
+    });
+
+    assertEquals(runAfterTime.toInstant(), notifiedTimes.get(0));
+  }
+}
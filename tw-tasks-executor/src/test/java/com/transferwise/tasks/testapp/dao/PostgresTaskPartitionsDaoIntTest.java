@@ -0,0 +1,36 @@
+package com.transferwise.tasks.testapp.dao;
+
+import com.transferwise.tasks.dao.MySqlTaskDao;
+import com.transferwise.tasks.dao.MySqlTaskPartitionsDao;
+import com.transferwise.tasks.dao.PostgresTaskDao;
+import com.transferwise.tasks.dao.PostgresTaskPartitionsDao;
+import javax.sql.DataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("postgres")
+class PostgresTaskPartitionsDaoIntTest extends TaskPartitionsDaoIntTest {
+
+  @Override
+  protected MySqlTaskDao createTaskDao(DataSource dataSource) {
+    return new PostgresTaskDao(dataSource);
+  }
+
+  @Override
+  protected MySqlTaskPartitionsDao createTaskPartitionsDao(DataSource dataSource) {
+    return new PostgresTaskPartitionsDao(dataSource);
+  }
+
+  @Override
+  protected String[] getCreateTablesSqls() {
+    return new String[]{
+        "create table " + TASK_TABLE + " (id uuid not null, type text not null, sub_type text null, status text not null, data text not null,"
+            + " next_event_time timestamptz(3) null, state_time timestamptz(3) not null, processing_client_id text null,"
+            + " processing_start_time timestamptz(3) null, time_created timestamptz(3) not null, time_updated timestamptz(3) not null,"
+            + " processing_tries_count int not null, version int not null, priority int not null default 5, primary key (id, time_created))"
+            + " partition by range (time_created)",
+        "create table " + TASK_TABLE + "_pdefault partition of " + TASK_TABLE + " default",
+        "create table " + UNIQUE_TASK_KEY_TABLE + " (task_id uuid primary key, key_hash int not null, key text not null, unique (key_hash, key))",
+        "create table " + TASK_DATA_TABLE + " (task_id uuid primary key, data text not null, data_codec text null, data_bin bytea null)"
+    };
+  }
+}
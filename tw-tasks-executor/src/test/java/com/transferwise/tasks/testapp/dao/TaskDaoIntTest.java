@@ -10,12 +10,16 @@ import com.google.common.collect.ImmutableSet;
 import com.transferwise.common.baseutils.clock.ClockHolder;
 import com.transferwise.common.baseutils.clock.TestClock;
 import com.transferwise.tasks.BaseIntTest;
+import com.transferwise.tasks.TasksProperties;
 import com.transferwise.tasks.dao.ITaskDao;
 import com.transferwise.tasks.dao.ITaskDao.DaoTask1;
 import com.transferwise.tasks.dao.ITaskDao.DeleteFinishedOldTasksResult;
+import com.transferwise.tasks.dao.ITaskDao.GetStuckTasksRequest;
 import com.transferwise.tasks.dao.ITaskDao.GetStuckTasksResponse;
 import com.transferwise.tasks.dao.ITaskDao.InsertTaskResponse;
 import com.transferwise.tasks.dao.ITaskDao.StuckTask;
+import com.transferwise.tasks.dao.MySqlTaskDao;
+import com.transferwise.tasks.domain.BaseTask;
 import com.transferwise.tasks.domain.BaseTask1;
 import com.transferwise.tasks.domain.FullTaskRecord;
 import com.transferwise.tasks.domain.Task;
@@ -25,18 +29,26 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import javax.sql.DataSource;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.ReflectionTestUtils;
 
 abstract class TaskDaoIntTest extends BaseIntTest {
 
   @Autowired
   private ITaskDao taskDao;
+  @Autowired
+  private DataSource dataSource;
+
+  protected abstract MySqlTaskDao createTaskDao(DataSource dataSource);
 
   @Test
   void insertingATaskInsertsOnlyOneTaskForAGivenId() {
@@ -54,6 +66,33 @@ abstract class TaskDaoIntTest extends BaseIntTest {
     assertEquals(1, taskDao.getTasksCountInStatus(10, TaskStatus.SUBMITTED));
   }
 
+  @Test
+  void insertingTasksInBatchReportsResultForEachTask() {
+    UUID existingTaskId = UUID.randomUUID();
+    addTask(existingTaskId, TaskStatus.DONE);
+    UUID taskId = UUID.randomUUID();
+
+    List<InsertTaskResponse> results = taskDao.insertTasks(Arrays.asList(
+        insertTaskRequest(taskId, null),
+        insertTaskRequest(existingTaskId, null),
+        insertTaskRequest(null, "Hello World"),
+        insertTaskRequest(null, "Hello World"),
+        insertTaskRequest(taskId, null)
+    ));
+
+    assertEquals(5, results.size());
+    assertTrue(results.get(0).isInserted());
+    assertEquals(taskId, results.get(0).getTaskId());
+    assertFalse(results.get(1).isInserted());
+    assertTrue(results.get(2).isInserted());
+    assertNotNull(results.get(2).getTaskId());
+    assertFalse(results.get(3).isInserted());
+    assertFalse(results.get(4).isInserted());
+
+    assertEquals(2, taskDao.getTasksCountInStatus(10, TaskStatus.SUBMITTED));
+    assertEquals("DATA", taskDao.getTask(results.get(2).getTaskId(), FullTaskRecord.class).getData());
+  }
+
   @Test
   void insertingATaskWithUniqueKeyTwiceCreatesOnlyOneTask() {
     String key = "Hello World";
@@ -150,12 +189,113 @@ abstract class TaskDaoIntTest extends BaseIntTest {
     assertEquals("PROCESSING", returnedTask.getStatus());
     assertEquals(1, returnedTask.getVersion());
     assertEquals(1, returnedTask.getProcessingTriesCount());
+    assertEquals("TEST", returnedTask.getType());
+    assertEquals("SUBTYPE", returnedTask.getSubType());
+    assertEquals("DATA", returnedTask.getData());
+    assertEquals(5, returnedTask.getPriority());
 
     FullTaskRecord fullTaskRecord = taskDao.getTask(taskId, FullTaskRecord.class);
     assertEquals(processingDeadline, fullTaskRecord.getNextEventTime().toInstant());
     assertEquals(nodeId, fullTaskRecord.getProcessingClientId());
   }
 
+  @Test
+  void grabbingForProcessingInBatchReturnsOnlyGrabbedTasks() {
+    final String nodeId = "testNode";
+    final Instant processingDeadline = Instant.now().plus(Duration.ofHours(2));
+    UUID taskId1 = UUID.randomUUID();
+    UUID taskId2 = UUID.randomUUID();
+    UUID taskId3 = UUID.randomUUID();
+    addTask(taskId1, TaskStatus.SUBMITTED);
+    addTask(taskId2, TaskStatus.SUBMITTED);
+    addTask(taskId3, TaskStatus.DONE);
+    Task task1 = taskDao.getTask(taskId1, Task.class);
+    Task task2 = taskDao.getTask(taskId2, Task.class).setVersion(5);
+    Task task3 = taskDao.getTask(taskId3, Task.class);
+
+    List<Task> grabbedTasks = taskDao.grabForProcessing(Arrays.asList(
+        new ITaskDao.GrabForProcessingRequest().setTask(task1.toBaseTask()).setMaxProcessingEndTime(processingDeadline),
+        new ITaskDao.GrabForProcessingRequest().setTask(task2.toBaseTask()).setMaxProcessingEndTime(processingDeadline),
+        new ITaskDao.GrabForProcessingRequest().setTask(task3.toBaseTask()).setMaxProcessingEndTime(processingDeadline),
+        new ITaskDao.GrabForProcessingRequest().setTask(task1.toBaseTask()).setMaxProcessingEndTime(processingDeadline)
+    ), nodeId);
+
+    assertEquals(4, grabbedTasks.size());
+    assertEquals(taskId1, grabbedTasks.get(0).getId());
+    assertEquals("PROCESSING", grabbedTasks.get(0).getStatus());
+    assertEquals(1, grabbedTasks.get(0).getVersion());
+    assertEquals(1, grabbedTasks.get(0).getProcessingTriesCount());
+    assertEquals("DATA", grabbedTasks.get(0).getData());
+    assertNull(grabbedTasks.get(1));
+    assertNull(grabbedTasks.get(2));
+    assertNull(grabbedTasks.get(3));
+
+    FullTaskRecord fullTaskRecord = taskDao.getTask(taskId1, FullTaskRecord.class);
+    assertEquals(processingDeadline, fullTaskRecord.getNextEventTime().toInstant());
+    assertEquals(nodeId, fullTaskRecord.getProcessingClientId());
+    assertEquals("SUBMITTED", taskDao.getTask(taskId2, FullTaskRecord.class).getStatus());
+  }
+
+  @Test
+  void grabbingForProcessingInBatchDoesNotReturnTasksAlreadyHeldBySameClient() {
+    final String nodeId = "testNode";
+    final Instant processingDeadline = Instant.now().plus(Duration.ofHours(2));
+    UUID heldTaskId = UUID.randomUUID();
+    UUID freeTaskId = UUID.randomUUID();
+    addTask(heldTaskId, TaskStatus.SUBMITTED);
+    addTask(freeTaskId, TaskStatus.SUBMITTED);
+    BaseTask heldTask = taskDao.getTask(heldTaskId, Task.class).toBaseTask();
+    BaseTask freeTask = taskDao.getTask(freeTaskId, Task.class).toBaseTask();
+    assertNotNull(taskDao.grabForProcessing(Collections.singletonList(
+        new ITaskDao.GrabForProcessingRequest().setTask(heldTask).setMaxProcessingEndTime(processingDeadline)), nodeId).get(0));
+
+    // A duplicate trigger of the held task arrives with the version it was triggered with.
+    List<Task> grabbedTasks = taskDao.grabForProcessing(Arrays.asList(
+        new ITaskDao.GrabForProcessingRequest().setTask(heldTask).setMaxProcessingEndTime(processingDeadline),
+        new ITaskDao.GrabForProcessingRequest().setTask(freeTask).setMaxProcessingEndTime(processingDeadline)
+    ), nodeId);
+
+    assertNull(grabbedTasks.get(0));
+    assertEquals(freeTaskId, grabbedTasks.get(1).getId());
+    assertEquals(1, grabbedTasks.get(1).getVersion());
+    assertEquals(1, taskDao.getTask(heldTaskId, FullTaskRecord.class).getProcessingTriesCount());
+  }
+
+  @Test
+  void changingStatesInBatchAppliesOnlyChangesWithMatchingVersion() {
+    final UUID taskId1 = UUID.randomUUID();
+    final UUID taskId2 = UUID.randomUUID();
+    final UUID taskId3 = UUID.randomUUID();
+    final UUID taskId4 = UUID.randomUUID();
+    final ZonedDateTime retryTime = ZonedDateTime.now(ClockHolder.getClock()).plusHours(2);
+    addTask(taskId1, TaskStatus.PROCESSING);
+    addTask(taskId2, TaskStatus.PROCESSING);
+    addTask(taskId3, TaskStatus.PROCESSING);
+    addTask(taskId4, TaskStatus.PROCESSING);
+
+    List<Boolean> results = taskDao.changeStates(Arrays.asList(
+        new ITaskDao.TaskStateChange().setTaskId(taskId1).setVersion(0).setType(ITaskDao.TaskStateChange.Type.SET_STATUS)
+            .setStatus(TaskStatus.DONE),
+        new ITaskDao.TaskStateChange().setTaskId(taskId2).setVersion(0).setType(ITaskDao.TaskStateChange.Type.SET_TO_BE_RETRIED)
+            .setRetryTime(retryTime).setResetTriesCount(true),
+        new ITaskDao.TaskStateChange().setTaskId(taskId3).setVersion(0).setType(ITaskDao.TaskStateChange.Type.DELETE),
+        new ITaskDao.TaskStateChange().setTaskId(taskId4).setVersion(3).setType(ITaskDao.TaskStateChange.Type.CLEAR_PAYLOAD_AND_MARK_DONE)
+    ));
+
+    assertEquals(Arrays.asList(true, true, true, false), results);
+
+    FullTaskRecord task1 = taskDao.getTask(taskId1, FullTaskRecord.class);
+    assertEquals("DONE", task1.getStatus());
+    assertEquals(1, task1.getVersion());
+    FullTaskRecord task2 = taskDao.getTask(taskId2, FullTaskRecord.class);
+    assertEquals("WAITING", task2.getStatus());
+    assertEquals(retryTime.toInstant(), task2.getNextEventTime().toInstant());
+    assertNull(taskDao.getTask(taskId3, FullTaskRecord.class));
+    FullTaskRecord task4 = taskDao.getTask(taskId4, FullTaskRecord.class);
+    assertEquals("PROCESSING", task4.getStatus());
+    assertEquals("DATA", task4.getData());
+  }
+
   @Test
   void settingToBeRetriedResetTriesCountIfSpecified() {
     UUID taskId = UUID.randomUUID();
@@ -248,6 +388,46 @@ abstract class TaskDaoIntTest extends BaseIntTest {
     assertEquals(oldNextEventTime, fullTaskRecord.getNextEventTime());
   }
 
+  @Test
+  void getStuckTasksContinuesFromCursor() {
+    final TestClock testClock = TestClock.createAndRegister();
+    // Same next event time for all, so the cursor has to fall back to ids.
+    final List<UUID> taskIds = Arrays.asList(addRandomTask(TaskStatus.SUBMITTED).getTaskId(), addRandomTask(TaskStatus.SUBMITTED).getTaskId(),
+        addRandomTask(TaskStatus.SUBMITTED).getTaskId());
+    addRandomTask(TaskStatus.WAITING);
+    testClock.tick(Duration.ofMillis(1));
+
+    GetStuckTasksRequest request = new GetStuckTasksRequest().setBatchSize(2).setStatuses(new TaskStatus[]{TaskStatus.SUBMITTED})
+        .setMaxNextEventTime(ZonedDateTime.now(ClockHolder.getClock()));
+    GetStuckTasksResponse result = taskDao.getStuckTasks(request);
+
+    assertTrue(result.isHasMore());
+    assertEquals(2, result.getStuckTasks().size());
+    assertEquals(result.getStuckTasks().get(1).getVersionId().getId(), result.getCursor().getTaskId());
+
+    GetStuckTasksResponse result1 = taskDao.getStuckTasks(request.setAfter(result.getCursor()));
+
+    assertFalse(result1.isHasMore());
+    assertEquals(1, result1.getStuckTasks().size());
+    List<StuckTask> stuckTasks = new ArrayList<>(result.getStuckTasks());
+    stuckTasks.addAll(result1.getStuckTasks());
+    assertEquals(ImmutableSet.copyOf(taskIds), stuckTasks.stream().map(t -> t.getVersionId().getId()).collect(Collectors.toSet()));
+  }
+
+  @Test
+  void gettingStuckTasksCanBeLimitedToOneType() {
+    addRandomTask(TaskStatus.ERROR);
+    final UUID taskId = addRandomTask(TaskStatus.ERROR, 1, "XXX").getTaskId();
+    addRandomTask(TaskStatus.ERROR);
+
+    GetStuckTasksResponse result = taskDao.getStuckTasks(new GetStuckTasksRequest().setBatchSize(10)
+        .setStatuses(new TaskStatus[]{TaskStatus.ERROR}).setType("XXX"));
+
+    assertFalse(result.isHasMore());
+    assertEquals(1, result.getStuckTasks().size());
+    assertEquals(taskId, result.getStuckTasks().get(0).getVersionId().getId());
+  }
+
   @Test
   void markAsSubmittedAndSetNextEventTimePutsTheTaskInSubmittedStateAndUpdatesNextEventTime() {
     ZonedDateTime maxStuckTime = ZonedDateTime.now().plusHours(2);
@@ -299,6 +479,86 @@ abstract class TaskDaoIntTest extends BaseIntTest {
     assertEquals(maxStuckTime.toInstant(), fullTaskRecord.getNextEventTime().toInstant());
   }
 
+  @Test
+  void claimingSubmittedTasksClaimsOnlyUnclaimedTasksInPriorityOrder() {
+    UUID taskId1 = UUID.randomUUID();
+    UUID taskId2 = UUID.randomUUID();
+    UUID taskId3 = UUID.randomUUID();
+    taskDao.insertTask(insertTaskRequest(taskId1, null).setPriority(5));
+    taskDao.insertTask(insertTaskRequest(taskId2, null).setPriority(1));
+    taskDao.insertTask(insertTaskRequest(taskId3, null).setPriority(7));
+    addRandomTask(TaskStatus.WAITING);
+
+    List<BaseTask> tasks1 = taskDao.claimSubmittedTasks(2, "testNode1", Collections.emptyList());
+    List<BaseTask> tasks2 = taskDao.claimSubmittedTasks(2, "testNode2", Collections.emptyList());
+
+    assertEquals(Arrays.asList(taskId2, taskId1), tasks1.stream().map(BaseTask::getId).collect(Collectors.toList()));
+    assertEquals(1, tasks1.get(0).getVersion());
+    assertEquals(Collections.singletonList(taskId3), tasks2.stream().map(BaseTask::getId).collect(Collectors.toList()));
+    assertEquals("testNode1", taskDao.getTask(taskId1, FullTaskRecord.class).getProcessingClientId());
+    assertEquals(0, taskDao.claimSubmittedTasks(2, "testNode1", Collections.emptyList()).size());
+
+    assertNotNull(taskDao.grabForProcessing(tasks1.get(0), "testNode1", Instant.now().plusSeconds(60)));
+  }
+
+  @Test
+  void claimingSubmittedTasksSkipsExcludedTypes() {
+    UUID taskId1 = UUID.randomUUID();
+    UUID taskId2 = UUID.randomUUID();
+    taskDao.insertTask(insertTaskRequest(taskId1, null).setType("FULL_BUCKET_TYPE").setPriority(1));
+    taskDao.insertTask(insertTaskRequest(taskId2, null).setType("OTHER_TYPE").setPriority(5));
+
+    List<BaseTask> tasks = taskDao.claimSubmittedTasks(2, "testNode1", Collections.singletonList("FULL_BUCKET_TYPE"));
+
+    assertEquals(Collections.singletonList(taskId2), tasks.stream().map(BaseTask::getId).collect(Collectors.toList()));
+    assertNull(taskDao.getTask(taskId1, FullTaskRecord.class).getProcessingClientId());
+  }
+
+  @Test
+  void releasingClaimedTasksMakesThemClaimableAgain() {
+    UUID taskId1 = UUID.randomUUID();
+    UUID taskId2 = UUID.randomUUID();
+    addTask(taskId1, TaskStatus.SUBMITTED);
+    addTask(taskId2, TaskStatus.SUBMITTED);
+    List<BaseTask> tasks = taskDao.claimSubmittedTasks(2, "testNode1", Collections.emptyList());
+    taskDao.grabForProcessing(tasks.get(0), "testNode1", Instant.now().plusSeconds(60));
+
+    assertEquals(1, taskDao.releaseClaimedTasks("testNode1"));
+
+    List<BaseTask> claimedAgainTasks = taskDao.claimSubmittedTasks(2, "testNode2", Collections.emptyList());
+    assertEquals(1, claimedAgainTasks.size());
+    assertEquals(tasks.get(1).getId(), claimedAgainTasks.get(0).getId());
+    assertEquals(3, claimedAgainTasks.get(0).getVersion());
+  }
+
+  @Test
+  void markingAsSubmittedReleasesTheClaimWithDatabaseTriggering() {
+    MySqlTaskDao databaseTriggeringTaskDao = createTaskDao(dataSource);
+    TasksProperties tasksProperties = new TasksProperties();
+    tasksProperties.setTriggeringType(TasksProperties.TriggeringType.DATABASE);
+    ReflectionTestUtils.setField(databaseTriggeringTaskDao, "tasksProperties", tasksProperties);
+    databaseTriggeringTaskDao.init();
+    UUID taskId = UUID.randomUUID();
+    addTask(taskId, TaskStatus.SUBMITTED);
+    BaseTask task = databaseTriggeringTaskDao.claimSubmittedTasks(1, "testNode1", Collections.emptyList()).get(0);
+
+    assertTrue(databaseTriggeringTaskDao.markAsSubmitted(taskId, task.getVersion(), ZonedDateTime.now().plusHours(2)));
+
+    assertNull(taskDao.getTask(taskId, FullTaskRecord.class).getProcessingClientId());
+    assertEquals(1, databaseTriggeringTaskDao.claimSubmittedTasks(1, "testNode2", Collections.emptyList()).size());
+  }
+
+  @Test
+  void markingAsSubmittedKeepsTheProcessingClientIdWithKafkaTriggering() {
+    UUID taskId = UUID.randomUUID();
+    addTask(taskId, TaskStatus.SUBMITTED);
+    Task task = taskDao.grabForProcessing(taskDao.getTask(taskId, Task.class).toBaseTask(), "testNode1", Instant.now().plusSeconds(60));
+
+    assertTrue(taskDao.markAsSubmitted(taskId, task.getVersion(), ZonedDateTime.now().plusHours(2)));
+
+    assertEquals("testNode1", taskDao.getTask(taskId, FullTaskRecord.class).getProcessingClientId());
+  }
+
   @Test
   void findingTasksByTypeReturnsTheCorrectTasks() {
     String type = "MY_TYPE";
@@ -484,6 +744,22 @@ abstract class TaskDaoIntTest extends BaseIntTest {
     assertNotNull(result.getFirstDeletedTaskNextEventTime());
   }
 
+  @Test
+  void deletingOldTasksCanBeLimitedByCreationTime() {
+    TestClock clock = TestClock.createAndRegister();
+
+    addRandomTask();
+    final ZonedDateTime createdBefore = ZonedDateTime.now(clock).plusMinutes(1);
+    clock.tick(Duration.ofMinutes(2));
+    addRandomTask();
+
+    clock.tick(Duration.ofMinutes(11));
+    DeleteFinishedOldTasksResult result = taskDao.deleteOldTasks(TaskStatus.DONE, Duration.ofMinutes(10), 10, createdBefore);
+
+    assertEquals(1, result.getDeletedTasksCount());
+    assertEquals(1, taskDao.getTasksCountInStatus(10, TaskStatus.DONE));
+  }
+
   @Test
   void deletingTaskByIdDeletedTheCorrectTask() {
     String type = "MY_TYPE";
@@ -657,6 +933,18 @@ abstract class TaskDaoIntTest extends BaseIntTest {
     );
   }
 
+  private ITaskDao.InsertTaskRequest insertTaskRequest(UUID id, String key) {
+    return new ITaskDao.InsertTaskRequest()
+        .setData("DATA")
+        .setMaxStuckTime(ZonedDateTime.now(ClockHolder.getClock()))
+        .setTaskId(id)
+        .setKey(key)
+        .setPriority(5)
+        .setStatus(TaskStatus.SUBMITTED)
+        .setType("TEST")
+        .setSubType("SUBTYPE");
+  }
+
   private ITaskDao.InsertTaskResponse addRandomTask(TaskStatus taskStatus) {
     return addTask(UUID.randomUUID(), taskStatus);
   }
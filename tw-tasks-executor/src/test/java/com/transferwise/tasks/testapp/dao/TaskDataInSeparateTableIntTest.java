@@ -0,0 +1,198 @@
+package com.transferwise.tasks.testapp.dao;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.transferwise.common.baseutils.clock.ClockHolder;
+import com.transferwise.common.baseutils.clock.TestClock;
+import com.transferwise.tasks.BaseIntTest;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.dao.ITaskDao.DeleteFinishedOldTasksResult;
+import com.transferwise.tasks.dao.MySqlTaskDao;
+import com.transferwise.tasks.dao.codecs.Lz4TaskDataCodec;
+import com.transferwise.tasks.dao.codecs.RawTaskDataCodec;
+import com.transferwise.tasks.dao.codecs.TaskDataCodecRegistry;
+import com.transferwise.tasks.domain.FullTaskRecord;
+import com.transferwise.tasks.domain.Task;
+import com.transferwise.tasks.domain.TaskStatus;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+abstract class TaskDataInSeparateTableIntTest extends BaseIntTest {
+
+  @Autowired
+  private ITaskDao taskDao;
+  @Autowired
+  private DataSource dataSource;
+
+  private MySqlTaskDao separateTableTaskDao;
+
+  protected abstract MySqlTaskDao createTaskDao(DataSource dataSource);
+
+  @BeforeEach
+  void setup() {
+    TasksProperties tasksProperties = new TasksProperties();
+    tasksProperties.setTaskDataInSeparateTable(true);
+    tasksProperties.getTaskDataCodecs().put("COMPRESSED", Lz4TaskDataCodec.NAME);
+
+    TaskDataCodecRegistry taskDataCodecRegistry = new TaskDataCodecRegistry();
+    ReflectionTestUtils.setField(taskDataCodecRegistry, "tasksProperties", tasksProperties);
+    taskDataCodecRegistry.init();
+
+    separateTableTaskDao = createTaskDao(dataSource);
+    ReflectionTestUtils.setField(separateTableTaskDao, "tasksProperties", tasksProperties);
+    ReflectionTestUtils.setField(separateTableTaskDao, "taskDataCodecRegistry", taskDataCodecRegistry);
+    separateTableTaskDao.init();
+  }
+
+  @AfterEach
+  void cleanup() {
+    separateTableTaskDao.deleteAllTasks();
+  }
+
+  @Test
+  void payloadIsKeptInSeparateTable() {
+    UUID taskId = UUID.randomUUID();
+
+    assertTrue(separateTableTaskDao.insertTask(insertTaskRequest(taskId, TaskStatus.DONE)).isInserted());
+
+    assertEquals("", taskDao.getTask(taskId, FullTaskRecord.class).getData());
+    assertEquals("DATA", separateTableTaskDao.getTask(taskId, FullTaskRecord.class).getData());
+    assertEquals("DATA", separateTableTaskDao.getTask(taskId, Task.class).getData());
+    assertEquals("DATA", separateTableTaskDao.getTasks(Arrays.asList(taskId)).get(0).getData());
+    assertEquals(1, getTaskDataRowsCount());
+  }
+
+  @Test
+  void payloadIsKeptInSeparateTableWhenInsertingInBatch() {
+    UUID taskId1 = UUID.randomUUID();
+    UUID taskId2 = UUID.randomUUID();
+
+    separateTableTaskDao.insertTasks(Arrays.asList(
+        insertTaskRequest(taskId1, TaskStatus.DONE),
+        insertTaskRequest(taskId2, TaskStatus.DONE),
+        insertTaskRequest(taskId1, TaskStatus.DONE)
+    ));
+
+    assertEquals("DATA", separateTableTaskDao.getTask(taskId1, Task.class).getData());
+    assertEquals("DATA", separateTableTaskDao.getTask(taskId2, Task.class).getData());
+    assertEquals(2, getTaskDataRowsCount());
+  }
+
+  @Test
+  void grabbedTaskLoadsPayloadFromSeparateTable() {
+    final Instant processingDeadline = Instant.now().plus(Duration.ofHours(2));
+    UUID taskId1 = UUID.randomUUID();
+    UUID taskId2 = UUID.randomUUID();
+    separateTableTaskDao.insertTask(insertTaskRequest(taskId1, TaskStatus.SUBMITTED));
+    separateTableTaskDao.insertTask(insertTaskRequest(taskId2, TaskStatus.SUBMITTED));
+
+    Task task1 = separateTableTaskDao.grabForProcessing(separateTableTaskDao.getTask(taskId1, Task.class).toBaseTask(), "testNode",
+        processingDeadline);
+    List<Task> tasks2 = separateTableTaskDao.grabForProcessing(Arrays.asList(new ITaskDao.GrabForProcessingRequest()
+        .setTask(separateTableTaskDao.getTask(taskId2, Task.class).toBaseTask()).setMaxProcessingEndTime(processingDeadline)), "testNode");
+
+    assertEquals("DATA", task1.getData());
+    assertEquals("DATA", tasks2.get(0).getData());
+  }
+
+  @Test
+  void tasksWithPayloadInTaskTableKeepWorking() {
+    UUID taskId = UUID.randomUUID();
+    taskDao.insertTask(insertTaskRequest(taskId, TaskStatus.SUBMITTED));
+
+    assertEquals("DATA", separateTableTaskDao.getTask(taskId, Task.class).getData());
+    assertEquals("DATA", separateTableTaskDao.getTask(taskId, FullTaskRecord.class).getData());
+    assertEquals(0, getTaskDataRowsCount());
+  }
+
+  @Test
+  void clearingPayloadDeletesItFromSeparateTable() {
+    UUID taskId = UUID.randomUUID();
+    separateTableTaskDao.insertTask(insertTaskRequest(taskId, TaskStatus.PROCESSING));
+
+    assertTrue(separateTableTaskDao.clearPayloadAndMarkDone(taskId, 0));
+
+    FullTaskRecord task = separateTableTaskDao.getTask(taskId, FullTaskRecord.class);
+    assertEquals("DONE", task.getStatus());
+    assertEquals("", task.getData());
+    assertEquals(0, getTaskDataRowsCount());
+  }
+
+  @Test
+  void deletingOldTasksDeletesTheirPayloads() {
+    TestClock clock = TestClock.createAndRegister();
+    UUID taskId = UUID.randomUUID();
+    separateTableTaskDao.insertTask(insertTaskRequest(taskId, TaskStatus.DONE));
+
+    clock.tick(Duration.ofMinutes(11));
+    DeleteFinishedOldTasksResult result = separateTableTaskDao.deleteOldTasks(TaskStatus.DONE, Duration.ofMinutes(10), 10);
+
+    assertEquals(1, result.getDeletedTasksCount());
+    assertNull(separateTableTaskDao.getTask(taskId, FullTaskRecord.class));
+    assertEquals(0, getTaskDataRowsCount());
+  }
+
+  @Test
+  void payloadIsCompressedWithCodecConfiguredForTheTaskType() {
+    UUID taskId = UUID.randomUUID();
+    String data = StringUtils.repeat("DATA", 1000);
+    separateTableTaskDao.insertTask(insertTaskRequest(taskId, TaskStatus.SUBMITTED).setType("COMPRESSED").setData(data));
+
+    assertEquals(data, separateTableTaskDao.getTask(taskId, Task.class).getData());
+    assertEquals(data, separateTableTaskDao.getTask(taskId, FullTaskRecord.class).getData());
+    assertEquals(data, separateTableTaskDao.findTasksByTypeSubTypeAndStatus("COMPRESSED", null).get(0).getData());
+    assertEquals(Lz4TaskDataCodec.NAME, getTaskDataCodec());
+  }
+
+  @Test
+  void binaryPayloadIsStoredAsItIs() {
+    UUID taskId = UUID.randomUUID();
+    byte[] data = new byte[]{0, 1, 2, -1};
+    separateTableTaskDao.insertTasks(Arrays.asList(insertTaskRequest(taskId, TaskStatus.SUBMITTED).setData(null).setDataBytes(data)));
+
+    assertArrayEquals(data, separateTableTaskDao.getTask(taskId, Task.class).getDataBytes());
+    assertEquals(RawTaskDataCodec.NAME, getTaskDataCodec());
+  }
+
+  @Test
+  void binaryPayloadIsNotAcceptedWithoutSeparateTable() {
+    assertThrows(IllegalStateException.class, () ->
+        taskDao.insertTask(insertTaskRequest(UUID.randomUUID(), TaskStatus.SUBMITTED).setData(null).setDataBytes(new byte[]{1})));
+  }
+
+  private String getTaskDataCodec() {
+    return new JdbcTemplate(dataSource).queryForObject("select data_codec from tw_task_data", String.class);
+  }
+
+  private int getTaskDataRowsCount() {
+    return new JdbcTemplate(dataSource).queryForObject("select count(*) from tw_task_data", Integer.class);
+  }
+
+  private ITaskDao.InsertTaskRequest insertTaskRequest(UUID id, TaskStatus status) {
+    return new ITaskDao.InsertTaskRequest()
+        .setData("DATA")
+        .setMaxStuckTime(ZonedDateTime.now(ClockHolder.getClock()))
+        .setTaskId(id)
+        .setPriority(5)
+        .setStatus(status)
+        .setType("TEST")
+        .setSubType("SUBTYPE");
+  }
+}
@@ -0,0 +1,143 @@
+package com.transferwise.tasks.testapp.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.transferwise.common.baseutils.clock.ClockHolder;
+import com.transferwise.tasks.BaseIntTest;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.dao.ITaskDao.InsertTaskRequest;
+import com.transferwise.tasks.dao.ITaskPartitionsDao.TaskPartition;
+import com.transferwise.tasks.dao.MySqlTaskDao;
+import com.transferwise.tasks.dao.MySqlTaskPartitionsDao;
+import com.transferwise.tasks.dao.codecs.TaskDataCodecRegistry;
+import com.transferwise.tasks.domain.FullTaskRecord;
+import com.transferwise.tasks.domain.TaskStatus;
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Runs the partitions DDL against a partitioned copy of the task tables, as the test databases use the default changelogs.
+ */
+abstract class TaskPartitionsDaoIntTest extends BaseIntTest {
+
+  protected static final String TASK_TABLE = "tw_task_partitioned";
+  protected static final String UNIQUE_TASK_KEY_TABLE = "unique_tw_task_partitioned_key";
+  protected static final String TASK_DATA_TABLE = "tw_task_partitioned_data";
+
+  private static final ZonedDateTime DAY = ZonedDateTime.of(2026, 10, 18, 0, 0, 0, 0, ZoneOffset.UTC);
+
+  @Autowired
+  private DataSource dataSource;
+
+  private JdbcTemplate jdbcTemplate;
+  private MySqlTaskDao taskDao;
+  private MySqlTaskPartitionsDao taskPartitionsDao;
+
+  protected abstract MySqlTaskDao createTaskDao(DataSource dataSource);
+
+  protected abstract MySqlTaskPartitionsDao createTaskPartitionsDao(DataSource dataSource);
+
+  protected abstract String[] getCreateTablesSqls();
+
+  @BeforeEach
+  void setup() {
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    dropTables();
+    for (String sql : getCreateTablesSqls()) {
+      jdbcTemplate.execute(sql);
+    }
+
+    TasksProperties tasksProperties = new TasksProperties();
+    tasksProperties.setTaskTableName(TASK_TABLE);
+    tasksProperties.setUniqueTaskKeyTableName(UNIQUE_TASK_KEY_TABLE);
+    tasksProperties.setTaskDataTableName(TASK_DATA_TABLE);
+    tasksProperties.setTaskDataInSeparateTable(true);
+    tasksProperties.setTaskTablePartitioned(true);
+
+    TaskDataCodecRegistry taskDataCodecRegistry = new TaskDataCodecRegistry();
+    ReflectionTestUtils.setField(taskDataCodecRegistry, "tasksProperties", tasksProperties);
+    taskDataCodecRegistry.init();
+
+    taskDao = createTaskDao(dataSource);
+    ReflectionTestUtils.setField(taskDao, "tasksProperties", tasksProperties);
+    ReflectionTestUtils.setField(taskDao, "taskDataCodecRegistry", taskDataCodecRegistry);
+    taskDao.init();
+
+    taskPartitionsDao = createTaskPartitionsDao(dataSource);
+    ReflectionTestUtils.setField(taskPartitionsDao, "tasksProperties", tasksProperties);
+    taskPartitionsDao.init();
+  }
+
+  @AfterEach
+  void cleanup() {
+    dropTables();
+  }
+
+  @Test
+  void partitionIsSplitOffCatchAllPartitionWithItsTasks() {
+    final UUID taskId = insertTask(DAY.plusHours(12), "KEY", TaskStatus.SUBMITTED);
+
+    taskPartitionsDao.addTaskPartition(null, DAY.plusDays(1));
+    taskPartitionsDao.addTaskPartition(DAY.plusDays(1), DAY.plusDays(2));
+
+    List<TaskPartition> partitions = taskPartitionsDao.getTaskPartitions();
+    assertEquals(2, partitions.size());
+    assertEquals(DAY.plusDays(1), partitions.get(0).getCreatedBefore());
+    assertEquals(DAY.plusDays(2), partitions.get(1).getCreatedBefore());
+    assertNotNull(taskDao.getTask(taskId, FullTaskRecord.class));
+    assertTrue(taskPartitionsDao.hasUndeletableTasks(partitions.get(0), DAY.plusDays(30)));
+    assertFalse(taskPartitionsDao.hasUndeletableTasks(partitions.get(1), DAY.plusDays(30)));
+  }
+
+  @Test
+  void droppingPartitionDeletesItsTasksWithKeysAndPayloads() {
+    final UUID taskId1 = insertTask(DAY.plusHours(1), "KEY1", TaskStatus.DONE);
+    final UUID taskId2 = insertTask(DAY.plusHours(2), "KEY2", TaskStatus.DONE);
+    final UUID taskId3 = insertTask(DAY.plusHours(3), "KEY3", TaskStatus.DONE);
+    final UUID laterTaskId = insertTask(DAY.plusDays(1).plusHours(1), "KEY4", TaskStatus.DONE);
+    taskPartitionsDao.addTaskPartition(null, DAY.plusDays(1));
+    taskPartitionsDao.addTaskPartition(DAY.plusDays(1), DAY.plusDays(2));
+
+    taskPartitionsDao.dropTaskPartition(taskPartitionsDao.getTaskPartitions().get(0), 2);
+
+    assertEquals(1, taskPartitionsDao.getTaskPartitions().size());
+    assertNull(taskDao.getTask(taskId1, FullTaskRecord.class));
+    assertNull(taskDao.getTask(taskId2, FullTaskRecord.class));
+    assertNull(taskDao.getTask(taskId3, FullTaskRecord.class));
+    assertEquals("DATA", taskDao.getTask(laterTaskId, FullTaskRecord.class).getData());
+    assertEquals(1, getRowsCount(UNIQUE_TASK_KEY_TABLE));
+    assertEquals(1, getRowsCount(TASK_DATA_TABLE));
+  }
+
+  protected UUID insertTask(ZonedDateTime timeCreated, String key, TaskStatus status) {
+    ClockHolder.setClock(Clock.fixed(timeCreated.toInstant(), ZoneOffset.UTC));
+    UUID taskId = UUID.randomUUID();
+    assertTrue(taskDao.insertTask(new InsertTaskRequest().setTaskId(taskId).setKey(key).setType("TEST").setData("DATA")
+        .setStatus(status).setPriority(5).setMaxStuckTime(timeCreated.plusMinutes(30))).isInserted());
+    return taskId;
+  }
+
+  private int getRowsCount(String table) {
+    return jdbcTemplate.queryForObject("select count(*) from " + table, Integer.class);
+  }
+
+  private void dropTables() {
+    jdbcTemplate.execute("drop table if exists " + TASK_TABLE);
+    jdbcTemplate.execute("drop table if exists " + UNIQUE_TASK_KEY_TABLE);
+    jdbcTemplate.execute("drop table if exists " + TASK_DATA_TABLE);
+  }
+}
@@ -0,0 +1,95 @@
+package com.transferwise.tasks.triggering;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.transferwise.tasks.BaseTest;
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.buckets.BucketProperties;
+import com.transferwise.tasks.buckets.IBucketsManager;
+import com.transferwise.tasks.dao.ITaskDao;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.handler.SimpleTaskProcessingPolicy;
+import com.transferwise.tasks.handler.interfaces.ITaskHandler;
+import com.transferwise.tasks.handler.interfaces.ITaskHandlerRegistry;
+import com.transferwise.tasks.helpers.NoOpMeterHelper;
+import com.transferwise.tasks.processing.GlobalProcessingState;
+import com.transferwise.tasks.processing.ITasksProcessingService;
+import com.transferwise.tasks.processing.ITasksProcessingService.AddTaskForProcessingResponse;
+import com.transferwise.tasks.processing.ITasksProcessingService.AddTaskForProcessingResponse.ResultCode;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class DatabaseTasksExecutionTriggererTest extends BaseTest {
+
+  @Test
+  void fullBucketDoesNotStopClaimingForOtherBuckets() {
+    final DatabaseTasksExecutionTriggerer triggerer = new DatabaseTasksExecutionTriggerer();
+    final ITaskDao taskDao = mock(ITaskDao.class);
+    ITasksProcessingService tasksProcessingService = mock(ITasksProcessingService.class);
+    when(tasksProcessingService.addTaskForProcessing(any())).thenReturn(new AddTaskForProcessingResponse().setResult(ResultCode.OK));
+    IBucketsManager bucketsManager = mock(IBucketsManager.class);
+    when(bucketsManager.getBucketIds()).thenReturn(Arrays.asList("full", "empty"));
+    when(bucketsManager.getBucketProperties(any())).thenReturn(new BucketProperties().setMaxTriggersInMemory(2));
+    when(bucketsManager.isConfiguredBucket(any())).thenReturn(true);
+    ITaskHandler fullBucketHandler = mock(ITaskHandler.class);
+    when(fullBucketHandler.getProcessingPolicy(any())).thenReturn(new SimpleTaskProcessingPolicy().setProcessingBucket("full"));
+    ITaskHandler emptyBucketHandler = mock(ITaskHandler.class);
+    when(emptyBucketHandler.getProcessingPolicy(any())).thenReturn(new SimpleTaskProcessingPolicy().setProcessingBucket("empty"));
+    ITaskHandlerRegistry taskHandlerRegistry = mock(ITaskHandlerRegistry.class);
+    when(taskHandlerRegistry.getTaskHandler(any())).thenAnswer(invocation ->
+        "A".equals(invocation.<BaseTask>getArgument(0).getType()) ? fullBucketHandler : emptyBucketHandler);
+    GlobalProcessingState globalProcessingState = new GlobalProcessingState();
+    GlobalProcessingState.Bucket fullBucket = new GlobalProcessingState.Bucket(0, 10).setBucketId("full");
+    fullBucket.getSize().set(2);
+    globalProcessingState.getBuckets().put("full", fullBucket);
+    globalProcessingState.getBuckets().put("empty", new GlobalProcessingState.Bucket(0, 10).setBucketId("empty"));
+
+    ReflectionTestUtils.setField(triggerer, "taskDao", taskDao);
+    ReflectionTestUtils.setField(triggerer, "tasksProcessingService", tasksProcessingService);
+    TasksProperties tasksProperties = new TasksProperties();
+    tasksProperties.setClientId("node");
+    ReflectionTestUtils.setField(triggerer, "tasksProperties", tasksProperties);
+    ReflectionTestUtils.setField(triggerer, "bucketsManager", bucketsManager);
+    ReflectionTestUtils.setField(triggerer, "taskHandlerRegistry", taskHandlerRegistry);
+    ReflectionTestUtils.setField(triggerer, "globalProcessingState", globalProcessingState);
+    ReflectionTestUtils.setField(triggerer, "meterHelper", new NoOpMeterHelper());
+    ReflectionTestUtils.setField(triggerer, "executorService", mock(ExecutorService.class));
+    triggerer.startTasksProcessing("full");
+    triggerer.startTasksProcessing("empty");
+
+    BaseTask taskA = new BaseTask().setId(UUID.randomUUID()).setType("A");
+    BaseTask taskB = new BaseTask().setId(UUID.randomUUID()).setType("B");
+    when(taskDao.claimSubmittedTasks(eq(2), eq("node"), any())).thenReturn(Arrays.asList(taskA, taskB));
+
+    // The full bucket has no room, but the empty one can still take 2 tasks.
+    triggerer.claimTasks();
+
+    ArgumentCaptor<TaskTriggering> triggerings = ArgumentCaptor.forClass(TaskTriggering.class);
+    verify(tasksProcessingService).addTaskForProcessing(triggerings.capture());
+    assertEquals(taskB, triggerings.getValue().getTask());
+
+    // The type of the full bucket is now known and not claimed any more.
+    when(taskDao.claimSubmittedTasks(eq(2), eq("node"), eq(Collections.singletonList("A")))).thenReturn(Collections.emptyList());
+    assertFalse(triggerer.claimTasks());
+
+    // The task parked for the full bucket is processed, when the bucket has room again.
+    fullBucket.getSize().set(0);
+    triggerer.claimTasks();
+
+    verify(tasksProcessingService, times(2)).addTaskForProcessing(triggerings.capture());
+    assertEquals(taskA, triggerings.getValue().getTask());
+    assertEquals("full", triggerings.getValue().getBucketId());
+  }
+}
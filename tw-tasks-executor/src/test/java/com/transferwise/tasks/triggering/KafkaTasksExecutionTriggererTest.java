@@ -1,11 +1,34 @@
 package com.transferwise.tasks.triggering;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import com.transferwise.tasks.TasksProperties;
+import com.transferwise.tasks.buckets.BucketProperties;
+import com.transferwise.tasks.domain.BaseTask;
+import com.transferwise.tasks.handler.SimpleTaskConcurrencyPolicy;
+import com.transferwise.tasks.handler.SimpleTaskProcessingPolicy;
+import com.transferwise.tasks.handler.interfaces.ITaskHandler;
+import com.transferwise.tasks.helpers.NoOpMeterHelper;
+import com.transferwise.tasks.processing.GlobalProcessingState;
+import com.transferwise.tasks.processing.ITasksProcessingService;
+import com.transferwise.tasks.processing.ITasksProcessingService.AddTaskForProcessingResponse;
+import com.transferwise.tasks.processing.ITasksProcessingService.AddTaskForProcessingResponse.ResultCode;
 import com.transferwise.tasks.triggering.KafkaTasksExecutionTriggerer.ConsumerBucket;
-import com.transferwise.tasks.triggering.KafkaTasksExecutionTriggerer.ConsumerTopicPartition;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Predicate;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
 import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
 
 class KafkaTasksExecutionTriggererTest {
 
@@ -21,23 +44,149 @@ class KafkaTasksExecutionTriggererTest {
 
     // 1st message was completed
     triggerer.releaseCompletedOffset(consumerBucket, topicPartition0, 0);
-    ConsumerTopicPartition consumerTopicPartition = consumerBucket.getConsumerTopicPartitions().get(topicPartition0);
 
-    assertEquals(4, consumerTopicPartition.getOffsets().size());
+    assertEquals(4, consumerBucket.getOffsetsCount());
+    assertEquals(1, consumerBucket.getOffsetsToBeCommited().get(topicPartition0).offset());
     assertEquals(0, consumerBucket.getOffsetsCompletedCount());
 
     // 3rd message was completed
     triggerer.releaseCompletedOffset(consumerBucket, topicPartition0, 2);
 
     // can not commit 3rd offset as 2nd message is not processed yet
-    assertEquals(4, consumerTopicPartition.getOffsets().size());
+    assertEquals(4, consumerBucket.getOffsetsCount());
+    assertEquals(1, consumerBucket.getOffsetsToBeCommited().get(topicPartition0).offset());
     assertEquals(1, consumerBucket.getOffsetsCompletedCount());
 
     // 2nd messages was completed
     triggerer.releaseCompletedOffset(consumerBucket, topicPartition0, 1);
 
     // can commit 2nd and 3rd message
-    assertEquals(2, consumerTopicPartition.getOffsets().size());
+    assertEquals(2, consumerBucket.getOffsetsCount());
+    assertEquals(3, consumerBucket.getOffsetsToBeCommited().get(topicPartition0).offset());
     assertEquals(0, consumerBucket.getOffsetsCompletedCount());
   }
+
+  @Test
+  void tasksAreTriggeredInSameProcessOnlyWhenIdle() {
+    KafkaTasksExecutionTriggerer triggerer = new KafkaTasksExecutionTriggerer();
+    GlobalProcessingState globalProcessingState = new GlobalProcessingState();
+    GlobalProcessingState.Bucket bucket = new GlobalProcessingState.Bucket(0, 10).setBucketId("default");
+    globalProcessingState.getBuckets().put("default", bucket);
+    ReflectionTestUtils.setField(triggerer, "globalProcessingState", globalProcessingState);
+
+    SimpleTaskConcurrencyPolicy concurrencyPolicy = new SimpleTaskConcurrencyPolicy(1);
+    ITaskHandler taskHandler = mock(ITaskHandler.class);
+    when(taskHandler.getProcessingPolicy(any())).thenReturn(new SimpleTaskProcessingPolicy());
+    when(taskHandler.getConcurrencyPolicy(any())).thenReturn(concurrencyPolicy);
+    BaseTask task = new BaseTask().setType("A");
+    BucketProperties bucketProperties = new BucketProperties().setTriggerInSameProcessWhenIdleThreshold(2);
+
+    assertTrue(triggerer.isIdleForTask(taskHandler, task, "default", bucketProperties));
+    assertFalse(triggerer.isIdleForTask(taskHandler, task, "default", new BucketProperties().setTriggerInSameProcessWhenIdleThreshold(0)));
+
+    bucket.getSize().set(2);
+    assertFalse(triggerer.isIdleForTask(taskHandler, task, "default", bucketProperties));
+
+    bucket.getSize().set(1);
+    concurrencyPolicy.bookSpaceForTask(task);
+    assertFalse(triggerer.isIdleForTask(taskHandler, task, "default", bucketProperties));
+  }
+
+  @Test
+  void partitionsArePausedWhileFetchedTriggeringsDoNotFit() {
+    KafkaTasksExecutionTriggerer triggerer = new KafkaTasksExecutionTriggerer();
+    ITasksProcessingService tasksProcessingService = mock(ITasksProcessingService.class);
+    when(tasksProcessingService.addTaskForProcessing(any()))
+        .thenReturn(new AddTaskForProcessingResponse().setResult(ResultCode.OK))
+        .thenReturn(new AddTaskForProcessingResponse().setResult(ResultCode.FULL));
+    ReflectionTestUtils.setField(triggerer, "tasksProcessingService", tasksProcessingService);
+    ReflectionTestUtils.setField(triggerer, "tasksProperties", new TasksProperties());
+    ReflectionTestUtils.setField(triggerer, "meterHelper", new NoOpMeterHelper());
+
+    TopicPartition topicPartition = new TopicPartition("FancyTopic", 0);
+    MockConsumer<String, String> kafkaConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    kafkaConsumer.assign(Collections.singletonList(topicPartition));
+    ConsumerBucket consumerBucket = new ConsumerBucket().setBucketId("default").setKafkaConsumer(kafkaConsumer);
+    for (int i = 0; i < 3; i++) {
+      consumerBucket.getFetchedTriggerings().add(new TaskTriggering().setTask(new BaseTask().setType("A")).setOffset(i)
+          .setTopicPartition(topicPartition));
+    }
+
+    assertFalse(triggerer.addFetchedTriggerings(consumerBucket));
+    assertEquals(2, consumerBucket.getUnprocessedFetchedRecordsCount());
+
+    triggerer.pausePartitions(consumerBucket);
+    assertTrue(consumerBucket.isPaused());
+    assertEquals(Collections.singleton(topicPartition), kafkaConsumer.paused());
+
+    when(tasksProcessingService.addTaskForProcessing(any())).thenReturn(new AddTaskForProcessingResponse().setResult(ResultCode.OK));
+    assertTrue(triggerer.addFetchedTriggerings(consumerBucket));
+    assertEquals(0, consumerBucket.getUnprocessedFetchedRecordsCount());
+
+    triggerer.resumePartitions(consumerBucket);
+    assertFalse(consumerBucket.isPaused());
+    assertTrue(kafkaConsumer.paused().isEmpty());
+  }
+
+  @Test
+  void droppedTriggeringsDoNotHoldBackCommitsAfterReassignment() {
+    KafkaTasksExecutionTriggerer triggerer = new KafkaTasksExecutionTriggerer();
+    ITasksProcessingService tasksProcessingService = mock(ITasksProcessingService.class);
+    when(tasksProcessingService.addTaskForProcessing(any()))
+        .thenReturn(new AddTaskForProcessingResponse().setResult(ResultCode.OK))
+        .thenReturn(new AddTaskForProcessingResponse().setResult(ResultCode.FULL));
+    ReflectionTestUtils.setField(triggerer, "tasksProcessingService", tasksProcessingService);
+    ReflectionTestUtils.setField(triggerer, "tasksProperties", new TasksProperties());
+    ReflectionTestUtils.setField(triggerer, "meterHelper", new NoOpMeterHelper());
+
+    TopicPartition topicPartition = new TopicPartition("FancyTopic", 0);
+    MockConsumer<String, String> kafkaConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    kafkaConsumer.assign(Collections.singletonList(topicPartition));
+    ConsumerBucket consumerBucket = new ConsumerBucket().setBucketId("default").setKafkaConsumer(kafkaConsumer);
+    for (int i = 0; i < 3; i++) {
+      triggerer.registerPolledOffset(consumerBucket, topicPartition, i);
+      consumerBucket.getFetchedTriggerings().add(new TaskTriggering().setTask(new BaseTask().setType("A")).setOffset(i)
+          .setTopicPartition(topicPartition));
+    }
+    assertFalse(triggerer.addFetchedTriggerings(consumerBucket));
+    triggerer.releaseCompletedOffset(consumerBucket, topicPartition, 0);
+
+    triggerer.closeKafkaConsumer(consumerBucket);
+
+    assertEquals(0, consumerBucket.getUnprocessedFetchedRecordsCount());
+    assertEquals(0, consumerBucket.getOffsetsCount());
+
+    // Another node processed the dropped offsets meanwhile, and the partition comes back at a later offset.
+    consumerBucket.setKafkaConsumer(new MockConsumer<>(OffsetResetStrategy.EARLIEST));
+    triggerer.registerPolledOffset(consumerBucket, topicPartition, 10);
+    triggerer.releaseCompletedOffset(consumerBucket, topicPartition, 10);
+
+    assertEquals(11, consumerBucket.getOffsetsToBeCommited().get(topicPartition).offset());
+  }
+
+  @Test
+  void revokedPartitionsAreReleased() {
+    KafkaTasksExecutionTriggerer triggerer = new KafkaTasksExecutionTriggerer();
+    ITasksProcessingService tasksProcessingService = mock(ITasksProcessingService.class);
+    ReflectionTestUtils.setField(triggerer, "tasksProcessingService", tasksProcessingService);
+    TopicPartition topicPartition0 = new TopicPartition("FancyTopic", 0);
+    TopicPartition topicPartition1 = new TopicPartition("FancyTopic", 1);
+    ConsumerBucket consumerBucket = new ConsumerBucket();
+    for (TopicPartition topicPartition : Arrays.asList(topicPartition0, topicPartition1)) {
+      triggerer.registerPolledOffset(consumerBucket, topicPartition, 0);
+      consumerBucket.getFetchedTriggerings().add(new TaskTriggering().setTask(new BaseTask().setType("A")).setOffset(0)
+          .setTopicPartition(topicPartition));
+    }
+
+    triggerer.releasePartitions(consumerBucket, Collections.singletonList(topicPartition0));
+
+    assertEquals(1, consumerBucket.getUnprocessedFetchedRecordsCount());
+    assertEquals(topicPartition1, consumerBucket.getFetchedTriggerings().peek().getTopicPartition());
+    assertEquals(Collections.singleton(topicPartition1), consumerBucket.getOffsetsTrackers().keySet());
+
+    ArgumentCaptor<Predicate<TaskTriggering>> setAsideTriggerings = ArgumentCaptor.forClass(Predicate.class);
+    verify(tasksProcessingService).removeSetAsideTaskTriggerings(setAsideTriggerings.capture());
+    assertTrue(setAsideTriggerings.getValue().test(new TaskTriggering().setTopicPartition(topicPartition0)));
+    assertFalse(setAsideTriggerings.getValue().test(new TaskTriggering().setTopicPartition(topicPartition1)));
+  }
 }
@@ -0,0 +1,247 @@
+package com.transferwise.tasks.triggering;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class PartitionOffsetsTrackerTest {
+
+  @Test
+  void watermarkMovesOverCompletedOffsets() {
+    PartitionOffsetsTracker tracker = new PartitionOffsetsTracker();
+    for (long offset = 100; offset < 105; offset++) {
+      tracker.register(offset);
+    }
+    assertEquals(-1, tracker.getOffsetToBeCommitted());
+
+    assertTrue(tracker.complete(101));
+    assertEquals(-1, tracker.getOffsetToBeCommitted());
+    assertEquals(1, tracker.getOffsetsCompletedCount());
+
+    assertTrue(tracker.complete(100));
+    assertEquals(102, tracker.getOffsetToBeCommitted());
+    assertEquals(3, tracker.getOffsetsCount());
+    assertEquals(0, tracker.getOffsetsCompletedCount());
+
+    assertFalse(tracker.complete(100));
+    assertFalse(tracker.complete(105));
+
+    tracker.markCommitted(102);
+    assertEquals(-1, tracker.getOffsetToBeCommitted());
+  }
+
+  @Test
+  void watermarkMovesOverGapsAndSegments() {
+    PartitionOffsetsTracker tracker = new PartitionOffsetsTracker();
+    tracker.register(10);
+    tracker.register(20_000);
+    tracker.register(20_001);
+
+    tracker.complete(20_000);
+    tracker.complete(10);
+    assertEquals(20_001, tracker.getOffsetToBeCommitted());
+
+    tracker.complete(20_001);
+    assertEquals(20_002, tracker.getOffsetToBeCommitted());
+    assertEquals(0, tracker.getOffsetsCount());
+
+    // A jump after a rebalance, nothing is in flight.
+    tracker.register(5_000_000_000L);
+    assertEquals(5_000_000_000L, tracker.getWatermark());
+    tracker.complete(5_000_000_000L);
+    assertEquals(5_000_000_001L, tracker.getOffsetToBeCommitted());
+  }
+
+  @Test
+  void repolledOffsetHasToBeCompletedAgain() {
+    PartitionOffsetsTracker tracker = new PartitionOffsetsTracker();
+    tracker.register(0);
+    tracker.register(1);
+    tracker.complete(1);
+
+    tracker.register(1);
+    assertEquals(0, tracker.getOffsetsCompletedCount());
+
+    tracker.complete(0);
+    assertEquals(1, tracker.getOffsetToBeCommitted());
+    tracker.complete(1);
+    assertEquals(2, tracker.getOffsetToBeCommitted());
+
+    // Below the watermark, it has been commited already.
+    assertFalse(tracker.register(1));
+  }
+
+  /**
+   * Runs random registrations and completions against the TreeSet based bookkeeping the tracker replaced.
+   */
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void behavesLikeSortedSetBookkeeping(boolean withGaps) {
+    for (int seed = 0; seed < 50; seed++) {
+      Random random = new Random(seed);
+      PartitionOffsetsTracker tracker = new PartitionOffsetsTracker();
+      ReferenceTracker reference = new ReferenceTracker();
+      List<Long> inFlight = new ArrayList<>();
+      List<Long> popped = new ArrayList<>();
+
+      long nextOffset = random.nextInt(10_000);
+      for (int i = 0; i < 20_000; i++) {
+        int op = random.nextInt(100);
+        if (op < 45 || inFlight.isEmpty()) {
+          if (withGaps && random.nextInt(10) == 0) {
+            nextOffset += 1 + random.nextInt(random.nextBoolean() ? 3 : 10_000);
+          }
+          tracker.register(nextOffset);
+          reference.register(nextOffset);
+          inFlight.add(nextOffset++);
+        } else if (op < 95) {
+          long offset = inFlight.remove(random.nextInt(inFlight.size()));
+          assertTrue(tracker.complete(offset));
+          reference.complete(offset);
+          popped.add(offset);
+        } else if (op < 98) {
+          Long offset = reference.offsets.isEmpty() ? null : reference.offsets.ceiling(reference.offsets.first() + random.nextInt(100));
+          if (offset != null) {
+            tracker.register(offset);
+            reference.register(offset);
+            if (!inFlight.contains(offset)) {
+              inFlight.add(offset);
+            }
+          }
+        } else if (!popped.isEmpty()) {
+          long offset = popped.get(random.nextInt(popped.size()));
+          if (!reference.offsets.contains(offset)) {
+            assertFalse(tracker.complete(offset));
+          }
+        }
+
+        assertEquals(reference.offsets.size(), tracker.getOffsetsCount());
+        assertEquals(reference.completed.size(), tracker.getOffsetsCompletedCount());
+        if (withGaps) {
+          long upperBound = reference.offsets.isEmpty() ? nextOffset : reference.offsets.first();
+          assertThat(tracker.getOffsetToBeCommitted()).isBetween(reference.offsetToBeCommitted, upperBound);
+        } else {
+          assertEquals(reference.offsetToBeCommitted, tracker.getOffsetToBeCommitted());
+        }
+      }
+    }
+  }
+
+  @Test
+  void concurrentCompletionsMoveWatermarkToTheEnd() throws Exception {
+    int threadsCount = 8;
+    int offsetsCount = 200_000;
+    ExecutorService executorService = Executors.newFixedThreadPool(threadsCount);
+    try {
+      for (int round = 0; round < 5; round++) {
+        PartitionOffsetsTracker tracker = new PartitionOffsetsTracker();
+        List<Long> offsets = new ArrayList<>();
+        for (long offset = 0; offset < offsetsCount; offset++) {
+          tracker.register(offset);
+          offsets.add(offset);
+        }
+        Collections.shuffle(offsets, new Random(round));
+
+        CountDownLatch latch = new CountDownLatch(threadsCount);
+        for (int t = 0; t < threadsCount; t++) {
+          int finalT = t;
+          executorService.submit(() -> {
+            for (int i = finalT; i < offsetsCount; i += threadsCount) {
+              tracker.complete(offsets.get(i));
+            }
+            latch.countDown();
+          });
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+
+        assertEquals(offsetsCount, tracker.getOffsetToBeCommitted());
+        assertEquals(0, tracker.getOffsetsCount());
+        assertEquals(0, tracker.getOffsetsCompletedCount());
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  void outOfOrderCompletionsWithinWindowMoveWatermarkToTheEnd() {
+    int offsetsCount = 20_000;
+    PartitionOffsetsTracker tracker = new PartitionOffsetsTracker();
+
+    runOutOfOrderCompletions(offsetsCount, 1_000, new Random(0), tracker::register, tracker::complete);
+
+    assertEquals(offsetsCount, tracker.getOffsetToBeCommitted());
+    assertEquals(0, tracker.getOffsetsCount());
+    assertEquals(0, tracker.getOffsetsCompletedCount());
+  }
+
+  private void runOutOfOrderCompletions(int offsetsCount, int window, Random random, OffsetConsumer register, OffsetConsumer complete) {
+    List<Long> inFlight = new ArrayList<>();
+    for (long offset = 0; offset < offsetsCount; offset++) {
+      register.accept(offset);
+      inFlight.add(offset);
+      if (inFlight.size() == window) {
+        for (int i = 0; i < window / 2; i++) {
+          int idx = random.nextInt(inFlight.size());
+          long completed = inFlight.get(idx);
+          inFlight.set(idx, inFlight.get(inFlight.size() - 1));
+          inFlight.remove(inFlight.size() - 1);
+          complete.accept(completed);
+        }
+      }
+    }
+    for (long offset : inFlight) {
+      complete.accept(offset);
+    }
+  }
+
+  private interface OffsetConsumer {
+
+    void accept(long offset);
+  }
+
+  /**
+   * The bookkeeping KafkaTasksExecutionTriggerer used before.
+   */
+  private static class ReferenceTracker {
+
+    private final TreeSet<Long> offsets = new TreeSet<>();
+    private final Set<Long> completed = new HashSet<>();
+    private long offsetToBeCommitted = -1;
+
+    synchronized void register(long offset) {
+      completed.remove(offset);
+      offsets.add(offset);
+    }
+
+    synchronized void complete(long offset) {
+      if (!offsets.contains(offset)) {
+        return;
+      }
+      completed.add(offset);
+      if (offsets.first() == offset) {
+        while (!offsets.isEmpty() && completed.contains(offsets.first())) {
+          long firstOffset = offsets.pollFirst();
+          completed.remove(firstOffset);
+          offsetToBeCommitted = firstOffset + 1;
+        }
+      }
+    }
+  }
+}
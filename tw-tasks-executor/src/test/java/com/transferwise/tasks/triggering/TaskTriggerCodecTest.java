@@ -0,0 +1,77 @@
+package com.transferwise.tasks.triggering;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.transferwise.tasks.TasksProperties.TriggerMessageFormat;
+import com.transferwise.tasks.domain.BaseTask;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class TaskTriggerCodecTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  @ParameterizedTest
+  @EnumSource(TriggerMessageFormat.class)
+  void triggersCanBeDecodedInAnyFormat(TriggerMessageFormat format) {
+    BaseTask[] tasks = {
+        new BaseTask().setId(UUID.randomUUID()).setType("SEND_EMAIL").setVersion(0).setPriority(5),
+        new BaseTask().setId(UUID.randomUUID()).setType("\u00dclesanne \u2713").setVersion(Long.MAX_VALUE).setPriority(Integer.MIN_VALUE),
+        new BaseTask().setId(new UUID(0, 0)).setType("").setVersion(300).setPriority(-1),
+        new BaseTask().setId(UUID.randomUUID()).setVersion(1).setPriority(Integer.MAX_VALUE),
+        new BaseTask().setId(UUID.randomUUID()).setType("SEND_EMAIL").setVersion(2).setPriority(5).setOrderingKey("profile-1"),
+        new BaseTask().setId(UUID.randomUUID()).setType("SEND_EMAIL").setVersion(0).setPriority(5).setOrderingKey("")
+    };
+
+    for (BaseTask task : tasks) {
+      String message = TaskTriggerCodec.encode(objectMapper, task, format);
+
+      assertEquals(task, TaskTriggerCodec.decode(objectMapper, message));
+    }
+  }
+
+  @Test
+  void jsonFromOlderNodesIsDetected() {
+    BaseTask task = TaskTriggerCodec.decode(objectMapper,
+        " {\"id\":\"5d0d3fe6-6d6c-4c2e-9c8a-2a4e4b6e1a11\",\"type\":\"A\",\"version\":2,\"priority\":5}");
+
+    assertEquals(UUID.fromString("5d0d3fe6-6d6c-4c2e-9c8a-2a4e4b6e1a11"), task.getId());
+    assertEquals("A", task.getType());
+    assertEquals(2, task.getVersion());
+    assertEquals(5, task.getPriority());
+  }
+
+  @Test
+  void unknownBinaryFormatVersionIsRejected() {
+    byte[] data = TaskTriggerCodec.encodeBinary(new BaseTask().setId(UUID.randomUUID()).setType("A"));
+    data[0] = 3;
+    String message = Base64.getEncoder().encodeToString(data);
+
+    assertThrows(IllegalStateException.class, () -> TaskTriggerCodec.decode(objectMapper, message));
+  }
+
+  @Test
+  void orderingKeyIsOnlyWrittenWhenPresent() {
+    BaseTask task = new BaseTask().setId(UUID.randomUUID()).setType("A");
+
+    assertEquals(1, TaskTriggerCodec.encodeBinary(task)[0]);
+    assertEquals(2, TaskTriggerCodec.encodeBinary(task.setOrderingKey("a"))[0]);
+  }
+
+  @Test
+  void binaryFormatIsSmaller() {
+    BaseTask task = new BaseTask().setId(UUID.randomUUID()).setType("SEND_PAYOUT_NOTIFICATION").setVersion(3).setPriority(5);
+    int jsonSize = TaskTriggerCodec.encode(objectMapper, task, TriggerMessageFormat.JSON).getBytes(StandardCharsets.UTF_8).length;
+    int binarySize = TaskTriggerCodec.encode(objectMapper, task, TriggerMessageFormat.BINARY).getBytes(StandardCharsets.UTF_8).length;
+
+    assertThat(binarySize).isLessThan(jsonSize / 2);
+  }
+}